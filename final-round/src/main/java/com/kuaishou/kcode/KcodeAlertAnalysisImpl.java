@@ -1,24 +1,42 @@
 package com.kuaishou.kcode;
 
 import com.kuaishou.kcode.domain.*;
+import com.kuaishou.kcode.domain.fuc.AlarmEncoder;
+import com.kuaishou.kcode.domain.fuc.AlarmListener;
 import com.kuaishou.kcode.domain.fuc.ComputingAccessory;
+import com.kuaishou.kcode.domain.fuc.GzipBlockReader;
+import com.kuaishou.kcode.domain.fuc.LineParser;
 import com.kuaishou.kcode.domain.fuc.ParsingAccessory;
+import com.kuaishou.kcode.domain.fuc.PathAnswerEncoder;
+import com.kuaishou.kcode.domain.fuc.RecordSchema;
+import com.kuaishou.kcode.domain.fuc.SchemaLineParser;
+import com.kuaishou.kcode.domain.fuc.SegmentChannel;
+import com.kuaishou.kcode.domain.fuc.SwarLineParser;
 import com.kuaishou.kcode.domain.kv.Q2Key;
 import com.kuaishou.kcode.domain.kv.ServiceIpPair;
-import com.kuaishou.kcode.domain.kv.ServiceIpPairAnswer;
 import com.kuaishou.kcode.domain.kv.ServicePair;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.RandomAccessFile;
+import java.io.*;
+import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @team 辰海飞燕
@@ -43,41 +61,128 @@ import java.util.concurrent.LinkedBlockingDeque;
  * @paper 7-15 将数据解析提取出来，添加一条流水线，构成读取->解析->计算流水线(ok)
  * @paper 7-16 使用查询的所有属性计算哈希值作为 key，动态的找出一个适合的令其不冲突的魔数(ok)
  * @paper 7-16 加入第二阶段查询预热(ok)
+ * @paper 7-18 流式报警模式，每分钟计算完成后立即检查规则并推送报警，不必等整个文件读完(ok)
+ * @paper 7-18 借鉴初赛的 mmap 分片，多线程分片读取并在分钟边界上合并碎片，读取能随核数扩展(ok)
+ * @paper 7-19 可选的直方图 PairData，不再保存所有耗时，服务对汇总只需要合并桶(ok)
+ * @paper 7-19 可选的堆外分钟列存，流水线按服务 IP 对稠密索引读写，每条记录不分配对象(ok)
+ * @paper 7-20 答案快照，准备完成后落盘，同一个文件再次调用直接 mmap 快照，重启只需要毫秒级(ok)
+ * @paper 7-20 多段输入，滚动的日志段(或目录)拼接成一条连续的时间线，分片模式下不同段可以同时解析(ok)
+ * @paper 7-20 规则索引，按调用者、响应者以及服务对索引主被调 IP 对，规则只检查匹配的 IP 对(ok)
+ * @paper 7-20 规则之间互不影响，多线程按块领取规则并行检查，各块有自己的输出，最后按规则顺序拼接(ok)
+ * @paper 7-20 报警字符串按字节编码，服务名以及 IP 字节每个 IP 对只生成一次，不再使用 StringBuilder(ok)
+ * @paper 7-21 去掉 100 分钟的上限，分钟算完立即归档成紧凑的 P99 + SR，服务对原始数据只在计算时存活，内存不随时长增长(ok)
+ * @paper 7-21 阶段 2 答案可以按需拼接，准备时只保留每个节点的最长链，查询过的答案放进 LRU(ok)
+ * @paper 7-21 魔数查询换成最小完美哈希(hash and displace)，O(n) 构建，n 个槽，查询校验 Key，不存在返回空列表(ok)
+ * @paper 7-21 整数查询接口，服务以及时间提前换成 ID，按 (服务对, 分钟, 类型) 平铺答案，支持批量查询(ok)
+ * @paper 7-22 动态调用图，一阶段之后出现的服务以及 IP 对也会被登记，新边只增量更新受影响节点的最长链(ok)
+ * @paper 7-22 最长链改成共享后缀的 DAG，每个节点只记最长链上的后继，答案拼接时再列举，内存只和边数有关(ok)
+ * @paper 7-22 阶段 2 的(服务对, 分钟)答案互不影响，fork-join 并行拼接，各自写入预先划分好的位置，最后按顺序登记(ok)
+ * @paper 7-22 同一服务对的链前缀只拼接一次并在所有分钟共享，答案只保存按字节编码的后缀，取出时才生成字符串(ok)
+ * @paper 7-22 关键链查询，按某一分钟 P99 之和做 DAG 上的前 k 重链 DP，找出经过某个服务对最慢的调用链(ok)
+ * @paper 7-23 调用图可以有环(重试环、互相调用、自调用)，Tarjan 缩点后在 DAG 上求最长链，环上的边不参与延伸(ok)
+ * @paper 7-23 前向星的边不再是对象，一次性的遍历压缩成 CSR 图，邻接点连续存放，无环时用 CSR 拓扑序代替 Tarjan(ok)
+ * @paper 7-23 SWAR 解析，一次读 8 个字节找分隔符，IP、耗时以及时间特征值用乘法合成，解析线程以及分片不再逐字节判断(ok)
+ * @paper 7-23 流水线零拷贝，剩下的部分直接 mmap，按块切片交给解析线程，窗口从半条记录处重新映射，不再有块拷贝(ok)
+ * @paper 7-23 记录格式可以声明(或者写在文件第一行)，通用解析器按声明解析，IP 可以是 IPv6，第一块确认了格式假设才走 SWAR(ok)
+ * @paper 7-24 乱序窗口可以超过一分钟，分钟数据区域改成环，水位线超过窗口才关闭分钟，超出窗口的记录丢弃并计数(ok)
+ * @paper 7-24 gzip 输入边解压边读取，BGZF 式的多成员 gzip 按成员并行解压，解压后的块切片交给流水线(ok)
  *
  */
 @SuppressWarnings({"StatementWithEmptyBody", "unchecked"})
 public class KcodeAlertAnalysisImpl implements KcodeAlertAnalysis {
 
     /* ---------------- 界限值 ---------------- */
-    private final int DATA_BUFFER_LIMIT = 3;            /* 数据缓冲池的最大数量 */
     private final int READ_BLOCK_LIMIT = 2;             /* 读取块最大数量，要注意内存的使用 */
+    private final int SNAPSHOT_MAGIC = 0x4B534E50;      /* 快照魔数 "KSNP"，头尾各一个 */
+    private final int SNAPSHOT_VERSION = 5;             /* 快照格式版本，格式变化时递增 */
+    private final int SHARD_MAP_LIMIT = 1 << 30;        /* 分片单次 mmap 的最大字节数 */
+    private final int PIPELINE_MAP_LIMIT = 1 << 30;     /* 流水线单次 mmap 的最大字节数 */
+    private final int PIPELINE_BLOCK_SIZE = 256 << 10;  /* 流水线每次交给解析工厂的数据块大小 */
+    private final int RULE_CHUNK = 16;                  /* 并行检查规则时每次领取的规则数 */
+    private final int LONGEST_PATH_CHUNK = 64;          /* 并行拼接阶段 2 答案时不再拆分的(服务对, 分钟)数 */
+    private final int WARMUP_QUERY_LIMIT = 1 << 24;     /* 阶段 2 查询预热的总查询次数上限 */
 
     /* ---------------- 类型 ---------------- */
-    private final int TYPE_P99 = 3;
-    private final int TYPE_SR = 2;
-
-    /* ---------------- 快速查询 ---------------- */
-    private int MAGIC_FAST_QUERY;       /* 动态魔数，用于阶段 2 查询 */
+    private final int TYPE_P99 = AlertRule.TYPE_P99;
+    private final int TYPE_SR = AlertRule.TYPE_SR;
 
     /* ---------------- 多线程 ---------------- */
     private BlockingQueue<ParsingAccessory> readingQueue = new LinkedBlockingDeque<>(READ_BLOCK_LIMIT);
     private BlockingQueue<ParsingAccessory> parsingQueue = new LinkedBlockingDeque<>(READ_BLOCK_LIMIT);
     private BlockingQueue<ComputingAccessory> computingQueue = new LinkedBlockingDeque<>(100);
+    private BlockingQueue<Map<Integer, PairData>> dataBufferQueue
+            = new LinkedBlockingDeque<>();      /* 空闲的数据缓冲，计算完成后才归还，避免复用正在计算的数据 */
+    private CountDownLatch parsingLatch = new CountDownLatch(1);
     private CountDownLatch computingLatch = new CountDownLatch(1);
-    private int currComputingTimeIndex = 1;
+    private int currComputingTimeIndex = 1;        /* 最早的还没有关闭的分钟 */
+    private volatile RuntimeException pipelineFailure;  /* 解析线程或者计算线程中的错误，流水线结束时交给调用者 */
+    private boolean pipelineStopped;                /* 解析线程和计算线程是否已经收到停止信号 */
+    private int nrIngestShards = 1;                 /* mmap 分片数量，> 1 时使用多线程分片读取代替流水线 */
+    private int nrRuleWorkers = Runtime.getRuntime().availableProcessors();     /* 并行检查规则的线程数 */
+    private int nrLongestPathWorkers = Runtime.getRuntime().availableProcessors();  /* 并行拼接阶段 2 答案的线程数 */
+    private int nrDecompressWorkers = Runtime.getRuntime().availableProcessors();   /* 并行解压 gzip 成员的线程数 */
+
+    /* ---------------- 数据模式 ---------------- */
+    private boolean histogramPairData;              /* PairData 使用直方图，而不是耗时列表 */
+    private boolean offHeapMinuteStore;             /* 流水线使用堆外分钟列存，而不是 PairData 映射 */
+    private OffHeapMinuteStore minuteStore;         /* 堆外分钟列存，一阶段之后初始化 */
+    private FlyanIntIntMap pairIndexMap;            /* 服务 IP 对 -> 稠密索引(serviceIpPairs 中的位置)，一阶段之后建立 */
+    private FlyanIntIntMap storePairIndexMap;       /* 堆外列存中的服务 IP 对 -> 稠密索引，建立后不再变化，解析线程只读 */
+    private int[] storeZones;                       /* 堆外模式下的分钟数据区域环 */
+    private BlockingQueue<Integer> storeZoneQueue
+            = new LinkedBlockingDeque<>();      /* 堆外模式下空闲的数据区域 */
+
+    /* ---------------- 乱序窗口 ---------------- */
+    private int reorderWindow = 1;                  /* 乱序窗口(分)，记录最多比出现过的最大分钟晚这么多 */
+    private int nrDataZones;                        /* 同时存活的分钟数据区域：reorderWindow + 1 */
+    private int nrDataBuffers;                      /* 数据缓冲池的大小：存活的区域 + 一个正在计算的 */
+    private int watermarkMinute;                    /* 水位线：流水线中出现过的最大分钟 */
+    private long lateRecordCount;                   /* 超出乱序窗口被丢弃的记录数 */
+
+    /* ---------------- 记录格式 ---------------- */
+    private RecordSchema recordSchema = RecordSchema.DEFAULT;  /* 记录格式，文件第一行的声明优先 */
+    private boolean swarParsing;                    /* 第一块满足 SWAR 解析的所有假设 */
+    private IpTable ipTable;                        /* 通用解析时的 IP 编号表，SWAR 解析时为 null */
+
+    /* ---------------- 快照 ---------------- */
+    private String snapshotPath;                    /* 快照文件路径，null 表示不使用快照 */
+    private boolean snapshotRestored;               /* 本次是否从快照恢复 */
+
+    /* ---------------- 流式报警 ---------------- */
+    private AlarmListener alarmListener;            /* 不为 null 时开启流式模式 */
+    private List<AlertRule> streamingRules;         /* 流式模式下预先解析好的规则 */
+    private Collection<String> streamingRuleTexts;  /* 流式模式下的规则字符串，出现新服务时重新解析 */
+    private DateFormat streamingDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+    private AlarmEncoder streamingEncoder = new AlarmEncoder();     /* 流式报警只在一个线程中按顺序检查 */
+    private long originMinute;                      /* 第一条记录的时间(分)，分钟索引 = 毫秒 / 60000 - originMinute */
 
     /* ---------------- 答案 ---------------- */
-    private Map<ServiceIpPair, ServiceIpPairAnswer[]> serviceIpPairAnswerMap = new HashMap<>(
+    private Map<ServiceIpPair, MinuteArchive> serviceIpPairAnswerMap = new HashMap<>(
             500, 0.5f
-    );
-    private Map<Integer, PairData>[] serviceIpPairDataMap
-            = new Map[2];  /* 服务 IP 对数据，时间有交叉分支，所以需要数组 */
+    );  /* 主被调 IP 对每分钟的答案 */
+    private Map<Integer, PairData>[] serviceIpPairDataMap;     /* 服务 IP 对数据，乱序窗口内的分钟组成一个环 */
     private List<String> alarmAnswer = new ArrayList<>(300);
-    private Map<Integer, Map<Integer, PairData[]>> servicePairData = new HashMap<>(
+    private Map<Integer, Map<Integer, MinuteArchive>> servicePairArchive = new HashMap<>(
             300, 0.5f
-    );  /* 服务对数据 */
+    );  /* 服务对每分钟的答案，阶段 2 使用 */
+    private ThreadLocal<Map<MinuteArchive, PairData>> servicePairScratch
+            = ThreadLocal.withInitial(HashMap::new);    /* 服务对汇总数据，每个计算线程复用自己的一份 */
     private Map<Q2Key, List<String>> longestPathAnswer = new HashMap<>(500, 0.5f);
-    private List<String>[] magicLongestPathAnswer;     /* 阶段 2 答案，将在之后初始化 */
+    private Q2AnswerTable longestPathTable;            /* 阶段 2 答案的最小完美哈希表，将在之后初始化 */
+    private MappedAnswerTable snapshotAnswerTable;     /* 从快照恢复时，阶段 2 的答案直接从快照中读取 */
+    private int lazyLongestPathLimit;                   /* > 0 时阶段 2 的答案按需拼接，最多缓存这么多个答案 */
+    private Map<Q2Key, List<String>> lazyLongestPathCache;     /* 按需拼接的答案，LRU */
+    private Map<Integer, PathPrefix> longestPathPrefixCache
+            = new ConcurrentHashMap<>();        /* 服务对 -> 所有最长链的前缀，拼接答案时共享 */
+    private LongestPaths longestPathsOfLeft;            /* 每个节点左边(入图)的所有最长链，一阶段后建立，之后增量维护 */
+    private LongestPaths longestPathsOfRight;           /* 每个节点右边(出图)的所有最长链 */
+    private StronglyConnectedComponents callGraphComponents;   /* 调用图的强连通分量(环组)，最长链释放后关键链查询使用 */
+    private int[] callGraphOrder;                       /* 调用方向上的拓扑序，同上 */
+    private CsrGraph outCsrGraph;                       /* 读取结束后压缩的出图，关键链查询使用 */
+    private CsrGraph inCsrGraph;                        /* 读取结束后压缩的入图 */
+    private Map<String, Integer> time2TimeIndex;        /* 时间字符串 -> 时间索引，整数查询以及懒加载模式使用 */
+    private FlyanIntIntMap longestPathPairIndex;        /* 服务对(调用者 * 节点数 + 响应者) -> 稠密索引，整数查询使用 */
+    private List<String>[] longestPathFlat;             /* 按 (稠密索引, 时间索引, 类型) 平铺的阶段 2 答案 */
 
 
     /* ---------------- 映射 ---------------- */
@@ -86,33 +191,29 @@ public class KcodeAlertAnalysisImpl implements KcodeAlertAnalysis {
     );  /* 服务节点（索引）映射表 */
     private String[] serviceTable;      /* 之后获取到相关值再进行初始化 */
     private int numberOfNode;           /* 节点数量 */
-    private int originTimeEigenvalue;   /* 第一条记录的时间特征值 */
     private int maxTimeIndex;           /* 最大时间索引 */
 
     /* ---------------- 数据 ---------------- */
     private Set<ServiceIpPair> serviceIpPairSet = new HashSet<>(500);
     private ServiceIpPair[] serviceIpPairs;
+    private Queue<ServiceIpPair> lateServiceIpPairs
+            = new ConcurrentLinkedQueue<>();    /* 一阶段之后才出现的主被调 IP 对，解析线程发现，计算线程登记 */
+    private volatile boolean lateServiceIpPairSeen; /* 流水线中是否出现过迟到的主被调 IP 对 */
     private Set<ServicePair> servicePairSet = new HashSet<>(300);
     private String[] timeIndex2StringTable;                     /* 时间索引 -> 字符串 */
+    private byte[][] timeIndex2BytesTable;                      /* 时间索引 -> 字节，报警编码使用 */
     private Graph outGraph = new Graph();                       /* 出图，有向无权图 */
     private Graph inGraph = new Graph();                        /* 入图 */
     private int nextNode;
     private Set<Integer> dimRulesOfCaller = new HashSet<>(100);             /* 模糊报警规则 */
     private Set<Integer> dimRulesOfResponder = new HashSet<>(100);             /* 模糊报警规则 */
     private Set<Integer> servicePairRules = new HashSet<>(100);     /* 准确报警规则 */
-    private Map<Integer, PairData>[] serviceIpPairDataBuffer
-            = new Map[DATA_BUFFER_LIMIT];   /* 服务 IP 对数据缓冲池，为了复用数据 */
+    private List<ServiceIpPair>[] pairsOfCaller;                    /* 规则索引：调用者节点 -> 主被调 IP 对 */
+    private List<ServiceIpPair>[] pairsOfResponder;                 /* 规则索引：响应者节点 -> 主被调 IP 对 */
+    private Map<Integer, List<ServiceIpPair>> pairsOfServicePair;   /* 规则索引：服务对 -> 主被调 IP 对 */
+    private Map<Integer, PairData>[] serviceIpPairDataBuffer;  /* 服务 IP 对数据缓冲池，为了复用数据 */
 
     public KcodeAlertAnalysisImpl() {
-        /* 初始化服务 IP 对数据缓冲池 */
-        for(int i = 0; i < DATA_BUFFER_LIMIT; ++i) {
-            serviceIpPairDataBuffer[i] = new HashMap<>(500, 0.5f);
-        }
-
-        /* 初始化分钟交叉数据区域 */
-        serviceIpPairDataMap[0] = serviceIpPairDataBuffer[0];
-        serviceIpPairDataMap[1] = serviceIpPairDataBuffer[1];
-
         /* 解析线程(消费者) */
         new Thread(() -> {
             /* 读取属性 */
@@ -121,102 +222,81 @@ public class KcodeAlertAnalysisImpl implements KcodeAlertAnalysis {
             int success;
             int elapsedTime;
             int dataZone;
-            int startTimeEigenvalue, currTimeEigenvalue;
-            int nextPairData = 0;               /* 指向服务 IP 对数据缓冲池中的下一个空闲项 */
+            int minute;
+            int pairIndex, lineStart;
+            OffHeapMinuteStore store;
+            Map<Integer, PairData> zoneMap;
+            PairData data;
+            Set<Integer> lateIpPairs = new HashSet<>();     /* 已经交给计算线程登记的迟到 IP 对 */
             /* 数据块属性 */
-            byte[] handleBuffer;
+            ByteBuffer handleView;
             int handleIndex;
             int handleLength;
-            int num;
-            byte currByte;
+            LineParser parser;
             ParsingAccessory parsingAccessory;
             try{
-                /* 先初始化 currTimeEigenvalue，我们规定第一个传过来的解析配件必须携带此信息 */
-                currTimeEigenvalue = parsingQueue.take().getCurrTimeEigenvalue();
+                /* 第一个传过来的解析配件只用于同步：一阶段已经结束，它读到了第 0 ~ reorderWindow 分钟 */
+                if(parsingQueue.take().isStopSignal()) return;  /* 流水线还没开始就停止了，水位线已经由一阶段设置好 */
+                store = minuteStore;    /* 堆外模式在此之前已经准备好 */
+                parser = lineParserCreate();    /* 解析方式在此之前也已经确定 */
 
                 /* 等待解析配件，并解析数据 */
                 while ( !(parsingAccessory = parsingQueue.take()).isStopSignal() ) {
                     /* 初始化信息 */
-                    handleBuffer = parsingAccessory.getHandleBuffer();
                     handleLength = parsingAccessory.getHandleLength();
+                    handleView = parsingAccessory.getHandleView();
+
+                    /* 开始解析字节数据，出错之后不再解析，只归还配件，错误在流水线结束时交给调用者 */
+                    try {
+                        if(pipelineFailure == null) {
+                            handleIndex = 0;
+                            while (handleIndex < handleLength) {
+                                lineStart = handleIndex;
+                                handleIndex = parser.parse(handleView, handleIndex);
+                                callerIP = parser.getCallerIP();
+                                responderIP = parser.getResponderIP();
+                                success = parser.getSuccess();
+                                elapsedTime = parser.getElapsedTime();
+                                minute = (int) (parser.getTimeMillis() / 60000 - originMinute);
+                                if(minute > watermarkMinute) {
+                                    /* 水位线前进，比它早了超过窗口的分钟不会再有记录了，按顺序交给计算线程 */
+                                    while (currComputingTimeIndex < minute - reorderWindow) {
+                                        dataZone = currComputingTimeIndex % nrDataZones;
+                                        computingQueue.offer(new ComputingAccessory(serviceIpPairDataMap[dataZone], currComputingTimeIndex)
+                                                .setStoreZone(store != null ? storeZones[dataZone] : -1));
+                                        if(store != null) storeZones[dataZone] = storeZoneQueue.take();
+                                        serviceIpPairDataMap[dataZone] = dataBufferQueue.take();  /* 别忘了从数据缓冲池里拿新的 */
+                                        currComputingTimeIndex++;
+                                    }
+                                    watermarkMinute = minute;
+                                } else if(minute < currComputingTimeIndex) {
+                                    /* 超出乱序窗口，所在的分钟已经交给计算线程了 */
+                                    lateRecordCount++;
+                                    continue;
+                                }
+                                dataZone = minute % nrDataZones;
+
+                                /* 加入到数据区域，堆外模式下列存中没有的 IP 对(一阶段之后才出现)和堆内模式一样写入 PairData */
+                                if(store != null
+                                        && (pairIndex = storePairIndexMap.get((callerIP << 16) | responderIP)) >= 0) {
+                                    store.add(storeZones[dataZone], pairIndex, elapsedTime, success);
+                                } else {
+                                    zoneMap = serviceIpPairDataMap[dataZone];
+                                    if( (data = zoneMap.get((callerIP << 16) | responderIP)) == null ) {
+                                        /* 一阶段的 IP 对在所有缓冲中都有数据(或者在列存中)，没有说明是之后才出现的，交给计算线程登记 */
+                                        zoneMap.put((callerIP << 16) | responderIP, data = newPairData());
+                                        if(lateIpPairs.add((callerIP << 16) | responderIP)) {
+                                            lateServiceIpPairs.offer(parser.pairParse(handleView, lineStart));
+                                            lateServiceIpPairSeen = true;
+                                        }
+                                    }
+                                    data.add(elapsedTime, success);
+                                }
 
-                    /* 开始解析字节数据 */
-                    handleIndex = 0;
-                    while (handleIndex < handleLength) {
-                        /* 调用者 */
-                        handleIndex += 3;
-                        while ( (handleBuffer[handleIndex++]) != ',' ) {  }
-
-                        /* 调用者 IP */
-                        handleIndex += 4;       /* IP 前缀一定是 "10."  */
-                        callerIP = num = 0;
-                        while ( (handleBuffer[handleIndex++]) != '.' ) {  }
-                        while ( (currByte = handleBuffer[handleIndex++]) != ',' ) {
-                            if (currByte != '.') {
-                                num = num * 10 + currByte - '0';
-                            } else {
-                                callerIP |= num;    /* ip 某位 */
-                                callerIP <<= 8;
-                                num = 0;
                             }
                         }
-                        callerIP |= num;            /* ip 最后一位 */
-
-                        /* 响应者 */
-                        handleIndex += 3;
-                        while ( (handleBuffer[handleIndex++]) != ',' ) {  }
-
-                        /* 响应者 IP */
-                        handleIndex += 4;       /* IP 前缀一定是 "10."  */
-                        responderIP = num = 0;
-                        while ( (handleBuffer[handleIndex++]) != '.' ) {  }
-                        while ( (currByte = handleBuffer[handleIndex++]) != ',' ) {
-                            if (currByte != '.') {
-                                num = num * 10 + currByte - '0';
-                            } else {
-                                responderIP |= num;    /* ip 某位 */
-                                responderIP <<= 8;
-                                num = 0;
-                            }
-                        }
-                        responderIP |= num;            /* ip 最后一位 */
-
-                        /* 调用成功状态 */
-                        success = (handleBuffer[handleIndex] == 't' ? 1 : 0);
-                        handleIndex += (success == 1 ? 5 : 6);
-
-                        /* 调用耗时 */
-                        elapsedTime = 0;
-                        while ( (currByte = handleBuffer[handleIndex++]) >= '0' ) {
-                            elapsedTime = elapsedTime * 10 + currByte - '0';
-                        }
-
-                        /* 调用时间: 我们只取 4~8，一共 5 位，它作为特征值  */
-                        startTimeEigenvalue = 0;
-                        handleIndex += 4;
-                        startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                        startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                        startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                        startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                        startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                        handleIndex += 5;      /* 跳过后面的剩余 5 位 */
-
-                        /* 到了下一分钟？ */
-                        if(startTimeEigenvalue - currTimeEigenvalue == 6) {
-                            /* 计算 */
-                            dataZone = currComputingTimeIndex % 2;
-                            computingQueue.offer(new ComputingAccessory(serviceIpPairDataMap[dataZone], currComputingTimeIndex));
-                            if(DATA_BUFFER_LIMIT == nextPairData) nextPairData = 0; /* 重新开始复用 */
-                            serviceIpPairDataMap[dataZone] = serviceIpPairDataBuffer[nextPairData++];  /* 别忘了从数据缓冲池里拿新的 */
-                            /* 更新当前时间 */
-                            currComputingTimeIndex++;
-                            currTimeEigenvalue = startTimeEigenvalue;
-                        }
-
-                        /* 加入到数据区域 */
-                        serviceIpPairDataMap[((startTimeEigenvalue - originTimeEigenvalue) / 6) % 2]
-                                .get((callerIP << 16) | responderIP).add(elapsedTime, success);
-
+                    } catch (RuntimeException e) {
+                        pipelineFailure = e;
                     }
 
                     /* 解析完成，将这个数据配件返回到读取队列中 */
@@ -224,6 +304,8 @@ public class KcodeAlertAnalysisImpl implements KcodeAlertAnalysis {
                 }
             } catch (InterruptedException e){
                 e.printStackTrace();
+            } finally {
+                parsingLatch.countDown();
             }
         }).start();
 
@@ -233,29 +315,26 @@ public class KcodeAlertAnalysisImpl implements KcodeAlertAnalysis {
             int timeIndex;
             try{
                 while ( (computingAccessory = computingQueue.take()).getTimeIndex() != -1 ) {
-                    Map<Integer, PairData> onZone = computingAccessory.getDataMap();
                     timeIndex = computingAccessory.getTimeIndex();
-                    /* 遍历所有主被调 IP 对，它们将指引我们应该从哪拿到数据并计算 */
-                    for(ServiceIpPair sp : serviceIpPairs) {
-                        PairData data = onZone.get(sp.getIpPair());
-                        if(data != null && data.size() > 0) {
-                            /* 汇总服务对的数据，阶段 2 需要 */
-                            PairData[] sOnTime = servicePairData.get(serviceNodeMap.get(sp.getCaller()))
-                                    .get(serviceNodeMap.get(sp.getResponder()));
-                            PairData sdata = sOnTime[timeIndex];
-                            if(sdata == null) sdata = sOnTime[timeIndex] = new PairData();
-                            sdata.addAll(data);
-
-                            /* 添加答案 */
-                            ServiceIpPairAnswer[] onTime = serviceIpPairAnswerMap.get(sp);
-                            ServiceIpPairAnswer answer = onTime[timeIndex];
-                            if(answer == null) {
-                                answer = onTime[timeIndex] = new ServiceIpPairAnswer();
+                    lateServiceIpPairDrain();   /* 这一分钟里新出现的 IP 对已经在队列中了 */
+                    Map<Integer, PairData> onZone = computingAccessory.getDataMap();
+                    /* 出错之后不再计算，只归还数据区域，解析线程才不会阻塞在缓冲池上 */
+                    try {
+                        if(pipelineFailure == null) {
+                            if(computingAccessory.getStoreZone() >= 0) {
+                                storeAnswerCompute(timeIndex, computingAccessory.getStoreZone(), onZone);
+                            } else {
+                                pairAnswerCompute(timeIndex, onZone);
                             }
-                            answer.add(new ServiceIpPairAnswer.Answer(data.getP99(), data.getSuccessRate()
-                                    , sp.getCallerIp(), sp.getResponderIP()));
+                            /* 流式模式，这一分钟已经结束，马上检查规则 */
+                            if(alarmListener != null) streamingAlarmCompute(timeIndex);
                         }
+                    } catch (RuntimeException e) {
+                        pipelineFailure = e;
                     }
+                    /* 数据已经计算完成，归还到数据缓冲池 */
+                    if(computingAccessory.getStoreZone() >= 0) storeZoneQueue.offer(computingAccessory.getStoreZone());
+                    dataBufferQueue.offer(onZone);
                 }
             } catch (InterruptedException e) {
                 e.printStackTrace();
@@ -272,60 +351,112 @@ public class KcodeAlertAnalysisImpl implements KcodeAlertAnalysis {
      */
     @Override
     public Collection<String> alarmMonitor(String path, Collection<String> alertRules) throws Exception {
-        /* 获取文件信息 */
-        FileChannel channel = new RandomAccessFile(path, "r").getChannel();
-
-        /* 初始化当前时间 */
-        BufferedReader inputStream = new BufferedReader(new FileReader(path));
-        long timeMs = Long.parseLong(inputStream.readLine().split(",")[6]);
-        /* 第一条记录的时间 */
-        int originTime = (int) (timeMs / (1000 * 60));
-        inputStream.close();
-        /* 快速算出 xx:00 分的特征值 */
-        String originTimeMsString = String.valueOf(originTime * 60L * 1000L);
-        originTimeEigenvalue = originTimeEigenvalue * 10 + originTimeMsString.charAt(4) - '0';
-        originTimeEigenvalue = originTimeEigenvalue * 10 + originTimeMsString.charAt(5) - '0';
-        originTimeEigenvalue = originTimeEigenvalue * 10 + originTimeMsString.charAt(6) - '0';
-        originTimeEigenvalue = originTimeEigenvalue * 10 + originTimeMsString.charAt(7) - '0';
-        originTimeEigenvalue = originTimeEigenvalue * 10 + originTimeMsString.charAt(8) - '0';
-        int currTimeEigenvalue = originTimeEigenvalue;
+        return alarmMonitor(SegmentChannel.open(path), alertRules);
+    }
+
+    /**
+     * 多段输入：日志被采集器按时间滚动成多个段，按顺序拼接成一条连续的时间线读取，
+     * 段与段之间同样允许正负一分钟的乱序，就像它们本来就是一个文件。
+     *
+     * @param segmentPaths 段文件路径，必须按时间顺序排列
+     * @param alertRules 报警规则
+     */
+    public Collection<String> alarmMonitor(List<String> segmentPaths, Collection<String> alertRules) throws Exception {
+        return alarmMonitor(new SegmentChannel(segmentPaths), alertRules);
+    }
+
+    private Collection<String> alarmMonitor(SegmentChannel channel, Collection<String> alertRules) throws Exception {
+        try {
+            return alarmMonitorRun(channel, alertRules);
+        } catch (Exception e) {
+            /* 主线程出错时解析线程和计算线程还在等数据，让它们退出，否则进程不会结束 */
+            pipelineAbort(e);
+            try {
+                channel.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+    }
+
+    private Collection<String> alarmMonitorRun(SegmentChannel channel, Collection<String> alertRules) throws Exception {
+        dataZonesPrepare();
+
+        /* 有可用的快照，直接恢复，不需要读取文件 */
+        if(snapshotPath != null && snapshotLoad(channel, alertRules)) {
+            snapshotRestored = true;
+            channel.close();
+            pipelineStop(new ParsingAccessory());
+            if(alarmListener != null) {
+                streamingRulesPrepare(alertRules);
+                for(int timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+                    streamingAlarmCompute(timeIndex);
+                }
+            } else {
+                alarmAnswerCompute(parseAlertRules(alertRules));
+            }
+            return alarmAnswer;
+        }
+
+        /* gzip 输入：边解压边读取，解压后的数据没有文件偏移，不能分片 */
+        GzipBlockReader gzipReader = null;
+        if(GzipBlockReader.isGzip(channel)) {
+            gzipReader = new GzipBlockReader(channel, nrDecompressWorkers);
+            nrIngestShards = 1;
+        }
+
+        /* 第一块：确定记录格式以及解析方式，再用第一条记录初始化当前时间 */
+        ByteBuffer firstBlock = ByteBuffer.allocate(256 << 10).order(ByteOrder.LITTLE_ENDIAN);
+        int dataStart = recordFormatPrepare(channel, gzipReader, firstBlock), num;
+        SchemaLineParser phaseOneParser = new SchemaLineParser(recordSchema, ipTable);
+        for(num = dataStart; num < firstBlock.position() && firstBlock.get(num) != '\n'; ++num) { }
+        if(num < firstBlock.position()) {
+            /* 第一条记录的时间(分)，用完整的毫秒时间戳换算，任意长的时间线都不会回绕 */
+            phaseOneParser.parse(firstBlock, dataStart);
+            originMinute = phaseOneParser.getTimeMillis() / 60000;
+        }
 
         /* 读取属性 */
-        String caller;
-        int callerIP;
-        String responder;
-        int responderIP;
         int success;
         int elapsedTime;
         int callerNode, responderNode;
+        ServiceIpPair pair;
         ServicePair servicePair;
         /* 块读变量 */
         ParsingAccessory parsingAccessory = new ParsingAccessory();
         byte[] remaining = new byte[256 << 10];
         int remainingLength = 0;    /* 上次剩余 */
         byte[] handleBuffer = parsingAccessory.getHandleBuffer();
+        ByteBuffer handleView = parsingAccessory.getHandleView();
         int handleLength = 0, prevHandleIndex = 0;
         ByteBuffer readBuffer = ByteBuffer.allocate(256 << 10);
         byte[] readBytes;
-        int readCount, handleTotal = 0;
+        int readCount, handleTotal = dataStart;
         boolean findOut = false;
         /* 其他变量 */
-        byte currByte;
-        int num, handleIndex, pos;
-        byte[] stringBuffer = new byte[64];
-        int stringLength;
-        int startTimeEigenvalue;/* 开始时间特征值 */
+        int handleIndex, pos, minute, phaseOneMaxMinute = 0;
         /* 先找前两分钟，它可以唯一确定很多信息 */
         while ( !findOut ) {
-            readCount = channel.read(readBuffer);       /* 一次从文件通道中读一块 */
+            /* 一次从文件通道(或者解压读取器)中读一块 */
+            readCount = gzipReader != null ? gzipReader.read(readBuffer) : channel.read(readBuffer);
+            /* 输入比乱序窗口还短，一阶段就读完了，结尾没有换行的残缺记录和流水线一样跳过 */
+            if(readCount <= 0) break;
             /* 拷贝上次剩余字节到本次处理缓冲区 */
             readBytes = readBuffer.array();
             System.arraycopy(remaining, 0, handleBuffer, 0, remainingLength);
 
             /* 从缓冲区尾部找到一条记录，换行会告诉我们在哪 */
             pos = readCount - 1;
-            while (readBytes[pos--] != '\n') { }
-            pos += 2;      /* 保证处于换行后 */
+            while (pos >= 0 && readBytes[pos] != '\n') pos--;
+            pos++;      /* 保证处于换行后 */
+            if(pos == 0) {
+                /* 这一块里没有换行，只可能是输入结尾的残缺记录，先留着 */
+                System.arraycopy(readBytes, 0, remaining, remainingLength, readCount);
+                remainingLength += readCount;
+                readBuffer.position(0);
+                continue;
+            }
             handleLength = pos + remainingLength;
             handleTotal += handleLength;    /* 记录总共处理了多少字节(块的倍数) */
 
@@ -340,89 +471,37 @@ public class KcodeAlertAnalysisImpl implements KcodeAlertAnalysis {
             /* 开始处理准备好的数据 */
             handleIndex = 0;
             while (handleIndex < handleLength) {
-                /* 调用者 */
-                stringLength = 0;
-                while ( (currByte = handleBuffer[handleIndex++]) != ',' ) {
-                    stringBuffer[stringLength++] = currByte;
-                }
-                caller = new String(stringBuffer, 0, stringLength);
-
-                /* 调用者 IP */
-                handleIndex += 3;   /* IP 前缀一定是 "10."  */
-                callerIP = num = 0;
-                while ( (currByte = handleBuffer[handleIndex++]) != ',' ) {
-                    if (currByte != '.') {
-                        num = num * 10 + currByte - '0';
-                    } else {
-                        callerIP |= num;    /* ip 某位 */
-                        callerIP <<= 8;
-                        num = 0;
-                    }
-                }
-                callerIP |= num;            /* ip 最后一位 */
-
-                /* 响应者 */
-                stringLength = 0;
-                while ( (currByte = handleBuffer[handleIndex++]) != ',' ) {
-                    stringBuffer[stringLength++] = currByte;
-                }
-                responder = new String(stringBuffer, 0, stringLength);
-
-                /* 响应者 IP */
-                handleIndex += 3;   /* IP 前缀一定是 "10."  */
-                responderIP = num = 0;
-                while ( (currByte = handleBuffer[handleIndex++]) != ',' ) {
-                    if (currByte != '.') {
-                        num = num * 10 + currByte - '0';
-                    } else {
-                        responderIP |= num;    /* ip 某位 */
-                        responderIP <<= 8;
-                        num = 0;
-                    }
-                }
-                responderIP |= num;            /* ip 最后一位 */
-
-                /* 调用成功状态 */
-                success = (handleBuffer[handleIndex] == 't' ? 1 : 0);
-                handleIndex += (success == 1 ? 5 : 6);
+                handleIndex = phaseOneParser.parse(handleView, handleIndex);
+                success = phaseOneParser.getSuccess();
+                elapsedTime = phaseOneParser.getElapsedTime();
 
-                /* 调用耗时 */
-                elapsedTime = 0;
-                while ( (currByte = handleBuffer[handleIndex++]) >= '0' ) {
-                    elapsedTime = elapsedTime * 10 + currByte - '0';
-                }
-
-                /* 调用时间: 我们只取 4~8，一共 5 位，它作为特征值  */
-                startTimeEigenvalue = 0;
-                handleIndex += 4;
-                startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                startTimeEigenvalue = startTimeEigenvalue * 10 + handleBuffer[handleIndex++] - '0';
-                handleIndex += 5;      /* 跳过后面的剩余 5 位 */
-
-                /* 乱序正负一分钟，所以这里是判断是否到了下下分钟 */
-                if(startTimeEigenvalue - currTimeEigenvalue == 12) {
+                /* 乱序窗口 reorderWindow 分钟，所以这里是判断是否到了第 reorderWindow + 1 分钟，第 0 分钟不会再有记录了 */
+                minute = (int) (phaseOneParser.getTimeMillis() / 60000 - originMinute);
+                if(minute > reorderWindow) {
                     /* 直接结束，已经找到所有所需信息 */
-                    currTimeEigenvalue = startTimeEigenvalue;
                     findOut = true;
                     break;
                 }
                 prevHandleIndex = handleIndex;
+                if(minute < 0) {
+                    /* 比第一条记录还早一分钟以上，和超出乱序窗口的记录一样丢弃 */
+                    lateRecordCount++;
+                    continue;
+                }
+                if(minute > phaseOneMaxMinute) phaseOneMaxMinute = minute;
 
-                ServiceIpPair pair = new ServiceIpPair(caller, responder, callerIP, responderIP);
+                pair = phaseOneParser.pair(handleView);
                 /* 添加服务索引 */
-                serviceNodeMap.computeIfAbsent(caller, k -> nextNode++);
-                serviceNodeMap.computeIfAbsent(responder, k -> nextNode++);
+                serviceNodeMap.computeIfAbsent(pair.getCaller(), k -> nextNode++);
+                serviceNodeMap.computeIfAbsent(pair.getResponder(), k -> nextNode++);
                 /* 初始化一些数据和答案映射 */
-                callerNode = serviceNodeMap.get(caller);
-                responderNode = serviceNodeMap.get(responder);
-                serviceIpPairAnswerMap.computeIfAbsent(pair, k -> new ServiceIpPairAnswer[100]);
-                servicePairData.computeIfAbsent(callerNode, k -> new HashMap<>())
-                        .computeIfAbsent(responderNode, k -> new PairData[100]);
+                callerNode = serviceNodeMap.get(pair.getCaller());
+                responderNode = serviceNodeMap.get(pair.getResponder());
+                serviceIpPairAnswerMap.computeIfAbsent(pair, k -> new MinuteArchive());
+                servicePairArchive.computeIfAbsent(callerNode, k -> new HashMap<>())
+                        .computeIfAbsent(responderNode, k -> new MinuteArchive());
                 /* 建图，使用已经映射好的索引作为节点，一个出图，一个入图 */
-                servicePair = new ServicePair(caller, responder);
+                servicePair = new ServicePair(pair.getCaller(), pair.getResponder());
                 if(!servicePairSet.contains(servicePair)) {
                     outGraph.addEdge(callerNode, responderNode);
                     inGraph.addEdge(responderNode, callerNode);
@@ -431,25 +510,32 @@ public class KcodeAlertAnalysisImpl implements KcodeAlertAnalysis {
                 /* 将主被调 IP 对加入到集合 */
                 serviceIpPairSet.add(pair);
                 /* 加入到数据区域 */
-                serviceIpPairDataMap[((startTimeEigenvalue - originTimeEigenvalue) / 6) % 2]
-                        .computeIfAbsent(pair.getIpPair(), k -> new PairData()).add(elapsedTime, success);
+                serviceIpPairDataMap[minute % nrDataZones]
+                        .computeIfAbsent(pair.getIpPair(), k -> newPairData()).add(elapsedTime, success);
             }
         }
 
+        /* 水位线：读到了第 reorderWindow + 1 分钟就是 reorderWindow，否则整个输入已经读完，就是出现过的最大分钟 */
+        watermarkMinute = findOut ? reorderWindow : phaseOneMaxMinute;
+
         /* 准备服务 IP 对数组 */
         num = serviceIpPairSet.size();
         serviceIpPairs = serviceIpPairSet.toArray(new ServiceIpPair[num]);
+        alarmBytesPrepare();
+        pairIndexMap = new FlyanIntIntMap(num);
+        for(num = 0; num < serviceIpPairs.length; ++num) {
+            pairIndexMap.put(serviceIpPairs[num].getIpPair(), num);
+        }
         /* 初始化一阶段数据区域 */
         for(ServiceIpPair sp : serviceIpPairs) {
-            for(num = 0; num < DATA_BUFFER_LIMIT; ++num) {
-                serviceIpPairDataBuffer[num].computeIfAbsent(sp.getIpPair(), k -> new PairData());
+            for(num = 0; num < nrDataBuffers; ++num) {
+                serviceIpPairDataBuffer[num].computeIfAbsent(sp.getIpPair(), k -> newPairData());
             }
         }
 
-        /* 提交计算任务：第一分钟 */
-        computingQueue.offer(new ComputingAccessory(serviceIpPairDataMap[0], 0));
-        serviceIpPairDataMap[0] = serviceIpPairDataBuffer[2];  /* 从缓冲池里拿新的 */
+        /* 流式模式需要在第一分钟计算前准备好规则 */
         numberOfNode = serviceNodeMap.size();
+        if(alarmListener != null) streamingRulesPrepare(alertRules);
 
         /* 初始化服务映射表， index -> 字符串 */
         serviceTable = new String[numberOfNode];
@@ -457,579 +543,1774 @@ public class KcodeAlertAnalysisImpl implements KcodeAlertAnalysis {
             serviceTable[e.getValue()] = e.getKey();
         }
 
-        /* 接着读取剩下的 */
-        readingQueue.offer(parsingAccessory);
-        for(num = 0; num < READ_BLOCK_LIMIT - 1; ++num) {   /* 读取工厂初始可使用配件，这些配件和解析线程共用 */
-            readingQueue.offer(new ParsingAccessory());
-        }
-        parsingAccessory.setCurrTimeEigenvalue(currTimeEigenvalue);
-        parsingQueue.offer(parsingAccessory);       /* 提交这一个配件用于初始化当前时间信息 */
-        channel.position(handleTotal - (handleLength - prevHandleIndex));   /* 处理到了这里 */
-        remainingLength = 0;
-        while ( true ) {
-            parsingAccessory = readingQueue.take();     /* 从队列中获取可用的配件 */
-            if( (readCount = channel.read(readBuffer)) <= 0 ) break;   /* 一次从文件通道中读一块 */
-
-            /* 拷贝上次剩余字节到本次处理缓冲区 */
-            readBytes = readBuffer.array();
-            handleBuffer = parsingAccessory.getHandleBuffer();
-            System.arraycopy(remaining, 0, handleBuffer, 0, remainingLength);
-
-            /* 从缓冲区尾部找到一条记录，换行会告诉我们在哪 */
-            pos = readCount - 1;
-            while (readBytes[pos--] != '\n') { }
-            pos += 2;      /* 保证处于换行后 */
-            parsingAccessory.setHandleLength(pos + remainingLength);
-
-            /* 拷贝本次数据到处理缓冲中 */
-            System.arraycopy(readBytes, 0, handleBuffer, remainingLength, pos);
-
-            /* 拷贝剩余的数据(不能完整处理)到剩余缓冲区中 */
-            remainingLength = readCount - pos;
-            System.arraycopy(readBytes, pos, remaining, 0, remainingLength);
-            readBuffer.position(0);
-
-            /* 提交本次读取的数据块给解析工厂进行解析 */
-            parsingQueue.offer(parsingAccessory);
+        /* 对所有出度为 0 的点进行一次拓扑 + DP，即可获取到所有节点的最长链，
+         * 要拿到调用者左边和右边的的最长链，所以是拓扑两次。之后出现的新边只增量更新受影响的节点。
+         *
+         * PS: 这个过程足够快，线下表现没有一个数据集是超过 1ms 的，主要的耗时是后面
+         * 为每个主被调对拼接答案，因为它需要对以前汇总的数据进行计算 P99。
+         */
+        longestPathsOfLeft = new LongestPaths(inGraph, outGraph);      /* 注意反向图 */
+        longestPathsOfLeft.build(numberOfNode);
+        longestPathsOfRight = new LongestPaths(outGraph, inGraph);
+        longestPathsOfRight.build(numberOfNode);
+
+        if(nrIngestShards > 1) {
+            /* 分片模式用不上流水线，通知解析工厂和计算工厂停止 */
+            pipelineStop(parsingAccessory);
+            /* 第一分钟已经完整，直接计算，剩下的交给分片 */
+            pairAnswerCompute(0, serviceIpPairDataMap[0]);
+            shardedIngest(channel, handleTotal - (handleLength - prevHandleIndex));
+        } else if(gzipReader != null) {
+            /* 一阶段多读的数据退回给解压读取器，流水线从第一条没有处理的记录接着读 */
+            gzipReader.pushBack(remaining, 0, remainingLength);
+            gzipReader.pushBack(handleBuffer, prevHandleIndex, handleLength - prevHandleIndex);
+            try {
+                compressedIngest(gzipReader, parsingAccessory);
+            } finally {
+                gzipReader.close();
+            }
+        } else {
+            pipelineIngest(channel, handleTotal - (handleLength - prevHandleIndex), parsingAccessory);
         }
-
-        /* 通知解析工厂停止，已经没有活干了 */
-        parsingAccessory.setStopSignal(true);
-        parsingQueue.offer(parsingAccessory);
-
-        /* 计算剩余的两分钟，第一分钟给计算线程，最后一分钟由主线程处理，很奈斯～ */
-        computingQueue.offer(new ComputingAccessory(serviceIpPairDataMap[currComputingTimeIndex % 2], currComputingTimeIndex));
-        computingQueue.offer(new ComputingAccessory(null, -1));   /* 通知计算线程结束 */
-        pairAnswerCompute(++currComputingTimeIndex, currComputingTimeIndex % 2);
-        maxTimeIndex = currComputingTimeIndex;       /* 最大的时间索引 */
+        channel.close();
 
         /* 初始化时间字符串数组 */
         DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
         timeIndex2StringTable = new String[maxTimeIndex + 1];
         for(num = 0; num <= maxTimeIndex; ++num) {
-            timeIndex2StringTable[num] = dateFormat.format((originTime + num) * 60L * 1000L);
+            timeIndex2StringTable[num] = dateFormat.format((originMinute + num) * 60000L);
         }
 
         /* 计算所有报警值，一阶段 */
         computingLatch.await();     /* 注意： 计算工厂停止工作才能继续 */
-        alarmAnswerCompute(alertRules);
+        if(alarmListener != null) {
+            /* 流式模式只用流水线，只剩最后一分钟没有检查 */
+            streamingAlarmCompute(maxTimeIndex);
+        } else {
+            alarmAnswerCompute(parseAlertRules(alertRules));
+        }
 
         /* 计算所有最长路径答案，二阶段 */
         longestPathAnswerCompute();
 
+        /* 答案落盘，快照写失败不影响本次的答案。快照中的 IP 只有 SWAR 的编码，通用解析不落盘 */
+        if(snapshotPath != null && swarParsing) {
+            try {
+                snapshotSave(channel, alertRules);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
         return alarmAnswer;
     }
 
     /**
-     * 计算所有的报警规则的报警值
+     * 通知解析工厂和计算工厂停止，流水线没有开始，解析工厂收到的第一个配件就是停止信号
      *
-     * @param alertRules 所有报警规则，示例如下
-     *  1,ALL,rd_9563486881659901967,P99,2>,100ms
-     *  9,rd_14847304958688727175,rd_467962675963435152,P99,1>,100ms
+     * @param parsingAccessory 任意一个解析配件，它会被标记为停止信号
      */
-    private void alarmAnswerCompute(Collection<String> alertRules) {
-        int nr;             /* 规则编号 */
-        String caller;      /* 调用者 */
-        int callerNode;
-        String responder;   /* 响应者 */
-        int responderNode;
-        int alertType;      /* 报警类型，P99 或 成功率 */
-        int duration;       /* 持续时间 */
-        boolean greater;    /* 大于？ */
-        int alertValue;     /* 报警值 */
-        /* 遍历所有报警规则 */
-        for(String rule : alertRules) {
-            /* 先解析报警规则属性 */
-            String[] split = rule.split(",");
-            nr = Integer.parseInt(split[0]);
-            caller = (split[1].charAt(0) != 'A' ? split[1] : null);     /* 为 null 表示 ALL */
-            callerNode = (caller != null ? serviceNodeMap.get(caller) : -1);
-            responder = (split[2].charAt(0) != 'A' ? split[2] : null);  /* 为 null 表示 ALL */
-            responderNode = (responder != null ? serviceNodeMap.get(responder) : -1);
-            alertType = (split[3].charAt(0) == 'P' ? TYPE_P99 : TYPE_SR);
-            String durationString = split[4].substring(0, split[4].length() - 1);
-            duration = Integer.parseInt(durationString);
-            greater = (split[4].charAt(split[4].length() - 1) == '>');
-            if(alertType == TYPE_P99) {
-                alertValue = Integer.parseInt(split[5].replace("ms", ""));
-            } else {
-                String SRS = split[5].replace("%", "");
-                String[] STSS = SRS.split("\\.");   /* 以小数点分割 */
-                if(STSS.length == 1) {  /* 没有小数位 */
-                    alertValue = Integer.parseInt(SRS) * 100;
-                } else {
-                    int decimal = Integer.parseInt(STSS[1]);
-                    if(STSS[1].length() == 1) decimal *= 10;    /* 99.9，我们为 .9 补齐 0 */
-                    alertValue = Integer.parseInt(STSS[0]) * 100 + decimal;
-                }
-            }
-
-            /* 现在，根据规则去所有的主被调对数据中寻找存在报警的主被调对 */
-            if(caller != null && responder != null) {   /* 准确的规则 */
-                /* 添加一个准确规则*/
-                servicePairRules.add(callerNode * numberOfNode + responderNode);
-
-                /* 该层遍历所有调用者 */
-                for(Map.Entry<ServiceIpPair, ServiceIpPairAnswer[]> entry : serviceIpPairAnswerMap.entrySet()) {
-                    ServiceIpPair mp = entry.getKey();
-                    if(!mp.getCaller().equals(caller) || !mp.getResponder().equals(responder)) continue;  /* 响应者不匹配 */
-                    validationRule(nr, alertType, duration, greater, alertValue, caller, responder, entry.getValue());
-                }
-
-            } else {                                    /* 含有 ALL 的模糊规则 */
-
-                if(caller == null) {                    /* 调用者模糊 */
-                    /* 添加一个模糊规则*/
-                    dimRulesOfResponder.add(responderNode);
+    private void pipelineStop(ParsingAccessory parsingAccessory) throws InterruptedException {
+        parsingAccessory.setStopSignal(true);
+        parsingQueue.put(parsingAccessory);
+        computingQueue.offer(new ComputingAccessory(null, -1));
+        pipelineStopped = true;
+    }
 
-                    /* 遍历所有主被调 IP 对的 P99 以及 SR */
-                    for(Map.Entry<ServiceIpPair, ServiceIpPairAnswer[]> entry : serviceIpPairAnswerMap.entrySet()) {
-                        ServiceIpPair sp = entry.getKey();
-                        if(!sp.getResponder().equals(responder)) continue;  /* 响应者不匹配 */
-                        validationRule(nr, alertType, duration, greater, alertValue, sp.getCaller(), responder, entry.getValue());
-                    }
+    /**
+     * 中止流水线：不管流水线有没有开始，让解析线程跳过剩下的数据块后退出，再通知计算线程结束。
+     * 流水线已经停止时什么也不做
+     *
+     * @param cause 主线程中的错误
+     */
+    private void pipelineAbort(Exception cause) throws InterruptedException {
+        if(pipelineStopped) return;
+        if(pipelineFailure == null) pipelineFailure = new IllegalStateException("alarmMonitor aborted", cause);
+        parsingQueue.put(new ParsingAccessory().setStopSignal(true));
+        parsingLatch.await();       /* 解析线程不会再提交分钟，计算线程的结束信号一定排在最后 */
+        computingQueue.offer(new ComputingAccessory(null, -1));
+        pipelineStopped = true;
+    }
 
-                } else {               /* 响应者模糊 */
-                    /* 添加一个模糊规则 */
-                    dimRulesOfCaller.add(callerNode);
+    /**
+     * 设置快照文件路径，必须在 alarmMonitor 之前调用。
+     * 准备完成后，时间字符串表、服务表、每分钟的主被调 IP 对答案以及阶段 2 的答案会写成一个紧凑的二进制快照；
+     * 之后对同一个输入(每个段的规范路径、大小、头尾内容的指纹，最新修改时间、报警规则以及数据模式都一致)调用 alarmMonitor
+     * 会直接 mmap 快照恢复，阶段 2 的答案以及每分钟的 IP 对答案都直接从快照中读取，不拷贝到堆上。
+     * 报警依旧按本次的规则重新检查，只是不再读取监控文件。不一致时照常读取并覆盖快照，拷贝出来的同样大小、同样修改时间的文件不会用到原文件的快照。
+     *
+     * @param snapshotPath 快照文件路径
+     */
+    public KcodeAlertAnalysisImpl setSnapshotPath(String snapshotPath) {
+        this.snapshotPath = snapshotPath;
+        return this;
+    }
 
-                    /* 遍历所有主被调 IP 对的 P99 以及 SR */
-                    for(Map.Entry<ServiceIpPair, ServiceIpPairAnswer[]> entry : serviceIpPairAnswerMap.entrySet()) {
-                        ServiceIpPair sp = entry.getKey();
-                        if(!sp.getCaller().equals(caller)) continue;  /* 调用者不匹配 */
-                        validationRule(nr, alertType, duration, greater, alertValue, caller, sp.getResponder(), entry.getValue());
-                    }
+    /**
+     * @return 本次 alarmMonitor 是否从快照恢复，而不是读取监控文件
+     */
+    public boolean isSnapshotRestored() {
+        return snapshotRestored;
+    }
 
-                }
-            }
+    /**
+     * 快照的规则指纹，阶段 2 的答案只包含规则涉及的服务对，数据模式也会影响答案
+     */
+    private long snapshotRulesHash(Collection<String> alertRules) {
+        long hash = alertRules.size();
+        for(String rule : alertRules) {
+            hash = hash * 31 + rule.hashCode();
         }
+        return (hash * 31 + (histogramPairData ? 1 : 0)) * 31 + reorderWindow;
     }
 
     /**
-     * 验证报警规则
+     * 写快照，先写临时文件再原子替换，中途失败不会留下损坏的快照。格式(大端)：
+     *  头部：魔数 版本 输入总大小 最新修改时间 规则指纹 段数，每个段：规范路径 大小 指纹，originMinute maxTimeIndex
+     *  时间字符串表[maxTimeIndex + 1]，服务表[numberOfNode]
+     *  主被调 IP 对：调用者节点 响应者节点 调用者 IP 响应者 IP，每分钟：P99 SR(没有数据时都是 -1)
+     *  阶段 2 答案：MappedAnswerTable 的格式，最后是它的哈希表位置以及槽数
+     *  尾部：魔数
+     * 字符串都是 长度 + UTF-8 字节。
      */
-    private void validationRule(int nr, int alertType, int duration, boolean greater
-            , int alertValue, String caller, String responder, ServiceIpPairAnswer[] onTime) {
-        int persist = 0;    /* 报警持续时间 */
-        int timeIndex, callerIp, responderIp, P99, SR, decimal;
-        String ipPrefix = "10.", ms = "ms";
-        if(greater) { /* > */
-
-            if(alertType == TYPE_P99) { /* P99 */
-                for (timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
-                    ServiceIpPairAnswer answers = onTime[timeIndex];
-                    if (answers == null || answers.size() == 0) {
-                        persist = 0;
-                        continue;   /* 该主被调 IP 对在该分钟没有答案 */
-                    }
-
-                    /* 通过该分钟的最大值来判断该分钟是否报警 */
-                    if(answers.getMaxP99() > alertValue) {
-                        if(++persist >= duration) { /* 该分钟已报警 */
-                            for(ServiceIpPairAnswer.Answer ans : answers.getAnswers()) {
-                                P99 = ans.getP99();
-                                if(P99 > alertValue) {
-                                    StringBuilder answerBuilder = new StringBuilder();
-                                    callerIp = ans.getCallerIp();
-                                    responderIp = ans.getResponderIp();
-                                    answerBuilder.append(nr).append(',').append(timeIndex2StringTable[timeIndex]).append(',').append(caller)
-                                            .append(',').append(ipPrefix).append(((callerIp & 0xFFFFFF) >> 16))
-                                            .append('.').append(((callerIp & 0xFFFF) >> 8)).append('.').append((callerIp & 0xff))
-                                            .append(',').append(responder).append(',').append(ipPrefix)
-                                            .append(((responderIp & 0xFFFFFF) >> 16)).append('.').append(((responderIp & 0xFFFF) >> 8))
-                                            .append('.').append((responderIp & 0xff)).append(',').append(P99).append(ms);
-                                    alarmAnswer.add(answerBuilder.toString());
-                                }
-                            }
-                        }
-                    } else {
-                        persist = 0;        /* 报警持续已中断 */
-                    }
-                }
-
-            } else {    /* SR */
-
-                for (timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
-                    ServiceIpPairAnswer answers = onTime[timeIndex];
-                    if (answers == null || answers.size() == 0) {
-                        persist = 0;
-                        continue;   /* 该主被调 IP 对在该分钟没有答案 */
-                    }
-
-                    /* 通过该分钟的最大值来判断该分钟是否报警 */
-                    if(answers.getMaxSR() > alertValue) {
-                        if(++persist >= duration) { /* 该分钟已报警 */
-                            for(ServiceIpPairAnswer.Answer ans : answers.getAnswers()) {
-                                SR = ans.getSR();
-                                if(SR > alertValue) {
-                                    /* 添加答案字符串 */
-                                    StringBuilder answerBuilder = new StringBuilder();
-                                    callerIp = ans.getCallerIp();
-                                    responderIp = ans.getResponderIp();
-                                    decimal = SR % 100;         /* 小数位，只有两位 */
-                                    answerBuilder.append(nr).append(',').append(timeIndex2StringTable[timeIndex]).append(',').append(caller)
-                                            .append(',').append(ipPrefix).append(((callerIp & 0xFFFFFF) >> 16))
-                                            .append('.').append(((callerIp & 0xFFFF) >> 8)).append('.').append((callerIp & 0xff))
-                                            .append(',').append(responder).append(',').append(ipPrefix)
-                                            .append(((responderIp & 0xFFFFFF) >> 16)).append('.').append(((responderIp & 0xFFFF) >> 8))
-                                            .append('.').append((responderIp & 0xff)).append(',').append(SR / 100).append('.')
-                                            .append(decimal / 10).append(decimal % 10).append('%');
-                                    alarmAnswer.add(answerBuilder.toString());
-                                }
-                            }
-                        }
-                    } else {
-                        persist = 0;        /* 报警持续已中断 */
-                    }
-                }
+    private void snapshotSave(SegmentChannel input, Collection<String> alertRules) throws IOException {
+        File tmp = new File(snapshotPath + ".tmp");
+        int i, timeIndex;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 256 << 10))) {
+            /* 头部 */
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(input.size());
+            out.writeLong(input.lastModified());
+            out.writeLong(snapshotRulesHash(alertRules));
+            out.writeInt(input.segmentCount());
+            for(i = 0; i < input.segmentCount(); ++i) {
+                snapshotWriteString(out, input.segmentPath(i));
+                out.writeLong(input.segmentSize(i));
+                out.writeLong(input.segmentFingerprint(i));
             }
+            out.writeLong(originMinute);
+            out.writeInt(maxTimeIndex);
 
-        } else {    /* < */
-
-            if(alertType == TYPE_P99) { /* P99 */
-                for (timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
-                    ServiceIpPairAnswer answers = onTime[timeIndex];
-                    if (answers == null || answers.size() == 0) {
-                        persist = 0;
-                        continue;   /* 该主被调 IP 对在该分钟没有答案 */
-                    }
+            /* 时间字符串表以及服务表 */
+            for(timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+                snapshotWriteString(out, timeIndex2StringTable[timeIndex]);
+            }
+            out.writeInt(numberOfNode);
+            for(i = 0; i < numberOfNode; ++i) {
+                snapshotWriteString(out, serviceTable[i]);
+            }
 
-                    /* 通过该分钟的最小值来判断该分钟是否报警 */
-                    if(answers.getMinP99() < alertValue) {
-                        if(++persist >= duration) { /* 该分钟已报警 */
-                            for(ServiceIpPairAnswer.Answer ans : answers.getAnswers()) {
-                                P99 = ans.getP99();
-                                if(P99 < alertValue) {
-                                    StringBuilder answerBuilder = new StringBuilder();
-                                    callerIp = ans.getCallerIp();
-                                    responderIp = ans.getResponderIp();
-                                    answerBuilder.append(nr).append(',').append(timeIndex2StringTable[timeIndex]).append(',').append(caller)
-                                            .append(',').append(ipPrefix).append(((callerIp & 0xFFFFFF) >> 16))
-                                            .append('.').append(((callerIp & 0xFFFF) >> 8)).append('.').append((callerIp & 0xff))
-                                            .append(',').append(responder).append(',').append(ipPrefix)
-                                            .append(((responderIp & 0xFFFFFF) >> 16)).append('.').append(((responderIp & 0xFFFF) >> 8))
-                                            .append('.').append((responderIp & 0xff)).append(',').append(P99).append(ms);
-                                    alarmAnswer.add(answerBuilder.toString());
-                                }
-                            }
-                        }
-                    } else {
-                        persist = 0;        /* 报警持续已中断 */
-                    }
+            /* 主被调 IP 对以及每分钟的答案 */
+            out.writeInt(serviceIpPairs.length);
+            for(ServiceIpPair sp : serviceIpPairs) {
+                out.writeInt(serviceNodeMap.get(sp.getCaller()));
+                out.writeInt(serviceNodeMap.get(sp.getResponder()));
+                out.writeInt(sp.getCallerIp());
+                out.writeInt(sp.getResponderIP());
+                MinuteArchive onTime = serviceIpPairAnswerMap.get(sp);
+                for(timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+                    out.writeInt(onTime.getP99(timeIndex));
+                    out.writeInt(onTime.getSR(timeIndex));
                 }
-            } else {    /* SR */
-
-                for (timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
-                    ServiceIpPairAnswer answers = onTime[timeIndex];
-                    if (answers == null || answers.size() == 0) {
-                        persist = 0;
-                        continue;   /* 该主被调 IP 对在该分钟没有答案 */
-                    }
+            }
 
-                    /* 通过该分钟的最小值来判断该分钟是否报警 */
-                    if(answers.getMinSR() < alertValue) {
-                        if(++persist >= duration) { /* 该分钟已报警 */
-                            for (ServiceIpPairAnswer.Answer ans : answers.getAnswers()) {
-                                SR = ans.getSR();
-                                if(SR >= 0 && SR < alertValue) {
-                                    /* 添加答案字符串 */
-                                    StringBuilder answerBuilder = new StringBuilder();
-                                    callerIp = ans.getCallerIp();
-                                    responderIp = ans.getResponderIp();
-                                    decimal = SR % 100;         /* 小数位，只有两位 */
-                                    answerBuilder.append(nr).append(',').append(timeIndex2StringTable[timeIndex]).append(',').append(caller)
-                                            .append(',').append(ipPrefix).append(((callerIp & 0xFFFFFF) >> 16))
-                                            .append('.').append(((callerIp & 0xFFFF) >> 8)).append('.').append((callerIp & 0xff))
-                                            .append(',').append(responder).append(',').append(ipPrefix)
-                                            .append(((responderIp & 0xFFFFFF) >> 16)).append('.').append(((responderIp & 0xFFFF) >> 8))
-                                            .append('.').append((responderIp & 0xff)).append(',').append(SR / 100).append('.')
-                                            .append(decimal / 10).append(decimal % 10).append('%');
-                                    alarmAnswer.add(answerBuilder.toString());
-                                }
-                            }
-                        }
-                    } else {
-                        persist = 0;        /* 报警持续已中断 */
-                    }
-                }
+            /* 阶段 2 的答案 */
+            MappedAnswerTable.Writer answers = new MappedAnswerTable.Writer(longestPathTable.size());
+            for(Q2Key key : longestPathTable.keys()) {
+                answers.write(out, serviceNodeMap.get(key.getCaller()), serviceNodeMap.get(key.getResponder()),
+                        time2TimeIndex.get(key.getTime()), ALERT_TYPE_P99.equals(key.getType()) ? TYPE_P99 : TYPE_SR,
+                        longestPathTable.get(key.getCaller(), key.getResponder(), key.getTime(), key.getType()));
             }
+            answers.finish(out);
+
+            /* 尾部，没有它说明快照没写完 */
+            out.writeInt(SNAPSHOT_MAGIC);
         }
+        Files.move(tmp.toPath(), Paths.get(snapshotPath),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     /**
-     * 计算一个主被调对在某一时刻(分)的答案
-     * @param timeIndex 开始时间索引(分)
+     * mmap 读取快照，恢复阶段 1 报警检查以及阶段 2 查询所需的所有数据
+     *
+     * @return 快照不存在、不完整或者与本次输入不一致时返回 false，此时没有恢复任何数据
      */
-    private void pairAnswerCompute(int timeIndex, int dataZone) {
-        Map<Integer, PairData> onZone = serviceIpPairDataMap[dataZone];
-        /* 遍历所有主被调 IP 对，它们将指引我们应该从哪拿到数据并计算 */
-        for(ServiceIpPair sp : serviceIpPairs) {
-            PairData data = onZone.get(sp.getIpPair());
-            if(data != null && data.size() > 0) {
-                /* 汇总服务对的数据，阶段 2 需要 */
-                PairData[] sOnTime = servicePairData.get(serviceNodeMap.get(sp.getCaller()))
-                        .get(serviceNodeMap.get(sp.getResponder()));
-                PairData sdata = sOnTime[timeIndex];
-                if(sdata == null) sdata = sOnTime[timeIndex] = new PairData();
-                sdata.addAll(data);
+    private boolean snapshotLoad(SegmentChannel input, Collection<String> alertRules) throws IOException {
+        /* 指纹在读取监控文件之前算好，写快照时输入已经关闭了 */
+        for(int s = 0; s < input.segmentCount(); ++s) input.segmentFingerprint(s);
+        File file = new File(snapshotPath);
+        if(!file.isFile() || file.length() < 60) return false;
+        MappedByteBuffer buffer;
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
 
-                /* 添加答案 */
-                ServiceIpPairAnswer[] onTime = serviceIpPairAnswerMap.get(sp);
-                ServiceIpPairAnswer answer = onTime[timeIndex];
-                if(answer == null) {
-                    answer = onTime[timeIndex] = new ServiceIpPairAnswer();
-                }
-                answer.add(new ServiceIpPairAnswer.Answer(data.getP99(), data.getSuccessRate()
-                        , sp.getCallerIp(), sp.getResponderIP()));
+        /* 校验头尾 */
+        if(buffer.getInt(buffer.limit() - 4) != SNAPSHOT_MAGIC
+                || buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION
+                || buffer.getLong() != input.size() || buffer.getLong() != input.lastModified()
+                || buffer.getLong() != snapshotRulesHash(alertRules) || buffer.getInt() != input.segmentCount()) {
+            return false;
+        }
+        int i, timeIndex;
+        for(i = 0; i < input.segmentCount(); ++i) {
+            if(!snapshotReadString(buffer).equals(input.segmentPath(i)) || buffer.getLong() != input.segmentSize(i)
+                    || buffer.getLong() != input.segmentFingerprint(i)) {
+                return false;
             }
         }
-    }
+        originMinute = buffer.getLong();
+        maxTimeIndex = buffer.getInt();
 
-    /**
-     * 计算所有最长路径答案
-     */
-    private void longestPathAnswerCompute() {
-        /* 初始化一些数据和变量 */
-        String caller, responder;
-        int endNode, lastNode = 0;
-        int callerNode, responderNode, timeIndex, servicePair;
-        int i, j, k, l, v, SR, decimal;
-        String P99S = "P99";
-        String SRS = "SR";
-        String errorP99 = "-1ms", errorSR = "-1%";
-        String errorP99cc = "-1ms,", errorSRcc = "-1%,";
-        String nexts = "->", mss = "ms";
-        String msscc = "ms,", percentscc = "%,";
-        Queue<Integer> Q = new LinkedList<>();
-        int[] outTable = new int[numberOfNode];
-        List<FlyanIntArrayList>[] nodesLongestPathsOfLeft = new List[numberOfNode];
-        List<FlyanIntArrayList>[] nodesLongestPathsOfRight = new List[numberOfNode];
+        /* 时间字符串表以及服务表 */
+        timeIndex2StringTable = new String[maxTimeIndex + 1];
+        for(timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+            timeIndex2StringTable[timeIndex] = snapshotReadString(buffer);
+        }
+        numberOfNode = buffer.getInt();
+        serviceTable = new String[numberOfNode];
         for(i = 0; i < numberOfNode; ++i) {
-            nodesLongestPathsOfLeft[i] = new ArrayList<>();
-            nodesLongestPathsOfRight[i] = new ArrayList<>();
+            serviceTable[i] = snapshotReadString(buffer);
+            serviceNodeMap.put(serviceTable[i], i);
         }
 
-        /* 对所有出度为 0 的点进行一次拓扑 + DP，即可获取到所有节点的最长链，
-         * 要拿到调用者左边和右边的的最长链，所以是拓扑两次。
-         *
-         * PS: 这个过程足够快，线下表现没有一个数据集是超过 1ms 的，主要的耗时是后面
-         * 为每个主被调对拼接答案，因为它需要对以前汇总的数据进行计算 P99。
-         */
-        long startNs = System.nanoTime();
-        topological(inGraph, outGraph, nodesLongestPathsOfLeft, Q, outTable);  /* 注意反向图 */
-        topological(outGraph, inGraph, nodesLongestPathsOfRight, Q, outTable);  /* 注意反向图 */
-        System.out.println((System.nanoTime() - startNs) + "ns");
-
-        /* 遍历所有服务对 */
-        for(ServicePair sp : servicePairSet) {
-            caller = sp.getCaller();
-            responder = sp.getResponder();
-            callerNode = serviceNodeMap.get(caller);
-            responderNode = serviceNodeMap.get(responder);
-            servicePair = callerNode * numberOfNode + responderNode;
-
-            /* 检查本服务调对否符合规则，不符合跳过 */
-            if(!(dimRulesOfCaller.contains(callerNode) || dimRulesOfResponder.contains(responderNode)
-                    || servicePairRules.contains(servicePair))) continue;
-
-            /* 这层遍历为了所有时间段 */
-            for (timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
-                List<String> answerByP99 = new ArrayList<>(100);
-                List<String> answerBySR = new ArrayList<>(100);
-
-                /* 拼接左边右边，得到整体的最长链。 */
-                List<FlyanIntArrayList> longestPathOfLeft = nodesLongestPathsOfLeft[callerNode];
-                List<FlyanIntArrayList> longestPathOfRight = nodesLongestPathsOfRight[responderNode];
-                for(i = 0; i < longestPathOfLeft.size(); ++i) {
-                    for (j = 0; j < longestPathOfRight.size(); ++j) {
-                        StringBuilder suffixByP99 = new StringBuilder();
-                        StringBuilder suffixBySR = new StringBuilder();
-                        StringBuilder answerBuilderByP99 = new StringBuilder();
-                        StringBuilder answerBuilderBySR;
-                        FlyanIntArrayList leftLongestPath = longestPathOfLeft.get(i);
-                        FlyanIntArrayList rightLongestPath = longestPathOfRight.get(j);
-                        FlyanIntArrayList longest = new FlyanIntArrayList(100);
+        /* 主被调 IP 对以及每分钟的答案 */
+        serviceIpPairs = new ServiceIpPair[buffer.getInt()];
+        for(i = 0; i < serviceIpPairs.length; ++i) {
+            String caller = serviceTable[buffer.getInt()];
+            String responder = serviceTable[buffer.getInt()];
+            ServiceIpPair sp = serviceIpPairs[i] = new ServiceIpPair(caller, responder, buffer.getInt(), buffer.getInt());
+            serviceIpPairSet.add(sp);
+            serviceIpPairAnswerMap.put(sp, new MinuteArchive(buffer, buffer.position(), maxTimeIndex + 1));
+            buffer.position(buffer.position() + ((maxTimeIndex + 1) << 3));
+        }
 
-                        /* 拼接最长路，注意左边需要反向 */
-                        for(k = leftLongestPath.size() - 1; k >= 0; --k) {
-                            v = leftLongestPath.get(k);
-                            longest.add(v);
-                        }
-                        longest.addAll(rightLongestPath.getData(), rightLongestPath.size());   /* 右边 */
-
-                        l = 0;
-                        for(k = 0; k < longest.size() - 1; ++k) {
-                            v = longest.get(k);
-                            answerBuilderByP99.append(serviceTable[v]).append(nexts);
-                            if(l++ > 0) {  /* 不是第一次，那么生成相应的后缀答案 */
-                                PairData data = getServicePairData(lastNode, v, timeIndex);
-                                if(data != null && data.size() > 0) {  /* 该分钟存在调用 */
-                                    /* 首先存放 P99 的 */
-                                    suffixByP99.append(data.getSafeP99()).append(msscc);
-                                    /* 然后是 SR */
-                                    SR = data.getSafeSuccessRate();
-                                    decimal = SR % 100;         /* 小数位，只有两位 */
-                                    suffixBySR.append(SR / 100).append('.').append(decimal / 10).append(decimal % 10).append(percentscc);
-                                } else {            /* 该分钟无调用 */
-                                    suffixByP99.append(errorP99cc);
-                                    suffixBySR.append(errorSRcc);
-                                }
-                            }
-                            lastNode = v;
-                        }
-                        endNode = longest.get(longest.size() - 1);
-                        answerBuilderByP99.append(serviceTable[endNode]);
-                        PairData data = getServicePairData(lastNode, endNode, timeIndex);
-                        if(data != null && data.size() > 0) {  /* 该分钟存在调用 */
-                            /* 首先存放 P99 的 */
-                            suffixByP99.append(data.getSafeP99()).append(mss);
-                            /* 然后是 SR */
-                            SR = data.getSafeSuccessRate();
-                            decimal = SR % 100;         /* 小数位，只有两位 */
-                            suffixBySR.append(SR / 100).append('.').append(decimal / 10).append(decimal % 10).append('%');
-                        } else {            /* 该分钟无调用 */
-                            suffixByP99.append(errorP99);
-                            suffixBySR.append(errorSR);
-                        }
-                        answerBuilderBySR = new StringBuilder(answerBuilderByP99);
-                        answerBuilderByP99.append('|').append(suffixByP99);
-                        answerBuilderBySR.append('|').append(suffixBySR);
-                        answerByP99.add(answerBuilderByP99.toString());
-                        answerBySR.add(answerBuilderBySR.toString());
-                    }
-                }
-                /* 添加该准备调对在该分钟的答案 */
-                longestPathAnswer.put(new Q2Key(caller, responder, timeIndex2StringTable[timeIndex], P99S), answerByP99);
-                longestPathAnswer.put(new Q2Key(caller, responder, timeIndex2StringTable[timeIndex], SRS), answerBySR);
-            }
+        alarmBytesPrepare();
 
-        }
+        /* 阶段 2 的答案留在快照中，查询时直接读取 */
+        snapshotAnswerTable = new MappedAnswerTable(buffer, buffer.limit() - 12);
+        longestPathIndexPrepare();
+        return true;
+    }
 
-        /* 答案已全部找到，现在动态寻找阶段 2 的快速查询魔数 */
-        findMagicFastQuery();
+    private static void snapshotWriteString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
 
-        /* 查询预热 */
-        for(i = 0; i < 10000; ++i) {
-            for(Q2Key key : longestPathAnswer.keySet()) {
-                List<String> answer = magicLongestPathAnswer[key.dynicMagicIndex(MAGIC_FAST_QUERY)];
-            }
-        }
+    private static String snapshotReadString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     /**
-     * 动态寻找阶段 2 的快速查询魔数，我们已经确定了答案，这里只需要花点时间就可以大幅度加速查询阶段
+     * 设置记录格式，必须在 alarmMonitor 之前调用，默认是比赛数据的格式。
+     * 监控文件的第一行以 '#' 开头时，以文件中的声明为准。
+     * 通用解析时 IP 统一编号，主被调 IP 对的 Key 是 (调用者编号 << 16) | 响应者编号，
+     * 所以最多支持 IpTable.MAX_SIZE 个不同的 IP，超出时 alarmMonitor 抛出 IOException。
+     *
+     * @param recordSchema 记录格式
      */
-    private void findMagicFastQuery() {
-        /* 初始化一些数据和变量 */
-        int magicIndex;
-        boolean isCollide;
-        final int answerSize = longestPathAnswer.size();
-        MAGIC_FAST_QUERY = answerSize;
-
-        /* 一直遍历整个答案，用魔数去比对，一直找到不会冲突的魔数 */
-        while (true){
-            Set<Integer> magicTestSet = new HashSet<>(answerSize);
-            isCollide = false;      /* 假定这轮不会冲突 */
-
-            for(Q2Key k : longestPathAnswer.keySet()) {
-                /* 跟魔数进行比对，如果产生冲突则跳出 */
-                magicIndex = k.dynicMagicIndex(MAGIC_FAST_QUERY);
-                if(magicTestSet.contains(magicIndex)) { /* 有冲突 */
-                    isCollide = true;
-                    break;
-                }
-                magicTestSet.add(magicIndex);
-            }
-
-            /* 查看此轮是否产生冲突，没有的话，我们就找到了这个魔数，开始建立魔法答案数组 */
-            if(!isCollide) {
-                magicLongestPathAnswer = new List[MAGIC_FAST_QUERY + 1];
-                for(Map.Entry<Q2Key, List<String>> e : longestPathAnswer.entrySet()) {
-                    magicLongestPathAnswer[e.getKey().dynicMagicIndex(MAGIC_FAST_QUERY)] = e.getValue();
-                }
-                break;
-            }
-            MAGIC_FAST_QUERY++;
-        }
+    public KcodeAlertAnalysisImpl setRecordSchema(RecordSchema recordSchema) {
+        this.recordSchema = recordSchema;
+        return this;
     }
 
     /**
-     * 获取一个主被调对在某时间的数据对象
+     * 读取第一块，确定记录格式以及解析方式：格式和比赛数据一致，并且第一块的每条记录都满足 SWAR 解析的假设时才使用 SWAR，
+     * 否则使用通用解析，IP 统一编号。分片读取依赖 SWAR 解析，通用解析时退回流水线。
+     * 多段输入时只有第一段可以带格式声明。读取之后输入停在第一条记录上。
+     *
+     * @param gzipReader gzip 输入的解压读取器，null 表示输入没有压缩
+     * @param firstBlock 第一块的缓冲，读取之后保留第一块的数据
+     * @return 第一条记录的位置，跳过格式声明
      */
-    private PairData getServicePairData(int callerNode, int responderNode, int timeIndex) {
-        Map<Integer, PairData[]> onResponder = servicePairData.get(callerNode);
-        if (null == onResponder) return null;   /* 响应者可能是不存在的 */
-        PairData[] onTime = onResponder.get(responderNode);
-        if(null == onTime) return null;
-        return onTime[timeIndex];
+    private int recordFormatPrepare(SegmentChannel channel, GzipBlockReader gzipReader, ByteBuffer firstBlock)
+            throws IOException {
+        int length = Math.max(gzipReader != null ? gzipReader.read(firstBlock) : channel.read(firstBlock, 0), 0);
+        int dataStart = 0;
+        if(length > 0 && firstBlock.get(0) == '#') {
+            while (dataStart < length && firstBlock.get(dataStart) != '\n') dataStart++;
+            recordSchema = RecordSchema.parse(new String(firstBlock.array(), 0, dataStart, StandardCharsets.UTF_8));
+            dataStart++;
+        }
+        swarParsing = recordSchema.isFastPathLayout() && SwarLineParser.accepts(firstBlock, dataStart, length);
+        if(!swarParsing) {
+            ipTable = new IpTable();
+            nrIngestShards = 1;
+        }
+
+        /* 跳过格式声明，解压读取器没有位置，把声明之后的数据退回去 */
+        if(gzipReader != null) {
+            gzipReader.pushBack(firstBlock.array(), dataStart, length - dataStart);
+        } else {
+            channel.position(dataStart);
+        }
+        return dataStart;
+    }
+
+    /**
+     * 按照确定下来的解析方式创建一个解析器，IP 编号表只在一个线程中使用
+     */
+    private LineParser lineParserCreate() {
+        return swarParsing ? new SwarLineParser() : new SchemaLineParser(recordSchema, ipTable);
+    }
+
+    /**
+     * 设置并行解压 gzip 的线程数，必须在 alarmMonitor 之前调用，默认是核数。
+     * 输入以 gzip 魔数开头时自动解压，成员头部带有 BGZF 的 BSIZE 时多个成员并行解压，
+     * 普通的 gzip 只能顺序解压。gzip 输入使用流水线读取，不支持分片。
+     *
+     * @param nrWorkers 解压线程数，1 表示在读取线程中解压
+     */
+    public KcodeAlertAnalysisImpl setDecompressWorkers(int nrWorkers) {
+        this.nrDecompressWorkers = nrWorkers;
+        return this;
+    }
+
+    /**
+     * 设置 mmap 分片数量，必须在 alarmMonitor 之前调用。
+     * 分片数量 > 1 时，前两分钟依旧单线程读取，剩下的文件按换行对齐切成 nrShards 块，
+     * 每块由一个线程 mmap 读取并计算完全落在块内的分钟，跨越块边界的分钟在最后合并计算。
+     * 分钟是乱序完成的，所有分片结束前没有一分钟可以确定，所以不能和流式报警同时使用。
+     *
+     * @param nrShards 分片数量，一般取核数
+     * @throws IllegalStateException 已经设置了报警监听器并且 nrShards > 1
+     */
+    public KcodeAlertAnalysisImpl setIngestShards(int nrShards) {
+        if(nrShards > 1 && alarmListener != null) {
+            throw new IllegalStateException("streaming alarms can not be used with " + nrShards + " ingest shards");
+        }
+        this.nrIngestShards = nrShards;
+        return this;
+    }
+
+    /**
+     * 设置 PairData 是否使用直方图模式，必须在 alarmMonitor 之前调用。
+     * 直方图模式下耗时小于 LatencyHistogram.EXACT_LIMIT 的 P99 是精确的，更大的耗时有不超过 1/32 的相对误差，
+     * 但内存只和桶数有关，服务对汇总也只需要合并桶。
+     *
+     * @param histogramPairData 是否使用直方图
+     */
+    public KcodeAlertAnalysisImpl setHistogramPairData(boolean histogramPairData) {
+        this.histogramPairData = histogramPairData;
+        return this;
+    }
+
+    /**
+     * 按照当前的数据模式创建一个 PairData
+     */
+    private PairData newPairData() {
+        return histogramPairData ? new PairData(true) : new PairData();
+    }
+
+    /**
+     * 读取->解析->计算流水线，读取剩下的文件
+     *
+     * @param channel 文件通道
+     * @param position 一阶段处理到的位置
+     * @param parsingAccessory 一阶段使用的解析配件
+     */
+    private void pipelineIngest(SegmentChannel channel, long position, ParsingAccessory parsingAccessory)
+            throws Exception {
+        MappedByteBuffer window;
+        long end = channel.size();
+        int mapSize, limit;
+        byte[] stitched;
+
+        pipelineStart(parsingAccessory);
+
+        /*
+         * 零拷贝：剩下的部分按窗口 mmap，窗口在最后一个换行处截断，下一个窗口从被截断的那条记录开始，
+         * 跨窗口的半条记录不需要拷贝。窗口再切成块交给解析工厂，切片和窗口共享内存，数据一个字节都不拷贝
+         */
+        while (position < end && pipelineFailure == null) {
+            mapSize = (int) Math.min(channel.segmentEnd(position) - position, PIPELINE_MAP_LIMIT);
+            window = channel.map(position, mapSize);
+            limit = mapSize;
+            while (limit > 0 && window.get(limit - 1) != '\n') limit--;
+            if(limit == 0) {
+                /* 段尾的半条记录，另一半在下一段的开头，拼成一个小块；输入结尾没有换行的残缺记录跳过 */
+                if( (stitched = lineAcross(channel, position)) == null ) break;
+                pipelineBlocksSubmit(ByteBuffer.wrap(stitched), 0, stitched.length);
+                position += stitched.length;
+                continue;
+            }
+            pipelineBlocksSubmit(window, 0, limit);
+            position += limit;
+        }
+
+        pipelineFinish();
+    }
+
+    /**
+     * 读取->解析->计算流水线，读取解压后的 gzip 输入。
+     * 解压出的块直接切片交给解析工厂，只有跨越两块的那一条记录需要拼接成一个小块，解压后的数据不再整体拷贝
+     *
+     * @param reader 解压读取器，一阶段多读的数据已经退回
+     * @param parsingAccessory 一阶段使用的解析配件
+     */
+    private void compressedIngest(GzipBlockReader reader, ParsingAccessory parsingAccessory) throws Exception {
+        ByteBuffer chunk;
+        byte[] carry = new byte[1024], stitched;     /* 上一块末尾的半条记录 */
+        int carryLength = 0, head, tail, lineEnd;
+
+        pipelineStart(parsingAccessory);
+
+        while (pipelineFailure == null && (chunk = reader.next()) != null) {
+            head = chunk.position();
+            tail = chunk.limit();
+            while (tail > head && chunk.get(tail - 1) != '\n') tail--;
+            if(tail == head) {      /* 整块都在同一条记录里 */
+                carry = bytesAppend(carry, carryLength, chunk, head, chunk.limit());
+                carryLength += chunk.limit() - head;
+                continue;
+            }
+            if(carryLength > 0) {
+                /* 半条记录拼上这一块的第一条记录，单独作为一个小块 */
+                lineEnd = head;
+                while (chunk.get(lineEnd++) != '\n') { }
+                stitched = Arrays.copyOf(carry, carryLength + lineEnd - head);
+                for(int k = head; k < lineEnd; ++k) stitched[carryLength + k - head] = chunk.get(k);
+                pipelineBlocksSubmit(ByteBuffer.wrap(stitched), 0, stitched.length);
+                head = lineEnd;
+            }
+            if(head < tail) pipelineBlocksSubmit(chunk, head, tail);
+            carry = bytesAppend(carry, 0, chunk, tail, chunk.limit());
+            carryLength = chunk.limit() - tail;
+        }
+        /* 结尾没有换行的残缺记录，和 mmap 一样跳过 */
+
+        pipelineFinish();
+    }
+
+    /**
+     * 创建泛型数组，Java 只能以原始类型创建，未检查的转换集中在这里
+     *
+     * @param rawType 元素的原始类型，比如 List.class
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T[] genericArray(Class<? super T> rawType, int length) {
+        return (T[]) Array.newInstance(rawType, length);
+    }
+
+    /* 把 from[start, end) 追加到 to[0, length) 后面，空间不够时扩容 */
+    private static byte[] bytesAppend(byte[] to, int length, ByteBuffer from, int start, int end) {
+        if(length + end - start > to.length) to = Arrays.copyOf(to, Math.max(length + end - start, to.length << 1));
+        for(int k = start; k < end; ++k) to[length + k - start] = from.get(k);
+        return to;
+    }
+
+    /**
+     * 流水线开始：第一分钟交给计算线程，准备好配件并通知解析工厂一阶段已经结束
+     *
+     * @param parsingAccessory 一阶段使用的解析配件
+     */
+    private void pipelineStart(ParsingAccessory parsingAccessory) throws InterruptedException {
+        int num;
+
+        /* 提交计算任务：第一分钟 */
+        computingQueue.offer(new ComputingAccessory(serviceIpPairDataMap[0], 0));
+        serviceIpPairDataMap[0] = dataBufferQueue.take();  /* 从缓冲池里拿新的 */
+        if(offHeapMinuteStore) minuteStorePrepare();
+
+        /* 接着读取剩下的 */
+        readingQueue.offer(parsingAccessory);
+        for(num = 0; num < READ_BLOCK_LIMIT - 1; ++num) {   /* 读取工厂初始可使用配件，这些配件和解析线程共用 */
+            readingQueue.offer(new ParsingAccessory());
+        }
+        parsingQueue.put(parsingAccessory);       /* 提交这一个配件用于同步，一阶段已经结束 */
+    }
+
+    /**
+     * 把 data[from, to) 按 PIPELINE_BLOCK_SIZE 切块交给解析工厂，切片和 data 共享内存
+     *
+     * @param data 数据，to 之前的最后一个字节必须是换行
+     */
+    private void pipelineBlocksSubmit(ByteBuffer data, int from, int to) throws InterruptedException {
+        ParsingAccessory parsingAccessory;
+        ByteBuffer block;
+        int blockStart, blockEnd;
+        if(pipelineFailure != null) return;     /* 流水线已经出错，剩下的数据不需要再读了 */
+        for(blockStart = from; blockStart < to; blockStart = blockEnd) {
+            blockEnd = Math.min(blockStart + PIPELINE_BLOCK_SIZE, to);
+            while (data.get(blockEnd - 1) != '\n') blockEnd--;      /* 块也在换行处截断 */
+            block = data.duplicate();
+            block.limit(blockEnd).position(blockStart);
+            parsingAccessory = readingQueue.take();     /* 从队列中获取可用的配件 */
+            parsingAccessory.setHandleView(block.slice()).setHandleLength(blockEnd - blockStart);
+            parsingQueue.put(parsingAccessory);     /* 提交数据块给解析工厂进行解析 */
+        }
+    }
+
+    /**
+     * 流水线结束：通知解析工厂停止，计算乱序窗口内剩下的分钟
+     */
+    private void pipelineFinish() throws InterruptedException, IOException {
+        ParsingAccessory parsingAccessory = readingQueue.take();
+
+        /* 通知解析工厂停止，已经没有活干了，窗口内剩下的分钟必须等它解析完才能计算 */
+        parsingAccessory.setStopSignal(true);
+        parsingQueue.put(parsingAccessory);
+        parsingLatch.await();
+
+        /* 计算窗口内剩余的分钟，之前的给计算线程，最后一分钟由主线程处理，很奈斯～ */
+        for(; currComputingTimeIndex < watermarkMinute; ++currComputingTimeIndex) {
+            computingQueue.offer(new ComputingAccessory(serviceIpPairDataMap[currComputingTimeIndex % nrDataZones]
+                    , currComputingTimeIndex)
+                    .setStoreZone(minuteStore != null ? storeZones[currComputingTimeIndex % nrDataZones] : -1));
+        }
+        computingQueue.offer(new ComputingAccessory(null, -1));   /* 通知计算线程结束 */
+        pipelineStopped = true;
+        if(pipelineFailure != null) {
+            /* 两个线程都已经结束，把错误交给 alarmMonitor 的调用者，而不是让读取阻塞下去 */
+            computingLatch.await();
+            throw new IOException("record pipeline failed", pipelineFailure);
+        }
+        if(lateServiceIpPairSeen) {
+            /* 计算线程登记过新的 IP 对，等它结束再计算，避免同时读写这些结构 */
+            computingLatch.await();
+            lateServiceIpPairDrain();
+        }
+        if(minuteStore != null) {
+            storeAnswerCompute(watermarkMinute, storeZones[watermarkMinute % nrDataZones]
+                    , serviceIpPairDataMap[watermarkMinute % nrDataZones]);
+        } else {
+            pairAnswerCompute(watermarkMinute, serviceIpPairDataMap[watermarkMinute % nrDataZones]);
+        }
+        maxTimeIndex = watermarkMinute;       /* 最大的时间索引 */
+    }
+
+    /**
+     * 设置流水线是否使用堆外分钟列存，必须在 alarmMonitor 之前调用。
+     * 开启后解析线程按服务 IP 对的稠密索引直接写入堆外内存，不再有 PairData 映射以及装箱，
+     * 服务对的汇总数据会使用直方图模式。耗时小于 LatencyHistogram.EXACT_LIMIT 时 P99 是精确的，和堆内的直方图模式一致。
+     * 只对流水线生效，分片模式依旧使用 PairData。列存的 IP 对在一阶段后就固定了，之后才出现的主被调 IP 对
+     * 和堆内模式一样登记，它们的数据写入直方图模式的 PairData，答案和只用堆内直方图时完全一致。
+     *
+     * @param offHeapMinuteStore 是否使用堆外分钟列存
+     */
+    public KcodeAlertAnalysisImpl setOffHeapMinuteStore(boolean offHeapMinuteStore) {
+        this.offHeapMinuteStore = offHeapMinuteStore;
+        if(offHeapMinuteStore) histogramPairData = true;
+        return this;
+    }
+
+    /**
+     * 堆外模式：一阶段结束后服务 IP 对已经确定，建立稠密索引以及列存，
+     * 并把一阶段读到的第 1 ~ reorderWindow 分钟数据搬进列存，后面迟到的记录会继续写入同一个区域。
+     * 第 0 分钟的区域(已经交给计算线程)留给第 reorderWindow + 1 分钟。
+     * 搬走之后堆内的区域只存放之后才出现的 IP 对，和列存的区域一起轮转
+     */
+    private void minuteStorePrepare() {
+        int i, minute;
+        minuteStore = new OffHeapMinuteStore(nrDataBuffers, serviceIpPairs.length);
+        storePairIndexMap = new FlyanIntIntMap(serviceIpPairs.length);
+        for(i = 0; i < serviceIpPairs.length; ++i) {
+            storePairIndexMap.put(serviceIpPairs[i].getIpPair(), i);
+        }
+        storeZones = new int[nrDataZones];
+        for(i = 0; i < nrDataZones; ++i) {
+            storeZones[i] = i;
+        }
+        for(i = nrDataZones; i < nrDataBuffers; ++i) {
+            storeZoneQueue.offer(i);
+        }
+        for(minute = 1; minute <= reorderWindow; ++minute) {
+            Map<Integer, PairData> onZone = serviceIpPairDataMap[minute % nrDataZones];
+            for(i = 0; i < serviceIpPairs.length; ++i) {
+                PairData data = onZone.get(serviceIpPairs[i].getIpPair());
+                if(data != null && data.size() > 0) minuteStore.addAll(storeZones[minute % nrDataZones], i, data);
+            }
+            onZone.clear();
+        }
+    }
+
+    /**
+     * 按照乱序窗口初始化数据缓冲池以及分钟数据区域环，剩下的缓冲都是空闲的
+     */
+    private void dataZonesPrepare() {
+        nrDataZones = reorderWindow + 1;
+        nrDataBuffers = nrDataZones + 1;
+        serviceIpPairDataBuffer = genericArray(Map.class, nrDataBuffers);
+        serviceIpPairDataMap = genericArray(Map.class, nrDataZones);
+        for(int i = 0; i < nrDataBuffers; ++i) {
+            serviceIpPairDataBuffer[i] = new HashMap<>(500, 0.5f);
+            if(i < nrDataZones) {
+                serviceIpPairDataMap[i] = serviceIpPairDataBuffer[i];
+            } else {
+                dataBufferQueue.offer(serviceIpPairDataBuffer[i]);
+            }
+        }
+    }
+
+    /**
+     * 设置乱序窗口，必须在 alarmMonitor 之前调用，默认 1 分钟。
+     * 记录最多可以比已经出现过的最大分钟(水位线)晚 reorderWindow 分钟，水位线超过某一分钟 reorderWindow 分钟之后，
+     * 这一分钟才会关闭并计算，更晚的记录会被丢弃并计入 getLateRecordCount。
+     * 同时存活 reorderWindow + 1 个分钟数据区域，内存只和窗口有关。
+     * 分片模式下每块按块内的水位线判断，块边界上的分钟依旧在合并后计算。
+     *
+     * @param reorderWindow 乱序窗口(分)，至少为 1
+     */
+    public KcodeAlertAnalysisImpl setReorderWindow(int reorderWindow) {
+        if(reorderWindow < 1) throw new IllegalArgumentException("reorderWindow must be >= 1");
+        this.reorderWindow = reorderWindow;
+        return this;
+    }
+
+    /**
+     * @return 超出乱序窗口被丢弃的记录数，alarmMonitor 返回之后才是准确的
+     */
+    public long getLateRecordCount() {
+        return lateRecordCount;
+    }
+
+    /**
+     * 多线程 mmap 分片读取剩下的文件，和初赛一样按换行对齐切块
+     *
+     * @param channel 文件通道
+     * @param position 一阶段处理到的位置
+     */
+    private void shardedIngest(SegmentChannel channel, long position) throws Exception {
+        final long fileSize = channel.size();     /* 所有段的总大小 */
+        final int nrShards = nrIngestShards;
+        int task, minute;
+        /* 切块，除了最后一块，每块的右边界都对齐到换行后 */
+        long[] bounds = new long[nrShards + 1];
+        bounds[0] = position;
+        bounds[nrShards] = fileSize;
+        for(task = 1; task < nrShards; ++task) {
+            bounds[task] = Math.max(bounds[task - 1]
+                    , alignToLine(channel, position + (fileSize - position) * task / nrShards, fileSize));
+        }
+
+        /* 好的，为每块区域开启一个线程处理 */
+        CountDownLatch latch = new CountDownLatch(nrShards);
+        ShardReader[] readers = new ShardReader[nrShards];
+        for(task = 0; task < nrShards; ++task) {
+            readers[task] = new ShardReader(channel, bounds[task], bounds[task + 1], latch);
+            new Thread(readers[task]).start();
+        }
+        latch.await();
+        for(ShardReader reader : readers) {
+            /* 和流水线一样，把分片的错误交给 alarmMonitor 的调用者，而不是返回缺了一块数据的答案 */
+            if(reader.failure != null) throw new IOException("ingest shard failed", reader.failure);
+        }
+
+        /* 登记所有分片中迟到的主被调 IP 对，之后才能计算含有它们的分钟 */
+        List<ServiceIpPair> latePairs = new ArrayList<>();
+        for(ShardReader reader : readers) {
+            latePairs.addAll(reader.latePairs.values());
+        }
+        if(!latePairs.isEmpty()) lateServiceIpPairRegister(latePairs);
+
+        /* 在分钟边界上合并所有分片的碎片数据，第 1 ~ reorderWindow 分钟还有一阶段读到的碎片 */
+        Map<Integer, Map<Integer, PairData>> merged = new TreeMap<>();
+        for(minute = 1; minute <= watermarkMinute; ++minute) {
+            merged.put(minute, serviceIpPairDataMap[minute % nrDataZones]);
+        }
+        maxTimeIndex = watermarkMinute;
+        for(ShardReader reader : readers) {
+            if(reader.maxMinute > maxTimeIndex) maxTimeIndex = reader.maxMinute;
+            lateRecordCount += reader.lateRecords;
+            for(task = 0; task < reader.fragmentMinutes.size(); ++task) {
+                minute = reader.fragmentMinutes.get(task);
+                Map<Integer, PairData> fragment = reader.fragmentZones.get(task);
+                if(minute < 1) {
+                    /* 第 0 分钟已经计算过了，第一块里比水位线晚了超过窗口的记录 */
+                    for(PairData data : fragment.values()) lateRecordCount += data.size();
+                    continue;
+                }
+                Map<Integer, PairData> to = merged.get(minute);
+                if(to == null) {
+                    merged.put(minute, fragment);
+                    continue;
+                }
+                for(Map.Entry<Integer, PairData> e : fragment.entrySet()) {
+                    PairData data = to.get(e.getKey());
+                    if(data == null) to.put(e.getKey(), e.getValue());
+                    else data.addAll(e.getValue());
+                }
+            }
+        }
+        for(Map.Entry<Integer, Map<Integer, PairData>> e : merged.entrySet()) {
+            pairAnswerCompute(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * 从某个位置开始找到下一个换行，返回换行后的位置
+     */
+    private long alignToLine(SegmentChannel channel, long position, long fileSize) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        int readCount, i;
+        while (position < fileSize) {
+            buffer.clear();
+            if( (readCount = channel.read(buffer, position)) <= 0 ) break;
+            for(i = 0; i < readCount; ++i) {
+                if(buffer.get(i) == '\n') return position + i + 1;
+            }
+            position += readCount;
+        }
+        return fileSize;
+    }
+
+    /**
+     * 读出从某个位置开始的一条记录(包括换行)，记录可以跨越段边界，只用来拼接段尾的半条记录
+     *
+     * @return 记录的字节，输入在换行之前就结束了(最后一条残缺的记录)返回 null
+     */
+    private byte[] lineAcross(SegmentChannel channel, long position) throws IOException {
+        long lineEnd = alignToLine(channel, position, channel.size());
+        if(lineEnd == position) return null;
+        ByteBuffer line = ByteBuffer.allocate((int) (lineEnd - position));
+        channel.read(line, position);
+        return line.get(line.limit() - 1) == '\n' ? line.array() : null;
+    }
+
+    /**
+     * 分片读取者，读取一块 mmap 区域并计算完全落在块内的分钟。
+     *
+     * 乱序窗口 reorderWindow 分钟，所以块内第一条记录的分钟 f 之前的块最多含有 f + reorderWindow 分钟的数据，
+     * 这些分钟以及块尾还存活的分钟都是碎片，交给主线程合并后计算。
+     */
+    private class ShardReader implements Runnable {
+
+        private SegmentChannel channel;
+        private long start;         /* 读取左边界 */
+        private long end;           /* 读取右边界 */
+        private CountDownLatch latch;
+        private int ringMask = (Integer.highestOneBit(reorderWindow + 1) << 1) - 1;    /* 环大小是 2 的幂，至少能放下窗口内的分钟 */
+        private Map<Integer, PairData>[] zones = genericArray(Map.class, ringMask + 1);     /* 分钟数据区域环 */
+        private int[] zoneMinutes = new int[ringMask + 1];                 /* 区域对应的分钟，-1 表示空闲 */
+        private Deque<Map<Integer, PairData>> freeZones = new ArrayDeque<>();
+        private int firstMinute = -1;
+        private int maxMinute = -1;
+        private List<Integer> fragmentMinutes = new ArrayList<>();
+        private List<Map<Integer, PairData>> fragmentZones = new ArrayList<>();
+        private boolean[] zoneLate = new boolean[ringMask + 1];           /* 区域中是否有迟到的 IP 对 */
+        private long lateRecords;           /* 块内超出乱序窗口的记录数 */
+        private Map<Integer, ServiceIpPair> latePairs = new LinkedHashMap<>();  /* 块中迟到的 IP 对，合并前登记 */
+        private SwarLineParser parser = new SwarLineParser();
+        private Exception failure;          /* 读取或者解析失败的原因，主线程等所有分片结束后抛出 */
+
+        ShardReader(SegmentChannel channel, long start, long end, CountDownLatch latch) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.latch = latch;
+            Arrays.fill(zoneMinutes, -1);
+        }
+
+        @Override
+        public void run() {
+            try {
+                long position = start;
+                int mapSize, limit, slot;
+                MappedByteBuffer buffer;
+                byte[] stitched;
+                /*
+                 * 块可能超过 2G 或者跨越段，分多次 mmap，每次都对齐到换行后。
+                 * 段尾的半条记录和下一段开头的另一半拼起来单独解析，输入结尾没有换行的残缺记录跳过
+                 */
+                while (position < end) {
+                    mapSize = (int) Math.min(Math.min(end, channel.segmentEnd(position)) - position, SHARD_MAP_LIMIT);
+                    buffer = channel.map(position, mapSize);
+                    limit = mapSize;
+                    while (limit > 0 && buffer.get(limit - 1) != '\n') limit--;
+                    if(limit == 0) {
+                        if( (stitched = lineAcross(channel, position)) == null ) break;
+                        parse(ByteBuffer.wrap(stitched), stitched.length);
+                        position += stitched.length;
+                        continue;
+                    }
+                    parse(buffer, limit);
+                    position += limit;
+                }
+                /* 块尾还存活的分钟，下一块可能还有它们的数据 */
+                for(slot = 0; slot <= ringMask; ++slot) {
+                    if(zoneMinutes[slot] == -1) continue;
+                    fragmentMinutes.add(zoneMinutes[slot]);
+                    fragmentZones.add(zones[slot]);
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            } finally {
+                latch.countDown();
+            }
+        }
+
+        private void parse(ByteBuffer buffer, int limit) {
+            int callerIP, responderIP, success, elapsedTime, minute, slot, lineStart;
+            int handleIndex = 0;
+            buffer.order(ByteOrder.LITTLE_ENDIAN);     /* SWAR 解析按小端序读取 8 个字节 */
+            Map<Integer, PairData> zone;
+            PairData data;
+            while (handleIndex < limit) {
+                lineStart = handleIndex;
+                handleIndex = parser.parse(buffer, handleIndex);
+                callerIP = parser.getCallerIP();
+                responderIP = parser.getResponderIP();
+                success = parser.getSuccess();
+                elapsedTime = parser.getElapsedTime();
+
+                /* 找到该记录的分钟数据区域，比第一条记录还早的也是超出了乱序窗口 */
+                minute = (int) (parser.getTimeMillis() / 60000 - originMinute);
+                if(minute < 0) {
+                    lateRecords++;
+                    continue;
+                }
+                if(minute > maxMinute) {
+                    if(firstMinute == -1) firstMinute = minute;
+                    advance(minute);
+                } else if(minute < maxMinute - reorderWindow) {
+                    lateRecords++;
+                    continue;       /* 超出了乱序窗口，没法放入任何一个存活的分钟 */
+                }
+                slot = minute & ringMask;
+                if(zoneMinutes[slot] != minute) {
+                    zones[slot] = freeZones.isEmpty() ? new HashMap<>(500, 0.5f) : freeZones.pop();
+                    zoneMinutes[slot] = minute;
+                    zoneLate[slot] = false;
+                }
+                zone = zones[slot];
+
+                /* 加入到数据区域 */
+                if( (data = zone.get((callerIP << 16) | responderIP)) == null ) {
+                    zone.put((callerIP << 16) | responderIP, data = newPairData());
+                    if(pairIndexMap.get((callerIP << 16) | responderIP) < 0) {
+                        /* 迟到的 IP 对还没有登记，这一分钟只能留给主线程登记之后再计算 */
+                        zoneLate[slot] = true;
+                        if(!latePairs.containsKey((callerIP << 16) | responderIP)) {
+                            latePairs.put((callerIP << 16) | responderIP, parser.pairParse(buffer, lineStart));
+                        }
+                    }
+                }
+                data.add(elapsedTime, success);
+            }
+        }
+
+        /**
+         * 到了新的分钟，比它早了超过乱序窗口的分钟都不会再有记录了：
+         * 完全落在块内的直接计算并复用区域，否则作为碎片留给主线程合并
+         */
+        private void advance(int minute) {
+            int slot, m;
+            maxMinute = minute;
+            for(slot = 0; slot <= ringMask; ++slot) {
+                m = zoneMinutes[slot];
+                if(m == -1 || m >= minute - reorderWindow) continue;
+                if(m > firstMinute + reorderWindow && !zoneLate[slot]) {
+                    pairAnswerCompute(m, zones[slot]);
+                    freeZones.push(zones[slot]);
+                } else {
+                    fragmentMinutes.add(m);
+                    fragmentZones.add(zones[slot]);
+                }
+                zoneMinutes[slot] = -1;
+                zones[slot] = null;
+            }
+        }
+    }
+
+    /**
+     * 流水线：登记解析线程发现的所有迟到的主被调 IP 对
+     */
+    private void lateServiceIpPairDrain() {
+        if(lateServiceIpPairs.isEmpty()) return;
+        List<ServiceIpPair> pairs = new ArrayList<>();
+        ServiceIpPair sp;
+        while ( (sp = lateServiceIpPairs.poll()) != null ) {
+            pairs.add(sp);
+        }
+        lateServiceIpPairRegister(pairs);
+    }
+
+    /**
+     * 登记一阶段之后才出现的主被调 IP 对：新的服务成为新的节点，新的服务对成为两张图上的新边，
+     * 最长链只增量更新受影响的节点。只会被计算线程(流水线)或者主线程(分片合并前)调用，
+     * 此时没有其他线程在读写这些结构。
+     */
+    private void lateServiceIpPairRegister(List<ServiceIpPair> pairs) {
+        int callerNode, responderNode, n = serviceIpPairs.length;
+        ServiceIpPair[] all = Arrays.copyOf(serviceIpPairs, n + pairs.size());
+        for(ServiceIpPair sp : pairs) {
+            if(pairIndexMap.get(sp.getIpPair()) >= 0) continue;    /* 已经登记过了 */
+            callerNode = serviceNodeRegister(sp.getCaller());
+            responderNode = serviceNodeRegister(sp.getResponder());
+            serviceIpPairAnswerMap.put(sp, new MinuteArchive());
+            servicePairArchive.computeIfAbsent(callerNode, k -> new HashMap<>())
+                    .computeIfAbsent(responderNode, k -> new MinuteArchive());
+            if(servicePairSet.add(new ServicePair(sp.getCaller(), sp.getResponder()))) {
+                outGraph.addEdge(callerNode, responderNode);
+                inGraph.addEdge(responderNode, callerNode);
+                longestPathsOfRight.addEdge(callerNode, responderNode);
+                longestPathsOfLeft.addEdge(responderNode, callerNode);
+            }
+            serviceIpPairSet.add(sp);
+            sp.setAlarmBytes(AlarmEncoder.pairBytes(sp));
+            pairIndexMap.put(sp.getIpPair(), n);
+            all[n++] = sp;
+        }
+        serviceIpPairs = Arrays.copyOf(all, n);
+
+        /* 流式模式下规则已经绑定了 IP 对，新的服务以及 IP 对需要重新绑定 */
+        if(streamingRules != null) streamingRulesRebind();
+    }
+
+    /**
+     * 获取服务的节点，新的服务分配下一个节点
+     */
+    private int serviceNodeRegister(String service) {
+        Integer node = serviceNodeMap.get(service);
+        if(node != null) return node;
+        serviceNodeMap.put(service, node = nextNode++);
+        numberOfNode = nextNode;
+        if(node >= serviceTable.length) serviceTable = Arrays.copyOf(serviceTable, Math.max(node + 1, serviceTable.length << 1));
+        serviceTable[node] = service;
+        longestPathsOfLeft.addNode(node);
+        longestPathsOfRight.addNode(node);
+        return node;
+    }
+
+    /**
+     * 解析所有报警规则，同时登记阶段 2 需要计算答案的服务对
+     *
+     * @param alertRules 所有报警规则，示例如下
+     *  1,ALL,rd_9563486881659901967,P99,2>,100ms
+     *  9,rd_14847304958688727175,rd_467962675963435152,P99,1>,100ms
+     */
+    private List<AlertRule> parseAlertRules(Collection<String> alertRules) {
+        List<AlertRule> rules = new ArrayList<>(alertRules.size());
+        if(pairsOfCaller == null) ruleIndexPrepare();
+        for(String r : alertRules) {
+            AlertRule rule = new AlertRule(r, serviceNodeMap);
+            if(rule.getCallerNode() == AlertRule.NO_NODE || rule.getResponderNode() == AlertRule.NO_NODE) {
+                /* 服务不存在，不会产生报警，也不需要阶段 2 的答案 */
+            } else if(rule.getCaller() != null && rule.getResponder() != null) {   /* 准确的规则 */
+                servicePairRules.add(rule.getCallerNode() * numberOfNode + rule.getResponderNode());
+            } else if(rule.getCaller() == null) {                           /* 调用者模糊 */
+                dimRulesOfResponder.add(rule.getResponderNode());
+            } else {                                                        /* 响应者模糊 */
+                dimRulesOfCaller.add(rule.getCallerNode());
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    /**
+     * 计算所有的报警规则的报警值
+     *
+     * @param alertRules 所有已解析的报警规则
+     */
+    private void alarmAnswerCompute(List<AlertRule> alertRules) throws InterruptedException {
+        timeIndex2BytesTable = new byte[maxTimeIndex + 1][];
+        for(int timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+            timeIndex2BytesTable[timeIndex] = AlarmEncoder.timeBytes(timeIndex2StringTable[timeIndex]);
+        }
+        final int nrChunks = (alertRules.size() + RULE_CHUNK - 1) / RULE_CHUNK;
+        final int nrWorkers = Math.min(nrRuleWorkers, nrChunks);
+        if(nrWorkers <= 1) {
+            ruleChunkCompute(alertRules, 0, alertRules.size(), alarmAnswer);
+            return;
+        }
+
+        /* 规则之间互不影响，每个线程按块领取规则，每块都有自己的输出 */
+        List<String>[] outputs = genericArray(List.class, nrChunks);
+        AtomicInteger nextChunk = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(nrWorkers);
+        RuleWorker[] workers = new RuleWorker[nrWorkers];
+        for(int i = 0; i < nrWorkers; ++i) {
+            workers[i] = new RuleWorker(alertRules, outputs, nextChunk, latch);
+            new Thread(workers[i]).start();
+        }
+        latch.await();
+        for(RuleWorker worker : workers) {
+            /* 失败的块没有输出，不能返回缺了报警的答案 */
+            if(worker.failure != null) throw new IllegalStateException("rule worker failed", worker.failure);
+        }
+
+        /* 按规则顺序拼接，结果和单线程一致 */
+        for(List<String> output : outputs) {
+            alarmAnswer.addAll(output);
+        }
+    }
+
+    /**
+     * 设置并行检查规则的线程数，默认是核数，1 表示在主线程中检查
+     *
+     * @param nrWorkers 线程数
+     */
+    public KcodeAlertAnalysisImpl setRuleWorkers(int nrWorkers) {
+        this.nrRuleWorkers = nrWorkers;
+        return this;
+    }
+
+    /**
+     * 检查 [from, to) 范围内的规则，报警输出到 output 中
+     */
+    private void ruleChunkCompute(List<AlertRule> alertRules, int from, int to, List<String> output) {
+        AlarmEncoder encoder = new AlarmEncoder();
+        for(int i = from; i < to; ++i) {
+            AlertRule rule = alertRules.get(i);
+            /* 通过规则索引只检查匹配的主被调 IP 对 */
+            for(ServiceIpPair sp : pairsOfRule(rule)) {
+                validationRule(rule.getNr(), rule.getAlertType(), rule.getDuration(), rule.isGreater()
+                        , rule.getAlertValue(), sp.getAlarmBytes(), serviceIpPairAnswerMap.get(sp), output, encoder);
+            }
+        }
+    }
+
+    /**
+     * 规则检查者，不断领取下一块规则直到领完。检查只读取已经计算完成的答案，不需要加锁
+     */
+    private class RuleWorker implements Runnable {
+
+        private List<AlertRule> alertRules;
+        private List<String>[] outputs;     /* 每块规则的输出 */
+        private AtomicInteger nextChunk;    /* 下一块待领取的规则 */
+        private CountDownLatch latch;
+        private RuntimeException failure;   /* 检查失败的原因，主线程等所有线程结束后抛出 */
+
+        RuleWorker(List<AlertRule> alertRules, List<String>[] outputs, AtomicInteger nextChunk, CountDownLatch latch) {
+            this.alertRules = alertRules;
+            this.outputs = outputs;
+            this.nextChunk = nextChunk;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int chunk, from;
+                while ( (chunk = nextChunk.getAndIncrement()) < outputs.length ) {
+                    from = chunk * RULE_CHUNK;
+                    List<String> output = new ArrayList<>();
+                    ruleChunkCompute(alertRules, from, Math.min(from + RULE_CHUNK, alertRules.size()), output);
+                    outputs[chunk] = output;
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * 服务 IP 对确定后为每个 IP 对生成一次报警中间段的字节，之后所有报警都直接拷贝
+     */
+    private void alarmBytesPrepare() {
+        for(ServiceIpPair sp : serviceIpPairs) {
+            sp.setAlarmBytes(AlarmEncoder.pairBytes(sp));
+        }
+    }
+
+    /**
+     * 建立规则索引：调用者节点、响应者节点以及服务对 -> 主被调 IP 对，
+     * 规则检查时不再需要遍历所有主被调 IP 对并比较字符串
+     */
+    private void ruleIndexPrepare() {
+        int i, callerNode, responderNode;
+        pairsOfCaller = genericArray(List.class, numberOfNode);
+        pairsOfResponder = genericArray(List.class, numberOfNode);
+        pairsOfServicePair = new HashMap<>(servicePairSet.size() << 1, 0.5f);
+        for(i = 0; i < numberOfNode; ++i) {
+            pairsOfCaller[i] = new ArrayList<>();
+            pairsOfResponder[i] = new ArrayList<>();
+        }
+        for(ServiceIpPair sp : serviceIpPairs) {
+            callerNode = serviceNodeMap.get(sp.getCaller());
+            responderNode = serviceNodeMap.get(sp.getResponder());
+            pairsOfCaller[callerNode].add(sp);
+            pairsOfResponder[responderNode].add(sp);
+            pairsOfServicePair.computeIfAbsent(callerNode * numberOfNode + responderNode, k -> new ArrayList<>()).add(sp);
+        }
+    }
+
+    /**
+     * 通过规则索引找到一条规则匹配的所有主被调 IP 对
+     */
+    private List<ServiceIpPair> pairsOfRule(AlertRule rule) {
+        int callerNode = rule.getCallerNode(), responderNode = rule.getResponderNode();
+        if(callerNode == AlertRule.NO_NODE || responderNode == AlertRule.NO_NODE) return Collections.emptyList();
+        if(callerNode == -1 && responderNode == -1) return Arrays.asList(serviceIpPairs);
+        if(callerNode == -1) return pairsOfResponder[responderNode];       /* 调用者模糊 */
+        if(responderNode == -1) return pairsOfCaller[callerNode];          /* 响应者模糊 */
+        List<ServiceIpPair> pairs = pairsOfServicePair.get(callerNode * numberOfNode + responderNode);
+        return pairs != null ? pairs : Collections.emptyList();
+    }
+
+    /**
+     * 设置报警监听器，开启流式模式，必须在 alarmMonitor 之前调用。
+     * 流式模式下每一分钟计算完成后立即检查所有规则，产生的报警马上推送给监听器，
+     * 报警延迟只有一分钟左右，而不是整个文件的长度。alarmMonitor 依然会返回所有报警。
+     * 分片读取要等所有分片结束才能合并出完整的分钟，做不到逐分钟推送，所以流式模式不能和分片读取同时使用。
+     *
+     * @param alarmListener 报警监听器
+     * @throws IllegalStateException 已经设置了多个分片
+     */
+    public KcodeAlertAnalysisImpl setAlarmListener(AlarmListener alarmListener) {
+        if(alarmListener != null && nrIngestShards > 1) {
+            throw new IllegalStateException("streaming alarms can not be used with " + nrIngestShards + " ingest shards");
+        }
+        this.alarmListener = alarmListener;
+        return this;
+    }
+
+    /**
+     * 流式模式：预先解析规则，并为每条规则绑定它所匹配的主被调 IP 对
+     */
+    private void streamingRulesPrepare(Collection<String> alertRules) {
+        streamingRuleTexts = alertRules;
+        streamingRules = parseAlertRules(alertRules);
+        for(AlertRule rule : streamingRules) {
+            rule.bindPairs(pairsOfRule(rule).toArray(new ServiceIpPair[0]));
+        }
+    }
+
+    /**
+     * 流式模式：出现了新的服务或者 IP 对，重新解析规则并重建规则索引，
+     * 原来就匹配的 IP 对保留当前的报警持续时间
+     */
+    private void streamingRulesRebind() {
+        List<AlertRule> oldRules = streamingRules;
+        dimRulesOfCaller.clear();
+        dimRulesOfResponder.clear();
+        servicePairRules.clear();
+        ruleIndexPrepare();
+        streamingRulesPrepare(streamingRuleTexts);
+        for(int i = 0; i < oldRules.size(); ++i) {
+            AlertRule oldRule = oldRules.get(i), rule = streamingRules.get(i);
+            Map<ServiceIpPair, Integer> persistOf = new HashMap<>();
+            for(int j = 0; j < oldRule.getMatchedPairs().length; ++j) {
+                persistOf.put(oldRule.getMatchedPairs()[j], oldRule.getPersist()[j]);
+            }
+            for(int j = 0; j < rule.getMatchedPairs().length; ++j) {
+                rule.getPersist()[j] = persistOf.getOrDefault(rule.getMatchedPairs()[j], 0);
+            }
+        }
     }
 
     /**
-     * 拓扑得到最长路
+     * 流式模式：某一分钟已经计算完成，检查所有规则，维护报警持续时间并推送报警。
+     * 注意分钟必须按顺序到来，它只会被计算线程以及最后的主线程调用。
      *
-     * @param graph 在哪张图上进行？
-     * @param reverseGraph 反图
-     */
-    private void topological(Graph graph, Graph reverseGraph, List<FlyanIntArrayList>[] nodesLongestPaths
-            , Queue<Integer> Q, int [] outTable) {
-        int w, i, v, maxLength;
-        System.arraycopy(graph.getOutDegreeTable(), 0, outTable, 0, numberOfNode);
-        /* 寻找所有出度为 0 的节点入队列 */
-        for(v = 0; v < numberOfNode; ++v) {
-            /* 出度 > 0 的我们跳过 */
-            if( outTable[v] > 0 ) continue;
-            Q.add(v);
-        }
-        while (!Q.isEmpty()) {
-            w = Q.poll();   /* 取出出度为 0 的节点 */
-            /* 检查出度
-             *  - == 0，最长链就是自己
-             *  - > 0，v 最长链 = v + max(v 所有出度的点的最长链)
-             */
-            if(graph.getOutDegree(w) > 0) {
-
-                /* 遍历 w 的边集，找到拥有最长链的节点 */
-                maxLength = 0;
-                for(i = graph.getHead(w); i != -1; i = graph.getEdge(i).getNext()) {
-                    v = graph.getEdge(i).getV();
-                    if(maxLength < nodesLongestPaths[v].get(0).size()) {
-                        maxLength = nodesLongestPaths[v].get(0).size();
+     * @param timeIndex 已经结束的时间索引(分)
+     */
+    private void streamingAlarmCompute(int timeIndex) {
+        byte[] time = AlarmEncoder.timeBytes(streamingDateFormat.format((originMinute + timeIndex) * 60000L));
+        ServiceIpPair[] pairs;
+        int[] persist;
+        int i, P99, SR;
+        for(AlertRule rule : streamingRules) {
+            pairs = rule.getMatchedPairs();
+            persist = rule.getPersist();
+            for(i = 0; i < pairs.length; ++i) {
+                MinuteArchive onTime = serviceIpPairAnswerMap.get(pairs[i]);
+                if (!onTime.has(timeIndex)) {
+                    persist[i] = 0;
+                    continue;   /* 该主被调 IP 对在该分钟没有答案 */
+                }
+                P99 = onTime.getP99(timeIndex);
+                SR = onTime.getSR(timeIndex);
+                if(!rule.match(P99, SR)) {
+                    persist[i] = 0;        /* 报警持续已中断 */
+                    continue;
+                }
+                if(++persist[i] < rule.getDuration()) continue;
+                /* 该分钟已报警 */
+                String alarm = streamingEncoder.encode(rule.getNr(), time, pairs[i].getAlarmBytes()
+                        , rule.getAlertType(), rule.getAlertType() == TYPE_P99 ? P99 : SR);
+                alarmAnswer.add(alarm);
+                alarmListener.onAlarm(alarm);
+            }
+        }
+    }
+
+    /**
+     * 验证报警规则，产生的报警加入到 output 中
+     */
+    private void validationRule(int nr, int alertType, int duration, boolean greater, int alertValue
+            , byte[] pairBytes, MinuteArchive onTime, List<String> output, AlarmEncoder encoder) {
+        int persist = 0;    /* 报警持续时间 */
+        int timeIndex, P99, SR;
+        if(greater) { /* > */
+
+            if(alertType == TYPE_P99) { /* P99 */
+                for (timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+                    if (!onTime.has(timeIndex)) {
+                        persist = 0;
+                        continue;   /* 该主被调 IP 对在该分钟没有答案 */
+                    }
+
+                    if( (P99 = onTime.getP99(timeIndex)) > alertValue ) {
+                        if(++persist >= duration) { /* 该分钟已报警 */
+                            output.add(encoder.encode(nr, timeIndex2BytesTable[timeIndex], pairBytes, TYPE_P99, P99));
+                        }
+                    } else {
+                        persist = 0;        /* 报警持续已中断 */
                     }
                 }
 
-                /* 将最长链信息添加 */
-                for(i = graph.getHead(w); i != -1; i = graph.getEdge(i).getNext()) {
-                    v = graph.getEdge(i).getV();
-                    if(maxLength == nodesLongestPaths[v].get(0).size()) {
-                        for(FlyanIntArrayList e : nodesLongestPaths[v]) {
-                            FlyanIntArrayList lp = new FlyanIntArrayList(50);
-                            lp.add(w);      /* 根据公式，包括自己 */
-                            lp.addAll(e.getData(), e.size());
-                            nodesLongestPaths[w].add(lp);
+            } else {    /* SR */
+
+                for (timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+                    if (!onTime.has(timeIndex)) {
+                        persist = 0;
+                        continue;   /* 该主被调 IP 对在该分钟没有答案 */
+                    }
+
+                    if( (SR = onTime.getSR(timeIndex)) > alertValue ) {
+                        if(++persist >= duration) { /* 该分钟已报警 */
+                            output.add(encoder.encode(nr, timeIndex2BytesTable[timeIndex], pairBytes, TYPE_SR, SR));
                         }
+                    } else {
+                        persist = 0;        /* 报警持续已中断 */
                     }
                 }
+            }
+
+        } else {    /* < */
+
+            if(alertType == TYPE_P99) { /* P99 */
+                for (timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+                    if (!onTime.has(timeIndex)) {
+                        persist = 0;
+                        continue;   /* 该主被调 IP 对在该分钟没有答案 */
+                    }
+
+                    if( (P99 = onTime.getP99(timeIndex)) < alertValue ) {
+                        if(++persist >= duration) { /* 该分钟已报警 */
+                            output.add(encoder.encode(nr, timeIndex2BytesTable[timeIndex], pairBytes, TYPE_P99, P99));
+                        }
+                    } else {
+                        persist = 0;        /* 报警持续已中断 */
+                    }
+                }
+            } else {    /* SR */
+
+                for (timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+                    if (!onTime.has(timeIndex)) {
+                        persist = 0;
+                        continue;   /* 该主被调 IP 对在该分钟没有答案 */
+                    }
+
+                    if( (SR = onTime.getSR(timeIndex)) < alertValue ) {
+                        if(++persist >= duration && SR >= 0) { /* 该分钟已报警 */
+                            output.add(encoder.encode(nr, timeIndex2BytesTable[timeIndex], pairBytes, TYPE_SR, SR));
+                        }
+                    } else {
+                        persist = 0;        /* 报警持续已中断 */
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 计算一个主被调对在某一时刻(分)的答案
+     * @param timeIndex 开始时间索引(分)
+     */
+    private void pairAnswerCompute(int timeIndex, Map<Integer, PairData> onZone) {
+        Map<MinuteArchive, PairData> onService = servicePairScratch.get();
+        /* 遍历所有主被调 IP 对，它们将指引我们应该从哪拿到数据并计算 */
+        for(ServiceIpPair sp : serviceIpPairs) {
+            PairData data = onZone.get(sp.getIpPair());
+            if(data != null && data.size() > 0) {
+                /* 汇总服务对的数据，阶段 2 需要 */
+                servicePairScratch(onService, sp).addAll(data);
+
+                /* 添加答案 */
+                serviceIpPairAnswerMap.get(sp).put(timeIndex, data.getP99(), data.getSuccessRate());
+            }
+        }
+        servicePairArchive(timeIndex, onService);
+    }
+
+    /**
+     * 获取主被调 IP 对所属服务对的汇总数据，它来自本线程复用的数据
+     */
+    private PairData servicePairScratch(Map<MinuteArchive, PairData> onService, ServiceIpPair sp) {
+        MinuteArchive archive = servicePairArchive.get(serviceNodeMap.get(sp.getCaller()))
+                .get(serviceNodeMap.get(sp.getResponder()));
+        PairData sdata = onService.get(archive);
+        if(sdata == null) onService.put(archive, sdata = newPairData());
+        return sdata;
+    }
+
+    /**
+     * 服务对在该分钟的数据已经汇总完成(每一分钟都只会被计算一次)，立即归档成 P99 以及成功率，
+     * 同时重置汇总数据供下一分钟复用，服务对的原始数据不会随着时长增长
+     */
+    private void servicePairArchive(int timeIndex, Map<MinuteArchive, PairData> onService) {
+        for(Map.Entry<MinuteArchive, PairData> e : onService.entrySet()) {
+            PairData sdata = e.getValue();
+            if(sdata.size() == 0) continue;
+            e.getKey().put(timeIndex, sdata.getP99(), sdata.getSuccessRate());
+        }
+    }
+
+    /**
+     * 堆外模式：计算所有主被调 IP 对在某一时刻(分)的答案，计算完成后清空区域
+     *
+     * @param timeIndex 时间索引(分)
+     * @param zone 列存中的数据区域
+     * @param onZone 同一分钟堆内的数据区域，存放一阶段之后才出现的 IP 对
+     */
+    private void storeAnswerCompute(int timeIndex, int zone, Map<Integer, PairData> onZone) {
+        Map<MinuteArchive, PairData> onService = servicePairScratch.get();
+        ServiceIpPair sp;
+        PairData data;
+        int i, nrStorePairs = minuteStore.getNrPairs();
+        for(i = 0; i < nrStorePairs; ++i) {
+            if(minuteStore.calls(zone, i) == 0) continue;
+            sp = serviceIpPairs[i];
+            /* 汇总服务对的数据，阶段 2 需要 */
+            minuteStore.mergeInto(zone, i, servicePairScratch(onService, sp));
+
+            /* 添加答案 */
+            serviceIpPairAnswerMap.get(sp).put(timeIndex, minuteStore.getP99(zone, i), minuteStore.getSuccessRate(zone, i));
+            minuteStore.clear(zone, i);
+        }
+        /* 不在列存中的 IP 对登记在 serviceIpPairs 的后面 */
+        for(i = nrStorePairs; i < serviceIpPairs.length; ++i) {
+            sp = serviceIpPairs[i];
+            if( (data = onZone.get(sp.getIpPair())) != null && data.size() > 0 ) {
+                servicePairScratch(onService, sp).addAll(data);
+                serviceIpPairAnswerMap.get(sp).put(timeIndex, data.getP99(), data.getSuccessRate());
+            }
+        }
+        servicePairArchive(timeIndex, onService);
+    }
+
+    /**
+     * 计算所有最长路径答案
+     */
+    private void longestPathAnswerCompute() {
+        /* 初始化一些数据和变量 */
+        String caller, responder;
+        int callerNode, responderNode, timeIndex, i;
+        String P99S = "P99";
+        String SRS = "SR";
+        longestPathIndexPrepare();
+
+        /* 读取已经结束，调用图不会再变化，压缩成 CSR 供之后的遍历使用 */
+        outCsrGraph = new CsrGraph(outGraph, numberOfNode);
+        inCsrGraph = new CsrGraph(inGraph, numberOfNode);
+
+        /* 懒加载模式：只保留每个节点的最长链，答案在第一次查询时再拼接 */
+        if(lazyLongestPathLimit > 0 && snapshotPath == null) {
+            final int limit = lazyLongestPathLimit;
+            lazyLongestPathCache = new LinkedHashMap<Q2Key, List<String>>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Q2Key, List<String>> eldest) {
+                    return size() > limit;
+                }
+            };
+            return;
+        }
+
+        /* 挑出规则涉及的服务对，每个(服务对, 分钟)是一个互不影响的单元 */
+        List<ServicePair> pairs = new ArrayList<>(servicePairSet.size());
+        for(ServicePair sp : servicePairSet) {
+            /* 检查本服务调对否符合规则，不符合跳过 */
+            if(longestPathWanted(serviceNodeMap.get(sp.getCaller()), serviceNodeMap.get(sp.getResponder()))) pairs.add(sp);
+        }
+        final int nrMinutes = maxTimeIndex + 1;
+        final int nrCells = pairs.size() * nrMinutes;
+        int[] callerNodes = new int[pairs.size()];
+        int[] responderNodes = new int[pairs.size()];
+        for(i = 0; i < pairs.size(); ++i) {
+            callerNodes[i] = serviceNodeMap.get(pairs.get(i).getCaller());
+            responderNodes[i] = serviceNodeMap.get(pairs.get(i).getResponder());
+        }
+
+        /* 拼接只读取已经冻结的最长链以及服务对归档，每个单元写自己的位置，不需要加锁 */
+        List<String>[] answersByP99 = genericArray(List.class, nrCells);
+        List<String>[] answersBySR = genericArray(List.class, nrCells);
+        LongestPathTask task = new LongestPathTask(callerNodes, responderNodes, nrMinutes, answersByP99, answersBySR,
+                0, nrCells);
+        if(nrLongestPathWorkers <= 1 || nrCells <= LONGEST_PATH_CHUNK) {
+            task.cellsBuild(0, nrCells);   /* 不拆分，否则 fork 会跑到公共池里 */
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(nrLongestPathWorkers);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        /* 按服务对、分钟的顺序登记答案，结果和单线程一致 */
+        for(int cell = 0; cell < nrCells; ++cell) {
+            ServicePair sp = pairs.get(cell / nrMinutes);
+            caller = sp.getCaller();
+            responder = sp.getResponder();
+            callerNode = callerNodes[cell / nrMinutes];
+            responderNode = responderNodes[cell / nrMinutes];
+            timeIndex = cell % nrMinutes;
+            /* 添加该准备调对在该分钟的答案 */
+            longestPathAnswer.put(new Q2Key(caller, responder, timeIndex2StringTable[timeIndex], P99S), answersByP99[cell]);
+            longestPathAnswer.put(new Q2Key(caller, responder, timeIndex2StringTable[timeIndex], SRS), answersBySR[cell]);
+            longestPathFlatPut(callerNode, responderNode, timeIndex, TYPE_P99, answersByP99[cell]);
+            longestPathFlatPut(callerNode, responderNode, timeIndex, TYPE_SR, answersBySR[cell]);
+        }
+        callGraphComponents = longestPathsOfRight.getComponents();     /* 关键链查询还要用 */
+        callGraphOrder = longestPathsOfRight.topologicalOrder();
+        longestPathsOfLeft = longestPathsOfRight = null;  /* 答案已经拼接完，最长链不再需要 */
+        longestPathPrefixCache.clear();     /* 前缀字节已经被答案引用 */
 
-            } else {    /* 出度在这只能是 0 */
-                FlyanIntArrayList lp = new FlyanIntArrayList(3);
-                lp.add(w);
-                nodesLongestPaths[w].add(lp);   /* 只有一条最长路，且这条最长路只包含自己 */
+        /* 答案已全部找到，建立最小完美哈希表，O(n) 并且没有冲突 */
+        longestPathTable = new Q2AnswerTable(longestPathAnswer);
+
+        /* 查询预热，总查询次数有上限：时间线很长时答案有几十万个，每个都查 10000 遍要几分钟 */
+        int rounds = Math.min(10000, Math.max(1, WARMUP_QUERY_LIMIT / Math.max(1, longestPathAnswer.size())));
+        for(i = 0; i < rounds; ++i) {
+            for(Q2Key key : longestPathAnswer.keySet()) {
+                longestPathTable.get(key.getCaller(), key.getResponder(), key.getTime(), key.getType());
             }
+        }
+        longestPathAnswer.clear();     /* 答案都在表里了 */
+    }
+
+    /**
+     * 设置并行拼接阶段 2 答案的线程数，默认是核数，1 表示在主线程中拼接
+     *
+     * @param nrWorkers 线程数
+     */
+    public KcodeAlertAnalysisImpl setLongestPathWorkers(int nrWorkers) {
+        this.nrLongestPathWorkers = nrWorkers;
+        return this;
+    }
+
+    /**
+     * 拼接 [from, to) 范围内的(服务对, 分钟)单元的答案，单元 = 服务对下标 * 分钟数 + 分钟，
+     * 范围太大时一分为二交给 fork-join 池，空闲的线程会窃取另一半
+     */
+    private class LongestPathTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private int[] callerNodes;
+        private int[] responderNodes;
+        private int nrMinutes;
+        private List<String>[] answersByP99;    /* 每个单元的输出 */
+        private List<String>[] answersBySR;
+        private int from, to;
+
+        LongestPathTask(int[] callerNodes, int[] responderNodes, int nrMinutes,
+                        List<String>[] answersByP99, List<String>[] answersBySR, int from, int to) {
+            this.callerNodes = callerNodes;
+            this.responderNodes = responderNodes;
+            this.nrMinutes = nrMinutes;
+            this.answersByP99 = answersByP99;
+            this.answersBySR = answersBySR;
+            this.from = from;
+            this.to = to;
+        }
 
-            /* 减少当前节点的前序节点的出度值 */
-            for(i = reverseGraph.getHead(w); i != -1; i = reverseGraph.getEdge(i).getNext()) {
-                v = reverseGraph.getEdge(i).getV();
-                if(--outTable[v] == 0) {    /* 出度被减少为 0，继续加入拓扑队列 */
-                    Q.add(v);
+        @Override
+        protected void compute() {
+            if(to - from > LONGEST_PATH_CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LongestPathTask(callerNodes, responderNodes, nrMinutes, answersByP99, answersBySR, from, mid),
+                        new LongestPathTask(callerNodes, responderNodes, nrMinutes, answersByP99, answersBySR, mid, to));
+                return;
+            }
+            cellsBuild(from, to);
+        }
+
+        void cellsBuild(int from, int to) {
+            for(int cell = from; cell < to; ++cell) {
+                int callerNode = callerNodes[cell / nrMinutes], responderNode = responderNodes[cell / nrMinutes];
+                answersByP99[cell] = longestPathAnswerBuild(callerNode, responderNode, cell % nrMinutes, TYPE_P99);
+                answersBySR[cell] = longestPathAnswerBuild(callerNode, responderNode, cell % nrMinutes, TYPE_SR);
+            }
+        }
+    }
+
+    /**
+     * 准备阶段 2 整数查询需要的索引：时间字符串的反向映射以及空的平铺答案
+     */
+    private void longestPathIndexPrepare() {
+        time2TimeIndex = new HashMap<>(maxTimeIndex * 2 + 2);
+        for(int timeIndex = 0; timeIndex <= maxTimeIndex; ++timeIndex) {
+            time2TimeIndex.put(timeIndex2StringTable[timeIndex], timeIndex);
+        }
+        longestPathPairIndex = new FlyanIntIntMap(servicePairSet.size());
+        longestPathFlat = genericArray(List.class, (maxTimeIndex + 1) << 1);
+    }
+
+    /**
+     * 把一个答案放进平铺数组，服务对第一次出现时分配稠密索引
+     */
+    private void longestPathFlatPut(int callerNode, int responderNode, int timeIndex, int type, List<String> answer) {
+        int servicePair = callerNode * numberOfNode + responderNode;
+        int pairIndex = longestPathPairIndex.get(servicePair);
+        if(pairIndex == -1) {
+            pairIndex = longestPathPairIndex.size();
+            longestPathPairIndex.put(servicePair, pairIndex);
+        }
+        int index = ((pairIndex * (maxTimeIndex + 1) + timeIndex) << 1) + (type == TYPE_P99 ? 0 : 1);
+        if(index >= longestPathFlat.length) {
+            longestPathFlat = Arrays.copyOf(longestPathFlat, Math.max(index + 1, longestPathFlat.length << 1));
+        }
+        longestPathFlat[index] = answer;
+    }
+
+    /**
+     * 服务名 -> 服务 ID，供整数查询使用，alarmMonitor 之后才有效
+     *
+     * @return 服务 ID，服务不存在时返回 -1
+     */
+    public int serviceId(String service) {
+        return serviceNodeMap.getOrDefault(service, -1);
+    }
+
+    /**
+     * 时间字符串(yyyy-MM-dd HH:mm) -> 时间索引，供整数查询使用，alarmMonitor 之后才有效
+     *
+     * @return 时间索引，时间不在监控数据范围内时返回 -1
+     */
+    public int timeIndexOf(String time) {
+        return time2TimeIndex.getOrDefault(time, -1);
+    }
+
+    /**
+     * 整数版的阶段 2 查询，调用者已经通过 serviceId 以及 timeIndexOf 把字符串换成了 ID，
+     * 查询只需要一次整数哈希以及一次数组访问，没有字符串哈希和比较。
+     *
+     * @param callerId 调用者 ID
+     * @param responderId 响应者 ID
+     * @param timeIndex 时间索引
+     * @param type AlertRule.TYPE_P99 或 AlertRule.TYPE_SR
+     * @return 答案，不存在时返回空列表
+     */
+    public Collection<String> getLongestPath(int callerId, int responderId, int timeIndex, int type) {
+        if(callerId < 0 || callerId >= numberOfNode || responderId < 0 || responderId >= numberOfNode
+                || timeIndex < 0 || timeIndex > maxTimeIndex || (type != TYPE_P99 && type != TYPE_SR)) {
+            return Collections.emptyList();
+        }
+        if(lazyLongestPathCache != null) {
+            return lazyLongestPath(serviceTable[callerId], serviceTable[responderId], timeIndex2StringTable[timeIndex],
+                    type == TYPE_P99 ? ALERT_TYPE_P99 : ALERT_TYPE_SR);
+        }
+        if(snapshotAnswerTable != null) return snapshotAnswerTable.get(callerId, responderId, timeIndex, type);
+        int pairIndex = longestPathPairIndex.get(callerId * numberOfNode + responderId);
+        if(pairIndex == -1) return Collections.emptyList();
+        List<String> answer = longestPathFlat[((pairIndex * (maxTimeIndex + 1) + timeIndex) << 1) + (type == TYPE_P99 ? 0 : 1)];
+        return answer == null ? Collections.emptyList() : answer;
+    }
+
+    /**
+     * 批量的整数查询，第 i 个答案写入 answers[i]
+     *
+     * @param callerIds 调用者 ID
+     * @param responderIds 响应者 ID
+     * @param timeIndexes 时间索引
+     * @param types AlertRule.TYPE_P99 或 AlertRule.TYPE_SR
+     * @param answers 答案输出，长度不能小于 callerIds
+     */
+    public void getLongestPaths(int[] callerIds, int[] responderIds, int[] timeIndexes, int[] types,
+                                Collection<String>[] answers) {
+        for(int i = 0; i < callerIds.length; ++i) {
+            answers[i] = getLongestPath(callerIds[i], responderIds[i], timeIndexes[i], types[i]);
+        }
+    }
+
+    /**
+     * 设置阶段 2 的答案按需拼接，必须在 alarmMonitor 之前调用。
+     * 准备阶段只做拓扑 + DP 保留每个节点的最长链，某个服务对某一分钟的答案在第一次查询时才拼接，
+     * 并放入一个最多 cacheLimit 个答案的 LRU 中，准备时间以及堆内存不再和服务对数 * 分钟数成正比。
+     * 快照需要完整的答案，设置了快照路径时这个选项不生效。
+     *
+     * @param cacheLimit LRU 最多缓存的答案数，<= 0 表示关闭，提前计算所有答案
+     */
+    public KcodeAlertAnalysisImpl setLazyLongestPath(int cacheLimit) {
+        this.lazyLongestPathLimit = cacheLimit;
+        return this;
+    }
+
+    /**
+     * 懒加载模式下的阶段 2 查询，同一服务对同一分钟的 P99 和成功率答案一起拼接、一起缓存
+     */
+    private List<String> lazyLongestPath(String caller, String responder, String time, String type) {
+        Q2Key key = new Q2Key(caller, responder, time, type);
+        List<String> answer;
+        synchronized (lazyLongestPathCache) {
+            answer = lazyLongestPathCache.get(key);
+        }
+        if(answer != null) return answer;
+
+        /* 查询的服务对或者时间不存在，和提前计算时一样返回空列表 */
+        boolean byP99 = "P99".equals(type);
+        Integer callerNode = serviceNodeMap.get(caller), responderNode = serviceNodeMap.get(responder);
+        Integer timeIndex = time2TimeIndex.get(time);
+        if(callerNode == null || responderNode == null || timeIndex == null || !(byP99 || "SR".equals(type))
+                || getServicePairArchive(callerNode, responderNode) == null
+                || !longestPathWanted(callerNode, responderNode)) {
+            return Collections.emptyList();
+        }
+
+        List<String> answerByP99 = longestPathAnswerBuild(callerNode, responderNode, timeIndex, TYPE_P99);
+        List<String> answerBySR = longestPathAnswerBuild(callerNode, responderNode, timeIndex, TYPE_SR);
+        synchronized (lazyLongestPathCache) {
+            lazyLongestPathCache.put(new Q2Key(caller, responder, time, "P99"), answerByP99);
+            lazyLongestPathCache.put(new Q2Key(caller, responder, time, "SR"), answerBySR);
+        }
+        return byP99 ? answerByP99 : answerBySR;
+    }
+
+    /**
+     * 服务对是否需要阶段 2 的答案，只有规则涉及的服务对才会被查询
+     */
+    private boolean longestPathWanted(int callerNode, int responderNode) {
+        return dimRulesOfCaller.contains(callerNode) || dimRulesOfResponder.contains(responderNode)
+                || servicePairRules.contains(callerNode * numberOfNode + responderNode);
+    }
+
+    /**
+     * 生成一个服务对在某一分钟的所有最长路径答案，链的前缀来自缓存，只需要按字节编码每分钟不同的后缀
+     *
+     * @param type TYPE_P99 或 TYPE_SR
+     */
+    private PathAnswer longestPathAnswerBuild(int callerNode, int responderNode, int timeIndex, int type) {
+        PathPrefix prefix = longestPathPrefix(callerNode, responderNode);
+        PathAnswerEncoder encoder = new PathAnswerEncoder();
+        for(MinuteArchive[] edges : prefix.edges) {
+            for(MinuteArchive data : edges) {
+                boolean called = data != null && data.has(timeIndex);   /* 该分钟是否存在调用 */
+                if(type == TYPE_P99) {
+                    encoder.putP99(called ? data.getP99(timeIndex) : -1);
+                } else {
+                    encoder.putSR(called ? data.getSR(timeIndex) : -1);
+                }
+            }
+            encoder.endPath();
+        }
+        return encoder.finish(prefix.texts);
+    }
+
+    /**
+     * 获取一个服务对所有最长链的前缀以及链上每条边的归档，同一个服务对只拼接一次
+     */
+    private PathPrefix longestPathPrefix(int callerNode, int responderNode) {
+        return longestPathPrefixCache.computeIfAbsent(callerNode * numberOfNode + responderNode, servicePair -> {
+            List<byte[]> texts = new ArrayList<>();
+            List<MinuteArchive[]> edges = new ArrayList<>();
+            /* 拼接左边右边，得到整体的最长链，链从共享后缀的结构中直接列举，不再保存每一条链 */
+            longestPathsOfLeft.forEachPath(callerNode, (left, leftLength) ->
+                    longestPathsOfRight.forEachPath(responderNode, (right, rightLength) -> {
+                        StringBuilder text = new StringBuilder();
+                        int k, v, lastNode = -1, n = leftLength + rightLength;
+                        MinuteArchive[] onPath = new MinuteArchive[n - 1];
+
+                        /* 拼接最长路，注意左边需要反向 */
+                        for(k = 0; k < n; ++k) {
+                            v = k < leftLength ? left[leftLength - 1 - k] : right[k - leftLength];
+                            if(k > 0) {     /* 不是第一个节点，记录这条边的归档 */
+                                text.append("->");
+                                onPath[k - 1] = getServicePairArchive(lastNode, v);
+                            }
+                            text.append(serviceTable[v]);
+                            lastNode = v;
+                        }
+                        texts.add(text.append('|').toString().getBytes(StandardCharsets.UTF_8));
+                        edges.add(onPath);
+                    }));
+            return new PathPrefix(texts.toArray(new byte[0][]), edges.toArray(new MinuteArchive[0][]));
+        });
+    }
+
+    /**
+     * 一个服务对所有最长链的前缀 "A->B->C|"，所有分钟、两种类型的答案共享
+     */
+    private static class PathPrefix {
+
+        private byte[][] texts;             /* 每条链的前缀字节 */
+        private MinuteArchive[][] edges;    /* 每条链上每条边(服务对)的归档，null 表示没有数据 */
+
+        PathPrefix(byte[][] texts, MinuteArchive[][] edges) {
+            this.texts = texts;
+            this.edges = edges;
+        }
+    }
+
+    /**
+     * 关键链查询：经过服务对 (caller, responder) 的、某一分钟 P99 之和最大的前 k 条链，alarmMonitor 之后才有效。
+     * 边权取自服务对在该分钟的 P99，该分钟没有调用的边权值为 0，链和阶段 2 一样从源头一直走到尽头。
+     * 快照恢复时没有保存调用图，此时返回空列表。
+     *
+     * @param time 时间(yyyy-MM-dd HH:mm)
+     * @param k 最多返回多少条链
+     * @return 格式和阶段 2 的 P99 答案一样，从重到轻排列，不存在时返回空列表
+     */
+    public List<String> getCriticalPaths(String caller, String responder, String time, int k) {
+        Integer callerNode = serviceNodeMap.get(caller), responderNode = serviceNodeMap.get(responder);
+        Integer timeIndex = time2TimeIndex.get(time);
+        if(callerNode == null || responderNode == null || timeIndex == null || k <= 0
+                || getServicePairArchive(callerNode, responderNode) == null) {
+            return Collections.emptyList();
+        }
+        final int minute = timeIndex;
+        StronglyConnectedComponents components = callGraphComponents != null
+                ? callGraphComponents : longestPathsOfRight.getComponents();
+        int[] order = callGraphOrder != null ? callGraphOrder : longestPathsOfRight.topologicalOrder();
+        CriticalPaths criticalPaths = new CriticalPaths(outCsrGraph, inCsrGraph, components, order, numberOfNode, (u, v) -> {
+            MinuteArchive data = getServicePairArchive(u, v);
+            return data != null && data.has(minute) ? data.getP99(minute) : 0;
+        }, k);
+        long[] weights = new long[k];
+        int[][] paths = criticalPaths.through(callerNode, responderNode, weights);
+
+        /* 和阶段 2 一样编码：链前缀加上每条边的 P99 */
+        byte[][] texts = new byte[paths.length][];
+        PathAnswerEncoder encoder = new PathAnswerEncoder();
+        for(int i = 0; i < paths.length; ++i) {
+            StringBuilder text = new StringBuilder();
+            for(int j = 0; j < paths[i].length; ++j) {
+                if(j > 0) {
+                    text.append("->");
+                    MinuteArchive data = getServicePairArchive(paths[i][j - 1], paths[i][j]);
+                    encoder.putP99(data != null && data.has(minute) ? data.getP99(minute) : -1);
                 }
+                text.append(serviceTable[paths[i][j]]);
             }
+            texts[i] = text.append('|').toString().getBytes(StandardCharsets.UTF_8);
+            encoder.endPath();
         }
+        return encoder.finish(texts);
+    }
+
+    /**
+     * 获取一个服务对每分钟的答案归档
+     */
+    private MinuteArchive getServicePairArchive(int callerNode, int responderNode) {
+        Map<Integer, MinuteArchive> onResponder = servicePairArchive.get(callerNode);
+        if (null == onResponder) return null;   /* 响应者可能是不存在的 */
+        return onResponder.get(responderNode);
     }
 
     @Override
     public Collection<String> getLongestPath(String caller, String responder, String time, String type) {
-        return magicLongestPathAnswer[(29791 * caller.hashCode() + 961 * responder.hashCode()
-                + 31 * time.hashCode() + type.hashCode()) & MAGIC_FAST_QUERY];
+        if(lazyLongestPathCache != null) return lazyLongestPath(caller, responder, time, type);
+        if(snapshotAnswerTable != null) {
+            Integer callerNode = serviceNodeMap.get(caller), responderNode = serviceNodeMap.get(responder);
+            Integer timeIndex = time2TimeIndex.get(time);
+            int alertType = ALERT_TYPE_P99.equals(type) ? TYPE_P99 : ALERT_TYPE_SR.equals(type) ? TYPE_SR : -1;
+            if(callerNode == null || responderNode == null || timeIndex == null || alertType == -1) {
+                return Collections.emptyList();
+            }
+            return snapshotAnswerTable.get(callerNode, responderNode, timeIndex, alertType);
+        }
+        return longestPathTable.get(caller, responder, time, type);
     }
 
 }
@@ -0,0 +1,138 @@
+package com.kuaishou.kcode.domain;
+
+import com.kuaishou.kcode.domain.kv.ServiceIpPair;
+
+import java.util.Map;
+
+/**
+ * @author flyan
+ * date 2020-07-18
+ * @function 一条报警规则，规则字符串只在这里解析一次，批量计算和流式计算共用
+ */
+public class AlertRule {
+
+    /* ---------------- 类型 ---------------- */
+    public static final int TYPE_P99 = 3;
+    public static final int TYPE_SR = 2;
+    public static final int NO_NODE = -2;      /* 规则中的服务不存在于数据中，匹配不到任何主被调对 */
+
+    private int nr;             /* 规则编号 */
+    private String caller;      /* 调用者，为 null 表示 ALL */
+    private int callerNode;     /* 调用者节点，ALL 时为 -1 */
+    private String responder;   /* 响应者，为 null 表示 ALL */
+    private int responderNode;  /* 响应者节点，ALL 时为 -1 */
+    private int alertType;      /* 报警类型，P99 或 成功率 */
+    private int duration;       /* 持续时间 */
+    private boolean greater;    /* 大于？ */
+    private int alertValue;     /* 报警值，成功率放大了 100 倍 */
+
+    /* 流式模式下使用：规则匹配的主被调 IP 对，以及每个 IP 对当前的报警持续时间 */
+    private ServiceIpPair[] matchedPairs;
+    private int[] persist;
+
+    /**
+     * 解析一条报警规则，示例如下
+     *  1,ALL,rd_9563486881659901967,P99,2>,100ms
+     *  9,rd_14847304958688727175,rd_467962675963435152,SR,1<,99.5%
+     *
+     * @param rule 规则字符串
+     * @param serviceNodeMap 服务节点（索引）映射表
+     */
+    public AlertRule(String rule, Map<String, Integer> serviceNodeMap) {
+        String[] split = rule.split(",");
+        nr = Integer.parseInt(split[0]);
+        caller = (split[1].charAt(0) != 'A' ? split[1] : null);
+        callerNode = (caller != null ? serviceNodeMap.getOrDefault(caller, NO_NODE) : -1);
+        responder = (split[2].charAt(0) != 'A' ? split[2] : null);
+        responderNode = (responder != null ? serviceNodeMap.getOrDefault(responder, NO_NODE) : -1);
+        alertType = (split[3].charAt(0) == 'P' ? TYPE_P99 : TYPE_SR);
+        duration = Integer.parseInt(split[4].substring(0, split[4].length() - 1));
+        greater = (split[4].charAt(split[4].length() - 1) == '>');
+        if(alertType == TYPE_P99) {
+            alertValue = Integer.parseInt(split[5].replace("ms", ""));
+        } else {
+            String SRS = split[5].replace("%", "");
+            String[] STSS = SRS.split("\\.");   /* 以小数点分割 */
+            if(STSS.length == 1) {  /* 没有小数位 */
+                alertValue = Integer.parseInt(SRS) * 100;
+            } else {
+                int decimal = Integer.parseInt(STSS[1]);
+                if(STSS[1].length() == 1) decimal *= 10;    /* 99.9，我们为 .9 补齐 0 */
+                alertValue = Integer.parseInt(STSS[0]) * 100 + decimal;
+            }
+        }
+    }
+
+    /**
+     * 该规则是否匹配一个主被调对
+     */
+    public boolean matches(int callerNode, int responderNode) {
+        return (this.callerNode == -1 || this.callerNode == callerNode)
+                && (this.responderNode == -1 || this.responderNode == responderNode);
+    }
+
+    /**
+     * 一个主被调 IP 对在某一分钟的答案是否报警
+     *
+     * @param P99 该分钟的 P99
+     * @param SR 该分钟的成功率，放大 10000 倍
+     */
+    public boolean match(int P99, int SR) {
+        if(alertType == TYPE_P99) {
+            return greater ? P99 > alertValue : P99 < alertValue;
+        }
+        return greater ? SR > alertValue : (SR >= 0 && SR < alertValue);
+    }
+
+    /**
+     * 为流式模式绑定规则所匹配的主被调 IP 对
+     */
+    public void bindPairs(ServiceIpPair[] matchedPairs) {
+        this.matchedPairs = matchedPairs;
+        this.persist = new int[matchedPairs.length];
+    }
+
+    public int getNr() {
+        return nr;
+    }
+
+    public String getCaller() {
+        return caller;
+    }
+
+    public int getCallerNode() {
+        return callerNode;
+    }
+
+    public String getResponder() {
+        return responder;
+    }
+
+    public int getResponderNode() {
+        return responderNode;
+    }
+
+    public int getAlertType() {
+        return alertType;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public boolean isGreater() {
+        return greater;
+    }
+
+    public int getAlertValue() {
+        return alertValue;
+    }
+
+    public ServiceIpPair[] getMatchedPairs() {
+        return matchedPairs;
+    }
+
+    public int[] getPersist() {
+        return persist;
+    }
+}
@@ -0,0 +1,181 @@
+package com.kuaishou.kcode.domain;
+
+/**
+ * @author flyan
+ * date 2020-07-22
+ * @function 某一分钟的关键链：经过一条边 (u, v) 的、边权(P99)之和最大的前 k 条链。
+ *           两个方向各做一次 DP：先用显式栈标出 u 之前以及 v 之后可达的节点，再按调用图的拓扑序(v 之后倒着、u 之前顺着)
+ *           逐个处理，后继总是先算好，没有递归，调用链再长也不会栈溢出。每个节点保存从它出发的前 k 重链，
+ *           记录权值、下一个节点以及下一个节点的第几条链，链本身最后才还原。
+ *           最后在 k * k 个组合里挑出前 k 条。环组(强连通分量)内的边和最长链一样不参与延伸，链不会绕环。
+ *           不是线程安全的，每次查询使用自己的实例。
+ */
+public class CriticalPaths {
+
+    /**
+     * 边权，(caller, responder) 总是调用方向
+     */
+    public interface EdgeWeight {
+        int weight(int caller, int responder);
+    }
+
+    private CsrGraph outGraph;      /* 出图，v 之后的链沿着它延伸 */
+    private CsrGraph inGraph;       /* 入图，u 之前的链沿着它延伸 */
+    private StronglyConnectedComponents components;
+    private int[] topologicalOrder;     /* 调用方向的拓扑序，跨分量的边 (u, v) 中 u 在前 */
+    private EdgeWeight edgeWeight;
+    private int k;
+
+    /* 每个方向一份 DP 表，下标 0 是出图，1 是入图 */
+    private long[][][] weights = new long[2][][];   /* 节点出发的前 k 重链的权值，从大到小 */
+    private int[][][] nexts = new int[2][][];       /* 链上的下一个节点，-1 表示链在这里结束 */
+    private int[][][] nextRanks = new int[2][][];   /* 接上下一个节点的第几条链 */
+    private int[][] counts = new int[2][];          /* 已经求出的链数 */
+    private boolean[][] reached = new boolean[2][];      /* 是否在这个方向上可达，只有可达的节点需要求 */
+
+    /**
+     * @param outGraph 出图
+     * @param inGraph 入图
+     * @param components 调用图的强连通分量
+     * @param topologicalOrder 调用方向上分量的拓扑序展开到节点，来自 LongestPaths.topologicalOrder
+     * @param numberOfNode 节点数量
+     * @param edgeWeight 这一分钟的边权
+     * @param k 最多返回多少条链
+     */
+    public CriticalPaths(CsrGraph outGraph, CsrGraph inGraph, StronglyConnectedComponents components,
+                         int[] topologicalOrder, int numberOfNode, EdgeWeight edgeWeight, int k) {
+        this.outGraph = outGraph;
+        this.inGraph = inGraph;
+        this.components = components;
+        this.topologicalOrder = topologicalOrder;
+        this.edgeWeight = edgeWeight;
+        this.k = k;
+        for(int d = 0; d < 2; ++d) {
+            weights[d] = new long[numberOfNode][];
+            nexts[d] = new int[numberOfNode][];
+            nextRanks[d] = new int[numberOfNode][];
+            counts[d] = new int[numberOfNode];
+            reached[d] = new boolean[numberOfNode];
+        }
+    }
+
+    /**
+     * 经过边 (u, v) 的前 k 重链
+     *
+     * @param weightsOut 每条链的权值输出，长度不能小于 k
+     * @return 每条链上的节点(调用方向)，从重到轻，权值相同时保持图中的边序
+     */
+    public int[][] through(int u, int v, long[] weightsOut) {
+        compute(1, u);
+        compute(0, v);
+        int nrLeft = counts[1][u], nrRight = counts[0][v];
+        long base = edgeWeight.weight(u, v);
+
+        /* k * k 个组合里插入式地挑出前 k 条 */
+        long[] best = new long[k];
+        int[] bestLeft = new int[k], bestRight = new int[k];
+        int n = 0, i, j, p;
+        for(i = 0; i < nrLeft; ++i) {
+            for(j = 0; j < nrRight; ++j) {
+                long w = weights[1][u][i] + base + weights[0][v][j];
+                if(n == k && w <= best[n - 1]) continue;
+                for(p = (n < k ? n++ : n - 1); p > 0 && best[p - 1] < w; --p) {
+                    best[p] = best[p - 1];
+                    bestLeft[p] = bestLeft[p - 1];
+                    bestRight[p] = bestRight[p - 1];
+                }
+                best[p] = w;
+                bestLeft[p] = i;
+                bestRight[p] = j;
+            }
+        }
+
+        /* 还原链，左边需要反向 */
+        int[][] paths = new int[n][];
+        for(i = 0; i < n; ++i) {
+            int[] left = unfold(1, u, bestLeft[i]), right = unfold(0, v, bestRight[i]);
+            int[] path = paths[i] = new int[left.length + right.length];
+            for(j = 0; j < left.length; ++j) path[j] = left[left.length - 1 - j];
+            System.arraycopy(right, 0, path, left.length, right.length);
+            weightsOut[i] = best[i];
+        }
+        return paths;
+    }
+
+    /* from 出发沿着 d 方向跨分量可达的节点，按拓扑序从远到近求出前 k 重链 */
+    private void compute(int d, int from) {
+        CsrGraph graph = d == 0 ? outGraph : inGraph;
+        boolean[] reached = this.reached[d];
+        int[] stack = new int[topologicalOrder.length];
+        int top = 0, x, y, i;
+        stack[top++] = from;
+        reached[from] = true;
+        while (top > 0) {
+            x = stack[--top];
+            for(i = graph.begin(x); i < graph.end(x); ++i) {
+                y = graph.target(i);
+                if(!reached[y] && !components.same(x, y)) {
+                    reached[y] = true;
+                    stack[top++] = y;
+                }
+            }
+        }
+
+        /* 出图的后继在拓扑序后面，倒着处理；入图的后继(调用者)在前面，顺着处理 */
+        for(i = 0; i < topologicalOrder.length; ++i) {
+            x = topologicalOrder[d == 0 ? topologicalOrder.length - 1 - i : i];
+            if(reached[x]) extend(d, graph, x);
+        }
+    }
+
+    /* x 出发的前 k 重链 = 所有边 (x, y) + y 的前 k 重链中最重的 k 条，没有边时就是 x 自己(权值 0) */
+    private void extend(int d, CsrGraph graph, int x) {
+        long[] best = new long[k];
+        int[] next = new int[k], nextRank = new int[k];
+        int n = 0, i, j, p, y;
+        for(i = graph.begin(x); i < graph.end(x); ++i) {
+            y = graph.target(i);
+            if(components.same(x, y)) continue;     /* 环上的边不参与 */
+            long w = d == 0 ? edgeWeight.weight(x, y) : edgeWeight.weight(y, x);
+            for(j = 0; j < counts[d][y]; ++j) {
+                long total = w + weights[d][y][j];
+                if(n == k && total <= best[n - 1]) break;   /* y 的链从重到轻，后面的更不可能 */
+                for(p = (n < k ? n++ : n - 1); p > 0 && best[p - 1] < total; --p) {
+                    best[p] = best[p - 1];
+                    next[p] = next[p - 1];
+                    nextRank[p] = nextRank[p - 1];
+                }
+                best[p] = total;
+                next[p] = y;
+                nextRank[p] = j;
+            }
+        }
+        if(n == 0) {    /* 没有可以延伸的边，链在这里结束，和阶段 2 一样只要走到头的整条链 */
+            best[n] = 0;
+            next[n++] = -1;
+        }
+        weights[d][x] = best;
+        nexts[d][x] = next;
+        nextRanks[d][x] = nextRank;
+        counts[d][x] = n;
+    }
+
+    /* 沿着 next 还原 x 出发的第 rank 条链 */
+    private int[] unfold(int d, int x, int rank) {
+        int length = 1, y = x, r = rank, t;
+        while (nexts[d][y][r] != -1) {
+            t = nexts[d][y][r];
+            r = nextRanks[d][y][r];
+            y = t;
+            length++;
+        }
+        int[] path = new int[length];
+        for(int i = 0; i < length; ++i) {
+            path[i] = x;
+            t = nexts[d][x][rank];
+            rank = nextRanks[d][x][rank];
+            x = t;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,85 @@
+package com.kuaishou.kcode.domain;
+
+/**
+ * @author flyan
+ * date 2020-07-23
+ * @function 压缩稀疏行(CSR)格式的只读有向图，由前向星的 Graph 一次性压缩得到。
+ *           节点 u 的邻接点是 targets[offsets[u], offsets[u + 1])，连续存放，遍历时不需要沿着 next 跳来跳去，
+ *           每个节点的邻接点顺序和 Graph 中 getHead/getNext 的遍历顺序一致。
+ */
+public class CsrGraph {
+
+    private int[] offsets;      /* 节点 u 的邻接点从 offsets[u] 开始，长度为节点数 + 1 */
+    private int[] targets;      /* 所有邻接点，按起点连续存放 */
+    private int numberOfNode;
+
+    /**
+     * 压缩一张前向星图
+     *
+     * @param graph 前向星图
+     * @param numberOfNode 节点数量
+     */
+    public CsrGraph(Graph graph, int numberOfNode) {
+        int u, i, pos = 0;
+        this.numberOfNode = numberOfNode;
+        offsets = new int[numberOfNode + 1];
+        for(u = 0; u < numberOfNode; ++u) {
+            offsets[u + 1] = offsets[u] + graph.getOutDegree(u);
+        }
+        targets = new int[offsets[numberOfNode]];
+        for(u = 0; u < numberOfNode; ++u) {
+            for(i = graph.getHead(u); i != -1; i = graph.getNext(i)) {
+                targets[pos++] = graph.getV(i);
+            }
+        }
+    }
+
+    /**
+     * @return 节点 u 的第一个邻接点在 targets 中的位置
+     */
+    public int begin(int u) {
+        return offsets[u];
+    }
+
+    /**
+     * @return 节点 u 的最后一个邻接点在 targets 中的位置 + 1
+     */
+    public int end(int u) {
+        return offsets[u + 1];
+    }
+
+    /**
+     * @return targets 中第 i 个邻接点
+     */
+    public int target(int i) {
+        return targets[i];
+    }
+
+    public int getNumberOfNode() {
+        return numberOfNode;
+    }
+
+    /**
+     * 拓扑排序(Kahn)，入度为 0 的节点先出，所有边 (u, v) 中 u 都排在 v 前面
+     *
+     * @return 拓扑序，图中有环时返回 null
+     */
+    public int[] topologicalOrder() {
+        int[] inDegree = new int[numberOfNode];
+        int[] order = new int[numberOfNode];
+        int u, i, v, tail = 0;
+        for(i = 0; i < targets.length; ++i) inDegree[targets[i]]++;
+        for(u = 0; u < numberOfNode; ++u) {
+            if(inDegree[u] == 0) order[tail++] = u;
+        }
+        /* order 本身就是队列 */
+        for(int headIndex = 0; headIndex < tail; ++headIndex) {
+            u = order[headIndex];
+            for(i = offsets[u]; i < offsets[u + 1]; ++i) {
+                v = targets[i];
+                if(--inDegree[v] == 0) order[tail++] = v;
+            }
+        }
+        return tail == numberOfNode ? order : null;
+    }
+}
@@ -0,0 +1,75 @@
+package com.kuaishou.kcode.domain;
+
+/**
+ * @author flyan
+ * date 2020-07-19
+ * @function 自写 int -> int 哈希表，开放寻址 + 线性探测，查询时不会装箱也不会分配内存。
+ *           只支持非负的 value，不存在时返回 -1。
+ */
+public class FlyanIntIntMap {
+
+    private int[] keys;
+    private int[] values;       /* 存放 value + 1，0 表示空槽 */
+    private int mask;
+    private int size;
+
+    /**
+     * 指定期望的元素数量创建
+     *
+     * @param expectedSize 期望的元素数量，容量会取它两倍以上的 2 的幂
+     */
+    public FlyanIntIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * 放入一个映射，value 必须非负
+     */
+    public void put(int key, int value) {
+        if( (size + 1) * 2 > keys.length ) rehash();
+        int i = mix(key) & mask;
+        while (values[i] != 0 && keys[i] != key) i = (i + 1) & mask;
+        if(values[i] == 0) size++;
+        keys[i] = key;
+        values[i] = value + 1;
+    }
+
+    /**
+     * 获取映射值
+     *
+     * @return 不存在时返回 -1
+     */
+    public int get(int key) {
+        int i = mix(key) & mask;
+        while (values[i] != 0) {
+            if(keys[i] == key) return values[i] - 1;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys, oldValues = values;
+        keys = new int[oldKeys.length << 1];
+        values = new int[oldValues.length << 1];
+        mask = keys.length - 1;
+        size = 0;
+        for(int i = 0; i < oldKeys.length; ++i) {
+            if(oldValues[i] != 0) put(oldKeys[i], oldValues[i] - 1);
+        }
+    }
+
+    /* IP 对的低位很集中，打散一下 */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
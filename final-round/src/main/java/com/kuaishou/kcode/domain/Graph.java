@@ -1,28 +1,36 @@
 package com.kuaishou.kcode.domain;
 
+import java.util.Arrays;
+
 /**
  * @author flyan
  * date 2020-07-08
- * @function 有向无权图，使用前向星建立，效率还可，听说邻接表之类的建图方式更好。
+ * @function 有向无权图，使用前向星建立，边集是两个平行的 int 数组，每条边不再是一个对象。
+ *           边集以及节点表都会按需扩容，任何时候都可以继续加边(包括新节点)。
+ *           图不再变化之后可以压缩成 CsrGraph，遍历时邻接点是连续的。
  */
 public class Graph {
 
-    private Edge[] edges;   /* 边集 */
+    private int[] targets;  /* 边集：每条边的终点 */
+    private int[] nexts;    /* 边集：同一个起点的下一条边，-1 表示没有了 */
     private int[] head;     /* 指向 i 结点的第一条边 */
     private int[] outDegree;/* 每个节点的出度 */
     private int edgeCount;  /* 边数 */
 
     public Graph() {
-        this(1000);
+        this(1000, 300);
     }
 
-    public Graph(int maxEdge) {
-        edges = new Edge[maxEdge];
-        outDegree = new int[maxEdge];
-        head = new int[maxEdge];
-        for(int i = 0; i < maxEdge; ++i) {
-            head[i] = -1;
-        }
+    /**
+     * @param maxEdge 初始的边数容量，不够时会自动扩容
+     * @param maxNode 初始的节点数容量，不够时会自动扩容
+     */
+    public Graph(int maxEdge, int maxNode) {
+        targets = new int[maxEdge];
+        nexts = new int[maxEdge];
+        outDegree = new int[maxNode];
+        head = new int[maxNode];
+        Arrays.fill(head, -1);
     }
 
     /**
@@ -32,19 +40,42 @@ public class Graph {
      * @param v 终点
      */
     public void addEdge(int u, int v) {
-        edges[edgeCount] = new Edge(u, v, head[u]);
+        if(edgeCount == targets.length) {
+            targets = Arrays.copyOf(targets, targets.length << 1);
+            nexts = Arrays.copyOf(nexts, nexts.length << 1);
+        }
+        if(Math.max(u, v) >= head.length) growNodes(Math.max(u, v) + 1);
+        targets[edgeCount] = v;
+        nexts[edgeCount] = head[u];
         head[u] = edgeCount++;
         outDegree[u]++; /* 记录该节点的出度 */
     }
 
     /**
-     * 获取一条边
+     * 获取一条边的终点
      *
      * @param edgeIndex 该边在边集数组中的索引
-     * @return 边
+     * @return 终点
      */
-    public Edge getEdge(int edgeIndex) {
-        return edges[edgeIndex];
+    public int getV(int edgeIndex) {
+        return targets[edgeIndex];
+    }
+
+    /**
+     * 获取同一个起点的下一条边
+     *
+     * @param edgeIndex 该边在边集数组中的索引
+     * @return 下一条边的索引，-1 表示没有了
+     */
+    public int getNext(int edgeIndex) {
+        return nexts[edgeIndex];
+    }
+
+    /**
+     * @return 边数
+     */
+    public int getEdgeCount() {
+        return edgeCount;
     }
 
     /**
@@ -63,7 +94,7 @@ public class Graph {
      * @return 出度
      */
     public int getOutDegree(int node) {
-        return outDegree[node];
+        return node < outDegree.length ? outDegree[node] : 0;
     }
 
     /**
@@ -73,7 +104,17 @@ public class Graph {
      * @return 起始位置
      */
     public int getHead(int node) {
-        return head[node];
+        return node < head.length ? head[node] : -1;
+    }
+
+    /**
+     * 节点表扩容，新节点没有边
+     */
+    private void growNodes(int nrNodes) {
+        int oldLength = head.length, length = Math.max(nrNodes, oldLength << 1);
+        head = Arrays.copyOf(head, length);
+        Arrays.fill(head, oldLength, length, -1);
+        outDegree = Arrays.copyOf(outDegree, length);
     }
 
 }
@@ -0,0 +1,98 @@
+package com.kuaishou.kcode.domain;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author flyan
+ * date 2020-07-23
+ * @function IP 字符串 -> 稠密编号，IPv4、IPv6 或者任何其他写法都只当作字节串。
+ *           开放寻址 + 线性探测，直接拿缓冲中的字节比较，已经出现过的 IP 查询时不分配内存。
+ *           编号要放进主被调 IP 对的低 16 位，所以最多 65536 个 IP。不是线程安全的，只在一个解析线程中使用。
+ */
+public class IpTable {
+
+    public static final int MAX_SIZE = 1 << 16;
+
+    private int[] slots;            /* 存放编号 + 1，0 表示空槽 */
+    private int[] hashes;           /* 编号 -> 哈希 */
+    private byte[][] texts;         /* 编号 -> IP 字节 */
+    private String[] strings;       /* 编号 -> IP 字符串，第一次使用时才生成 */
+    private int mask;
+    private int size;
+
+    public IpTable() {
+        slots = new int[1024];
+        mask = slots.length - 1;
+        hashes = new int[256];
+        texts = new byte[256][];
+        strings = new String[256];
+    }
+
+    /**
+     * 找到 buffer[from, to) 这个 IP 的编号，第一次出现时登记
+     *
+     * @return 编号
+     */
+    public int intern(ByteBuffer buffer, int from, int to) {
+        int hash = 0, i, id;
+        for(i = from; i < to; ++i) hash = hash * 31 + buffer.get(i);
+        for(i = mix(hash) & mask; (id = slots[i] - 1) >= 0; i = (i + 1) & mask) {
+            if(hashes[id] == hash && equals(texts[id], buffer, from, to)) return id;
+        }
+
+        /* 新的 IP */
+        if(size == MAX_SIZE) {
+            throw new IllegalStateException("more than " + MAX_SIZE + " distinct ips, ip pair keys only hold 16 bits per ip");
+        }
+        if(size == texts.length) {
+            hashes = Arrays.copyOf(hashes, size << 1);
+            texts = Arrays.copyOf(texts, size << 1);
+            strings = Arrays.copyOf(strings, size << 1);
+        }
+        byte[] text = new byte[to - from];
+        for(int k = 0; k < text.length; ++k) text[k] = buffer.get(from + k);
+        id = size++;
+        hashes[id] = hash;
+        texts[id] = text;
+        slots[i] = id + 1;
+        if(size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    /**
+     * @return 编号对应的 IP 字符串
+     */
+    public String text(int id) {
+        if(strings[id] == null) strings[id] = new String(texts[id], StandardCharsets.UTF_8);
+        return strings[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length << 1];
+        mask = slots.length - 1;
+        for(int id = 0; id < size; ++id) {
+            int i = mix(hashes[id]) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = id + 1;
+        }
+    }
+
+    private static boolean equals(byte[] text, ByteBuffer buffer, int from, int to) {
+        if(text.length != to - from) return false;
+        for(int k = 0; k < text.length; ++k) {
+            if(text[k] != buffer.get(from + k)) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,161 @@
+package com.kuaishou.kcode.domain;
+
+import java.util.Arrays;
+
+/**
+ * @author flyan
+ * date 2020-07-19
+ * @function 可合并的耗时直方图，小于 EXACT_LIMIT 的耗时精确计数，大于的按对数分桶，
+ *           每个 2 的幂区间再细分 SUB_COUNT 个子桶，相对误差不超过 1 / SUB_COUNT。
+ *           分位数、最大值、平均值以及合并都只和桶数有关，和调用次数无关。
+ */
+public class LatencyHistogram {
+
+    public static final int EXACT_LIMIT = 4096;     /* 精确计数的上限(不含) */
+    private static final int EXACT_BITS = 12;       /* EXACT_LIMIT = 1 << EXACT_BITS */
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LOG_BUCKETS = (31 - EXACT_BITS) * SUB_COUNT;
+    public static final int BUCKETS = EXACT_LIMIT + LOG_BUCKETS;    /* 桶的总数，用于按桶遍历 */
+
+    private int[] exact = new int[128];     /* 精确桶，按需扩容，耗时都不大时非常紧凑 */
+    private int exactTop;                   /* 使用过的最大精确桶 + 1 */
+    private int[] log;                      /* 对数桶，出现大耗时才分配 */
+    private int count;                      /* 调用次数 */
+    private long sum;                       /* 耗时总和 */
+    private int max;                        /* 最大耗时 */
+
+    /**
+     * 添加一次耗时
+     */
+    public void add(final int elapsedTime) {
+        add(elapsedTime, 1);
+    }
+
+    /**
+     * 添加多次相同的耗时
+     *
+     * @param times 次数
+     */
+    public void add(final int elapsedTime, final int times) {
+        if(elapsedTime < EXACT_LIMIT) {
+            if(elapsedTime >= exact.length) grow(elapsedTime + 1);
+            exact[elapsedTime] += times;
+            if(elapsedTime >= exactTop) exactTop = elapsedTime + 1;
+        } else {
+            if(log == null) log = new int[LOG_BUCKETS];
+            log[logIndex(elapsedTime)] += times;
+        }
+        count += times;
+        sum += (long) elapsedTime * times;
+        if(elapsedTime > max) max = elapsedTime;
+    }
+
+    /**
+     * 合并另一个直方图，O(桶数)
+     */
+    public void merge(LatencyHistogram from) {
+        int i;
+        if(from.exactTop > exact.length) grow(from.exactTop);
+        for(i = 0; i < from.exactTop; ++i) {
+            exact[i] += from.exact[i];
+        }
+        if(from.exactTop > exactTop) exactTop = from.exactTop;
+        if(from.log != null) {
+            if(log == null) log = new int[LOG_BUCKETS];
+            for(i = 0; i < LOG_BUCKETS; ++i) {
+                log[i] += from.log[i];
+            }
+        }
+        count += from.count;
+        sum += from.sum;
+        if(from.max > max) max = from.max;
+    }
+
+    /**
+     * 从大到小排序后第 k 个(从 0 开始)耗时，和 PairData 的 topk 语义一致
+     */
+    public int topk(int k) {
+        int i, seen = 0;
+        if(log != null) {
+            for(i = LOG_BUCKETS - 1; i >= 0; --i) {
+                if( (seen += log[i]) > k ) return logValue(i);
+            }
+        }
+        for(i = exactTop - 1; i >= 0; --i) {
+            if( (seen += exact[i]) > k ) return i;
+        }
+        return -1;
+    }
+
+    public int getP99() {
+        return topk((int) (count * 0.01));
+    }
+
+    public int getP50() {
+        return topk((int) (count * 0.5));
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public int getAverage() {
+        return count == 0 ? 0 : (int) (sum / count);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 某个桶的计数，桶从 0 到 BUCKETS - 1，前 EXACT_LIMIT 个是精确桶
+     */
+    public int countOf(int bucket) {
+        if(bucket < EXACT_LIMIT) return bucket < exactTop ? exact[bucket] : 0;
+        return log == null ? 0 : log[bucket - EXACT_LIMIT];
+    }
+
+    /**
+     * 耗时所在的桶，前 EXACT_LIMIT 个是精确桶，OffHeapMinuteStore 使用同一套分桶
+     */
+    public static int bucketOf(int value) {
+        return value < EXACT_LIMIT ? value : EXACT_LIMIT + logIndex(value);
+    }
+
+    /**
+     * 某个桶的代表值
+     */
+    public static int valueOf(int bucket) {
+        return bucket < EXACT_LIMIT ? bucket : logValue(bucket - EXACT_LIMIT);
+    }
+
+    /**
+     * 重置，为下次的复用做准备
+     */
+    public void reset() {
+        Arrays.fill(exact, 0, exactTop, 0);
+        if(log != null) Arrays.fill(log, 0);
+        exactTop = count = max = 0;
+        sum = 0;
+    }
+
+    private void grow(int minLength) {
+        int newLength = Math.min(Math.max(minLength, exact.length << 1), EXACT_LIMIT);
+        exact = Arrays.copyOf(exact, newLength);
+    }
+
+    /* 对数桶索引：2 的幂区间 + 区间内的子桶 */
+    private static int logIndex(int value) {
+        int exponent = 31 - Integer.numberOfLeadingZeros(value);
+        return ((exponent - EXACT_BITS) << SUB_BITS) | ((value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1));
+    }
+
+    /* 对数桶的代表值，取桶的中点 */
+    private static int logValue(int index) {
+        int exponent = (index >>> SUB_BITS) + EXACT_BITS;
+        int width = 1 << (exponent - SUB_BITS);
+        return (1 << exponent) + (index & (SUB_COUNT - 1)) * width + (width >>> 1);
+    }
+
+}
@@ -0,0 +1,348 @@
+package com.kuaishou.kcode.domain;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ * @author flyan
+ * date 2020-07-22
+ * @function 每个节点出发的所有最长链(沿着 graph 的边)，支持动态加边。图中可以有环：
+ *           先求强连通分量，环上的边不参与延伸，最长链在缩点后的 DAG 上求，链不会绕环，在每个环组中只经过一个节点。
+ *           最长链以共享后缀的方式存放：每个节点只记录最长链的长度以及最长链上的后继节点，
+ *           所有最长链在需要时才沿着后继列举出来，内存只和边数有关，而不是链数 * 链长。
+ *           先用缩点 + DP 一次性求出所有节点的最长链，之后每加一条边 (u, v)，用 Pearce-Kelly 的方式维护分量的拓扑序：
+ *           只有 v 排在 u 前面时才在两者之间的区间里搜索，区间里受影响的分量重新排位；
+ *           新边形成环时把环上的分量就地合并，只重算合并出来的分量以及链长变化的前序节点，不会重新缩点。
+ */
+public class LongestPaths {
+
+    /**
+     * 最长链的访问者
+     */
+    public interface PathVisitor {
+        /**
+         * @param path 最长链，path[0] 是起点，访问结束后数组会被复用
+         * @param length 链上的节点数
+         */
+        void visit(int[] path, int length);
+    }
+
+    private Graph graph;            /* 沿着它的边延伸最长链 */
+    private Graph reverseGraph;     /* 反图，用来找到受影响的前序节点 */
+    private int[] lengths = new int[16];            /* 每个节点最长链的节点数，0 表示还没有算出来 */
+    private FlyanIntArrayList[] bestSuccessors = new FlyanIntArrayList[16];   /* 最长链上的后继节点 */
+    private int numberOfNode;
+    private StronglyConnectedComponents components;     /* 强连通分量，环组内的边不参与延伸 */
+
+    /* 分量的拓扑序，跨分量的边 (u, v) 一定有 position[u 的分量] < position[v 的分量]，位置之间可以有空洞 */
+    private int[] positions = new int[16];
+    private int nextPosition;
+
+    /* 加边时区间搜索用的工作区，按 epoch 标记，不需要每次清空 */
+    private int epoch;
+    private int[] forwardMarks = new int[16];       /* 节点从 v 出发可达 */
+    private int[] backwardMarks = new int[16];      /* 节点可以到达 u */
+    private int[] componentMarks = new int[16];     /* 分量已经收集过，正数是前向，负数是后向 */
+    private int[] forward = new int[16], backward = new int[16], stack = new int[16];
+
+    /**
+     * @param graph 在哪张图上求最长链？
+     * @param reverseGraph 它的反图
+     */
+    public LongestPaths(Graph graph, Graph reverseGraph) {
+        this.graph = graph;
+        this.reverseGraph = reverseGraph;
+    }
+
+    /**
+     * 强连通分量缩点 + DP 得到所有节点的最长链。环上的边(同一个分量内的边)不参与延伸，
+     * 剩下的跨分量边构成 DAG，按分量编号从小到大(缩点后的逆拓扑序)处理节点，后继一定已经算好，线性时间。
+     * 一次性的遍历都在压缩好的 CSR 图上进行，之后的增量更新仍然使用可以加边的前向星。
+     *
+     * @param numberOfNode 节点数量
+     */
+    public void build(int numberOfNode) {
+        int w, i, v, c, maxLength;
+        ensureNodes(numberOfNode);
+        CsrGraph csr = new CsrGraph(graph, numberOfNode);
+        int[] order = csr.topologicalOrder();
+        /* 无环时拓扑序就够了，有环才需要 Tarjan */
+        components = order != null ? new StronglyConnectedComponents(order) : new StronglyConnectedComponents(csr);
+
+        /* 分量编号是逆拓扑序，倒过来就是分量的拓扑位置 */
+        ensureComponents(components.count());
+        for(c = 0; c < components.count(); ++c) positions[c] = components.count() - 1 - c;
+        nextPosition = components.count();
+
+        /* 按分量编号对节点做计数排序 */
+        int[] start = new int[components.count() + 1];
+        order = new int[numberOfNode];
+        for(v = 0; v < numberOfNode; ++v) start[components.component(v) + 1]++;
+        for(c = 0; c < components.count(); ++c) start[c + 1] += start[c];
+        for(v = 0; v < numberOfNode; ++v) order[start[components.component(v)]++] = v;
+
+        for(int o = 0; o < numberOfNode; ++o) {
+            w = order[o];
+            bestSuccessors[w] = new FlyanIntArrayList(2);
+            /* w 最长链 = w + max(w 所有跨分量后继的最长链)，没有这样的后继时最长链只包含自己 */
+            maxLength = 0;
+            for(i = csr.begin(w); i < csr.end(w); ++i) {
+                v = csr.target(i);
+                if(!components.same(w, v)) maxLength = Math.max(maxLength, lengths[v]);
+            }
+
+            /* 只记录最长链上的后继，后缀和它们共享 */
+            for(i = csr.begin(w); i < csr.end(w); ++i) {
+                v = csr.target(i);
+                if(maxLength > 0 && maxLength == lengths[v] && !components.same(w, v)) bestSuccessors[w].add(v);
+            }
+            lengths[w] = maxLength + 1;     /* 根据公式，包括自己 */
+        }
+    }
+
+    /**
+     * 新增一个还没有边的节点，它的最长链只有自己，它的分量排在拓扑序的最后
+     */
+    public void addNode(int node) {
+        ensureNodes(node + 1);
+        lengths[node] = 1;
+        bestSuccessors[node] = new FlyanIntArrayList(2);
+        components.addNode(node);
+        ensureComponents(components.count());
+        positions[components.component(node)] = nextPosition++;
+    }
+
+    /**
+     * 边 (u, v) 已经加入了 graph 以及 reverseGraph，增量更新受影响的节点。
+     * u 的分量已经排在 v 的分量前面时拓扑序不用动，否则在两者之间的区间里重新排位，
+     * v 能回到 u 时出现了新的环，环上的分量合并成一个，否则只沿着反图传播变长的链。
+     */
+    public void addEdge(int u, int v) {
+        int x, w, i;
+        if(components.same(u, v)) return;   /* 环上的边，不参与延伸 */
+        if(position(u) > position(v) && reorder(u, v)) return;
+        if(!relax(u, v)) return;    /* u 的链长没有变，前序节点的后继指针也就不会变 */
+        Queue<Integer> Q = new ArrayDeque<>();
+        Q.add(u);
+        while (!Q.isEmpty()) {
+            x = Q.poll();
+            /* x 的链变长了，前序节点可能要改走 x */
+            for(i = reverseGraph.getHead(x); i != -1; i = reverseGraph.getNext(i)) {
+                w = reverseGraph.getV(i);
+                if(!components.same(w, x) && relax(w, x)) Q.add(w);
+            }
+        }
+    }
+
+    /**
+     * @return 当前的强连通分量，同一个分量中的节点构成环组
+     */
+    public StronglyConnectedComponents getComponents() {
+        return components;
+    }
+
+    /**
+     * 某个节点最长链的节点数
+     */
+    public int length(int node) {
+        return lengths[node];
+    }
+
+    /**
+     * 当前分量拓扑序下的节点顺序，跨分量的边 (u, v) 中 u 一定排在 v 前面，同一个分量的节点相邻
+     */
+    public int[] topologicalOrder() {
+        long[] keys = new long[numberOfNode];
+        for(int v = 0; v < numberOfNode; ++v) keys[v] = (long) position(v) << 32 | v;
+        Arrays.sort(keys);
+        int[] order = new int[numberOfNode];
+        for(int i = 0; i < numberOfNode; ++i) order[i] = (int) keys[i];
+        return order;
+    }
+
+    /**
+     * 深度优先列举一个节点的所有最长链，每条链都从该节点开始。
+     * 用显式栈代替递归，链再长也不会栈溢出
+     */
+    public void forEachPath(int node, PathVisitor visitor) {
+        int[] path = new int[lengths[node]];
+        int[] cursors = new int[lengths[node]];     /* 每一层下一个要走的后继 */
+        int depth = 0;
+        FlyanIntArrayList next;
+        path[0] = node;
+        while (depth >= 0) {
+            next = bestSuccessors[path[depth]];
+            if(next.size() == 0) {
+                visitor.visit(path, depth + 1);
+                depth--;
+            } else if(cursors[depth] == next.size()) {
+                depth--;
+            } else {
+                path[depth + 1] = next.get(cursors[depth]++);
+                cursors[++depth] = 0;
+            }
+        }
+    }
+
+    /**
+     * 用后继 v 更新 w 的最长链
+     *
+     * @return w 的链长是否变了
+     */
+    private boolean relax(int w, int v) {
+        int length = lengths[v] + 1;
+        if(length < lengths[w]) return false;
+        FlyanIntArrayList best = bestSuccessors[w];
+        if(length > lengths[w]) {
+            best.size(0);
+            best.add(v);
+            lengths[w] = length;
+            return true;
+        }
+        for(int i = 0; i < best.size(); ++i) {
+            if(best.get(i) == v) return false;
+        }
+        best.add(v);    /* 一样长，多了一组共享后缀的最长链 */
+        return false;
+    }
+
+    private int position(int node) {
+        return positions[components.component(node)];
+    }
+
+    /*
+     * u 的分量排在 v 的分量后面，只在 [position(v), position(u)] 区间里搜索：
+     * 从 v 出发可达的节点集合 F，能到达 u 的节点集合 B。F 中没有 u 时 B 整体挪到 F 前面，两组各自保持原来的相对顺序，
+     * 用的还是它们原来占的那些位置；F 中有 u 时 F 和 B 的交集就是新的环，它们合并成一个分量，放在两组中间。
+     *
+     * @return 是否出现了新的环，此时链长已经更新好了
+     */
+    private boolean reorder(int u, int v) {
+        int lower = position(v), upper = position(u);
+        ++epoch;
+        int nrForward = search(v, graph, forwardMarks, forward, lower, upper);
+        int nrBackward = search(u, reverseGraph, backwardMarks, backward, lower, upper);
+        boolean cycle = forwardMarks[u] == epoch;
+
+        /* 收集涉及到的分量，环上的分量两边都有，单独拿出来 */
+        long[] before = new long[nrBackward], after = new long[nrForward], pool = new long[nrBackward + nrForward];
+        int nrBefore = 0, nrAfter = 0, nrPool = 0, nrCycle = 0, i, c, x;
+        for(i = 0; i < nrForward; ++i) {
+            c = components.component(forward[i]);
+            if(componentMarks[c] == epoch) continue;
+            componentMarks[c] = epoch;
+            pool[nrPool++] = positions[c];
+            if(backwardMarks[forward[i]] != epoch) after[nrAfter++] = (long) positions[c] << 32 | c;
+        }
+        for(i = 0; i < nrBackward; ++i) {
+            x = backward[i];
+            c = components.component(x);
+            if(forwardMarks[x] == epoch) {
+                backward[nrCycle++] = x;    /* 环上的节点，前面的都已经读过了，原地收集 */
+                continue;
+            }
+            if(componentMarks[c] == -epoch) continue;
+            componentMarks[c] = -epoch;
+            pool[nrPool++] = positions[c];
+            before[nrBefore++] = (long) positions[c] << 32 | c;
+        }
+        Arrays.sort(pool, 0, nrPool);
+        Arrays.sort(before, 0, nrBefore);
+        Arrays.sort(after, 0, nrAfter);
+
+        /* B 占最前面的位置，F 占最后面的位置，都只会往外挪，区间外的顺序不受影响 */
+        for(i = 0; i < nrBefore; ++i) positions[(int) before[i]] = (int) pool[i];
+        for(i = 0; i < nrAfter; ++i) positions[(int) after[i]] = (int) pool[nrPool - nrAfter + i];
+        if(!cycle) return false;
+        positions[components.merge(backward, 0, nrCycle)] = (int) pool[nrBefore];
+        recompute(backward, nrCycle);
+        return true;
+    }
+
+    /* 在 graph 上从 from 出发深度优先搜索分量位置在 [lower, upper] 里的节点，标记并收集到 found 中 */
+    private int search(int from, Graph graph, int[] marks, int[] found, int lower, int upper) {
+        int top = 0, nrFound = 0, x, i, y, p;
+        stack[top++] = from;
+        marks[from] = epoch;
+        while (top > 0) {
+            x = stack[--top];
+            found[nrFound++] = x;
+            for(i = graph.getHead(x); i != -1; i = graph.getNext(i)) {
+                y = graph.getV(i);
+                p = position(y);
+                if(marks[y] != epoch && p >= lower && p <= upper) {
+                    marks[y] = epoch;
+                    stack[top++] = y;
+                }
+            }
+        }
+        return nrFound;
+    }
+
+    /*
+     * 合并出来的分量内部的边不再参与延伸，它的节点链长可能变短。按分量位置从后往前重算，
+     * 后继总是先算好，链长变了的节点才把跨分量的前序节点放进来
+     */
+    private void recompute(int[] seeds, int nrSeeds) {
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(nrSeeds, 1), (a, b) -> position(b) - position(a));
+        int x, w, i, oldLength;
+        ++epoch;
+        for(i = 0; i < nrSeeds; ++i) {
+            forwardMarks[seeds[i]] = epoch;
+            queue.add(seeds[i]);
+        }
+        while (!queue.isEmpty()) {
+            x = queue.poll();
+            oldLength = lengths[x];
+            successorsOf(x);
+            if(lengths[x] == oldLength) continue;
+            for(i = reverseGraph.getHead(x); i != -1; i = reverseGraph.getNext(i)) {
+                w = reverseGraph.getV(i);
+                if(!components.same(w, x) && forwardMarks[w] != epoch) {
+                    forwardMarks[w] = epoch;
+                    queue.add(w);
+                }
+            }
+        }
+    }
+
+    /* 和 build 一样，从所有跨分量的后继重新求 w 的最长链 */
+    private void successorsOf(int w) {
+        int maxLength = 0, i, v;
+        for(i = graph.getHead(w); i != -1; i = graph.getNext(i)) {
+            v = graph.getV(i);
+            if(!components.same(w, v)) maxLength = Math.max(maxLength, lengths[v]);
+        }
+        FlyanIntArrayList best = bestSuccessors[w];
+        best.size(0);
+        for(i = graph.getHead(w); i != -1; i = graph.getNext(i)) {
+            v = graph.getV(i);
+            if(maxLength > 0 && maxLength == lengths[v] && !components.same(w, v)) best.add(v);
+        }
+        lengths[w] = maxLength + 1;
+    }
+
+    private void ensureNodes(int nrNodes) {
+        if(nrNodes > lengths.length) {
+            int length = Math.max(nrNodes, lengths.length << 1);
+            lengths = Arrays.copyOf(lengths, length);
+            bestSuccessors = Arrays.copyOf(bestSuccessors, length);
+            forwardMarks = Arrays.copyOf(forwardMarks, length);
+            backwardMarks = Arrays.copyOf(backwardMarks, length);
+            forward = new int[length];
+            backward = new int[length];
+            stack = new int[length];
+        }
+        numberOfNode = Math.max(numberOfNode, nrNodes);
+    }
+
+    private void ensureComponents(int nrComponents) {
+        if(nrComponents > positions.length) {
+            int length = Math.max(nrComponents, positions.length << 1);
+            positions = Arrays.copyOf(positions, length);
+            componentMarks = Arrays.copyOf(componentMarks, length);
+        }
+    }
+}
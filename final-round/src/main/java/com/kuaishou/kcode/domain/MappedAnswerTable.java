@@ -0,0 +1,150 @@
+package com.kuaishou.kcode.domain;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * @author flyan
+ * date 2020-07-24
+ * @function 快照中的阶段 2 答案，查询直接读 mmap 的快照，不在堆上重建答案。
+ *           每个答案：路径数 n，n 个路径的位置，然后是 n 个路径(长度 + UTF-8 字节)；
+ *           所有答案之后是开放寻址的哈希表，每个槽 4 个 int：调用者节点、响应者节点、(时间索引 << 2 | 类型)、答案的位置，
+ *           位置为 0 表示空槽(快照的开头是头部，答案不可能在那里)；最后是哈希表的位置以及槽数。
+ *           查询返回的列表是快照上的只读视图，路径在访问时才解码。只读，可以被多个线程同时查询。
+ */
+public class MappedAnswerTable {
+
+    private static final int SLOT_BYTES = 16;
+
+    private ByteBuffer buffer;      /* 整个快照 */
+    private int table;              /* 哈希表的位置 */
+    private int mask;               /* 槽数 - 1 */
+
+    /**
+     * @param buffer 整个快照
+     * @param footer 哈希表位置以及槽数所在的位置，Writer.finish 写出的最后 8 个字节
+     */
+    public MappedAnswerTable(ByteBuffer buffer, int footer) {
+        this.buffer = buffer;
+        this.table = buffer.getInt(footer);
+        this.mask = buffer.getInt(footer + 4) - 1;
+    }
+
+    /**
+     * @param type AlertRule.TYPE_P99 或 AlertRule.TYPE_SR
+     * @return 答案，不存在时返回空列表
+     */
+    public List<String> get(int callerNode, int responderNode, int timeIndex, int type) {
+        int timeType = timeIndex << 2 | type, at, s;
+        for(s = slot(callerNode, responderNode, timeType, mask); ; s = (s + 1) & mask) {
+            at = table + s * SLOT_BYTES;
+            if(buffer.getInt(at + 12) == 0) return Collections.emptyList();
+            if(buffer.getInt(at) == callerNode && buffer.getInt(at + 4) == responderNode
+                    && buffer.getInt(at + 8) == timeType) {
+                return new Answer(buffer, buffer.getInt(at + 12));
+            }
+        }
+    }
+
+    private static int slot(int callerNode, int responderNode, int timeType, int mask) {
+        int h = callerNode * 0x9E3779B1 + responderNode * 0x85EBCA6B + timeType * 0xC2B2AE35;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    /**
+     * 写快照时使用：答案按顺序写出并记下位置，最后把哈希表写在所有答案之后
+     */
+    public static class Writer {
+
+        private int[] slots;        /* 每个槽 4 个 int，和快照中的布局一样 */
+        private int mask;
+
+        /**
+         * @param nrAnswers 答案数，槽数是不小于它两倍的 2 的幂
+         */
+        public Writer(int nrAnswers) {
+            int capacity = Integer.highestOneBit(Math.max(nrAnswers, 1) * 2 - 1) << 1;
+            slots = new int[capacity << 2];
+            mask = capacity - 1;
+        }
+
+        /**
+         * @param out 快照的输出流，必须从快照的开头开始计数
+         */
+        public void write(DataOutputStream out, int callerNode, int responderNode, int timeIndex, int type,
+                          List<String> answer) throws IOException {
+            int timeType = timeIndex << 2 | type, s = slot(callerNode, responderNode, timeType, mask), i;
+            while (slots[(s << 2) + 3] != 0) s = (s + 1) & mask;
+            slots[s << 2] = callerNode;
+            slots[(s << 2) + 1] = responderNode;
+            slots[(s << 2) + 2] = timeType;
+            slots[(s << 2) + 3] = position(out);
+
+            byte[][] paths = new byte[answer.size()][];
+            int at = position(out) + 4 + paths.length * 4;
+            out.writeInt(paths.length);
+            for(i = 0; i < paths.length; ++i) {
+                paths[i] = answer.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(at);
+                at += 4 + paths[i].length;
+            }
+            for(byte[] path : paths) {
+                out.writeInt(path.length);
+                out.write(path);
+            }
+        }
+
+        /**
+         * 写出哈希表以及它的位置和槽数
+         */
+        public void finish(DataOutputStream out) throws IOException {
+            int table = position(out);
+            for(int v : slots) out.writeInt(v);
+            out.writeInt(table);
+            out.writeInt(mask + 1);
+            position(out);
+        }
+
+        /* mmap 的快照不能超过 2GB，位置都是 int */
+        private static int position(DataOutputStream out) throws IOException {
+            if(out.size() == Integer.MAX_VALUE) throw new IOException("snapshot exceeds 2GB");
+            return out.size();
+        }
+    }
+
+    /* 一个答案的只读视图 */
+    private static class Answer extends AbstractList<String> implements RandomAccess {
+
+        private ByteBuffer buffer;
+        private int at;
+        private int size;
+
+        Answer(ByteBuffer buffer, int at) {
+            this.buffer = buffer;
+            this.at = at;
+            this.size = buffer.getInt(at);
+        }
+
+        @Override
+        public String get(int index) {
+            if(index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            int path = buffer.getInt(at + 4 + index * 4);
+            byte[] bytes = new byte[buffer.getInt(path)];
+            ByteBuffer view = buffer.duplicate();
+            view.position(path + 4);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
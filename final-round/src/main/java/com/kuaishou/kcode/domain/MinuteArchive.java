@@ -0,0 +1,94 @@
+package com.kuaishou.kcode.domain;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @author flyan
+ * date 2020-07-21
+ * @function 一个主被调(IP)对按分钟归档的紧凑答案，每分钟只有 P99 以及成功率两个 int。
+ *           按页分配，每页 PAGE_SIZE 分钟，没有分钟数的上限，扩容也不需要拷贝已有的页。
+ *           不同的分钟可以被不同的线程同时写入(分片模式)，只有分配新页时需要同步。
+ *           从快照恢复的归档直接读 mmap 的快照，不拷贝到堆上，它是只读的。
+ */
+public class MinuteArchive {
+
+    private static final int PAGE_BITS = 6;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private volatile int[][] pages = new int[2][];  /* P99 + 1 和成功率交错存放，P99 + 1 为 0 表示该分钟没有数据 */
+    private ByteBuffer mapped;      /* 快照中的归档，每分钟 P99 以及成功率两个 int，P99 为 -1 表示没有数据 */
+    private int mappedAt;
+    private int mappedMinutes;
+
+    public MinuteArchive() {
+    }
+
+    /**
+     * 快照中的只读归档
+     *
+     * @param mapped 整个快照
+     * @param at 归档的位置
+     * @param nrMinutes 分钟数
+     */
+    public MinuteArchive(ByteBuffer mapped, int at, int nrMinutes) {
+        this.mapped = mapped;
+        this.mappedAt = at;
+        this.mappedMinutes = nrMinutes;
+    }
+
+    /**
+     * 归档某一分钟的答案
+     *
+     * @param timeIndex 时间索引(分)
+     * @param P99 P99，-1 表示没有数据
+     * @param SR 成功率，放大 10000 倍
+     */
+    public void put(int timeIndex, int P99, int SR) {
+        if(mapped != null) throw new UnsupportedOperationException("archive restored from snapshot is read-only");
+        int[] page = page(timeIndex >>> PAGE_BITS);
+        int offset = (timeIndex & (PAGE_SIZE - 1)) << 1;
+        page[offset + 1] = SR;
+        page[offset] = P99 + 1;
+    }
+
+    /**
+     * 该分钟是否有数据
+     */
+    public boolean has(int timeIndex) {
+        if(mapped != null) return timeIndex < mappedMinutes && mapped.getInt(mappedAt + (timeIndex << 3)) != -1;
+        int[][] pages = this.pages;
+        int p = timeIndex >>> PAGE_BITS;
+        return p < pages.length && pages[p] != null && pages[p][(timeIndex & (PAGE_SIZE - 1)) << 1] != 0;
+    }
+
+    /**
+     * @return 该分钟的 P99，没有数据时返回 -1
+     */
+    public int getP99(int timeIndex) {
+        if(mapped != null) return timeIndex < mappedMinutes ? mapped.getInt(mappedAt + (timeIndex << 3)) : -1;
+        return has(timeIndex) ? pages[timeIndex >>> PAGE_BITS][(timeIndex & (PAGE_SIZE - 1)) << 1] - 1 : -1;
+    }
+
+    /**
+     * @return 该分钟的成功率(放大 10000 倍)，没有数据时返回 -1
+     */
+    public int getSR(int timeIndex) {
+        if(mapped != null) return has(timeIndex) ? mapped.getInt(mappedAt + (timeIndex << 3) + 4) : -1;
+        return has(timeIndex) ? pages[timeIndex >>> PAGE_BITS][((timeIndex & (PAGE_SIZE - 1)) << 1) + 1] : -1;
+    }
+
+    private int[] page(int p) {
+        int[][] pages = this.pages;
+        if(p < pages.length && pages[p] != null) return pages[p];
+        return allocPage(p);
+    }
+
+    private synchronized int[] allocPage(int p) {
+        int[][] pages = this.pages;
+        if(p >= pages.length) pages = Arrays.copyOf(pages, Math.max(p + 1, pages.length << 1));
+        if(pages[p] == null) pages[p] = new int[PAGE_SIZE << 1];
+        this.pages = pages;
+        return pages[p];
+    }
+}
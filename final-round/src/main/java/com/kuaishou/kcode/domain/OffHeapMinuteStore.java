@@ -0,0 +1,237 @@
+package com.kuaishou.kcode.domain;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * @author flyan
+ * date 2020-07-19
+ * @function 堆外的分钟数据列存，按服务 IP 对的稠密索引存放每分钟的调用次数、成功次数以及每次调用的耗时。
+ *           每个区域(一分钟)有一块 allocateDirect 的头部，每个 IP 对 3 个 int：
+ *              calls | trues | head
+ *           耗时按原值写进区域自己的块链表：每块 CHUNK_INTS 个 int，next | used | 耗时...，
+ *           块从按需分配的堆外页中切出来，IP 对清空时整条链还给区域的空闲链表，下一分钟直接复用。
+ *           内存只和这一分钟实际的调用次数有关，而不是 IP 对数 * 直方图桶数，几十万个 IP 对也放得下。
+ *           写入和计算都不会分配任何对象，也不会给 GC 增加负担。
+ *           P99 在原值上快速选择之后再按 LatencyHistogram.bucketOf 归桶，和堆内的直方图模式完全一致。
+ *           不同的区域可以被不同的线程同时使用，同一个区域同一时刻只能有一个线程；P99 的计算使用同一个临时数组，只能在一个线程中进行。
+ */
+public class OffHeapMinuteStore {
+
+    private static final int HEADER_INTS = 3;
+    private static final int CHUNK_INTS = 32;               /* 每块的 int 数，前两个是 next 以及 used */
+    private static final int CHUNK_VALUES = CHUNK_INTS - 2;
+    private static final int PAGE_CHUNK_BITS = 10;          /* 每页 1024 块，128KB */
+    private static final int PAGE_CHUNKS = 1 << PAGE_CHUNK_BITS;
+
+    private int nrPairs;
+    private IntBuffer[] headers;        /* 每个区域的头部 */
+    private IntBuffer[][] pages;        /* 每个区域的块页，按需分配 */
+    private int[] nrChunks;             /* 每个区域已经切出来的块数 */
+    private int[] freeChunks;           /* 每个区域空闲链表的第一块，-1 表示没有 */
+    private int[] scratch = new int[256];   /* 快速选择用的临时数组 */
+
+    /**
+     * @param nrZones 区域数量，流水线里同时存活以及等待计算的分钟数
+     * @param nrPairs 服务 IP 对数量
+     */
+    public OffHeapMinuteStore(int nrZones, int nrPairs) {
+        this.nrPairs = nrPairs;
+        long headerBytes = (long) nrPairs * HEADER_INTS * 4;
+        if(headerBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many ip pairs for off-heap store: " + nrPairs);
+        }
+        headers = new IntBuffer[nrZones];
+        pages = new IntBuffer[nrZones][];
+        nrChunks = new int[nrZones];
+        freeChunks = new int[nrZones];
+        Arrays.fill(freeChunks, -1);
+        for(int i = 0; i < nrZones; ++i) {
+            headers[i] = ByteBuffer.allocateDirect((int) headerBytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+            pages[i] = new IntBuffer[4];
+            for(int pair = 0; pair < nrPairs; ++pair) {
+                headers[i].put(pair * HEADER_INTS + 2, -1);
+            }
+        }
+    }
+
+    /**
+     * 添加一次调用
+     */
+    public void add(int zone, int pair, int elapsedTime, int success) {
+        add(zone, pair, elapsedTime, 1, success);
+    }
+
+    /**
+     * 添加多次相同耗时的调用
+     *
+     * @param times 调用次数
+     * @param trueCount 其中成功的次数
+     */
+    public void add(int zone, int pair, int elapsedTime, int times, int trueCount) {
+        IntBuffer header = headers[zone];
+        int at = pair * HEADER_INTS, chunk = header.get(at + 2), used, n;
+        IntBuffer page;
+        header.put(at, header.get(at) + times);
+        header.put(at + 1, header.get(at + 1) + trueCount);
+        while (times > 0) {
+            page = chunk == -1 ? null : pages[zone][chunk >>> PAGE_CHUNK_BITS];
+            if(page == null || (used = page.get(offset(chunk) + 1)) == CHUNK_VALUES) {
+                /* 头部的块满了，新块放到链表的最前面 */
+                int next = chunk;
+                chunk = allocChunk(zone);
+                page = pages[zone][chunk >>> PAGE_CHUNK_BITS];
+                page.put(offset(chunk), next);
+                page.put(offset(chunk) + 1, used = 0);
+                header.put(at + 2, chunk);
+            }
+            for(n = Math.min(times, CHUNK_VALUES - used); n > 0; --n, --times) {
+                page.put(offset(chunk) + 2 + used++, elapsedTime);
+            }
+            page.put(offset(chunk) + 1, used);
+        }
+    }
+
+    /**
+     * 把一个 PairData 的所有数据加入到区域中
+     */
+    public void addAll(int zone, int pair, PairData data) {
+        int i;
+        if(data.getHistogram() != null) {
+            LatencyHistogram histogram = data.getHistogram();
+            for(i = 0; i < LatencyHistogram.BUCKETS; ++i) {
+                if(histogram.countOf(i) > 0) add(zone, pair, LatencyHistogram.valueOf(i), histogram.countOf(i), 0);
+            }
+        } else {
+            FlyanIntArrayList elapsedTimes = data.getElapsedTimes();
+            for(i = 0; i < elapsedTimes.size(); ++i) {
+                add(zone, pair, elapsedTimes.get(i), 1, 0);
+            }
+        }
+        IntBuffer header = headers[zone];
+        header.put(pair * HEADER_INTS + 1, header.get(pair * HEADER_INTS + 1) + data.getTrueCount());
+    }
+
+    /**
+     * 把区域中的一个服务 IP 对合并到 PairData 中，用于汇总服务对的数据
+     */
+    public void mergeInto(int zone, int pair, PairData to) {
+        IntBuffer page;
+        int base, used, i;
+        for(int chunk = headers[zone].get(pair * HEADER_INTS + 2); chunk != -1; chunk = page.get(base)) {
+            page = pages[zone][chunk >>> PAGE_CHUNK_BITS];
+            base = offset(chunk);
+            used = page.get(base + 1);
+            for(i = 0; i < used; ++i) {
+                to.addElapsedTimes(page.get(base + 2 + i), 1);
+            }
+        }
+        to.addTrueCount(headers[zone].get(pair * HEADER_INTS + 1));
+    }
+
+    public int calls(int zone, int pair) {
+        return headers[zone].get(pair * HEADER_INTS);
+    }
+
+    /**
+     * 从大到小排序后第 1% 位置的耗时，和 PairData 的 P99 语义一致，按直方图的桶取值
+     */
+    public int getP99(int zone, int pair) {
+        int calls = calls(zone, pair), n = 0, base, used, i;
+        if(calls == 0) return -1;
+        if(scratch.length < calls) scratch = new int[Math.max(calls, scratch.length << 1)];
+        IntBuffer page;
+        for(int chunk = headers[zone].get(pair * HEADER_INTS + 2); chunk != -1; chunk = page.get(base)) {
+            page = pages[zone][chunk >>> PAGE_CHUNK_BITS];
+            base = offset(chunk);
+            used = page.get(base + 1);
+            for(i = 0; i < used; ++i) {
+                scratch[n++] = page.get(base + 2 + i);
+            }
+        }
+        int value = select(scratch, n, n - 1 - (int) (calls * 0.01));
+        return LatencyHistogram.valueOf(LatencyHistogram.bucketOf(value));
+    }
+
+    /**
+     * 成功率，放大 10000 倍
+     */
+    public int getSuccessRate(int zone, int pair) {
+        IntBuffer header = headers[zone];
+        return (int) (header.get(pair * HEADER_INTS + 1) * 10000L / header.get(pair * HEADER_INTS));
+    }
+
+    /**
+     * 清空一个服务 IP 对，为下次的复用做准备，它的块整条还给区域的空闲链表
+     */
+    public void clear(int zone, int pair) {
+        IntBuffer header = headers[zone];
+        int at = pair * HEADER_INTS, head = header.get(at + 2), tail = head;
+        if(head != -1) {
+            while (next(zone, tail) != -1) tail = next(zone, tail);
+            pages[zone][tail >>> PAGE_CHUNK_BITS].put(offset(tail), freeChunks[zone]);
+            freeChunks[zone] = head;
+        }
+        header.put(at, 0);
+        header.put(at + 1, 0);
+        header.put(at + 2, -1);
+    }
+
+    public int getNrPairs() {
+        return nrPairs;
+    }
+
+    private int next(int zone, int chunk) {
+        return pages[zone][chunk >>> PAGE_CHUNK_BITS].get(offset(chunk));
+    }
+
+    private static int offset(int chunk) {
+        return (chunk & (PAGE_CHUNKS - 1)) * CHUNK_INTS;
+    }
+
+    /* 先从空闲链表中取，没有时从最后一页切一块，页用完了再分配新的页 */
+    private int allocChunk(int zone) {
+        int chunk = freeChunks[zone];
+        if(chunk != -1) {
+            freeChunks[zone] = next(zone, chunk);
+            return chunk;
+        }
+        chunk = nrChunks[zone]++;
+        int p = chunk >>> PAGE_CHUNK_BITS;
+        if(p == pages[zone].length) pages[zone] = Arrays.copyOf(pages[zone], p << 1);
+        if(pages[zone][p] == null) {
+            pages[zone][p] = ByteBuffer.allocateDirect(PAGE_CHUNKS * CHUNK_INTS * 4)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return chunk;
+    }
+
+    /* 快速选择，返回 [0, n) 升序排列后第 k 个元素，会打乱数组 */
+    private static int select(int[] a, int n, int k) {
+        int left = 0, right = n - 1, i, j, pivot, t;
+        while (left < right) {
+            pivot = a[(left + right) >>> 1];
+            i = left;
+            j = right;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if(i <= j) {
+                    t = a[i];
+                    a[i++] = a[j];
+                    a[j--] = t;
+                }
+            }
+            if(k <= j) {
+                right = j;
+            } else if(k >= i) {
+                left = i;
+            } else {
+                return a[k];
+            }
+        }
+        return a[k];
+    }
+}
@@ -1,40 +1,82 @@
 package com.kuaishou.kcode.domain;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author flyan
  * date 2020-07-06
- * @function 一对(主被调对、IP 对)的数据，包含耗时列表以及调用响应情况
+ * @function 一对(主被调对、IP 对)的数据，包含耗时列表以及调用响应情况。
+ *           也可以使用直方图模式，此时不再保存耗时列表，合并以及求分位数都只和桶数有关。
  */
 public class PairData {
 
     private FlyanIntArrayList elapsedTimes;    /* 耗时列表 */
+    private LatencyHistogram histogram;     /* 耗时直方图，不为 null 时表示直方图模式 */
     private int trueCount;                  /* 调用成功次数 */
 
     private int P99 = -1;
     private int SR = -1;
-    private Random random = new Random();
 
     public PairData() {
         elapsedTimes = new FlyanIntArrayList();
     }
 
+    /**
+     * 指定模式创建
+     *
+     * @param histogramMode 是否使用直方图模式
+     */
+    public PairData(boolean histogramMode) {
+        if(histogramMode) {
+            histogram = new LatencyHistogram();
+        } else {
+            elapsedTimes = new FlyanIntArrayList();
+        }
+    }
+
     /**
      * 添加一组数据
      */
     public void add(final int elapsedTime, final int success) {
-        elapsedTimes.add(elapsedTime);
+        if(histogram != null) {
+            histogram.add(elapsedTime);
+        } else {
+            elapsedTimes.add(elapsedTime);
+        }
         trueCount += success;
     }
 
+    /**
+     * 添加多次相同的耗时，成功次数需要另外通过 addTrueCount 添加
+     *
+     * @param elapsedTime 耗时
+     * @param times 次数
+     */
+    public void addElapsedTimes(final int elapsedTime, final int times) {
+        if(histogram != null) {
+            histogram.add(elapsedTime, times);
+        } else {
+            for(int i = 0; i < times; ++i) {
+                elapsedTimes.add(elapsedTime);
+            }
+        }
+    }
+
+    public void addTrueCount(final int trueCount) {
+        this.trueCount += trueCount;
+    }
+
     /**
      * 批量添加元素，要求给予一对数据
      *
      * @param from 另一对数据
      */
     public void addAll(PairData from) {
-        elapsedTimes.addAll(from.elapsedTimes.getData(), from.size());
+        if(histogram != null) {
+            histogram.merge(from.histogram);   /* O(桶数) */
+        } else {
+            elapsedTimes.addAll(from.elapsedTimes.getData(), from.size());
+        }
         trueCount += from.trueCount;
     }
 
@@ -42,22 +84,53 @@ public class PairData {
      * 获取耗时列表的 P99 数据
      */
     public int getP99() {
+        if(histogram != null) return histogram.getP99();
         int size = elapsedTimes.size();
         return topkByQuickSort(elapsedTimes.getData(), 0, size - 1, (int) (size * 0.01));
     }
 
+    /**
+     * 获取耗时列表的 P50 数据
+     */
+    public int getP50() {
+        if(histogram != null) return histogram.getP50();
+        int size = elapsedTimes.size();
+        return topkByQuickSort(elapsedTimes.getData(), 0, size - 1, (int) (size * 0.5));
+    }
+
+    public int getMax() {
+        if(histogram != null) return histogram.getMax();
+        int max = 0;
+        for(int i = 0; i < elapsedTimes.size(); ++i) {
+            if(elapsedTimes.get(i) > max) max = elapsedTimes.get(i);
+        }
+        return max;
+    }
+
+    public int getAverage() {
+        if(histogram != null) return histogram.getAverage();
+        long sum = 0;
+        for(int i = 0; i < elapsedTimes.size(); ++i) {
+            sum += elapsedTimes.get(i);
+        }
+        return elapsedTimes.size() == 0 ? 0 : (int) (sum / elapsedTimes.size());
+    }
+
     public int getSuccessRate() {
-        SR = trueCount * 10000 / elapsedTimes.size();
+        SR = (int) (trueCount * 10000L / size());   /* 服务对汇总的调用次数可能很大，避免溢出 */
         /* 重置数据区域，为下次的计算做准备 */
         trueCount = 0;
-        elapsedTimes.size(0);
+        if(histogram != null) {
+            histogram.reset();
+        } else {
+            elapsedTimes.size(0);
+        }
         return SR;
     }
 
     public int getSafeP99() {
         if(P99 == -1) {
-            int size = elapsedTimes.size();
-            P99 = topkByQuickSort(elapsedTimes.getData(), 0, size - 1, (int) (size * 0.01));
+            P99 = getP99();
         }
         return P99;
     }
@@ -67,20 +140,32 @@ public class PairData {
      */
     public int getSafeSuccessRate () {
         if(SR == -1){
-            SR = (int) (trueCount * 10000L / elapsedTimes.size());
+            SR = (int) (trueCount * 10000L / size());
         }
         return SR;
     }
 
     public int size() {
-        return elapsedTimes.size();
+        return histogram != null ? histogram.size() : elapsedTimes.size();
+    }
+
+    public int getTrueCount() {
+        return trueCount;
+    }
+
+    public FlyanIntArrayList getElapsedTimes() {
+        return elapsedTimes;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
     }
 
     /**
      * 快排版 topk，进行从大到小排序，取 100% - k 位置停止。
      */
     private int topkByQuickSort(int[] a, int l, int r, int k) {
-        int i = random.nextInt(r - l + 1) + l, j;
+        int i = ThreadLocalRandom.current().nextInt(r - l + 1) + l, j;
         int tmp = a[i];
         a[i] = a[r];
         a[r] = tmp;
@@ -0,0 +1,45 @@
+package com.kuaishou.kcode.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * @author flyan
+ * date 2020-07-22
+ * @function 一个服务对在某一分钟、某一类型的阶段 2 答案，每条最长链一个元素：链的前缀 "A->B->C|" 以及每分钟不同的后缀。
+ *           前缀的字节在同一个服务对所有分钟、两种类型的答案之间共享，自己只保存后缀的字节，
+ *           元素只有在被取出时才拼成字符串，重复的链文本不再随分钟数增长。
+ */
+public class PathAnswer extends AbstractList<String> implements RandomAccess {
+
+    private byte[][] prefixes;      /* 每条链的前缀，共享 */
+    private byte[] suffixes;        /* 所有链的后缀首尾相接 */
+    private int[] suffixEnds;       /* 第 i 条链后缀的结束位置 */
+
+    /**
+     * @param prefixes 每条链的前缀字节
+     * @param suffixes 所有链的后缀字节
+     * @param suffixEnds 每条链后缀的结束位置，长度和 prefixes 一样
+     */
+    public PathAnswer(byte[][] prefixes, byte[] suffixes, int[] suffixEnds) {
+        this.prefixes = prefixes;
+        this.suffixes = suffixes;
+        this.suffixEnds = suffixEnds;
+    }
+
+    @Override
+    public String get(int index) {
+        byte[] prefix = prefixes[index];
+        int from = index == 0 ? 0 : suffixEnds[index - 1];
+        byte[] b = new byte[prefix.length + suffixEnds[index] - from];
+        System.arraycopy(prefix, 0, b, 0, prefix.length);
+        System.arraycopy(suffixes, from, b, prefix.length, suffixEnds[index] - from);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return prefixes.length;
+    }
+}
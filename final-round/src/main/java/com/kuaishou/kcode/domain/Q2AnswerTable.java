@@ -0,0 +1,171 @@
+package com.kuaishou.kcode.domain;
+
+import com.kuaishou.kcode.domain.kv.Q2Key;
+
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-21
+ * @function 阶段 2 答案的最小完美哈希表(hash and displace)，n 个答案正好占 n 个槽。
+ *           Key 的 64 位哈希先分到 n 个桶，从大到小为每个桶找一个让桶内所有 Key 落到空槽的位移种子，
+ *           只有一个 Key 的桶直接记录空槽的位置，构建的期望时间是 O(n)。每个桶最多尝试 MAX_SEED 个种子，
+ *           找不到的桶(哈希聚集在一起时)整个放进普通哈希表，最坏情况下构建也一定会结束。
+ *           查询时比较 Key 本身，不存在的查询返回空列表，而不是别的 Key 的答案。
+ */
+public class Q2AnswerTable {
+
+    private static final int MAX_SEED = 1 << 12;   /* 一个桶最多尝试的种子数，正常的桶几十个以内就能找到 */
+
+    private int[] displace;         /* 每个桶的位移：> 0 为种子，< 0 为 -(槽位置 + 1)，0 为空桶或者在 overflow 中 */
+    private Q2Key[] keys;           /* 放进 overflow 的桶留下的槽为 null */
+    private List<String>[] values;
+    private Map<Q2Key, List<String>> overflow;     /* 64 位哈希相同的 Key 以及找不到种子的桶，放进普通哈希表 */
+    private int nrSlotted;          /* 放进槽里的 Key 数 */
+
+    /**
+     * 为一组答案建立查询表
+     *
+     * @param answers 阶段 2 的所有答案
+     */
+    @SuppressWarnings("unchecked")
+    public Q2AnswerTable(Map<Q2Key, List<String>> answers) {
+        int i, j, b, n, nrBuckets;
+        List<Q2Key> keyList = new ArrayList<>(answers.size());
+        long[] hashes = new long[answers.size()];
+
+        /* 先挑出 64 位哈希相同的 Key，它们不可能被完美哈希分开 */
+        Map<Long, Q2Key> seen = new HashMap<>(answers.size() * 2);
+        for(Q2Key key : answers.keySet()) {
+            Q2Key other = seen.put(key.hash64(), key);
+            if(other != null) {
+                if(overflow == null) overflow = new HashMap<>();
+                overflow.put(key, answers.get(key));
+                overflow.put(other, answers.get(other));
+            }
+        }
+        for(Q2Key key : answers.keySet()) {
+            if(overflow != null && overflow.containsKey(key)) continue;
+            hashes[keyList.size()] = key.hash64();
+            keyList.add(key);
+        }
+        n = keyList.size();
+        nrBuckets = Math.max(n, 1);
+        displace = new int[nrBuckets];
+        keys = new Q2Key[n];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<String>[] created = new List[n];      /* 泛型数组只能以原始类型创建 */
+        values = created;
+
+        /* 按桶分组(计数排序)，桶内是 Key 的下标 */
+        int[] bucketStart = new int[nrBuckets + 1];
+        int[] members = new int[n];
+        for(i = 0; i < n; ++i) bucketStart[bucket(hashes[i], nrBuckets) + 1]++;
+        for(b = 0; b < nrBuckets; ++b) bucketStart[b + 1] += bucketStart[b];
+        int[] fill = Arrays.copyOf(bucketStart, nrBuckets);
+        for(i = 0; i < n; ++i) members[fill[bucket(hashes[i], nrBuckets)]++] = i;
+
+        /* 桶按大小从大到小处理(计数排序) */
+        int maxSize = 0;
+        for(b = 0; b < nrBuckets; ++b) maxSize = Math.max(maxSize, bucketStart[b + 1] - bucketStart[b]);
+        int[] sizeStart = new int[maxSize + 2];
+        for(b = 0; b < nrBuckets; ++b) sizeStart[maxSize - (bucketStart[b + 1] - bucketStart[b]) + 1]++;
+        for(i = 0; i <= maxSize; ++i) sizeStart[i + 1] += sizeStart[i];
+        int[] order = new int[nrBuckets];
+        for(b = 0; b < nrBuckets; ++b) order[sizeStart[maxSize - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+
+        /* 为每个桶寻找位移 */
+        int[] slots = new int[maxSize];
+        int freeCursor = 0;
+        for(int o = 0; o < nrBuckets; ++o) {
+            b = order[o];
+            int from = bucketStart[b], size = bucketStart[b + 1] - from;
+            if(size == 0) break;        /* 剩下的都是空桶 */
+            if(size == 1) {
+                /* 单个 Key 的桶直接占用下一个空槽 */
+                while (keys[freeCursor] != null) freeCursor++;
+                displace[b] = -(freeCursor + 1);
+                keys[freeCursor] = keyList.get(members[from]);
+                values[freeCursor] = answers.get(keys[freeCursor]);
+                nrSlotted++;
+                continue;
+            }
+            for(int seed = 1; seed <= MAX_SEED; ++seed) {
+                boolean ok = true;
+                for(i = 0; i < size && ok; ++i) {
+                    slots[i] = slot(hashes[members[from + i]], seed, n);
+                    if(keys[slots[i]] != null) ok = false;
+                    for(j = 0; j < i && ok; ++j) {
+                        if(slots[j] == slots[i]) ok = false;    /* 桶内自己冲突 */
+                    }
+                }
+                if(!ok) continue;
+                displace[b] = seed;
+                for(i = 0; i < size; ++i) {
+                    keys[slots[i]] = keyList.get(members[from + i]);
+                    values[slots[i]] = answers.get(keys[slots[i]]);
+                }
+                nrSlotted += size;
+                break;
+            }
+            if(displace[b] == 0) {
+                /* 所有种子都冲突了，整个桶放进普通哈希表 */
+                if(overflow == null) overflow = new HashMap<>();
+                for(i = 0; i < size; ++i) {
+                    Q2Key key = keyList.get(members[from + i]);
+                    overflow.put(key, answers.get(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询答案
+     *
+     * @return 答案，不存在时返回空列表
+     */
+    public List<String> get(String caller, String responder, String time, String type) {
+        if(keys.length > 0) {
+            long h = Q2Key.hash64(caller, responder, time, type);
+            int d = displace[bucket(h, displace.length)];
+            if(d != 0) {
+                int s = d < 0 ? -d - 1 : slot(h, d, keys.length);
+                if(keys[s] != null && keys[s].matches(caller, responder, time, type)) return values[s];
+            }
+        }
+        if(overflow != null) {
+            List<String> answer = overflow.get(new Q2Key(caller, responder, time, type));
+            if(answer != null) return answer;
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return 答案的总数
+     */
+    public int size() {
+        return nrSlotted + (overflow == null ? 0 : overflow.size());
+    }
+
+    /**
+     * @return 所有答案的 Key，用于落盘等
+     */
+    public List<Q2Key> keys() {
+        List<Q2Key> all = new ArrayList<>(size());
+        for(Q2Key key : keys) {
+            if(key != null) all.add(key);
+        }
+        if(overflow != null) all.addAll(overflow.keySet());
+        return all;
+    }
+
+    private static int bucket(long h, int nrBuckets) {
+        return (int) (((h >>> 32) * nrBuckets) >>> 32);
+    }
+
+    private static int slot(long h, int seed, int n) {
+        long x = (h ^ (seed * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+        x ^= x >>> 31;
+        return (int) (((x >>> 32) * n) >>> 32);
+    }
+}
@@ -0,0 +1,147 @@
+package com.kuaishou.kcode.domain;
+
+import java.util.Arrays;
+
+/**
+ * @author flyan
+ * date 2020-07-23
+ * @function 有向图的强连通分量(Tarjan)，线性时间，用显式栈代替递归，调用链再长也不会栈溢出。
+ *           分量编号按完成的顺序分配，也就是缩点后 DAG 的逆拓扑序：跨分量的边 (u, v) 一定有 component(u) > component(v)。
+ *           服务之间的重试环、互相调用以及自调用都会落在同一个分量中，缩点之后剩下的跨分量边构成一个 DAG。
+ *           之后新增的节点以及合并出来的分量不再满足这个编号顺序，拓扑序由 LongestPaths 维护。
+ */
+public class StronglyConnectedComponents {
+
+    private int[] component;    /* 节点 -> 分量编号 */
+    private int[] sizes;        /* 分量 -> 节点数 */
+    private int count;          /* 分量数量 */
+
+    /**
+     * 无环图不需要 Tarjan，每个节点自己就是一个分量，按拓扑序倒着编号
+     *
+     * @param topologicalOrder 拓扑序，来自 CsrGraph.topologicalOrder
+     */
+    public StronglyConnectedComponents(int[] topologicalOrder) {
+        int n = topologicalOrder.length;
+        component = new int[n];
+        sizes = new int[Math.max(n, 1)];
+        for(int i = 0; i < n; ++i) {
+            component[topologicalOrder[i]] = n - 1 - i;
+            sizes[i] = 1;
+        }
+        count = n;
+    }
+
+    /**
+     * @param graph 有向图
+     */
+    public StronglyConnectedComponents(CsrGraph graph) {
+        int numberOfNode = graph.getNumberOfNode();
+        int[] index = new int[numberOfNode];        /* 访问序号 + 1，0 表示还没有访问 */
+        int[] low = new int[numberOfNode];
+        int[] edgeCursor = new int[numberOfNode];   /* 每个节点下一个待检查的邻接点 */
+        int[] callStack = new int[numberOfNode];    /* 代替递归的 DFS 栈 */
+        int[] stack = new int[numberOfNode];        /* Tarjan 栈 */
+        boolean[] onStack = new boolean[numberOfNode];
+        int nextIndex = 0, depth, top = 0, x, y, e, root;
+        component = new int[numberOfNode];
+        sizes = new int[Math.max(numberOfNode, 1)];
+
+        for(root = 0; root < numberOfNode; ++root) {
+            if(index[root] != 0) continue;
+            depth = 0;
+            callStack[depth++] = root;
+            index[root] = low[root] = ++nextIndex;
+            edgeCursor[root] = graph.begin(root);
+            stack[top++] = root;
+            onStack[root] = true;
+            while (depth > 0) {
+                x = callStack[depth - 1];
+                if( (e = edgeCursor[x]) != graph.end(x) ) {
+                    edgeCursor[x]++;
+                    y = graph.target(e);
+                    if(index[y] == 0) {     /* 树边，"递归"进去 */
+                        index[y] = low[y] = ++nextIndex;
+                        edgeCursor[y] = graph.begin(y);
+                        stack[top++] = y;
+                        onStack[y] = true;
+                        callStack[depth++] = y;
+                    } else if(onStack[y]) {
+                        low[x] = Math.min(low[x], index[y]);
+                    }
+                    continue;
+                }
+
+                /* x 的边都检查完了，"返回"到父节点 */
+                depth--;
+                if(depth > 0) low[callStack[depth - 1]] = Math.min(low[callStack[depth - 1]], low[x]);
+                if(low[x] == index[x]) {    /* x 是分量的根，弹出整个分量 */
+                    do {
+                        y = stack[--top];
+                        onStack[y] = false;
+                        component[y] = count;
+                        sizes[count]++;
+                    } while (y != x);
+                    count++;
+                }
+            }
+        }
+    }
+
+    /**
+     * 新增一个还没有边的节点，它自己就是一个分量
+     */
+    public void addNode(int node) {
+        if(node >= component.length) component = Arrays.copyOf(component, Math.max(node + 1, component.length << 1));
+        if(count == sizes.length) sizes = Arrays.copyOf(sizes, sizes.length << 1);
+        component[node] = count;
+        sizes[count++] = 1;
+    }
+
+    /**
+     * 新边形成了环，把环上的节点合并成一个分量，参与合并的分量的所有节点都要给出，
+     * 合并后其它分量的编号空出来，节点数为 0
+     *
+     * @param nodes 环上的节点，[from, to)
+     * @return 合并后的分量编号
+     */
+    public int merge(int[] nodes, int from, int to) {
+        int target = component[nodes[from]], c;
+        for(int i = from + 1; i < to; ++i) {
+            c = component[nodes[i]];
+            if(c == target) continue;
+            sizes[c]--;
+            sizes[target]++;
+            component[nodes[i]] = target;
+        }
+        return target;
+    }
+
+    /**
+     * @return 节点所在的分量编号
+     */
+    public int component(int node) {
+        return component[node];
+    }
+
+    /**
+     * 两个节点是否在同一个分量中，边 (u, v) 在同一个分量中时就是环上的边
+     */
+    public boolean same(int u, int v) {
+        return component[u] == component[v];
+    }
+
+    /**
+     * @return 分量的节点数，> 1 表示这是一个环组
+     */
+    public int size(int component) {
+        return sizes[component];
+    }
+
+    /**
+     * @return 分量编号的数量，包括合并之后空出来的编号
+     */
+    public int count() {
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+package com.kuaishou.kcode.domain.fuc;
+
+import com.kuaishou.kcode.domain.AlertRule;
+import com.kuaishou.kcode.domain.kv.ServiceIpPair;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author flyan
+ * date 2020-07-20
+ * @function 报警字符串编码器，直接在一个复用的字节缓冲中拼接报警，数字从低位倒着写入，
+ *           服务名以及 IP 字符串在每个主被调 IP 对上只生成一次，每条报警只有最后生成字符串的一次拷贝。
+ *           报警格式：规则编号,时间,调用者,调用者IP,响应者,响应者IP,P99(xxms)或成功率(xx.xx%)
+ *           编码器不是线程安全的，每个线程使用自己的编码器。
+ */
+public class AlarmEncoder {
+
+    private byte[] buffer = new byte[256];
+
+    /**
+     * 生成主被调 IP 对在报警中间的那一段：",调用者,调用者IP,响应者,响应者IP,"
+     */
+    public static byte[] pairBytes(ServiceIpPair sp) {
+        StringBuilder builder = new StringBuilder(96);
+        builder.append(',').append(sp.getCaller()).append(',');
+        appendIp(builder, sp.getCallerIp(), sp.getCallerIpText());
+        builder.append(',').append(sp.getResponder()).append(',');
+        appendIp(builder, sp.getResponderIP(), sp.getResponderIpText());
+        builder.append(',');
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 时间字符串的字节，每分钟只需要生成一次
+     */
+    public static byte[] timeBytes(String time) {
+        return time.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 编码一条报警
+     *
+     * @param nr 规则编号
+     * @param time 时间字节
+     * @param pair 主被调 IP 对字节，来自 pairBytes
+     * @param alertType 报警类型
+     * @param value P99 或者放大 100 倍的成功率
+     * @return 报警字符串
+     */
+    public String encode(int nr, byte[] time, byte[] pair, int alertType, int value) {
+        int need = time.length + pair.length + 32;
+        if(need > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(need, buffer.length << 1));
+        byte[] b = buffer;
+        int pos = putInt(b, 0, nr);
+        b[pos++] = ',';
+        System.arraycopy(time, 0, b, pos, time.length);
+        pos += time.length;
+        System.arraycopy(pair, 0, b, pos, pair.length);
+        pos += pair.length;
+        if(alertType == AlertRule.TYPE_P99) {
+            pos = putInt(b, pos, value);
+            b[pos++] = 'm';
+            b[pos++] = 's';
+        } else {
+            pos = putInt(b, pos, value / 100);
+            b[pos++] = '.';
+            b[pos++] = (byte) ('0' + value % 100 / 10);     /* 小数位，只有两位 */
+            b[pos++] = (byte) ('0' + value % 10);
+            b[pos++] = '%';
+        }
+        return new String(b, 0, pos, StandardCharsets.UTF_8);
+    }
+
+    /* 写入一个整数，先倒着写出每一位，再确定起始位置，返回写入后的位置 */
+    private static int putInt(byte[] b, int pos, int value) {
+        if(value < 0) {
+            b[pos++] = '-';
+            value = -value;
+        }
+        int end = pos + digits(value), i = end;
+        do {
+            b[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return end;
+    }
+
+    private static int digits(int value) {
+        int n = 1;
+        while ( (value /= 10) != 0 ) n++;
+        return n;
+    }
+
+    /* 有原文时直接使用原文，否则是去掉 "10." 前缀的 24 位编码 */
+    private static void appendIp(StringBuilder builder, int ip, String text) {
+        if(text != null) {
+            builder.append(text);
+            return;
+        }
+        builder.append("10.").append((ip & 0xFFFFFF) >> 16).append('.')
+                .append((ip & 0xFFFF) >> 8).append('.').append(ip & 0xFF);
+    }
+}
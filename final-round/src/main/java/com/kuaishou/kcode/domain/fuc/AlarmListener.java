@@ -0,0 +1,17 @@
+package com.kuaishou.kcode.domain.fuc;
+
+/**
+ * @author flyan
+ * date 2020-07-18
+ * @function 报警监听器，流式模式下每分钟结束时计算工厂会立刻把该分钟的报警推送过来
+ */
+public interface AlarmListener {
+
+    /**
+     * 收到一条报警
+     *
+     * @param alarm 报警字符串，格式与 alarmMonitor 返回的一致
+     */
+    void onAlarm(String alarm);
+
+}
@@ -13,6 +13,7 @@ public class ComputingAccessory {
 
     private Map<Integer, PairData> dataMap; /* 数据 */
     private int timeIndex;                  /* 时间分钟索引，数据来自该分钟 */
+    private int storeZone = -1;             /* 堆外模式下的数据区域，-1 表示数据在 dataMap 中 */
 
     public ComputingAccessory(Map<Integer, PairData> dataMap, int timeIndex) {
         this.dataMap = dataMap;
@@ -37,6 +38,15 @@ public class ComputingAccessory {
         return this;
     }
 
+    public int getStoreZone() {
+        return storeZone;
+    }
+
+    public ComputingAccessory setStoreZone(int storeZone) {
+        this.storeZone = storeZone;
+        return this;
+    }
+
     @Override
     public String toString() {
         return "ComputingAccessory{" +
@@ -0,0 +1,308 @@
+package com.kuaishou.kcode.domain.fuc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * @author flyan
+ * date 2020-07-24
+ * @function gzip 输入的解压读取器，按顺序交出解压后的块，不落临时文件。
+ *           多成员(multi-member)的 gzip 中每个成员都是独立的，成员头部的 extra 字段带有 BGZF 的 "BC" 子字段(BSIZE)时，
+ *           只读头部就能找到下一个成员，连续的若干成员组成一个任务并行解压，按顺序取回，每个成员都校验 CRC32 以及 ISIZE。
+ *           没有 BSIZE 的成员只能顺序解压(GZIPInputStream)，所有段拼接起来依旧是一个合法的多成员 gzip。
+ *           空成员(ISIZE 为 0)在两种方式下都只是没有输出。zstd、lz4 等其它压缩格式不支持。
+ *           只能在一个线程中读取。
+ */
+public class GzipBlockReader implements Closeable {
+
+    private static final int TASK_BYTES = 1 << 20;      /* 每个并行任务大约解压的压缩字节数 */
+    private static final int STREAM_CHUNK = 1 << 20;    /* 顺序解压时每块的大小 */
+    private static final int FEXTRA = 4, FNAME = 8, FCOMMENT = 16, FHCRC = 2;
+
+    private SegmentChannel source;
+    private long position;                  /* 下一个还没有分派的成员 */
+    private long size;
+    private ExecutorService workers;        /* null 时在读取线程中解压 */
+    private int maxInflight;
+    private Deque<Future<ByteBuffer>> inflight = new ArrayDeque<>();
+    private InputStream stream;             /* 遇到没有 BSIZE 的成员之后顺序解压 */
+    private Deque<ByteBuffer> pending = new ArrayDeque<>();     /* 退回的以及还没有读完的块 */
+
+    /**
+     * @param source gzip 输入
+     * @param nrWorkers 并行解压的线程数，1 表示在读取线程中解压
+     */
+    public GzipBlockReader(SegmentChannel source, int nrWorkers) {
+        this.source = source;
+        this.size = source.size();
+        if(nrWorkers > 1) {
+            workers = Executors.newFixedThreadPool(nrWorkers, r -> {
+                Thread thread = new Thread(r, "gzip-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        maxInflight = Math.max(nrWorkers, 1) * 2;
+    }
+
+    /**
+     * 输入是否以 gzip 的魔数开头
+     */
+    public static boolean isGzip(SegmentChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        return channel.read(magic, 0) == 2 && (magic.get(0) & 0xFF) == 0x1F && (magic.get(1) & 0xFF) == 0x8B;
+    }
+
+    /**
+     * 下一个解压后的块，[position, limit) 是数据，块之间没有按换行对齐
+     *
+     * @return 已经读完时返回 null
+     */
+    public ByteBuffer next() throws IOException {
+        if(!pending.isEmpty()) return pending.poll();
+        dispatch();
+        if(!inflight.isEmpty()) return await(inflight.poll());
+        if(stream != null) {
+            byte[] chunk = new byte[STREAM_CHUNK];
+            int length = 0, readCount;
+            while (length < chunk.length && (readCount = stream.read(chunk, length, chunk.length - length)) > 0) {
+                length += readCount;
+            }
+            return length == 0 ? null : ByteBuffer.wrap(chunk, 0, length);
+        }
+        return null;
+    }
+
+    /**
+     * 顺序读取，会尽量读满缓冲区
+     *
+     * @return 读取的字节数，已经读完时返回 -1
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        int total = 0, n;
+        ByteBuffer chunk;
+        while (dst.hasRemaining() && (chunk = next()) != null) {
+            n = Math.min(dst.remaining(), chunk.remaining());
+            ByteBuffer part = chunk.duplicate();
+            part.limit(part.position() + n);
+            dst.put(part);
+            chunk.position(chunk.position() + n);
+            if(chunk.hasRemaining()) pending.addFirst(chunk);
+            total += n;
+        }
+        return total == 0 && dst.hasRemaining() ? -1 : total;
+    }
+
+    /**
+     * 退回一段已经读出的数据，它会在下一次 next 或者 read 时最先被读到
+     */
+    public void pushBack(byte[] bytes, int offset, int length) {
+        if(length > 0) pending.addFirst(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, offset + length)));
+    }
+
+    @Override
+    public void close() {
+        if(workers != null) workers.shutdownNow();
+    }
+
+    /* 读取头部找到后面的成员，分派任务直到在途的任务足够多 */
+    private void dispatch() throws IOException {
+        long from, memberSize;
+        while (stream == null && inflight.size() < maxInflight && position < size) {
+            from = position;
+            while (position < size && position - from < TASK_BYTES) {
+                if( (memberSize = memberSize(position)) <= 0 ) break;
+                position += memberSize;
+            }
+            if(position == from) {
+                /* 这个成员没有 BSIZE，从这里开始只能顺序解压 */
+                stream = new GZIPInputStream(new SourceStream(position), 64 << 10);
+                return;
+            }
+            final long start = from, end = position;
+            if(workers != null) {
+                inflight.offer(workers.submit(() -> inflate(start, end)));
+            } else {
+                inflight.offer(new InlineFuture(inflate(start, end)));
+            }
+        }
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /* 成员的压缩大小(BSIZE + 1)，头部没有 BSIZE 时返回 -1 */
+    private long memberSize(long at) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        if(source.read(header, at) < 12) return -1;
+        if((header.get(0) & 0xFF) != 0x1F || (header.get(1) & 0xFF) != 0x8B || header.get(2) != 8) {
+            throw new IOException("not a gzip member: " + at);
+        }
+        if((header.get(3) & FEXTRA) == 0) return -1;
+        ByteBuffer extra = ByteBuffer.allocate(header.get(10) & 0xFF | (header.get(11) & 0xFF) << 8);
+        if(source.read(extra, at + 12) < extra.capacity()) return -1;
+        return bsize(extra.array(), 0, extra.capacity());
+    }
+
+    /* 在 extra 字段中找 "BC" 子字段 */
+    private static long bsize(byte[] extra, int from, int length) {
+        int i = from, end = from + length, subLength;
+        while (i + 4 <= end) {
+            subLength = extra[i + 2] & 0xFF | (extra[i + 3] & 0xFF) << 8;
+            if(extra[i] == 'B' && extra[i + 1] == 'C' && subLength == 2 && i + 6 <= end) {
+                return (extra[i + 4] & 0xFF | (extra[i + 5] & 0xFF) << 8) + 1;
+            }
+            i += 4 + subLength;
+        }
+        return -1;
+    }
+
+    /* 解压 [start, end) 中连续的成员，输出大小由每个成员尾部的 ISIZE 预先确定 */
+    private ByteBuffer inflate(long start, long end) throws IOException {
+        byte[] in = new byte[(int) (end - start)];
+        ByteBuffer view = ByteBuffer.wrap(in);
+        while (view.hasRemaining()) {
+            if(source.read(view, start + view.position()) <= 0) throw new IOException("truncated gzip member: " + start);
+        }
+
+        /* 第一遍：每个成员的位置以及解压后的大小 */
+        int member, total = 0, memberSize;
+        for(member = 0; member < in.length; member += memberSize) {
+            memberSize = (int) bsize(in, member + 12, in[member + 10] & 0xFF | (in[member + 11] & 0xFF) << 8);
+            total += le32(in, member + memberSize - 4);
+        }
+
+        /* 第二遍：逐个成员解压并校验 */
+        byte[] out = new byte[total];
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        int outPos = 0, dataStart, isize;
+        try {
+            for(member = 0; member < in.length; member += memberSize) {
+                memberSize = (int) bsize(in, member + 12, in[member + 10] & 0xFF | (in[member + 11] & 0xFF) << 8);
+                dataStart = headerLength(in, member);
+                isize = le32(in, member + memberSize - 4);
+                inflater.reset();
+                inflater.setInput(in, dataStart, member + memberSize - 8 - dataStart);
+                /* 空成员(比如 bgzip 的 EOF 成员)也要让 inflater 走到结尾，输出长度为 0 时不保证会处理输入 */
+                if((isize == 0 ? inflater.inflate(new byte[1]) : inflater.inflate(out, outPos, isize)) != isize
+                        || !inflater.finished()) {
+                    throw new IOException("corrupt gzip member: " + (start + member));
+                }
+                crc.reset();
+                crc.update(out, outPos, isize);
+                if((int) crc.getValue() != le32(in, member + memberSize - 8)) {
+                    throw new IOException("gzip member checksum mismatch: " + (start + member));
+                }
+                outPos += isize;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    /* 成员头部的长度，跳过 extra、文件名、注释以及头部校验 */
+    private static int headerLength(byte[] in, int member) {
+        int flags = in[member + 3], i = member + 10;
+        if((flags & FEXTRA) != 0) i += 2 + (in[i] & 0xFF | (in[i + 1] & 0xFF) << 8);
+        if((flags & FNAME) != 0) while (in[i++] != 0) { }
+        if((flags & FCOMMENT) != 0) while (in[i++] != 0) { }
+        if((flags & FHCRC) != 0) i += 2;
+        return i;
+    }
+
+    private static int le32(byte[] b, int i) {
+        return b[i] & 0xFF | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    /* 在读取线程中已经完成的任务 */
+    private static class InlineFuture implements Future<ByteBuffer> {
+
+        private ByteBuffer value;
+
+        InlineFuture(ByteBuffer value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public ByteBuffer get() {
+            return value;
+        }
+
+        @Override
+        public ByteBuffer get(long timeout, java.util.concurrent.TimeUnit unit) {
+            return value;
+        }
+    }
+
+    /* 从某个位置开始顺序读取压缩数据 */
+    private class SourceStream extends InputStream {
+
+        private long at;
+
+        SourceStream(long at) {
+            this.at = at;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == 1 ? one[0] & 0xFF : -1;
+        }
+
+        /* GZIPInputStream 读完一个成员后，缓冲里剩下的字节不够一个头部并且 available 为 0 时会认为已经结束，
+         * 成员边界落在缓冲末尾附近时后面的成员会被悄悄丢掉，所以要如实报告还剩多少 */
+        @Override
+        public int available() {
+            return (int) Math.min(Math.max(size - at, 0), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readCount = source.read(ByteBuffer.wrap(b, off, len), at);
+            if(readCount <= 0) return -1;
+            at += readCount;
+            return readCount;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.kuaishou.kcode.domain.fuc;
+
+import com.kuaishou.kcode.domain.kv.ServiceIpPair;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author flyan
+ * date 2020-07-23
+ * @function 监控记录解析器。SwarLineParser 是只认比赛格式的快速实现，SchemaLineParser 按格式声明解析任何格式，
+ *           同一次读取只会使用其中一种，热点上的调用依旧是单态的。
+ *           IP 编码的低 16 位唯一标识一个 IP，主被调 IP 对就是 (调用者 IP << 16) | 响应者 IP。
+ */
+public interface LineParser {
+
+    /**
+     * 解析一条记录，结果通过 getter 获取
+     *
+     * @param buffer 数据块，必须是小端序(ByteOrder.LITTLE_ENDIAN)
+     * @param lineStart 记录的起始位置
+     * @return 下一条记录的起始位置
+     */
+    int parse(ByteBuffer buffer, int lineStart);
+
+    int getCallerIP();
+
+    int getResponderIP();
+
+    int getSuccess();
+
+    int getElapsedTime();
+
+    /**
+     * @return 调用时间(毫秒时间戳)，分钟用 毫秒 / 60000 得到，不会像只取几位数字那样每隔一段时间回绕
+     */
+    long getTimeMillis();
+
+    /**
+     * 从一条记录的开头解析出完整的主被调 IP 对，会分配对象，只有一阶段以及迟到的 IP 对才会走到这里
+     *
+     * @param buffer 记录所在的缓冲
+     * @param lineStart 记录开始的位置
+     */
+    ServiceIpPair pairParse(ByteBuffer buffer, int lineStart);
+}
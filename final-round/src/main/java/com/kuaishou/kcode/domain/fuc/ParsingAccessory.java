@@ -1,27 +1,39 @@
 package com.kuaishou.kcode.domain.fuc;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * @author flyan
  * date 2020-07-15
- * @function 解析配件，包含了要解析的数据块提供给解析工厂进行解析
+ * @function 解析配件，包含了要解析的数据块提供给解析工厂进行解析。
+ *           数据块可以是自己的字节数组(一阶段)，也可以是 mmap 窗口的一个切片(流水线零拷贝)，解析工厂只通过 getHandleView 读取。
  */
 public class ParsingAccessory {
 
-    private byte[] handleBuffer = new byte[(256 << 10) + 128];
+    private byte[] handleBuffer;
+    private ByteBuffer handleView;  /* 要解析的数据块，从 0 开始 */
     private int handleLength;
-    private int currTimeEigenvalue;
     private boolean stopSignal;     /* 停止信号，用于通知解析工厂停止 */
 
+    /**
+     * 自己的字节数组，第一次使用时才分配，零拷贝的配件不需要它
+     */
     public byte[] getHandleBuffer() {
+        if(handleBuffer == null) handleBuffer = new byte[(256 << 10) + 128];
         return handleBuffer;
     }
 
-    public int getHandleLength() {
-        return handleLength;
+    /**
+     * 要解析的数据块，小端序，没有设置切片时就是自己的字节数组
+     */
+    public ByteBuffer getHandleView() {
+        if(handleView == null) handleView = ByteBuffer.wrap(getHandleBuffer()).order(ByteOrder.LITTLE_ENDIAN);
+        return handleView;
     }
 
-    public int getCurrTimeEigenvalue() {
-        return currTimeEigenvalue;
+    public int getHandleLength() {
+        return handleLength;
     }
 
     public boolean isStopSignal() {
@@ -30,16 +42,20 @@ public class ParsingAccessory {
 
     public ParsingAccessory setHandleBuffer(byte[] handleBuffer) {
         this.handleBuffer = handleBuffer;
+        this.handleView = null;
         return this;
     }
 
-    public ParsingAccessory setHandleLength(int handleLength) {
-        this.handleLength = handleLength;
+    /**
+     * 设置一个数据块切片，之后解析的就是这个切片而不是自己的字节数组
+     */
+    public ParsingAccessory setHandleView(ByteBuffer handleView) {
+        this.handleView = handleView.order(ByteOrder.LITTLE_ENDIAN);
         return this;
     }
 
-    public ParsingAccessory setCurrTimeEigenvalue(int currTimeEigenvalue) {
-        this.currTimeEigenvalue = currTimeEigenvalue;
+    public ParsingAccessory setHandleLength(int handleLength) {
+        this.handleLength = handleLength;
         return this;
     }
 
@@ -0,0 +1,96 @@
+package com.kuaishou.kcode.domain.fuc;
+
+import com.kuaishou.kcode.domain.PathAnswer;
+
+import java.util.Arrays;
+
+/**
+ * @author flyan
+ * date 2020-07-22
+ * @function 阶段 2 答案后缀的编码器，直接按字节写出 "12ms,-1ms" 或者 "99.50%,-1%"，不再使用 StringBuilder。
+ *           每条链写完调用一次 endPath，最后和共享的链前缀一起生成 PathAnswer。
+ *           编码器不是线程安全的，每个线程使用自己的编码器。
+ */
+public class PathAnswerEncoder {
+
+    private byte[] buffer = new byte[64];
+    private int pos;
+    private int[] suffixEnds = new int[4];
+    private int nrPaths;
+    private boolean pathStart = true;       /* 当前链还没有写过边 */
+
+    /**
+     * 写入一条边的 P99，-1 表示该分钟没有调用
+     */
+    public void putP99(int P99) {
+        edgeBegin();
+        putInt(P99);
+        buffer[pos++] = 'm';
+        buffer[pos++] = 's';
+    }
+
+    /**
+     * 写入一条边的成功率(放大 10000 倍)，-1 表示该分钟没有调用
+     */
+    public void putSR(int SR) {
+        edgeBegin();
+        if(SR < 0) {
+            putInt(-1);
+        } else {
+            putInt(SR / 100);
+            int decimal = SR % 100;         /* 小数位，只有两位 */
+            buffer[pos++] = '.';
+            buffer[pos++] = (byte) ('0' + decimal / 10);
+            buffer[pos++] = (byte) ('0' + decimal % 10);
+        }
+        buffer[pos++] = '%';
+    }
+
+    /**
+     * 结束当前链的后缀
+     */
+    public void endPath() {
+        if(nrPaths == suffixEnds.length) suffixEnds = Arrays.copyOf(suffixEnds, nrPaths << 1);
+        suffixEnds[nrPaths++] = pos;
+        pathStart = true;
+    }
+
+    /**
+     * 生成答案，之后编码器回到初始状态，可以继续编码下一个答案
+     *
+     * @param prefixes 每条链的前缀，条数必须和写入的链数一致
+     */
+    public PathAnswer finish(byte[][] prefixes) {
+        PathAnswer answer = new PathAnswer(prefixes, Arrays.copyOf(buffer, pos), Arrays.copyOf(suffixEnds, nrPaths));
+        pos = nrPaths = 0;
+        pathStart = true;
+        return answer;
+    }
+
+    /* 不是链上第一条边时先写逗号，并保证缓冲还能放下一条边 */
+    private void edgeBegin() {
+        if(pos + 16 > buffer.length) buffer = Arrays.copyOf(buffer, buffer.length << 1);
+        if(!pathStart) buffer[pos++] = ',';
+        pathStart = false;
+    }
+
+    /* 写入一个整数，先倒着写出每一位，再确定结束位置 */
+    private void putInt(int value) {
+        if(value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int end = pos + digits(value), i = end;
+        do {
+            buffer[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        pos = end;
+    }
+
+    private static int digits(int value) {
+        int n = 1;
+        while ( (value /= 10) != 0 ) n++;
+        return n;
+    }
+}
@@ -0,0 +1,162 @@
+package com.kuaishou.kcode.domain.fuc;
+
+import java.util.Arrays;
+
+/**
+ * @author flyan
+ * date 2020-07-23
+ * @function 监控记录的格式声明：字段顺序、分隔符、IP 格式以及时间戳精度。
+ *           声明是一行文本，字段之间用分隔符隔开，字段可以带一个 ":" 修饰，例如默认格式：
+ *           caller,callerIP:ip4,responder,responderIP:ip4,success,elapsedTime,timestamp:ms
+ *           IP 修饰：ip4(默认，点分十进制)、ip6(规范化成 RFC 5952 的写法，不支持内嵌 IPv4)、ip(两者都有可能)，
+ *           通用解析按修饰检查每个 IP，见 SchemaLineParser；时间戳修饰：s、ms(默认)、us、ns；不关心的列写 "-"。
+ *           监控文件的第一行以 '#' 开头时，它就是这份文件的格式声明。
+ */
+public class RecordSchema {
+
+    /* 字段 */
+    public static final int SKIP = 0;
+    public static final int CALLER = 1;
+    public static final int CALLER_IP = 2;
+    public static final int RESPONDER = 3;
+    public static final int RESPONDER_IP = 4;
+    public static final int SUCCESS = 5;
+    public static final int ELAPSED_TIME = 6;
+    public static final int TIMESTAMP = 7;
+
+    /* IP 格式 */
+    public static final int IP4 = 1;
+    public static final int IP6 = 2;
+    public static final int IP_ANY = IP4 | IP6;
+
+    private static final String[] FIELD_NAMES = {
+            "-", "caller", "callerIP", "responder", "responderIP", "success", "elapsedTime", "timestamp"
+    };
+    private static final String[] UNIT_NAMES = { "s", "ms", "us", "ns" };
+    private static final long[] UNIT_SCALES = { -1000, 1, 1000, 1000000 };     /* 负数表示乘，正数表示除 */
+
+    /**
+     * 比赛数据的格式，SWAR 快速解析只认这一种
+     */
+    public static final RecordSchema DEFAULT
+            = parse("caller,callerIP:ip4,responder,responderIP:ip4,success,elapsedTime,timestamp:ms");
+
+    private int[] fields;
+    private int callerIpFormat = IP4;
+    private int responderIpFormat = IP4;
+    private int timestampUnit = 1;
+    private byte separator = ',';
+
+    private RecordSchema() { }
+
+    /**
+     * 解析一份格式声明，字段用 ',' 分隔，也可以用 '|'、'\t' 或者 ' '(声明中第一个出现的那种)
+     *
+     * @param declaration 格式声明，可以带上开头的 '#'
+     */
+    public static RecordSchema parse(String declaration) {
+        RecordSchema schema = new RecordSchema();
+        String text = declaration.trim();
+        if(text.startsWith("#")) text = text.substring(1).trim();
+        for(char c : new char[]{ ',', '|', '\t', ' ' }) {
+            if(text.indexOf(c) >= 0) {
+                schema.separator = (byte) c;
+                break;
+            }
+        }
+        String[] columns = text.split(schema.separator == '|' ? "\\|" : String.valueOf((char) schema.separator));
+        schema.fields = new int[columns.length];
+        boolean[] seen = new boolean[FIELD_NAMES.length];
+        for(int i = 0; i < columns.length; ++i) {
+            String column = columns[i].trim(), modifier = null;
+            int colon = column.indexOf(':');
+            if(colon >= 0) {
+                modifier = column.substring(colon + 1).trim();
+                column = column.substring(0, colon).trim();
+            }
+            int field = Arrays.asList(FIELD_NAMES).indexOf(column);
+            if(field < 0) throw new IllegalArgumentException("unknown field: " + column);
+            if(field != SKIP && seen[field]) throw new IllegalArgumentException("duplicate field: " + column);
+            seen[field] = true;
+            schema.fields[i] = field;
+            if(modifier == null) continue;
+            if(field == CALLER_IP) {
+                schema.callerIpFormat = ipFormatParse(modifier);
+            } else if(field == RESPONDER_IP) {
+                schema.responderIpFormat = ipFormatParse(modifier);
+            } else if(field == TIMESTAMP) {
+                schema.timestampUnit = Arrays.asList(UNIT_NAMES).indexOf(modifier);
+                if(schema.timestampUnit < 0) throw new IllegalArgumentException("unknown timestamp unit: " + modifier);
+            } else {
+                throw new IllegalArgumentException("field takes no modifier: " + column);
+            }
+        }
+        for(int field = CALLER; field <= TIMESTAMP; ++field) {
+            if(!seen[field]) throw new IllegalArgumentException("missing field: " + FIELD_NAMES[field]);
+        }
+        return schema;
+    }
+
+    private static int ipFormatParse(String modifier) {
+        switch (modifier) {
+            case "ip4": return IP4;
+            case "ip6": return IP6;
+            case "ip": return IP_ANY;
+            default: throw new IllegalArgumentException("unknown ip format: " + modifier);
+        }
+    }
+
+    /**
+     * 字段顺序、分隔符、IP 格式以及时间戳精度是否和 DEFAULT 完全一致，一致时才有可能走 SWAR 快速解析
+     */
+    public boolean isFastPathLayout() {
+        return this == DEFAULT || toString().equals(DEFAULT.toString());
+    }
+
+    /**
+     * 把时间戳换算成毫秒
+     */
+    public long toMillis(long timestamp) {
+        long scale = UNIT_SCALES[timestampUnit];
+        return scale < 0 ? timestamp * -scale : timestamp / scale;
+    }
+
+    /**
+     * @return 每一列的字段，列数就是数组长度
+     */
+    public int[] getFields() {
+        return fields;
+    }
+
+    public int getCallerIpFormat() {
+        return callerIpFormat;
+    }
+
+    public int getResponderIpFormat() {
+        return responderIpFormat;
+    }
+
+    public byte getSeparator() {
+        return separator;
+    }
+
+    /**
+     * @return 规范化后的声明，可以再次 parse
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < fields.length; ++i) {
+            if(i > 0) builder.append((char) separator);
+            builder.append(FIELD_NAMES[fields[i]]);
+            if(fields[i] == CALLER_IP) builder.append(':').append(ipFormatName(callerIpFormat));
+            if(fields[i] == RESPONDER_IP) builder.append(':').append(ipFormatName(responderIpFormat));
+            if(fields[i] == TIMESTAMP) builder.append(':').append(UNIT_NAMES[timestampUnit]);
+        }
+        return builder.toString();
+    }
+
+    private static String ipFormatName(int format) {
+        return format == IP4 ? "ip4" : format == IP6 ? "ip6" : "ip";
+    }
+}
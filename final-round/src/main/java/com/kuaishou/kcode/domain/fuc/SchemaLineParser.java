@@ -0,0 +1,256 @@
+package com.kuaishou.kcode.domain.fuc;
+
+import com.kuaishou.kcode.domain.IpTable;
+import com.kuaishou.kcode.domain.kv.ServiceIpPair;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author flyan
+ * date 2020-07-23
+ * @function 按 RecordSchema 解析监控记录，逐字节扫描分隔符，字段顺序、IP 格式以及时间戳精度都来自格式声明，
+ *           服务名、IP 的长度以及前缀都没有任何假设。解析一条记录不分配内存。
+ *           有 IpTable 时 IP 编码是它的稠密编号，登记之前先按声明的格式检查：ip4 必须是点分十进制，
+ *           ip6 会被规范化成 RFC 5952 的写法(小写、去掉前导 0、最长的连续 0 组压缩成 "::")，同一个地址的不同写法是同一个 IP，
+ *           ip 按有没有 ':' 选择其中一种；不合法的 IP 抛出 IllegalArgumentException。
+ *           没有 IpTable 时是 SWAR 解析的一阶段搭档，格式已经确认是比赛格式，编码取低 24 位，和 SWAR 解析一致。
+ *           行尾的 '\r' 会被忽略。解析器不是线程安全的，每个线程使用自己的解析器。
+ */
+public class SchemaLineParser implements LineParser {
+
+    private int[] fields;
+    private byte separator;
+    private RecordSchema schema;
+    private IpTable ipTable;
+    private int callerIpFormat;
+    private int responderIpFormat;
+    private int[] groups = new int[8];                  /* IPv6 的 8 组 */
+    private byte[] canonical = new byte[39];            /* 规范化后的 IPv6，最长 8 * 4 + 7 */
+    private ByteBuffer canonicalView = ByteBuffer.wrap(canonical);
+
+    /* 服务名在缓冲中的位置 [start, end) */
+    private int callerStart, callerEnd;
+    private int responderStart, responderEnd;
+
+    private int callerIP;
+    private int responderIP;
+    private int success;
+    private int elapsedTime;
+    private long timeMillis;
+
+    /**
+     * @param schema 记录格式
+     * @param ipTable IP 编号表，null 时 IP 必须是 IPv4
+     */
+    public SchemaLineParser(RecordSchema schema, IpTable ipTable) {
+        this.schema = schema;
+        this.fields = schema.getFields();
+        this.separator = schema.getSeparator();
+        this.ipTable = ipTable;
+        this.callerIpFormat = schema.getCallerIpFormat();
+        this.responderIpFormat = schema.getResponderIpFormat();
+    }
+
+    @Override
+    public int parse(ByteBuffer buffer, int lineStart) {
+        int i = lineStart, from, to, column, last = fields.length - 1;
+        byte currByte, end;
+        long value;
+        for(column = 0; column <= last; ++column) {
+            from = i;
+            end = column == last ? (byte) '\n' : separator;
+            while (buffer.get(i) != end) i++;
+            to = i++;
+            if(column == last && to > from && buffer.get(to - 1) == '\r') to--;
+
+            switch (fields[column]) {
+                case RecordSchema.CALLER:
+                    callerStart = from;
+                    callerEnd = to;
+                    break;
+                case RecordSchema.CALLER_IP:
+                    callerIP = ipEncode(buffer, from, to, callerIpFormat);
+                    break;
+                case RecordSchema.RESPONDER:
+                    responderStart = from;
+                    responderEnd = to;
+                    break;
+                case RecordSchema.RESPONDER_IP:
+                    responderIP = ipEncode(buffer, from, to, responderIpFormat);
+                    break;
+                case RecordSchema.SUCCESS:
+                    currByte = buffer.get(from);
+                    success = (currByte == 't' || currByte == 'T' || currByte == '1') ? 1 : 0;
+                    break;
+                case RecordSchema.ELAPSED_TIME:
+                    elapsedTime = 0;
+                    while (from < to && (currByte = buffer.get(from++)) >= '0' && currByte <= '9') {
+                        elapsedTime = elapsedTime * 10 + currByte - '0';
+                    }
+                    break;
+                case RecordSchema.TIMESTAMP:
+                    value = 0;
+                    while (from < to && (currByte = buffer.get(from++)) >= '0' && currByte <= '9') {
+                        value = value * 10 + currByte - '0';
+                    }
+                    timeMillis = schema.toMillis(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return i;
+    }
+
+    /* 有 IP 表时按声明的格式检查之后查编号，否则按 IPv4 解析 */
+    private int ipEncode(ByteBuffer buffer, int from, int to, int format) {
+        if(ipTable != null) {
+            if(format == RecordSchema.IP_ANY) format = indexOf(buffer, from, to, (byte) ':') >= 0 ? RecordSchema.IP6 : RecordSchema.IP4;
+            if(format == RecordSchema.IP6) return ipTable.intern(canonicalView, 0, ip6Canonicalize(buffer, from, to));
+            if(!ip4Valid(buffer, from, to)) throw new IllegalArgumentException("invalid ipv4: " + string(buffer, from, to));
+            return ipTable.intern(buffer, from, to);
+        }
+        int ip = 0, num = 0;
+        byte currByte;
+        while (from < to) {
+            if( (currByte = buffer.get(from++)) != '.' ) {
+                num = num * 10 + currByte - '0';
+            } else {
+                ip = (ip << 8) | num;
+                num = 0;
+            }
+        }
+        return ((ip << 8) | num) & 0xFFFFFF;
+    }
+
+    /* 点分十进制：4 段，每段 1 ~ 3 位数字并且不超过 255 */
+    private static boolean ip4Valid(ByteBuffer buffer, int from, int to) {
+        int parts = 0, digits = 0, value = 0;
+        byte currByte;
+        for(int i = from; i < to; ++i) {
+            if( (currByte = buffer.get(i)) == '.' ) {
+                if(digits == 0 || ++parts > 3) return false;
+                digits = value = 0;
+            } else if(currByte >= '0' && currByte <= '9' && ++digits <= 3) {
+                if( (value = value * 10 + currByte - '0') > 255 ) return false;
+            } else {
+                return false;
+            }
+        }
+        return parts == 3 && digits > 0;
+    }
+
+    /*
+     * 把 buffer[from, to) 中的 IPv6 规范化到 canonical 中，返回长度。
+     * 先解析成 8 组(展开 "::")，再按 RFC 5952 输出：最长的(一样长时取第一个)至少 2 组的连续 0 压缩成 "::"
+     */
+    private int ip6Canonicalize(ByteBuffer buffer, int from, int to) {
+        int n = 0, gap = -1, i = from, digits, value, k, hex;
+        if(to - from >= 2 && buffer.get(from) == ':' && buffer.get(from + 1) == ':') {
+            gap = 0;
+            i += 2;
+        }
+        while (i < to) {
+            for(digits = value = 0; i < to && (hex = Character.digit(buffer.get(i), 16)) >= 0; ++i, ++digits) {
+                value = (value << 4) | hex;
+            }
+            if(digits == 0 || digits > 4 || n == 8) throw ip6Invalid(buffer, from, to);
+            groups[n++] = value;
+            if(i == to) break;
+            if(buffer.get(i++) != ':' || i == to) throw ip6Invalid(buffer, from, to);
+            if(buffer.get(i) == ':') {
+                if(gap >= 0) throw ip6Invalid(buffer, from, to);
+                gap = n;
+                i++;
+            }
+        }
+        if(gap < 0 ? n != 8 : n > 7) throw ip6Invalid(buffer, from, to);
+        if(gap >= 0) {      /* 展开 "::"，后面的组移到末尾 */
+            for(k = n - 1; k >= gap; --k) groups[k + 8 - n] = groups[k];
+            for(k = gap; k < gap + 8 - n; ++k) groups[k] = 0;
+        }
+
+        /* 找最长的连续 0 */
+        int bestStart = -1, bestLength = 1, run, length = 0;
+        for(k = 0; k < 8; k += Math.max(run, 1)) {
+            for(run = 0; k + run < 8 && groups[k + run] == 0; ++run) { }
+            if(run > bestLength) {
+                bestStart = k;
+                bestLength = run;
+            }
+        }
+        for(k = 0; k < 8; ++k) {
+            if(k == bestStart) {
+                canonical[length++] = ':';
+                canonical[length++] = ':';
+                k += bestLength - 1;
+                continue;
+            }
+            if(length > 0 && canonical[length - 1] != ':') canonical[length++] = ':';
+            for(value = groups[k], digits = 12; digits > 0 && (value >>> digits) == 0; digits -= 4) { }
+            for(; digits >= 0; digits -= 4) canonical[length++] = (byte) Character.forDigit((value >>> digits) & 0xF, 16);
+        }
+        return length;
+    }
+
+    private static IllegalArgumentException ip6Invalid(ByteBuffer buffer, int from, int to) {
+        return new IllegalArgumentException("invalid ipv6: " + string(buffer, from, to));
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte b) {
+        for(int i = from; i < to; ++i) {
+            if(buffer.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public ServiceIpPair pairParse(ByteBuffer buffer, int lineStart) {
+        parse(buffer, lineStart);
+        return pair(buffer);
+    }
+
+    /**
+     * 上一条记录的主被调 IP 对，会分配对象
+     *
+     * @param buffer 上一条记录所在的缓冲
+     */
+    public ServiceIpPair pair(ByteBuffer buffer) {
+        ServiceIpPair pair = new ServiceIpPair(string(buffer, callerStart, callerEnd)
+                , string(buffer, responderStart, responderEnd), callerIP, responderIP);
+        if(ipTable != null) pair.setIpTexts(ipTable.text(callerIP), ipTable.text(responderIP));
+        return pair;
+    }
+
+    private static String string(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for(int k = 0; k < bytes.length; ++k) bytes[k] = buffer.get(from + k);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int getCallerIP() {
+        return callerIP;
+    }
+
+    @Override
+    public int getResponderIP() {
+        return responderIP;
+    }
+
+    @Override
+    public int getSuccess() {
+        return success;
+    }
+
+    @Override
+    public int getElapsedTime() {
+        return elapsedTime;
+    }
+
+    @Override
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+}
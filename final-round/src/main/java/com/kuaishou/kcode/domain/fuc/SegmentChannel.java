@@ -0,0 +1,219 @@
+package com.kuaishou.kcode.domain.fuc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * @author flyan
+ * date 2020-07-20
+ * @function 分段文件通道，把按时间顺序滚动的多个日志段拼接成一条连续的字节流，
+ *           对外的位置都是全局位置，读取可以跨越段边界，mmap 则只能在段内进行。
+ *           每个段的大小在打开时确定，之后段再增长的部分不会被读到。段的边界可以落在记录中间，读取方负责拼接。
+ */
+public class SegmentChannel implements Closeable {
+
+    private static final int FINGERPRINT_BYTES = 64 << 10;     /* 指纹取段开头以及结尾各多少字节 */
+
+    private FileChannel[] channels;
+    private String[] paths;         /* 每个段的规范路径 */
+    private long[] fingerprints;    /* 每个段内容的指纹，第一次用到时才计算，-1 表示还没有算 */
+    private long[] offsets;         /* 每个段的全局起始位置，offsets[n] 是总大小 */
+    private long lastModified;      /* 所有段中最新的修改时间 */
+    private long position;          /* 顺序读取的全局位置 */
+    private int segment;            /* 上次访问的段，顺序读取时基本不用查找 */
+
+    /**
+     * 按给定顺序打开所有段
+     *
+     * @param segmentPaths 段文件路径，必须按时间顺序排列
+     */
+    public SegmentChannel(List<String> segmentPaths) throws IOException {
+        int n = segmentPaths.size();
+        if(n == 0) throw new IllegalArgumentException("no segment to read");
+        channels = new FileChannel[n];
+        paths = new String[n];
+        fingerprints = new long[n];
+        Arrays.fill(fingerprints, -1);
+        offsets = new long[n + 1];
+        for(int i = 0; i < n; ++i) {
+            File file = new File(segmentPaths.get(i));
+            paths[i] = file.getCanonicalPath();
+            channels[i] = new RandomAccessFile(file, "r").getChannel();
+            offsets[i + 1] = offsets[i] + channels[i].size();
+            lastModified = Math.max(lastModified, file.lastModified());
+        }
+    }
+
+    /**
+     * 打开一个文件或者一个目录，目录下所有的普通文件(忽略 . 开头的)按文件名的自然顺序排序后作为段，
+     * 文件名中的数字按数值比较，part-2 排在 part-10 之前
+     */
+    public static SegmentChannel open(String path) throws IOException {
+        File file = new File(path);
+        if(!file.isDirectory()) return new SegmentChannel(Arrays.asList(path));
+        File[] files = file.listFiles();
+        List<String> segmentPaths = new ArrayList<>();
+        if(files != null) {
+            Arrays.sort(files, (a, b) -> naturalCompare(a.getName(), b.getName()));
+            for(File f : files) {
+                if(f.isFile() && !f.getName().startsWith(".")) segmentPaths.add(f.getPath());
+            }
+        }
+        return new SegmentChannel(segmentPaths);
+    }
+
+    /**
+     * 从当前位置顺序读取，会尽量读满缓冲区，跨越段边界时自动切换到下一段
+     *
+     * @return 读取的字节数，已经读完时返回 -1
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        int readCount = read(dst, position);
+        if(readCount > 0) position += readCount;
+        return readCount;
+    }
+
+    /**
+     * 从某个全局位置开始读取，不改变顺序读取的位置
+     *
+     * @return 读取的字节数，位置超过总大小时返回 -1
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if(position >= size()) return -1;
+        int total = 0, readCount, limit = dst.limit();
+        long segmentRemaining;
+        while (dst.hasRemaining() && position < size()) {
+            int s = segmentOf(position);
+            /* 不允许读过段的边界，段在打开后可能还在增长 */
+            segmentRemaining = offsets[s + 1] - position;
+            if(dst.remaining() > segmentRemaining) dst.limit(dst.position() + (int) segmentRemaining);
+            readCount = channels[s].read(dst, position - offsets[s]);
+            dst.limit(limit);
+            if(readCount <= 0) break;   /* 段被截断了 */
+            position += readCount;
+            total += readCount;
+        }
+        return total;
+    }
+
+    /**
+     * mmap 某个全局位置开始的一段区域，区域不能跨越段边界
+     */
+    public MappedByteBuffer map(long position, int size) throws IOException {
+        int s = segmentOf(position);
+        if(position + size > offsets[s + 1]) throw new IllegalArgumentException("map across segment boundary");
+        return channels[s].map(FileChannel.MapMode.READ_ONLY, position - offsets[s], size);
+    }
+
+    /**
+     * 某个全局位置所在段的结束位置，mmap 窗口不能超过它
+     */
+    public long segmentEnd(long position) {
+        return offsets[segmentOf(position) + 1];
+    }
+
+    public long size() {
+        return offsets[channels.length];
+    }
+
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return 段的数量
+     */
+    public int segmentCount() {
+        return channels.length;
+    }
+
+    /**
+     * @return 段的规范路径，同一个文件的不同写法(相对路径、符号链接)是一样的
+     */
+    public String segmentPath(int s) {
+        return paths[s];
+    }
+
+    /**
+     * @return 段打开时的大小
+     */
+    public long segmentSize(int s) {
+        return offsets[s + 1] - offsets[s];
+    }
+
+    /**
+     * 段内容的指纹：开头以及结尾各 FINGERPRINT_BYTES 字节的 CRC32，不用读完整个段，
+     * 原地改写了头尾而大小、修改时间都没变的段也能被发现。第一次调用必须在 close 之前，之后返回同一个值
+     */
+    public long segmentFingerprint(int s) throws IOException {
+        if(fingerprints[s] != -1) return fingerprints[s];
+        long size = segmentSize(s);
+        int head = (int) Math.min(size, FINGERPRINT_BYTES);
+        int tail = (int) Math.min(size - head, FINGERPRINT_BYTES);
+        ByteBuffer buffer = ByteBuffer.allocate(head + tail);
+        buffer.limit(head);
+        while (buffer.hasRemaining() && channels[s].read(buffer, buffer.position()) > 0) { }
+        buffer.limit(head + tail);
+        while (buffer.hasRemaining() && channels[s].read(buffer, size - (head + tail - buffer.position())) > 0) { }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        return fingerprints[s] = crc.getValue();
+    }
+
+    public SegmentChannel position(long position) {
+        this.position = position;
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(FileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * 自然顺序：连续的数字按数值比较(忽略前导 0)，其他字符逐个比较，都相同时再按原始字符串比较保证全序
+     */
+    public static int naturalCompare(String a, String b) {
+        int i = 0, j = 0, iEnd, jEnd, iStart, jStart, diff;
+        while (i < a.length() && j < b.length()) {
+            if(Character.isDigit(a.charAt(i)) && Character.isDigit(b.charAt(j))) {
+                for(iEnd = i; iEnd < a.length() && Character.isDigit(a.charAt(iEnd)); ++iEnd) { }
+                for(jEnd = j; jEnd < b.length() && Character.isDigit(b.charAt(jEnd)); ++jEnd) { }
+                for(iStart = i; iStart < iEnd - 1 && a.charAt(iStart) == '0'; ++iStart) { }
+                for(jStart = j; jStart < jEnd - 1 && b.charAt(jStart) == '0'; ++jStart) { }
+                /* 去掉前导 0 之后位数多的大，位数相同时逐位比较 */
+                if( (diff = (iEnd - iStart) - (jEnd - jStart)) != 0 ) return diff;
+                for(; iStart < iEnd; ++iStart, ++jStart) {
+                    if( (diff = a.charAt(iStart) - b.charAt(jStart)) != 0 ) return diff;
+                }
+                i = iEnd;
+                j = jEnd;
+            } else {
+                if( (diff = a.charAt(i) - b.charAt(j)) != 0 ) return diff;
+                ++i;
+                ++j;
+            }
+        }
+        if( (diff = (a.length() - i) - (b.length() - j)) != 0 ) return diff;
+        return a.compareTo(b);
+    }
+
+    /* 找到位置所在的段，空段不会被选中 */
+    private int segmentOf(long position) {
+        int s = segment;
+        if(position < offsets[s]) s = 0;
+        while (s < channels.length - 1 && position >= offsets[s + 1]) s++;
+        return segment = s;
+    }
+}
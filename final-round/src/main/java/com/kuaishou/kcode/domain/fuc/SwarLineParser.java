@@ -0,0 +1,231 @@
+package com.kuaishou.kcode.domain.fuc;
+
+import com.kuaishou.kcode.domain.kv.ServiceIpPair;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author flyan
+ * date 2020-07-23
+ * @function 寄存器内 SIMD(SWAR)的监控记录解析器，一次从小端序的 ByteBuffer 中取 8 个字节作为一个 long，
+ *           用位运算找出 ',' 以及 '.'，IP 的后两段、耗时以及时间戳都用乘法一次性把多位数字合成整数，不再逐个字节判断。
+ *           记录格式：调用者,调用者IP,响应者,响应者IP,true|false,耗时,13 位毫秒时间戳\n
+ *           所有 8 字节读取都落在当前记录内，不会越过块尾。解析器不是线程安全的，每个线程使用自己的解析器。
+ *           它依赖的假设(服务名至少 3 个字符、IP 是 "10." 开头的 IPv4、true|false、13 位毫秒时间戳)由 accepts 在第一块上确认，
+ *           确认不了就使用 SchemaLineParser。
+ */
+public class SwarLineParser implements LineParser {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long COMMAS = ',' * ONES;
+    private static final long DOTS = '.' * ONES;
+
+    private int callerIP;           /* IP 的后两段：(第三段 << 8) | 第四段 */
+    private int responderIP;
+    private int success;
+    private int elapsedTime;
+    private long timeMillis;        /* 13 位毫秒时间戳 */
+
+    @Override
+    public int parse(ByteBuffer buffer, int lineStart) {
+        /* 调用者(至少 3 个字符)以及调用者 IP("10.x.x.x" 至少 8 个字符) */
+        int comma = indexOfComma(buffer, lineStart + 3);
+        int ipEnd = indexOfComma(buffer, comma + 9);
+        callerIP = ipLow16(buffer.getLong(ipEnd - 8));
+
+        /* 响应者以及响应者 IP */
+        comma = indexOfComma(buffer, ipEnd + 4);
+        ipEnd = indexOfComma(buffer, comma + 9);
+        responderIP = ipLow16(buffer.getLong(ipEnd - 8));
+
+        /* 调用成功状态 */
+        success = buffer.get(ipEnd + 1) == 't' ? 1 : 0;
+        int i = ipEnd + 1 + (success == 1 ? 5 : 6);
+
+        /* 调用耗时，8 位以上的耗时几乎不会出现，走普通的逐字节解析 */
+        long word = buffer.getLong(i);
+        long mask = match(word, COMMAS);
+        if(mask != 0) {
+            int n = Long.numberOfTrailingZeros(mask) >>> 3;
+            elapsedTime = digits(word, n);
+            i += n + 1;
+        } else {
+            byte currByte;
+            elapsedTime = 0;
+            while ( (currByte = buffer.get(i++)) != ',' ) {
+                elapsedTime = elapsedTime * 10 + currByte - '0';
+            }
+        }
+
+        /* 调用时间：前 8 位和后 5 位各合成一次，后 5 位所在的 8 个字节和前面重叠 3 个字节，右移去掉 */
+        timeMillis = digits(buffer.getLong(i), 8) * 100000L + digits(buffer.getLong(i + 5) >>> 24, 5);
+        return i + 14;      /* 13 位时间戳以及换行 */
+    }
+
+    @Override
+    public int getCallerIP() {
+        return callerIP;
+    }
+
+    @Override
+    public int getResponderIP() {
+        return responderIP;
+    }
+
+    @Override
+    public int getSuccess() {
+        return success;
+    }
+
+    @Override
+    public int getElapsedTime() {
+        return elapsedTime;
+    }
+
+    @Override
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * 快速解析用的 IP 编码是去掉 "10." 之后的 24 位，低 16 位和 parse 得到的一致
+     */
+    @Override
+    public ServiceIpPair pairParse(ByteBuffer buffer, int lineStart) {
+        int[] ips = new int[2];
+        String[] services = new String[2];
+        int i = lineStart, from, k, num;
+        byte currByte;
+        for(k = 0; k < 2; ++k) {
+            /* 服务名 */
+            from = i;
+            while (buffer.get(i) != ',') i++;
+            byte[] bytes = new byte[i - from];
+            for(num = 0; num < bytes.length; ++num) bytes[num] = buffer.get(from + num);
+            services[k] = new String(bytes, StandardCharsets.UTF_8);
+
+            /* IP，去掉 "10." 前缀 */
+            i += 4;
+            num = 0;
+            while ( (currByte = buffer.get(i++)) != ',' ) {
+                if (currByte != '.') {
+                    num = num * 10 + currByte - '0';
+                } else {
+                    ips[k] |= num;
+                    ips[k] <<= 8;
+                    num = 0;
+                }
+            }
+            ips[k] |= num;
+        }
+        return new ServiceIpPair(services[0], services[1], ips[0], ips[1]);
+    }
+
+    /**
+     * 检查 buffer[from, to) 中的每一条完整记录是否满足快速解析的所有假设
+     *
+     * @return 都满足时返回 true，一条完整的记录都没有时返回 false
+     */
+    public static boolean accepts(ByteBuffer buffer, int from, int to) {
+        int i = from, k, lines = 0;
+        while (i < to) {
+            int lineEnd = i;
+            while (lineEnd < to && buffer.get(lineEnd) != '\n') lineEnd++;
+            if(lineEnd == to) break;        /* 块尾残缺的记录 */
+            for(k = 0; k < 2; ++k) {
+                /* 服务名至少 3 个字符 */
+                int nameStart = i;
+                while (i < lineEnd && buffer.get(i) != ',') i++;
+                if(i - nameStart < 3 || i == lineEnd) return false;
+                /* "10." 开头的 IPv4 */
+                if( (i = ip4Accept(buffer, i + 1, lineEnd)) < 0 ) return false;
+            }
+            /* true|false */
+            if(buffer.get(i) == 't') {
+                if(!literalAccept(buffer, i, lineEnd, "true,")) return false;
+                i += 5;
+            } else {
+                if(!literalAccept(buffer, i, lineEnd, "false,")) return false;
+                i += 6;
+            }
+            /* 耗时 */
+            int digitStart = i;
+            while (i < lineEnd && isDigit(buffer.get(i))) i++;
+            if(i == digitStart || i == lineEnd || buffer.get(i++) != ',') return false;
+            /* 13 位毫秒时间戳，然后就是换行 */
+            digitStart = i;
+            while (i < lineEnd && isDigit(buffer.get(i))) i++;
+            if(i - digitStart != 13 || i != lineEnd) return false;
+            i = lineEnd + 1;
+            lines++;
+        }
+        return lines > 0;
+    }
+
+    /* "10.x.x.x,"，每段 1~3 位，返回逗号后的位置，不满足返回 -1 */
+    private static int ip4Accept(ByteBuffer buffer, int i, int lineEnd) {
+        if(!literalAccept(buffer, i, lineEnd, "10.")) return -1;
+        i += 3;
+        for(int part = 0; part < 3; ++part) {
+            int digitStart = i;
+            while (i < lineEnd && isDigit(buffer.get(i))) i++;
+            if(i == digitStart || i - digitStart > 3 || i == lineEnd) return -1;
+            if(buffer.get(i++) != (part < 2 ? '.' : ',')) return -1;
+        }
+        return i;
+    }
+
+    private static boolean literalAccept(ByteBuffer buffer, int i, int lineEnd, String literal) {
+        if(i + literal.length() > lineEnd) return false;
+        for(int k = 0; k < literal.length(); ++k) {
+            if(buffer.get(i + k) != literal.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /* 从 from 开始每次检查 8 个字节，返回第一个 ',' 的位置 */
+    private static int indexOfComma(ByteBuffer buffer, int from) {
+        long mask;
+        while ( (mask = match(buffer.getLong(from), COMMAS)) == 0 ) {
+            from += 8;
+        }
+        return from + (Long.numberOfTrailingZeros(mask) >>> 3);
+    }
+
+    /* 等于 pattern 中字节的位置最高位置 1，其他为 0，没有借位传播，不会误判 */
+    private static long match(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+
+    /*
+     * IP 末尾(逗号之前)的 8 个字节一定包含最后两段以及它们前面的 '.'，
+     * 最高的两个 '.' 把最后两段切出来
+     */
+    private static int ipLow16(long word) {
+        long mask = match(word, DOTS);
+        int lastDot = (63 - Long.numberOfLeadingZeros(mask)) >>> 3;
+        mask ^= 0x80L << (lastDot << 3);
+        int dot = (63 - Long.numberOfLeadingZeros(mask)) >>> 3;
+        int third = digits(word >>> ((dot + 1) << 3), lastDot - dot - 1);
+        int fourth = digits(word >>> ((lastDot + 1) << 3), 7 - lastDot);
+        return (third << 8) | fourth;
+    }
+
+    /*
+     * 低位的 n(1~8) 个字节是十进制数字，第 0 个字节是最高位。
+     * 先左移让数字对齐到高位(低位补 0 相当于前导 0)，再两两、四四、八八合并
+     */
+    private static int digits(long word, int n) {
+        long v = word << ((8 - n) << 3);
+        v = (v & 0x0F0F0F0F0F0F0F0FL) * 2561 >>> 8;
+        v = (v & 0x00FF00FF00FF00FFL) * 6553601 >>> 16;
+        return (int) ((v & 0x0000FFFF0000FFFFL) * 42949672960001L >>> 32);
+    }
+}
@@ -41,13 +41,45 @@ public class Q2Key {
     }
 
     /**
-     * 通过一个魔数获取该 Key 的魔法索引
-     *
-     * @param magic 魔数
-     * @return 魔法索引
+     * 64 位哈希，只用到字符串缓存的 hashCode，查询时不需要创建 Key
      */
-    public int dynicMagicIndex(int magic){
-        return hash & magic;
+    public static long hash64(String caller, String responder, String time, String type) {
+        long h = (((caller.hashCode() * 0x9E3779B97F4A7C15L + responder.hashCode()) * 0xC2B2AE3D27D4EB4FL
+                + time.hashCode()) * 0x165667B19E3779F9L) + type.hashCode();
+        /* murmur3 的 fmix64 */
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    public long hash64() {
+        return hash64(caller, responder, time, type);
+    }
+
+    /**
+     * 和查询的四个属性比较，查询时不需要创建 Key
+     */
+    public boolean matches(String caller, String responder, String time, String type) {
+        return this.caller.equals(caller) && this.responder.equals(responder)
+                && this.time.equals(time) && this.type.equals(type);
+    }
+
+    public String getCaller() {
+        return caller;
+    }
+
+    public String getResponder() {
+        return responder;
+    }
+
+    public String getTime() {
+        return time;
+    }
+
+    public String getType() {
+        return type;
     }
 
 }
@@ -12,6 +12,9 @@ public class ServiceIpPair {
     private int callerIp;           /* 调用者 IP 编码 */
     private int responderIP;        /* 响应者 IP 编码 */
     private int hash;               /* 哈希，唯一标识一个主被调 IP 对 */
+    private byte[] alarmBytes;      /* 报警中间段的字节，服务 IP 对确定后生成一次 */
+    private String callerIpText;    /* IP 原文，IP 编码是 IpTable 编号时才有，否则 IP 一定是 "10." 开头的 IPv4 */
+    private String responderIpText;
 
     public ServiceIpPair(String caller, String responder, final int callerIP, final int responderIP) {
         this.caller = caller;
@@ -55,4 +58,27 @@ public class ServiceIpPair {
     public int getResponderIP() {
         return responderIP;
     }
+
+    public String getCallerIpText() {
+        return callerIpText;
+    }
+
+    public String getResponderIpText() {
+        return responderIpText;
+    }
+
+    public ServiceIpPair setIpTexts(String callerIpText, String responderIpText) {
+        this.callerIpText = callerIpText;
+        this.responderIpText = responderIpText;
+        return this;
+    }
+
+    public byte[] getAlarmBytes() {
+        return alarmBytes;
+    }
+
+    public ServiceIpPair setAlarmBytes(byte[] alarmBytes) {
+        this.alarmBytes = alarmBytes;
+        return this;
+    }
 }
@@ -0,0 +1,69 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.domain.AlertRule;
+import com.kuaishou.kcode.domain.fuc.AlarmEncoder;
+import com.kuaishou.kcode.domain.kv.ServiceIpPair;
+
+import java.util.Random;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 报警编码器：和直接用 String.format 拼接的报警逐条一致，包括 IP 编码与 IP 原文、成功率的两位小数以及超长的服务名；
+ *           边界：编号以及耗时为 0 和 Integer.MAX_VALUE、成功率 0.00%、0.01%、99.99% 以及 100.00%、IP 每段为 0 和 255
+ */
+public class AlarmEncoderCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("AlarmEncoderCheck OK");
+    }
+
+    static void run() {
+        Random random = new Random(10);
+        AlarmEncoder encoder = new AlarmEncoder();
+        String time = "2020-06-18 12:34";
+        byte[] timeBytes = AlarmEncoder.timeBytes(time);
+        for(int round = 0; round < 10000; ++round) {
+            String caller = "rd_" + Math.abs(random.nextLong()), responder = "rd_" + random.nextInt(1000);
+            if(round % 1000 == 0) caller = caller + new String(new char[300]).replace('\0', 'x');
+            int a = random.nextInt(256), b = random.nextInt(256), c = random.nextInt(256);
+            int d = random.nextInt(256), e = random.nextInt(256), f = random.nextInt(256);
+            ServiceIpPair pair = new ServiceIpPair(caller, responder, a << 16 | b << 8 | c, d << 16 | e << 8 | f);
+            String callerIp = "10." + a + "." + b + "." + c, responderIp = "10." + d + "." + e + "." + f;
+            if(round % 2 == 1) {
+                callerIp = "fe80::" + Integer.toHexString(a);
+                pair.setIpTexts(callerIp, responderIp);
+            }
+            byte[] pairBytes = AlarmEncoder.pairBytes(pair);
+            int nr = random.nextInt(100000);
+            String prefix = nr + "," + time + "," + caller + "," + callerIp + "," + responder + "," + responderIp + ",";
+
+            int p99 = random.nextInt(round % 3 == 0 ? 10 : Integer.MAX_VALUE);
+            String expected = prefix + p99 + "ms";
+            String actual = encoder.encode(nr, timeBytes, pairBytes, AlertRule.TYPE_P99, p99);
+            Checks.check(expected.equals(actual), "期望 " + expected + "，实际 " + actual);
+
+            int sr = random.nextInt(10001);
+            expected = prefix + String.format("%d.%02d%%", sr / 100, sr % 100);
+            actual = encoder.encode(nr, timeBytes, pairBytes, AlertRule.TYPE_SR, sr);
+            Checks.check(expected.equals(actual), "期望 " + expected + "，实际 " + actual);
+        }
+
+        ServiceIpPair pair = new ServiceIpPair("a", "b", 0, 0xFFFFFF);
+        byte[] pairBytes = AlarmEncoder.pairBytes(pair);
+        for(int nr : new int[] {0, 1, Integer.MAX_VALUE}) {
+            String prefix = nr + "," + time + ",a,10.0.0.0,b,10.255.255.255,";
+            for(int p99 : new int[] {0, 9, 10, Integer.MAX_VALUE}) {
+                String actual = encoder.encode(nr, timeBytes, pairBytes, AlertRule.TYPE_P99, p99);
+                Checks.check((prefix + p99 + "ms").equals(actual), "P99 边界: " + actual);
+            }
+            String[] rates = {"0.00%", "0.01%", "99.99%", "100.00%"};
+            int[] srs = {0, 1, 9999, 10000};
+            for(int i = 0; i < srs.length; ++i) {
+                String actual = encoder.encode(nr, timeBytes, pairBytes, AlertRule.TYPE_SR, srs[i]);
+                Checks.check((prefix + rates[i]).equals(actual), "成功率边界: " + actual);
+            }
+        }
+    }
+}
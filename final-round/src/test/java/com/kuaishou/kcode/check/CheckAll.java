@@ -0,0 +1,63 @@
+package com.kuaishou.kcode.check;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 依次运行所有校验，打印每个校验的结果，有失败时以非 0 退出
+ */
+public class CheckAll {
+
+    /**
+     * 一个校验
+     */
+    interface Check {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) {
+        Map<String, Check> checks = new LinkedHashMap<>();
+        checks.put("StreamingAlarmCheck", StreamingAlarmCheck::run);
+        checks.put("ShardedIngestCheck", ShardedIngestCheck::run);
+        checks.put("LatencyHistogramCheck", LatencyHistogramCheck::run);
+        checks.put("OffHeapMinuteStoreCheck", OffHeapMinuteStoreCheck::run);
+        checks.put("SnapshotCheck", SnapshotCheck::run);
+        checks.put("SegmentInputCheck", SegmentInputCheck::run);
+        checks.put("RuleIndexCheck", RuleIndexCheck::run);
+        checks.put("RuleWorkersCheck", RuleWorkersCheck::run);
+        checks.put("AlarmEncoderCheck", AlarmEncoderCheck::run);
+        checks.put("LongTimelineCheck", LongTimelineCheck::run);
+        checks.put("LazyLongestPathCheck", LazyLongestPathCheck::run);
+        checks.put("Q2AnswerTableCheck", Q2AnswerTableCheck::run);
+        checks.put("IntQueryCheck", IntQueryCheck::run);
+        checks.put("LateServicesCheck", LateServicesCheck::run);
+        checks.put("IncrementalPathsCheck", IncrementalPathsCheck::run);
+        checks.put("DiamondPathsCheck", DiamondPathsCheck::run);
+        checks.put("LongestPathWorkersCheck", LongestPathWorkersCheck::run);
+        checks.put("PathAnswerCheck", PathAnswerCheck::run);
+        checks.put("CriticalPathsCheck", CriticalPathsCheck::run);
+        checks.put("CyclicGraphCheck", CyclicGraphCheck::run);
+        checks.put("CsrGraphCheck", CsrGraphCheck::run);
+        checks.put("SwarLineParserCheck", SwarLineParserCheck::run);
+        checks.put("LargeInputCheck", LargeInputCheck::run);
+        checks.put("RecordSchemaCheck", RecordSchemaCheck::run);
+        checks.put("ReorderWindowCheck", ReorderWindowCheck::run);
+        checks.put("GzipInputCheck", GzipInputCheck::run);
+        int failed = 0;
+        for(Map.Entry<String, Check> check : checks.entrySet()) {
+            long start = System.currentTimeMillis();
+            try {
+                check.getValue().run();
+                System.out.println(check.getKey() + " OK (" + (System.currentTimeMillis() - start) + " ms)");
+            } catch (Throwable e) {
+                ++failed;
+                System.out.println(check.getKey() + " FAILED");
+                e.printStackTrace(System.out);
+            }
+        }
+        System.out.println(failed == 0 ? "ALL OK" : failed + " FAILED");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,214 @@
+package com.kuaishou.kcode.check;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 校验用的合成监控数据：随机的服务调用图、每个服务若干 IP、每分钟每个 IP 对若干次调用以及一组报警规则。
+ *           也可以指定调用图。可以让部分服务对晚于第一分钟才出现、加入重试环以及自调用、把少量记录延后若干分钟写出，
+ *           第一行总是落在第一分钟的前几秒，和比赛数据一样。同一个种子总是生成同样的数据。
+ */
+public class CheckData {
+
+    private long seed = 1;
+    private long baseTime = 1593842580000L;     /* 第一分钟的开始时间(毫秒) */
+    private int minuteStep = 1;         /* 相邻两个有数据的分钟之间隔了多少分钟 */
+    private int minutes = 8;
+    private int services = 17;
+    private int lateServices = 3;       /* 最后几个服务只在后面的分钟出现 */
+    private double edgeRate = 0.25;
+    private double backEdgeRate;        /* 重试环 */
+    private double selfCallRate;        /* 自调用 */
+    private int maxDelayMinutes;        /* > 0 时 3% 的记录延后 [1, maxDelayMinutes) 分钟写出 */
+    private int slowLatencyMax = 6000;
+    private int minCalls = 20, maxCalls = 120;
+    private int[][] callGraph;          /* 指定的调用图 {调用者, 响应者}，null 时随机生成 */
+
+    private List<String> lines;
+    private List<String> rules;
+
+    public CheckData setSeed(long seed) { this.seed = seed; return this; }
+    public CheckData setMinutes(int minutes) { this.minutes = minutes; return this; }
+    public CheckData setBaseTime(long baseTime) { this.baseTime = baseTime; return this; }
+    public CheckData setMinuteStep(int minuteStep) { this.minuteStep = minuteStep; return this; }
+    public CheckData setServices(int services) { this.services = services; return this; }
+    public CheckData setLateServices(int lateServices) { this.lateServices = lateServices; return this; }
+    public CheckData setEdgeRate(double edgeRate) { this.edgeRate = edgeRate; return this; }
+    public CheckData setBackEdgeRate(double backEdgeRate) { this.backEdgeRate = backEdgeRate; return this; }
+    public CheckData setSelfCallRate(double selfCallRate) { this.selfCallRate = selfCallRate; return this; }
+    public CheckData setMaxDelayMinutes(int maxDelayMinutes) { this.maxDelayMinutes = maxDelayMinutes; return this; }
+    public CheckData setSlowLatencyMax(int slowLatencyMax) { this.slowLatencyMax = slowLatencyMax; return this; }
+    public CheckData setCalls(int minCalls, int maxCalls) { this.minCalls = minCalls; this.maxCalls = maxCalls; return this; }
+    public CheckData setCallGraph(int[][] callGraph) { this.callGraph = callGraph; return this; }
+
+    /**
+     * @return 监控数据的每一行
+     */
+    public List<String> getLines() {
+        if(lines == null) generate();
+        return lines;
+    }
+
+    /**
+     * @return 报警规则
+     */
+    public List<String> getRules() {
+        if(rules == null) generate();
+        return rules;
+    }
+
+    /**
+     * 把监控数据写成文件
+     *
+     * @return 文件路径
+     */
+    public String write(Path dir, String name) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, getLines(), StandardCharsets.UTF_8);
+        return file.toString();
+    }
+
+    private void generate() {
+        Random random = new Random(seed);
+        String[] names = new String[services];
+        List<List<String>> ips = new ArrayList<>();
+        Set<Integer> usedLow = new HashSet<>();
+        int i, j, m;
+        for(i = 0; i < services; ++i) {
+            names[i] = "rd_" + (1000000000000L + (long) (random.nextDouble() * 999000000000000L));
+            List<String> own = new ArrayList<>();
+            for(int n = 1 + random.nextInt(3); n > 0; --n) {
+                int b, c;
+                do {
+                    b = random.nextInt(256);
+                    c = 1 + random.nextInt(255);
+                } while (!usedLow.add(b << 8 | c));     /* 低 16 位不重复 */
+                own.add("10." + random.nextInt(256) + "." + b + "." + c);
+            }
+            ips.add(own);
+        }
+
+        /* 调用图：编号小的调用编号大的，再加上一些反向边以及自调用 */
+        Set<List<Integer>> edgeSet = new LinkedHashSet<>();
+        if(callGraph != null) {
+            for(int[] edge : callGraph) edgeSet.add(Arrays.asList(edge[0], edge[1]));
+        }
+        for(i = 0; callGraph == null && i < services; ++i) {
+            for(j = i + 1; j < services; ++j) {
+                if(random.nextDouble() < edgeRate) edgeSet.add(Arrays.asList(i, j));
+            }
+        }
+        for(List<Integer> edge : new ArrayList<>(edgeSet)) {
+            if(random.nextDouble() < backEdgeRate) edgeSet.add(Arrays.asList(edge.get(1), edge.get(0)));
+        }
+        for(i = 0; i < services; ++i) {
+            if(random.nextDouble() < selfCallRate) edgeSet.add(Arrays.asList(i, i));
+        }
+        List<List<Integer>> edges = new ArrayList<>(edgeSet);
+
+        /* IP 对以及它第一次出现的分钟 */
+        List<int[]> pairs = new ArrayList<>();
+        List<String[]> pairIps = new ArrayList<>();
+        for(List<Integer> edge : edges) {
+            int u = edge.get(0), v = edge.get(1);
+            boolean late = u >= services - lateServices || v >= services - lateServices || random.nextDouble() < 0.15;
+            int start = late && minutes > 4 ? 3 + random.nextInt(minutes - 4) : 0;
+            for(String a : ips.get(u)) {
+                for(String b : ips.get(v)) {
+                    if(random.nextDouble() < 0.8) {
+                        pairs.add(new int[] {u, v, start});
+                        pairIps.add(new String[] {a, b});
+                    }
+                }
+            }
+        }
+
+        List<long[]> order = new ArrayList<>();     /* {时间, 行号} */
+        List<String> records = new ArrayList<>();
+        for(m = 0; m < minutes; ++m) {
+            for(int p = 0; p < pairs.size(); ++p) {
+                int[] pair = pairs.get(p);
+                if(m < pair[2]) continue;
+                boolean slow = random.nextDouble() < 0.2, failing = random.nextDouble() < 0.3;
+                for(int n = minCalls + random.nextInt(maxCalls - minCalls + 1), k = 0; k < n; ++k) {
+                    long t = baseTime + (long) m * minuteStep * 60000L + random.nextInt(m == 0 && k == 0 ? 10000 : 60000);
+                    int elapsed = 1 + random.nextInt(200);
+                    if(slow && random.nextDouble() < 0.05) elapsed = 200 + random.nextInt(slowLatencyMax - 199);
+                    boolean ok = !(failing && random.nextDouble() < 0.03 || random.nextDouble() < 0.001);
+                    order.add(new long[] {t, records.size()});
+                    records.add(names[pair[0]] + "," + pairIps.get(p)[0] + "," + names[pair[1]] + ","
+                            + pairIps.get(p)[1] + "," + ok + "," + elapsed + "," + t);
+                }
+            }
+        }
+        order.sort((x, y) -> Long.compare(x[0], y[0]));
+        List<String> sorted = new ArrayList<>(order.size());
+        for(long[] o : order) sorted.add(records.get((int) o[1]));
+
+        /* 局部乱序，都在正负一分钟以内，分钟之间有间隔时不跨过间隔 */
+        for(int k = 0, other; k + 40 < sorted.size(); k += 7) {
+            other = k + random.nextInt(31);
+            if(minuteStep == 1 || order.get(other)[0] - order.get(k)[0] < 60000) Collections.swap(sorted, k, other);
+        }
+        lines = maxDelayMinutes > 0 ? delay(sorted, random) : sorted;
+
+        rules = new ArrayList<>();
+        int nr = 1;
+        List<List<Integer>> ruled = new ArrayList<>(edges);
+        Collections.shuffle(ruled, random);
+        String[] p99s = {"100", "150", "190"}, srs = {"99.5", "99", "98.55", "100"};
+        for(List<Integer> edge : ruled.subList(0, Math.min(8, ruled.size()))) {
+            String pair = names[edge.get(0)] + "," + names[edge.get(1)];
+            rules.add(nr++ + "," + pair + ",P99," + (1 + random.nextInt(3)) + ">," + p99s[random.nextInt(3)] + "ms");
+            rules.add(nr++ + "," + pair + ",SR," + (1 + random.nextInt(2)) + "<," + srs[random.nextInt(4)] + "%");
+        }
+        List<Integer> all = new ArrayList<>();
+        for(i = 0; i < services; ++i) all.add(i);
+        Collections.shuffle(all, random);
+        for(int s : all.subList(0, Math.min(4, services))) {
+            rules.add(nr++ + ",ALL," + names[s] + ",P99," + (1 + random.nextInt(2)) + "<," + (random.nextBoolean() ? 190 : 195) + "ms");
+            rules.add(nr++ + "," + names[s] + ",ALL,SR," + (1 + random.nextInt(2)) + ">," + (random.nextBoolean() ? "99" : "99.9") + "%");
+        }
+    }
+
+    /* 把少量记录挪到水位线超过 它的时间 + 延迟 的位置之后，第一行不动 */
+    private List<String> delay(List<String> sorted, Random random) {
+        List<String> kept = new ArrayList<>();
+        List<long[]> delayed = new ArrayList<>();       /* {目标时间, 行号} */
+        for(int i = 0; i < sorted.size(); ++i) {
+            if(i > 0 && random.nextDouble() < 0.03) {
+                delayed.add(new long[] {timeOf(sorted.get(i)) + 60000 + random.nextInt(maxDelayMinutes * 60000 - 61000), i});
+            } else {
+                kept.add(sorted.get(i));
+            }
+        }
+        long[] watermark = new long[kept.size()];
+        long max = 0;
+        for(int i = 0; i < kept.size(); ++i) watermark[i] = max = Math.max(max, timeOf(kept.get(i)));
+        Map<Integer, List<String>> inserts = new HashMap<>();
+        for(long[] d : delayed) {
+            int at = Arrays.binarySearch(watermark, d[0]);
+            if(at < 0) {
+                at = -at - 1;
+            } else {
+                while (at > 0 && watermark[at - 1] == d[0]) --at;
+            }
+            inserts.computeIfAbsent(at, key -> new ArrayList<>()).add(sorted.get((int) d[1]));
+        }
+        List<String> result = new ArrayList<>(sorted.size());
+        for(int i = 0; i <= kept.size(); ++i) {
+            result.addAll(inserts.getOrDefault(i, Collections.emptyList()));
+            if(i < kept.size()) result.add(kept.get(i));
+        }
+        return result;
+    }
+
+    static long timeOf(String line) {
+        return Long.parseLong(line.substring(line.lastIndexOf(',') + 1));
+    }
+}
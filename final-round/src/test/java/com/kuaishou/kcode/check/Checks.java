@@ -0,0 +1,124 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 校验的公共工具：断言、把实现的报警以及阶段 2 答案转成和 Reference.dump 一样的文本、出错的运行、临时目录。
+ *           校验失败时抛出 AssertionError，不依赖 -ea。
+ */
+public final class Checks {
+
+    private Checks() {
+    }
+
+    public static void check(boolean condition, String message) {
+        if(!condition) throw new AssertionError(message);
+    }
+
+    /**
+     * 比较两个列表，不一致时报告第一处不同
+     */
+    public static void checkLines(List<String> expected, List<String> actual, String what) {
+        int n = Math.min(expected.size(), actual.size());
+        for(int i = 0; i < n; ++i) {
+            if(!expected.get(i).equals(actual.get(i))) {
+                throw new AssertionError(what + ": 第 " + i + " 行不同\n  期望 " + expected.get(i)
+                        + "\n  实际 " + actual.get(i));
+            }
+        }
+        if(expected.size() != actual.size()) {
+            throw new AssertionError(what + ": 期望 " + expected.size() + " 行，实际 " + actual.size() + " 行");
+        }
+    }
+
+    public static List<String> sorted(Collection<String> values) {
+        List<String> list = new ArrayList<>(values);
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * 实现的输出：排好序的报警，之后是 reference 中每个查询的排好序的答案
+     */
+    public static List<String> dump(KcodeAlertAnalysisImpl impl, Collection<String> alarms, Reference reference) {
+        List<String> out = sorted(alarms);
+        for(Reference.Query query : reference.getQueries()) {
+            out.add(Reference.queryLine(query, sorted(impl.getLongestPath(query.caller, query.responder, query.time,
+                    query.type))));
+        }
+        return out;
+    }
+
+    /**
+     * 运行 alarmMonitor 并和参考答案逐行比较
+     */
+    public static void checkAgainst(Reference reference, KcodeAlertAnalysisImpl impl, String path,
+                                    Collection<String> rules, String what) throws Exception {
+        Collection<String> alarms = impl.alarmMonitor(path, rules);
+        checkLines(reference.dump(), dump(impl, alarms, reference), what);
+    }
+
+    /**
+     * 在守护线程中运行 alarmMonitor，它必须抛出异常而不是卡住。实现在当前线程中创建，
+     * 它的解析线程和计算线程跟着当前线程不是守护线程，出错之后也必须退出，否则进程不会结束
+     *
+     * @return alarmMonitor 抛出的异常
+     */
+    public static Throwable monitorFailure(Supplier<KcodeAlertAnalysisImpl> factory, String path,
+                                           Collection<String> rules, String what) throws InterruptedException {
+        Set<Thread> before = nonDaemonThreads();
+        KcodeAlertAnalysisImpl impl = factory.get();
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                impl.alarmMonitor(path, rules);
+            } catch (Throwable e) {
+                thrown.set(e);
+            }
+        });
+        caller.setDaemon(true);
+        caller.start();
+        caller.join(60000);
+        check(!caller.isAlive(), what + ": alarmMonitor 卡住了");
+        check(thrown.get() != null, what + ": alarmMonitor 没有抛出异常");
+
+        Set<Thread> left = nonDaemonThreads();
+        for(long deadline = System.currentTimeMillis() + 10000; ; Thread.sleep(10), left = nonDaemonThreads()) {
+            left.removeAll(before);
+            if(left.isEmpty() || System.currentTimeMillis() > deadline) break;
+        }
+        check(left.isEmpty(), what + ": 出错之后还有线程没有退出 " + left);
+        return thrown.get();
+    }
+
+    private static Set<Thread> nonDaemonThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(!thread.isDaemon() && thread.isAlive()) threads.add(thread);
+        }
+        return threads;
+    }
+
+    /**
+     * 新建一个临时目录，进程退出时删除
+     */
+    public static Path tempDir(String prefix) throws IOException {
+        Path dir = Files.createTempDirectory(prefix);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.walk(dir).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            } catch (IOException ignored) {
+            }
+        }));
+        return dir;
+    }
+}
@@ -0,0 +1,133 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+import com.kuaishou.kcode.domain.CriticalPaths;
+import com.kuaishou.kcode.domain.CsrGraph;
+import com.kuaishou.kcode.domain.Graph;
+import com.kuaishou.kcode.domain.StronglyConnectedComponents;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 关键链：枚举经过一条边、从源头走到尽头的所有链，按 P99 之和(没有调用的边为 0)排序，
+ *           查询返回的前 k 条链的权值和枚举出的前 k 个权值一致，每条链都是经过这条边的完整链，文本和参考答案的格式一致；
+ *           10 万节点的长链上查询中间的边不会栈溢出
+ */
+public class CriticalPathsCheck {
+
+    private static Map<String, List<String>> successors = new HashMap<>(), predecessors = new HashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("CriticalPathsCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("critical");
+        CheckData data = new CheckData().setSeed(20).setServices(16).setEdgeRate(0.4).setLateServices(2);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl();
+        impl.alarmMonitor(path, data.getRules());
+
+        successors.clear();
+        predecessors.clear();
+        for(String pair : reference.getServicePairs()) {
+            String[] p = pair.split(",");
+            successors.computeIfAbsent(p[0], key -> new ArrayList<>()).add(p[1]);
+            predecessors.computeIfAbsent(p[1], key -> new ArrayList<>()).add(p[0]);
+        }
+        int checked = 0, widest = 0;
+        for(String pair : new TreeSet<>(reference.getServicePairs())) {
+            String[] p = pair.split(",");
+            for(int minute = 0; minute < reference.getMinutes(); minute += 3) {
+                /* 所有经过 (u, v) 的完整链以及它们的权值 */
+                List<List<String>> all = new ArrayList<>();
+                for(List<String> left : walk(p[0], predecessors, true)) {
+                    for(List<String> right : walk(p[1], successors, false)) {
+                        List<String> chain = new ArrayList<>(left);
+                        chain.addAll(right);
+                        all.add(chain);
+                    }
+                }
+                List<Long> weights = new ArrayList<>();
+                for(List<String> chain : all) weights.add(weight(reference, chain, minute));
+                weights.sort(Collections.reverseOrder());
+                widest = Math.max(widest, all.size());
+
+                for(int k : new int[] {1, 3, 10}) {
+                    List<String> answer = impl.getCriticalPaths(p[0], p[1], reference.timeOf(minute), k);
+                    Checks.check(answer.size() == Math.min(k, all.size()), pair + " 返回了 " + answer.size() + " 条链");
+                    Set<String> texts = new HashSet<>();
+                    for(int i = 0; i < answer.size(); ++i) {
+                        List<String> chain = Arrays.asList(answer.get(i).substring(0, answer.get(i).indexOf('|')).split("->"));
+                        Checks.check(all.contains(chain), answer.get(i) + " 不是经过 " + pair + " 的完整链");
+                        Checks.check(weight(reference, chain, minute) == weights.get(i),
+                                answer.get(i) + " 的权值应该是 " + weights.get(i));
+                        Checks.check(answer.get(i).equals(text(reference, chain, minute)), answer.get(i) + " 的格式不对");
+                        Checks.check(texts.add(answer.get(i)), answer.get(i) + " 重复了");
+                    }
+                }
+                ++checked;
+            }
+        }
+        Checks.check(checked > 0 && widest > 10, "经过一条边的链最多只有 " + widest + " 条");
+        Checks.check(impl.getCriticalPaths("rd_404", "rd_0", reference.timeOf(0), 3).isEmpty(), "不存在的服务");
+        longChain();
+    }
+
+    /* 一条 10 万节点的调用链，边权都是 1，经过中间那条边的只有整条链 */
+    private static void longChain() {
+        int n = 100000;
+        Graph out = new Graph(), in = new Graph();
+        for(int u = 0; u + 1 < n; ++u) {
+            out.addEdge(u, u + 1);
+            in.addEdge(u + 1, u);
+        }
+        CsrGraph outCsr = new CsrGraph(out, n), inCsr = new CsrGraph(in, n);
+        int[] order = outCsr.topologicalOrder();
+        CriticalPaths criticalPaths = new CriticalPaths(outCsr, inCsr, new StronglyConnectedComponents(order), order, n,
+                (u, v) -> 1, 3);
+        long[] weights = new long[3];
+        int[][] paths = criticalPaths.through(n / 2, n / 2 + 1, weights);
+        Checks.check(paths.length == 1 && paths[0].length == n && paths[0][0] == 0 && paths[0][n - 1] == n - 1,
+                "长链的关键链不对");
+        Checks.check(weights[0] == n - 1, "长链的权值 " + weights[0]);
+    }
+
+    /* 从 node 沿着 next 走到尽头的所有链，reversed 时链保持调用方向 */
+    private static List<List<String>> walk(String node, Map<String, List<String>> next, boolean reversed) {
+        List<List<String>> paths = new ArrayList<>();
+        List<String> neighbours = next.get(node);
+        if(neighbours == null) {
+            paths.add(new ArrayList<>(Collections.singletonList(node)));
+            return paths;
+        }
+        for(String neighbour : neighbours) {
+            for(List<String> path : walk(neighbour, next, reversed)) {
+                path.add(reversed ? path.size() : 0, node);
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    private static long weight(Reference reference, List<String> chain, int minute) {
+        long weight = 0;
+        for(int i = 1; i < chain.size(); ++i) {
+            weight += Math.max(reference.servicePairP99(chain.get(i - 1), chain.get(i), minute), 0);
+        }
+        return weight;
+    }
+
+    private static String text(Reference reference, List<String> chain, int minute) {
+        StringJoiner values = new StringJoiner(",");
+        for(int i = 1; i < chain.size(); ++i) {
+            values.add(reference.servicePairP99(chain.get(i - 1), chain.get(i), minute) + "ms");
+        }
+        return String.join("->", chain) + "|" + values;
+    }
+}
@@ -0,0 +1,89 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.domain.CsrGraph;
+import com.kuaishou.kcode.domain.Graph;
+import com.kuaishou.kcode.domain.StronglyConnectedComponents;
+
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function CSR 图：每个节点的邻接点以及顺序和前向星一致；无环图的拓扑序合法，有环图返回 null；
+ *           强连通分量和互相可达一致，跨分量的边满足逆拓扑序；很长的调用链不会栈溢出
+ */
+public class CsrGraphCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("CsrGraphCheck OK");
+    }
+
+    static void run() {
+        Random random = new Random(24);
+        for(int round = 0; round < 200; ++round) {
+            int n = 1 + random.nextInt(40);
+            boolean acyclic = round % 2 == 0;
+            Graph graph = new Graph(4, 2);      /* 容量很小，加边时一定会扩容 */
+            int nrEdges = random.nextInt(n * 3);
+            for(int i = 0; i < nrEdges; ++i) {
+                int u = random.nextInt(n), v = random.nextInt(n);
+                if(acyclic && u >= v) continue;
+                graph.addEdge(u, v);
+            }
+            CsrGraph csr = new CsrGraph(graph, n);
+            boolean[][] reach = new boolean[n][n];
+            for(int u = 0; u < n; ++u) {
+                List<Integer> expected = new ArrayList<>(), actual = new ArrayList<>();
+                for(int e = graph.getHead(u); e != -1; e = graph.getNext(e)) expected.add(graph.getV(e));
+                for(int i = csr.begin(u); i < csr.end(u); ++i) actual.add(csr.target(i));
+                Checks.check(expected.equals(actual), "节点 " + u + " 的邻接点 " + actual + "，期望 " + expected);
+                for(int v : actual) reach[u][v] = true;
+                reach[u][u] = true;
+            }
+            for(int k = 0; k < n; ++k) {
+                for(int i = 0; i < n; ++i) {
+                    for(int j = 0; j < n; ++j) reach[i][j] |= reach[i][k] && reach[k][j];
+                }
+            }
+            boolean cyclic = false;
+            for(int u = 0; u < n; ++u) {
+                for(int i = csr.begin(u); i < csr.end(u); ++i) cyclic |= reach[csr.target(i)][u];
+            }
+
+            int[] order = csr.topologicalOrder();
+            Checks.check(cyclic == (order == null), "有环 " + cyclic + " 但拓扑序 " + Arrays.toString(order));
+            if(order != null) {
+                int[] position = new int[n];
+                Arrays.fill(position, -1);
+                for(int i = 0; i < n; ++i) position[order[i]] = i;
+                for(int u = 0; u < n; ++u) {
+                    Checks.check(position[u] >= 0, "拓扑序缺少节点 " + u);
+                    for(int i = csr.begin(u); i < csr.end(u); ++i) {
+                        Checks.check(position[u] < position[csr.target(i)], "拓扑序中 " + u + " 在 " + csr.target(i) + " 之后");
+                    }
+                }
+            }
+
+            StronglyConnectedComponents components = new StronglyConnectedComponents(csr);
+            for(int u = 0; u < n; ++u) {
+                for(int v = 0; v < n; ++v) {
+                    Checks.check(components.same(u, v) == (reach[u][v] && reach[v][u]), u + " 和 " + v + " 的分量不对");
+                }
+                for(int i = csr.begin(u); i < csr.end(u); ++i) {
+                    int v = csr.target(i);
+                    Checks.check(components.same(u, v) || components.component(u) > components.component(v),
+                            "跨分量的边 " + u + "->" + v + " 不满足逆拓扑序");
+                }
+            }
+        }
+
+        /* 一条很长的链加上首尾相连的环 */
+        int n = 200000;
+        Graph chain = new Graph();
+        for(int u = 0; u + 1 < n; ++u) chain.addEdge(u, u + 1);
+        chain.addEdge(n - 1, 0);
+        StronglyConnectedComponents components = new StronglyConnectedComponents(new CsrGraph(chain, n));
+        Checks.check(components.count() == 1 && components.size(components.component(0)) == n, "长环应该只有一个分量");
+    }
+}
@@ -0,0 +1,61 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.file.Path;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 有环的调用图：重试形成的环以及自调用，最长链在强连通分量缩点之后计算，
+ *           默认、分片、懒加载以及并行拼接的答案都和参考答案一致，关键链查询也能正常结束；
+ *           所有服务连成一个环(每个服务还调用自己)时，整张图只有一个分量，答案也和参考答案一致
+ */
+public class CyclicGraphCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("CyclicGraphCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("cyclic");
+        for(long seed = 21; seed <= 23; ++seed) {
+            CheckData data = new CheckData().setSeed(seed).setBackEdgeRate(0.3).setSelfCallRate(0.1);
+            String path = data.write(dir, "data." + seed);
+            Reference reference = new Reference(data.getLines(), data.getRules());
+            Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl(), path, data.getRules(), "有环 " + seed);
+            Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setIngestShards(2), path, data.getRules(),
+                    "有环, 分片数 2 " + seed);
+            Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setLazyLongestPath(16), path, data.getRules(),
+                    "有环, 懒加载 " + seed);
+            KcodeAlertAnalysisImpl parallel = new KcodeAlertAnalysisImpl().setLongestPathWorkers(4);
+            Checks.checkAgainst(reference, parallel, path, data.getRules(), "有环, 并行拼接 " + seed);
+
+            for(Reference.Query query : reference.getQueries()) {
+                Checks.check(!parallel.getCriticalPaths(query.caller, query.responder, query.time, 5).isEmpty(),
+                        "关键链 " + query + " 为空");
+            }
+        }
+
+        int n = 6;
+        int[][] ring = new int[n * 2][];
+        for(int i = 0; i < n; ++i) {
+            ring[i] = new int[] {i, (i + 1) % n};
+            ring[n + i] = new int[] {i, i};
+        }
+        CheckData data = new CheckData().setSeed(24).setServices(n).setLateServices(0).setCallGraph(ring);
+        String path = data.write(dir, "data.ring");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        Checks.check(!reference.getQueries().isEmpty(), "一个环没有阶段 2 的查询");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl(), path, data.getRules(), "一个环");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setLazyLongestPath(4), path, data.getRules(),
+                "一个环, 懒加载");
+        KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl().setLongestPathWorkers(4);
+        Checks.checkAgainst(reference, impl, path, data.getRules(), "一个环, 并行拼接");
+        for(Reference.Query query : reference.getQueries()) {
+            Checks.check(!impl.getCriticalPaths(query.caller, query.responder, query.time, 5).isEmpty(),
+                    "一个环的关键链 " + query + " 为空");
+        }
+    }
+}
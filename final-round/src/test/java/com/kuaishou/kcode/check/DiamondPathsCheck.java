@@ -0,0 +1,49 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 等长的最长链非常多：6 层、每层 3 个服务、相邻两层全连接的调用图，一个答案有几十上百条链，
+ *           链之间大量共享前后缀，答案和参考答案一致
+ */
+public class DiamondPathsCheck {
+
+    static final int LAYERS = 6, WIDTH = 3;
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("DiamondPathsCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("diamond");
+        CheckData data = new CheckData().setSeed(16).setServices(LAYERS * WIDTH).setLateServices(0)
+                .setCallGraph(diamond()).setCalls(10, 30);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        int widest = 0;
+        for(Reference.Query query : reference.getQueries()) {
+            widest = Math.max(widest, reference.getLongestPath(query).size());
+        }
+        Checks.check(widest >= 27, "最多只有 " + widest + " 条等长的链");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl(), path, data.getRules(), "菱形调用图");
+    }
+
+    static int[][] diamond() {
+        List<int[]> edges = new ArrayList<>();
+        for(int layer = 0; layer + 1 < LAYERS; ++layer) {
+            for(int i = 0; i < WIDTH; ++i) {
+                for(int j = 0; j < WIDTH; ++j) {
+                    edges.add(new int[] {layer * WIDTH + i, (layer + 1) * WIDTH + j});
+                }
+            }
+        }
+        return edges.toArray(new int[0][]);
+    }
+}
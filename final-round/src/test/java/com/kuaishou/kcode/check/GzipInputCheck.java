@@ -0,0 +1,249 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+import com.kuaishou.kcode.domain.fuc.GzipBlockReader;
+import com.kuaishou.kcode.domain.fuc.SegmentChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function gzip 输入：BGZF、单成员以及多成员的普通 gzip，1 个和 4 个解压线程的答案都等于未压缩输入的参考答案；
+ *           BGZF 或者普通 gzip 成员的 CRC 被改坏时 alarmMonitor 抛出 IOException 而不是卡住，流水线的线程也会退出；
+ *           空成员：只有 EOF 成员的 BGZF、只有一个空成员的 gzip 都是空输入，BGZF 以及普通 gzip 中间夹着的空成员不影响答案；
+ *           普通 gzip 的成员边界落在顺序解压缓冲末尾附近时，后面的成员也不会丢
+ */
+public class GzipInputCheck {
+
+    private static final int BLOCK = 60000;     /* BGZF 每个成员压缩前的大小，和 bgzip 一样小于 64KB */
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("GzipInputCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("gzip");
+        CheckData data = new CheckData().setSeed(25).setMinutes(10);
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        byte[] text = (String.join("\n", data.getLines()) + "\n").getBytes(StandardCharsets.UTF_8);
+        Checks.check(text.length > 8 * BLOCK, "数据太少，BGZF 只有 " + (text.length / BLOCK + 1) + " 个成员");
+
+        byte[] bgzf = bgzf(text);
+        String[][] inputs = {
+                {"bgzf", write(dir, "data.bgzf.gz", bgzf)},
+                {"gzip", write(dir, "data.gz", gzip(text, 0, text.length))},
+                {"多成员 gzip", write(dir, "data.members.gz", members(text))},
+        };
+        for(String[] input : inputs) {
+            for(int workers : new int[] {1, 4}) {
+                Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setDecompressWorkers(workers), input[1],
+                        data.getRules(), input[0] + ", 解压线程数 " + workers);
+            }
+        }
+
+        /* 改坏中间一个成员的 CRC */
+        int member = 0;
+        for(int i = 0; i < 3; ++i) member += bsize(bgzf, member) + 1;
+        bgzf[member + bsize(bgzf, member) + 1 - 8] ^= 0x5A;
+        byte[] plain = gzip(text, 0, text.length);
+        plain[plain.length - 8] ^= 0x5A;
+        String[][] brokens = {
+                {"bgzf", write(dir, "broken.bgzf.gz", bgzf)},
+                {"gzip", write(dir, "broken.gz", plain)},
+        };
+        for(String[] broken : brokens) {
+            for(int workers : new int[] {1, 4}) {
+                String what = broken[0] + " CRC 错误, 解压线程数 " + workers;
+                Throwable thrown = Checks.monitorFailure(() -> new KcodeAlertAnalysisImpl().setDecompressWorkers(workers),
+                        broken[1], data.getRules(), what);
+                Checks.check(thrown instanceof IOException, what + " 应该抛出 IOException，实际 " + thrown);
+            }
+        }
+        emptyMembers(dir, data, reference, text);
+        bufferBoundary(dir, text);
+    }
+
+    /* 不压缩的成员大小是确定的，让第一个成员的结尾扫过顺序解压 64KB 缓冲的末尾 */
+    private static void bufferBoundary(Path dir, byte[] text) throws IOException {
+        for(int cut = 65440; cut < 65560; ++cut) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(stored(text, 0, cut));
+            out.write(stored(text, cut, 2 * cut));
+            String path = write(dir, "boundary.gz", out.toByteArray());
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+            try (SegmentChannel channel = SegmentChannel.open(path)) {
+                GzipBlockReader reader = new GzipBlockReader(channel, 1);
+                ByteBuffer chunk;
+                while ((chunk = reader.next()) != null) {
+                    inflated.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                }
+                reader.close();
+            }
+            Checks.check(Arrays.equals(inflated.toByteArray(), Arrays.copyOf(text, 2 * cut)),
+                    "第一个成员 " + cut + " 字节时解压出 " + inflated.size() + " 字节");
+        }
+    }
+
+    /* 单个不压缩(stored)的普通 gzip 成员 */
+    private static byte[] stored(byte[] text, int from, int to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new StoredGzipOutputStream(out)) {
+            gzip.write(text, from, to - from);
+        }
+        return out.toByteArray();
+    }
+
+    private static class StoredGzipOutputStream extends GZIPOutputStream {
+
+        StoredGzipOutputStream(ByteArrayOutputStream out) throws IOException {
+            super(out);
+            def.setLevel(Deflater.NO_COMPRESSION);
+        }
+    }
+
+    private static void emptyMembers(Path dir, CheckData data, Reference reference, byte[] text) throws Exception {
+        ByteArrayOutputStream eofOnly = new ByteArrayOutputStream();
+        member(eofOnly, text, 0, 0);
+        member(eofOnly, text, 0, 0);
+        String[][] empties = {
+                {"只有 EOF 成员的 BGZF", write(dir, "eof.bgzf.gz", eofOnly.toByteArray())},
+                {"只有一个空成员的 gzip", write(dir, "empty.gz", gzip(text, 0, 0))},
+        };
+        for(String[] input : empties) {
+            for(int workers : new int[] {1, 4}) {
+                Collection<String> alarms = monitor(input[1], workers, Collections.singletonList("1,rd_0,rd_1,P99,1>,1ms"),
+                        input[0]);
+                Checks.check(alarms.isEmpty(), input[0] + " 不应该有报警: " + alarms);
+            }
+        }
+
+        /* BGZF 每隔两个成员夹一个空成员，开头也有一个；普通 gzip 的每个成员前后都有空成员 */
+        ByteArrayOutputStream bgzf = new ByteArrayOutputStream(), plain = new ByteArrayOutputStream();
+        member(bgzf, text, 0, 0);
+        for(int from = 0, i = 0; from < text.length; from += BLOCK, ++i) {
+            member(bgzf, text, from, Math.min(text.length, from + BLOCK));
+            if(i % 2 == 1) member(bgzf, text, 0, 0);
+        }
+        member(bgzf, text, 0, 0);
+        plain.write(gzip(text, 0, 0));
+        for(int from = 0, to, step = text.length / 5 + 7; from < text.length; from = to) {
+            to = Math.min(text.length, from + step);
+            plain.write(gzip(text, from, to));
+            plain.write(gzip(text, 0, 0));
+        }
+        String[][] inputs = {
+                {"夹着空成员的 BGZF", write(dir, "holes.bgzf.gz", bgzf.toByteArray())},
+                {"夹着空成员的 gzip", write(dir, "holes.gz", plain.toByteArray())},
+        };
+        for(String[] input : inputs) {
+            for(int workers : new int[] {1, 4}) {
+                KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl().setDecompressWorkers(workers);
+                Collection<String> alarms = monitor(impl, input[1], data.getRules(), input[0]);
+                Checks.checkLines(reference.dump(), Checks.dump(impl, alarms, reference), input[0] + ", 解压线程数 " + workers);
+            }
+        }
+    }
+
+    private static Collection<String> monitor(String path, int workers, Collection<String> rules, String what)
+            throws Exception {
+        return monitor(new KcodeAlertAnalysisImpl().setDecompressWorkers(workers), path, rules, what);
+    }
+
+    /* 在另一个线程中运行，卡住或者抛出异常时失败 */
+    private static Collection<String> monitor(KcodeAlertAnalysisImpl impl, String path, Collection<String> rules,
+                                              String what) throws Exception {
+        AtomicReference<Object> result = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                result.set(impl.alarmMonitor(path, rules));
+            } catch (Throwable e) {
+                result.set(e);
+            }
+        });
+        caller.setDaemon(true);
+        caller.start();
+        caller.join(60000);
+        Checks.check(!caller.isAlive(), what + ": alarmMonitor 卡住了");
+        if(result.get() instanceof Throwable) throw new AssertionError(what + " 失败", (Throwable) result.get());
+        @SuppressWarnings("unchecked")
+        Collection<String> alarms = (Collection<String>) result.get();
+        return alarms;
+    }
+
+    private static String write(Path dir, String name, byte[] bytes) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, bytes);
+        return file.toString();
+    }
+
+    /* 单个普通 gzip 成员 */
+    private static byte[] gzip(byte[] text, int from, int to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(text, from, to - from);
+        }
+        return out.toByteArray();
+    }
+
+    /* 在不对齐换行的位置切开，每段一个普通 gzip 成员，头部没有 BSIZE */
+    private static byte[] members(byte[] text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int from = 0, to, step = text.length / 5 + 7;
+        for(; from < text.length; from = to) {
+            to = Math.min(text.length, from + step);
+            out.write(gzip(text, from, to));
+        }
+        return out.toByteArray();
+    }
+
+    /* BGZF：每 BLOCK 字节一个带 "BC" 子字段的成员，最后是 bgzip 写出的空成员 */
+    private static byte[] bgzf(byte[] text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for(int from = 0; from < text.length; from += BLOCK) {
+            member(out, text, from, Math.min(text.length, from + BLOCK));
+        }
+        member(out, text, 0, 0);
+        return out.toByteArray();
+    }
+
+    private static void member(ByteArrayOutputStream out, byte[] text, int from, int to) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(text, from, to - from);
+        deflater.finish();
+        byte[] deflated = new byte[to - from + 1024];
+        int length = 0;
+        while (!deflater.finished()) length += deflater.deflate(deflated, length, deflated.length - length);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(text, from, to - from);
+
+        int bsize = 18 + length + 8 - 1;
+        out.write(new byte[] {0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF, 6, 0, 'B', 'C', 2, 0,
+                (byte) bsize, (byte) (bsize >>> 8)}, 0, 18);
+        out.write(deflated, 0, length);
+        le32(out, (int) crc.getValue());
+        le32(out, to - from);
+    }
+
+    private static void le32(ByteArrayOutputStream out, int value) {
+        for(int i = 0; i < 4; ++i) out.write(value >>> (i * 8));
+    }
+
+    private static int bsize(byte[] bgzf, int member) {
+        return bgzf[member + 16] & 0xFF | (bgzf[member + 17] & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,115 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.domain.Graph;
+import com.kuaishou.kcode.domain.LongestPaths;
+import com.kuaishou.kcode.domain.StronglyConnectedComponents;
+
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 最长链的增量维护：随机加边(包括形成新环、合并已有环组)以及新节点之后，
+ *           链长、所有最长链以及分量划分都和在同一张图上重新 build 的结果一致，维护的拓扑序始终合法；
+ *           10 万节点的长链在头部加边、首尾相连之后也能正确维护，列举最长链不会栈溢出
+ */
+public class IncrementalPathsCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("IncrementalPathsCheck OK");
+    }
+
+    static void run() {
+        randomEdges();
+        longChain();
+    }
+
+    private static void randomEdges() {
+        Random random = new Random(14);
+        for(int round = 0; round < 300; ++round) {
+            int n = 2 + random.nextInt(12);
+            Graph graph = new Graph(4, 2), reverse = new Graph(4, 2);
+            for(int i = random.nextInt(n * 2); i > 0; --i) {
+                int u = random.nextInt(n), v = random.nextInt(n);
+                if(u < v) addEdge(graph, reverse, u, v);     /* 初始图无环，环都在增量阶段出现 */
+            }
+            LongestPaths paths = new LongestPaths(graph, reverse);
+            paths.build(n);
+            for(int step = 0; step < 40; ++step) {
+                if(random.nextInt(8) == 0) {
+                    paths.addNode(n++);
+                    continue;
+                }
+                int u = random.nextInt(n), v = random.nextInt(n);
+                if(u == v) continue;
+                addEdge(graph, reverse, u, v);
+                paths.addEdge(u, v);
+                LongestPaths fresh = new LongestPaths(graph, reverse);
+                fresh.build(n);
+                compare(paths, fresh, graph, n, "第 " + round + " 轮第 " + step + " 步加边 " + u + "->" + v);
+            }
+        }
+    }
+
+    private static void addEdge(Graph graph, Graph reverse, int u, int v) {
+        for(int e = graph.getHead(u); e != -1; e = graph.getNext(e)) {
+            if(graph.getV(e) == v) return;      /* 和调用图一样，每个服务对只有一条边 */
+        }
+        graph.addEdge(u, v);
+        reverse.addEdge(v, u);
+    }
+
+    private static void compare(LongestPaths paths, LongestPaths fresh, Graph graph, int n, String what) {
+        StronglyConnectedComponents actual = paths.getComponents(), expected = fresh.getComponents();
+        for(int u = 0; u < n; ++u) {
+            for(int v = 0; v < n; ++v) {
+                Checks.check(actual.same(u, v) == expected.same(u, v), what + ": " + u + " 和 " + v + " 的分量不对");
+            }
+            Checks.check(paths.length(u) == fresh.length(u),
+                    what + ": 节点 " + u + " 链长 " + paths.length(u) + "，期望 " + fresh.length(u));
+            Checks.check(collect(paths, u).equals(collect(fresh, u)), what + ": 节点 " + u + " 的最长链不对");
+        }
+
+        int[] order = paths.topologicalOrder(), position = new int[n];
+        Checks.check(order.length == n, what + ": 拓扑序的节点数 " + order.length);
+        for(int i = 0; i < n; ++i) position[order[i]] = i;
+        for(int u = 0; u < n; ++u) {
+            for(int e = graph.getHead(u); e != -1; e = graph.getNext(e)) {
+                int v = graph.getV(e);
+                Checks.check(actual.same(u, v) || position[u] < position[v], what + ": 拓扑序中 " + u + " 在 " + v + " 之后");
+            }
+        }
+    }
+
+    private static List<String> collect(LongestPaths paths, int node) {
+        List<String> result = new ArrayList<>();
+        paths.forEachPath(node, (path, length) -> result.add(Arrays.toString(Arrays.copyOf(path, length))));
+        Collections.sort(result);
+        return result;
+    }
+
+    /* 每个节点都调用上一个节点，最后一个新节点排在拓扑序最后，它的边要把整条链重新排位 */
+    private static void longChain() {
+        int n = 100000;
+        Graph graph = new Graph(), reverse = new Graph();
+        for(int u = 1; u < n - 1; ++u) addEdge(graph, reverse, u, u - 1);
+        LongestPaths paths = new LongestPaths(graph, reverse);
+        paths.build(n - 1);
+        paths.addNode(n - 1);
+        addEdge(graph, reverse, n - 1, n - 2);
+        paths.addEdge(n - 1, n - 2);
+        Checks.check(paths.length(n - 1) == n, "长链的链长 " + paths.length(n - 1));
+        int[] count = new int[1];
+        paths.forEachPath(n - 1, (path, length) -> {
+            Checks.check(length == n && path[0] == n - 1 && path[n - 1] == 0, "长链的最长链不对");
+            count[0]++;
+        });
+        Checks.check(count[0] == 1, "长链应该只有一条最长链，实际 " + count[0]);
+
+        /* 首尾相连，整条链合并成一个环组，每个节点的链只剩自己 */
+        addEdge(graph, reverse, 0, n - 1);
+        paths.addEdge(0, n - 1);
+        Checks.check(paths.getComponents().same(0, n / 2) && paths.length(n / 2) == 1, "长环应该合并成一个分量");
+    }
+}
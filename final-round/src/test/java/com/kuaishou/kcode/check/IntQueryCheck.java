@@ -0,0 +1,59 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+import com.kuaishou.kcode.domain.AlertRule;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 整数查询：单个以及批量的整数查询和字符串查询的答案一致，并且等于参考答案；越界的 ID 返回空列表
+ */
+public class IntQueryCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("IntQueryCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("int");
+        CheckData data = new CheckData().setSeed(14);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl();
+        impl.alarmMonitor(path, data.getRules());
+
+        List<Reference.Query> queries = reference.getQueries();
+        int n = queries.size();
+        int[] callers = new int[n], responders = new int[n], times = new int[n], types = new int[n];
+        for(int i = 0; i < n; ++i) {
+            Reference.Query query = queries.get(i);
+            callers[i] = impl.serviceId(query.caller);
+            responders[i] = impl.serviceId(query.responder);
+            times[i] = impl.timeIndexOf(query.time);
+            types[i] = "P99".equals(query.type) ? AlertRule.TYPE_P99 : AlertRule.TYPE_SR;
+            Checks.check(callers[i] >= 0 && responders[i] >= 0 && times[i] >= 0, "查询 " + query + " 没有 ID");
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Collection<String>[] answers = new Collection[n];
+        impl.getLongestPaths(callers, responders, times, types, answers);
+        for(int i = 0; i < n; ++i) {
+            Reference.Query query = queries.get(i);
+            List<String> expected = reference.getLongestPath(query);
+            Checks.checkLines(expected, Checks.sorted(impl.getLongestPath(callers[i], responders[i], times[i], types[i])),
+                    "整数查询 " + query);
+            Checks.checkLines(expected, Checks.sorted(answers[i]), "批量查询 " + query);
+            Checks.checkLines(expected, Checks.sorted(impl.getLongestPath(query.caller, query.responder, query.time,
+                    query.type)), "字符串查询 " + query);
+        }
+
+        Checks.check(impl.serviceId("rd_404") == -1 && impl.timeIndexOf("1999-01-01 00:00") == -1, "不存在的服务或时间应该是 -1");
+        Checks.check(impl.getLongestPath(-1, responders[0], times[0], types[0]).isEmpty(), "越界的调用者");
+        Checks.check(impl.getLongestPath(callers[0], Integer.MAX_VALUE, times[0], types[0]).isEmpty(), "越界的响应者");
+        Checks.check(impl.getLongestPath(callers[0], responders[0], reference.getMinutes(), types[0]).isEmpty(), "越界的时间");
+        Checks.check(impl.getLongestPath(callers[0], responders[0], times[0], 0).isEmpty(), "不存在的类型");
+    }
+}
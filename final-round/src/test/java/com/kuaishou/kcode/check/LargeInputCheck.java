@@ -0,0 +1,44 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 跨越很多个数据块的输入：十几 MB 的数据被切成几十个 mmap 切片交给解析线程，
+ *           块边界落在记录中间，流水线、堆外列存以及分片读取的答案都和参考答案一致；
+ *           最后一条记录没有换行时也不会丢掉它
+ */
+public class LargeInputCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("LargeInputCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("large");
+        CheckData data = new CheckData().setSeed(26).setMinutes(20).setSlowLatencyMax(4000);
+        String path = data.write(dir, "data");
+        Checks.check(new File(path).length() > 40 * (256 << 10), "数据只有 " + new File(path).length() + " 字节");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl(), path, data.getRules(), "流水线");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setOffHeapMinuteStore(true), path, data.getRules(),
+                "堆外列存");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setIngestShards(4), path, data.getRules(), "分片数 4");
+
+        /* 去掉文件末尾的换行 */
+        Path file = Paths.get(path), trimmed = dir.resolve("trimmed");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(trimmed, Arrays.copyOf(bytes, bytes.length - 1));
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl(), trimmed.toString(), data.getRules(), "末尾没有换行");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setIngestShards(4), trimmed.toString(), data.getRules(),
+                "末尾没有换行, 分片数 4");
+    }
+}
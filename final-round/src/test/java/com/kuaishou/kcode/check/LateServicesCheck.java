@@ -0,0 +1,29 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.file.Path;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 调用图在运行中不断长大：一半的服务以及它们的调用在后面的分钟才出现，最长链随之变化，
+ *           所有报警以及阶段 2 答案都和参考答案一致
+ */
+public class LateServicesCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("LateServicesCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("late");
+        CheckData data = new CheckData().setSeed(15).setMinutes(12).setLateServices(9).setEdgeRate(0.3);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl(), path, data.getRules(), "后出现的服务");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setIngestShards(3), path, data.getRules(),
+                "后出现的服务, 分片数 3");
+    }
+}
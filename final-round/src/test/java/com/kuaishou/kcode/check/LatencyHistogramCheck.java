@@ -0,0 +1,97 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+import com.kuaishou.kcode.domain.LatencyHistogram;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 耗时直方图：小耗时的分位数精确、大耗时的相对误差不超过 1/32、合并等于逐个添加、桶和代表值互逆，
+ *           边界：空的以及重置之后的直方图、EXACT_LIMIT 两侧、Integer.MAX_VALUE 以及和空直方图合并，
+ *           以及直方图模式下(耗时都小于 EXACT_LIMIT)的答案等于参考答案
+ */
+public class LatencyHistogramCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("LatencyHistogramCheck OK");
+    }
+
+    static void run() throws Exception {
+        boundaries();
+        Random random = new Random(3);
+        for(int round = 0; round < 50; ++round) {
+            int n = 1 + random.nextInt(3000);
+            boolean large = round % 2 == 1;
+            List<Integer> values = new ArrayList<>();
+            LatencyHistogram whole = new LatencyHistogram(), left = new LatencyHistogram(), right = new LatencyHistogram();
+            for(int i = 0; i < n; ++i) {
+                int value = large ? random.nextInt(1 << 24) : random.nextInt(LatencyHistogram.EXACT_LIMIT);
+                values.add(value);
+                whole.add(value);
+                (i % 3 == 0 ? left : right).add(value);
+            }
+            left.merge(right);
+            values.sort(Collections.reverseOrder());
+            for(int k : new int[] {0, (int) (n * 0.01), (int) (n * 0.5), n - 1}) {
+                int expected = values.get(k), actual = whole.topk(k);
+                if(large) {
+                    Checks.check(Math.abs(actual - expected) <= expected / 32 + 1,
+                            "topk(" + k + ") 期望约 " + expected + "，实际 " + actual);
+                } else {
+                    Checks.check(actual == expected, "topk(" + k + ") 期望 " + expected + "，实际 " + actual);
+                }
+                Checks.check(left.topk(k) == actual, "合并之后 topk(" + k + ") 不同");
+            }
+            Checks.check(whole.size() == n && left.size() == n, "计数不对");
+            Checks.check(whole.getMax() == values.get(0) && left.getMax() == values.get(0), "最大值不对");
+        }
+        for(int bucket = 0; bucket < LatencyHistogram.BUCKETS; ++bucket) {
+            Checks.check(LatencyHistogram.bucketOf(LatencyHistogram.valueOf(bucket)) == bucket, "桶 " + bucket + " 的代表值不在桶内");
+        }
+
+        Path dir = Checks.tempDir("histogram");
+        CheckData data = new CheckData().setSeed(3).setSlowLatencyMax(LatencyHistogram.EXACT_LIMIT - 1);
+        String path = data.write(dir, "data");
+        Checks.checkAgainst(new Reference(data.getLines(), data.getRules()),
+                new KcodeAlertAnalysisImpl().setHistogramPairData(true), path, data.getRules(), "直方图模式");
+    }
+
+    private static void boundaries() {
+        LatencyHistogram empty = new LatencyHistogram();
+        Checks.check(empty.size() == 0 && empty.topk(0) == -1 && empty.getP99() == -1 && empty.getAverage() == 0,
+                "空的直方图");
+
+        int limit = LatencyHistogram.EXACT_LIMIT;
+        for(int value : new int[] {0, limit - 1, limit, limit + 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE}) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.add(value, 3);
+            int actual = histogram.topk(2);
+            if(value < limit) {
+                Checks.check(actual == value, "耗时 " + value + " 应该精确，实际 " + actual);
+            } else {
+                Checks.check(actual >= value - value / 32 && actual - value <= value / 32, "耗时 " + value + " 的代表值 " + actual);
+            }
+            Checks.check(histogram.topk(3) == -1 && histogram.getMax() == value, "耗时 " + value + " 的 topk(3) 或最大值不对");
+            Checks.check(LatencyHistogram.bucketOf(value) >= 0 && LatencyHistogram.bucketOf(value) < LatencyHistogram.BUCKETS,
+                    "耗时 " + value + " 的桶越界");
+
+            histogram.merge(empty);
+            empty.merge(new LatencyHistogram());
+            Checks.check(histogram.size() == 3 && histogram.topk(2) == actual && empty.size() == 0, "和空直方图合并");
+            LatencyHistogram into = new LatencyHistogram();
+            into.merge(histogram);
+            Checks.check(into.size() == 3 && into.topk(2) == actual && into.getMax() == value, "合并进空直方图");
+
+            histogram.reset();
+            Checks.check(histogram.size() == 0 && histogram.topk(0) == -1 && histogram.getMax() == 0, "重置之后不是空的");
+            histogram.add(1);
+            Checks.check(histogram.topk(0) == 1 && histogram.size() == 1, "重置之后复用");
+        }
+        Checks.check(LatencyHistogram.bucketOf(limit - 1) + 1 == LatencyHistogram.bucketOf(limit), "EXACT_LIMIT 两侧的桶不相邻");
+        Checks.check(LatencyHistogram.bucketOf(Integer.MAX_VALUE) == LatencyHistogram.BUCKETS - 1, "最大的耗时不在最后一个桶");
+    }
+}
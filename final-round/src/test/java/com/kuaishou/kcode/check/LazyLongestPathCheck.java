@@ -0,0 +1,63 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 阶段 2 答案按需拼接：LRU 只能放下几个答案，所有查询(查询两遍，第二遍大多已经被淘汰)都和参考答案一致，
+ *           不存在的服务、时间以及类型返回空列表；LRU 只能放下一个答案时，4 个线程同时查询的答案也都正确
+ */
+public class LazyLongestPathCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("LazyLongestPathCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("lazy");
+        CheckData data = new CheckData().setSeed(12).setBackEdgeRate(0.1);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl().setLazyLongestPath(4);
+        Collection<String> alarms = impl.alarmMonitor(path, data.getRules());
+        Checks.checkLines(reference.dump(), Checks.dump(impl, alarms, reference), "第一遍");
+        Checks.checkLines(reference.dump(), Checks.dump(impl, alarms, reference), "第二遍");
+
+        Reference.Query query = reference.getQueries().get(0);
+        Checks.check(impl.getLongestPath("rd_404", query.responder, query.time, query.type).isEmpty(), "不存在的服务");
+        Checks.check(impl.getLongestPath(query.caller, query.responder, "1999-01-01 00:00", query.type).isEmpty(),
+                "不存在的时间");
+        Checks.check(impl.getLongestPath(query.caller, query.responder, query.time, "P50").isEmpty(), "不存在的类型");
+
+        /* 每次拼接放进两个答案，另一个类型的答案马上就被淘汰 */
+        KcodeAlertAnalysisImpl tiny = new KcodeAlertAnalysisImpl().setLazyLongestPath(1);
+        tiny.alarmMonitor(path, data.getRules());
+        List<Reference.Query> queries = reference.getQueries();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t < threads.length; ++t) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for(int i = 0; i < queries.size(); ++i) {
+                        Reference.Query q = queries.get((i + offset * 7) % queries.size());
+                        Checks.checkLines(reference.getLongestPath(q),
+                                Checks.sorted(tiny.getLongestPath(q.caller, q.responder, q.time, q.type)), "LRU 为 1, " + q);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads) thread.join();
+        if(failure.get() != null) throw new AssertionError("多线程查询失败", failure.get());
+    }
+}
@@ -0,0 +1,55 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 时间线的边界：跨过毫秒时间戳第 4~8 位回绕点(10^9 毫秒的整数倍)的 10 分钟，
+ *           以及分钟之间隔了 4000 分钟、总共超过 11.6 天的数据，流水线、分片读取以及通用解析的答案都和参考答案一致，
+ *           没有记录被当成迟到丢弃
+ */
+public class LongTimelineCheck {
+
+    /* 1594000000000 是 10^9 的整数倍，第 4 分钟跨过它 */
+    private static final long WRAP_BASE = 1593999720000L;
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("LongTimelineCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("timeline");
+
+        CheckData wrap = new CheckData().setSeed(11).setMinutes(10).setBaseTime(WRAP_BASE);
+        String path = wrap.write(dir, "wrap");
+        Reference reference = new Reference(wrap.getLines(), wrap.getRules());
+        Checks.check(reference.getMinutes() == 10, "数据应该有 10 分钟");
+        timelineCheck(reference, new KcodeAlertAnalysisImpl(), path, wrap, "跨过回绕点");
+        timelineCheck(reference, new KcodeAlertAnalysisImpl().setIngestShards(4), path, wrap, "跨过回绕点, 分片数 4");
+        /* IP 声明成任意格式，走通用解析 */
+        StringBuilder text = new StringBuilder("#caller,callerIP:ip,responder,responderIP:ip,success,elapsedTime,timestamp\n");
+        for(String line : wrap.getLines()) text.append(line).append('\n');
+        Path declared = dir.resolve("wrap.declared");
+        Files.write(declared, text.toString().getBytes(StandardCharsets.UTF_8));
+        timelineCheck(reference, new KcodeAlertAnalysisImpl(), declared.toString(), wrap, "跨过回绕点, 通用解析");
+
+        CheckData sparse = new CheckData().setSeed(12).setMinutes(6).setMinuteStep(4000).setServices(5).setLateServices(1);
+        path = sparse.write(dir, "sparse");
+        reference = new Reference(sparse.getLines(), sparse.getRules());
+        Checks.check(reference.getMinutes() == 5 * 4000 + 1, "数据应该跨 20001 分钟，实际 " + reference.getMinutes());
+        timelineCheck(reference, new KcodeAlertAnalysisImpl(), path, sparse, "超过 11.6 天");
+        timelineCheck(reference, new KcodeAlertAnalysisImpl().setIngestShards(4), path, sparse, "超过 11.6 天, 分片数 4");
+    }
+
+    private static void timelineCheck(Reference reference, KcodeAlertAnalysisImpl impl, String path, CheckData data,
+                                      String what) throws Exception {
+        Checks.checkAgainst(reference, impl, path, data.getRules(), what);
+        Checks.check(impl.getLateRecordCount() == 0, what + ": 不应该有迟到的记录，实际 " + impl.getLateRecordCount());
+    }
+}
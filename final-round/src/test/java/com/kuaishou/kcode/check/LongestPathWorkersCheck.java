@@ -0,0 +1,46 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 并行拼接阶段 2 答案：1 个和 4 个线程的每个答案(包括链的顺序)完全一致，并且等于参考答案；
+ *           只有一分钟、(服务对, 分钟)数在不再拆分的 64 个上下(7 个服务对 * 9 或 10 分钟)，线程数远多于单元数时也一样
+ */
+public class LongestPathWorkersCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("LongestPathWorkersCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("lpw");
+        compare(dir, new CheckData().setSeed(17).setServices(24).setEdgeRate(0.2), 4);
+        for(int minutes : new int[] {1, 9, 10}) {
+            compare(dir, new CheckData().setSeed(17).setServices(12).setMinutes(minutes), 32);
+        }
+    }
+
+    private static void compare(Path dir, CheckData data, int nrWorkers) throws Exception {
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        String what = nrWorkers + " 个线程, " + reference.getMinutes() + " 分钟";
+
+        KcodeAlertAnalysisImpl single = new KcodeAlertAnalysisImpl().setLongestPathWorkers(1);
+        single.alarmMonitor(path, data.getRules());
+        KcodeAlertAnalysisImpl parallel = new KcodeAlertAnalysisImpl().setLongestPathWorkers(nrWorkers);
+        Checks.checkLines(reference.dump(), Checks.dump(parallel, parallel.alarmMonitor(path, data.getRules()), reference),
+                what + " vs 参考");
+        for(Reference.Query query : reference.getQueries()) {
+            List<String> expected = new ArrayList<>(single.getLongestPath(query.caller, query.responder, query.time, query.type));
+            List<String> actual = new ArrayList<>(parallel.getLongestPath(query.caller, query.responder, query.time, query.type));
+            Checks.checkLines(expected, actual, what + " vs 1 个线程 " + query);
+        }
+    }
+}
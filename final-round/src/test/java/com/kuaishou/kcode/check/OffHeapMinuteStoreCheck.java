@@ -0,0 +1,103 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+import com.kuaishou.kcode.domain.LatencyHistogram;
+import com.kuaishou.kcode.domain.OffHeapMinuteStore;
+import com.kuaishou.kcode.domain.PairData;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 堆外分钟列存：数据中有很多一阶段之后才出现的主被调 IP 对，堆外模式的答案和默认模式完全一致，
+ *           并且都等于参考答案；更大的乱序窗口以及延后的记录下也一样。
+ *           20 万个 IP 对的列存只占几 MB 堆外内存，P99(包括超过 EXACT_LIMIT 的耗时)、成功率以及合并到 PairData 的结果
+ *           都和 LatencyHistogram 一致，清空之后再写同样多的数据不会再分配堆外内存
+ */
+public class OffHeapMinuteStoreCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("OffHeapMinuteStoreCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("offheap");
+        CheckData data = new CheckData().setSeed(4).setMinutes(10).setLateServices(5)
+                .setSlowLatencyMax(LatencyHistogram.EXACT_LIMIT - 1);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+
+        KcodeAlertAnalysisImpl heap = new KcodeAlertAnalysisImpl();
+        List<String> expected = Checks.dump(heap, heap.alarmMonitor(path, data.getRules()), reference);
+        KcodeAlertAnalysisImpl offHeap = new KcodeAlertAnalysisImpl().setOffHeapMinuteStore(true);
+        Collection<String> alarms = offHeap.alarmMonitor(path, data.getRules());
+        Checks.checkLines(expected, Checks.dump(offHeap, alarms, reference), "堆外 vs 默认");
+        Checks.checkLines(reference.dump(), expected, "默认 vs 参考");
+
+        CheckData delayed = new CheckData().setSeed(5).setMinutes(10).setLateServices(5).setMaxDelayMinutes(3)
+                .setSlowLatencyMax(LatencyHistogram.EXACT_LIMIT - 1);
+        path = delayed.write(dir, "delayed");
+        KcodeAlertAnalysisImpl windowed = new KcodeAlertAnalysisImpl().setOffHeapMinuteStore(true).setReorderWindow(3);
+        Checks.checkAgainst(new Reference(delayed.getLines(), delayed.getRules()), windowed, path, delayed.getRules(),
+                "堆外 + 乱序窗口 3");
+        Checks.check(windowed.getLateRecordCount() == 0, "乱序窗口 3 不应该丢弃记录");
+        manyPairs();
+    }
+
+    private static void manyPairs() {
+        int nrPairs = 200000, nrZones = 4;
+        long before = directMemory();
+        OffHeapMinuteStore store = new OffHeapMinuteStore(nrZones, nrPairs);
+        long headers = directMemory() - before;
+        Checks.check(headers <= (long) nrZones * nrPairs * 16, "20 万个 IP 对的头部占了 " + headers + " 字节");
+
+        fill(store, new Random(4), nrPairs);
+        long filled = directMemory();
+        for(int zone = 0; zone < nrZones; ++zone) {
+            for(int pair = 0; pair < nrPairs; ++pair) store.clear(zone, pair);
+        }
+        fill(store, new Random(4), nrPairs);     /* 和上一次完全一样的数据 */
+        Checks.check(directMemory() <= filled, "清空之后再写入又分配了 " + (directMemory() - filled) + " 字节");
+    }
+
+    /* 每个区域的每个 IP 对写入几次调用，少数 IP 对写入很多次，抽一部分和 LatencyHistogram 对比 */
+    private static void fill(OffHeapMinuteStore store, Random random, int nrPairs) {
+        for(int zone = 0; zone < 4; ++zone) {
+            for(int pair = 0; pair < nrPairs; ++pair) {
+                int calls = pair % 1000 == 0 ? 1 + random.nextInt(5000) : 1 + random.nextInt(3), trues = 0;
+                boolean sampled = pair % 1000 == 0 || pair % 97 == 0;
+                LatencyHistogram histogram = sampled ? new LatencyHistogram() : null;
+                for(int i = 0; i < calls; ++i) {
+                    int elapsed = random.nextInt(8) == 0 ? random.nextInt(200000) : random.nextInt(LatencyHistogram.EXACT_LIMIT);
+                    int success = random.nextInt(10) == 0 ? 0 : 1;
+                    trues += success;
+                    if(sampled) histogram.add(elapsed);
+                    store.add(zone, pair, elapsed, success);
+                }
+                if(!sampled) continue;
+                Checks.check(store.calls(zone, pair) == calls, "IP 对 " + pair + " 的调用次数 " + store.calls(zone, pair));
+                Checks.check(store.getP99(zone, pair) == histogram.getP99(),
+                        "IP 对 " + pair + " 的 P99 " + store.getP99(zone, pair) + "，期望 " + histogram.getP99());
+                Checks.check(store.getSuccessRate(zone, pair) == (int) (trues * 10000L / calls), "IP 对 " + pair + " 的成功率");
+                PairData merged = new PairData(true);
+                store.mergeInto(zone, pair, merged);
+                Checks.check(merged.getP99() == histogram.getP99() && merged.getTrueCount() == trues,
+                        "IP 对 " + pair + " 合并之后的 P99 " + merged.getP99());
+            }
+        }
+    }
+
+    private static long directMemory() {
+        for(BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if("direct".equals(pool.getName())) return pool.getMemoryUsed();
+        }
+        throw new IllegalStateException("no direct buffer pool");
+    }
+}
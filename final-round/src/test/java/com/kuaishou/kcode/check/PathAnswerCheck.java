@@ -0,0 +1,78 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+import com.kuaishou.kcode.domain.PathAnswer;
+import com.kuaishou.kcode.domain.fuc.PathAnswerEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 共享前缀的阶段 2 答案：编码器写出的后缀和 String.format 一致(包括没有调用的 -1ms 以及 -1%)，
+ *           多个答案共享同一组前缀互不影响；很多边在前几分钟没有调用的数据，答案和参考答案一致
+ */
+public class PathAnswerCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("PathAnswerCheck OK");
+    }
+
+    static void run() throws Exception {
+        Random random = new Random(18);
+        PathAnswerEncoder encoder = new PathAnswerEncoder();
+        for(int round = 0; round < 200; ++round) {
+            int nrPaths = 1 + random.nextInt(40);
+            byte[][] prefixes = new byte[nrPaths][];
+            List<String> p99Expected = new ArrayList<>(), srExpected = new ArrayList<>();
+            int[][] p99s = new int[nrPaths][], srs = new int[nrPaths][];
+            for(int i = 0; i < nrPaths; ++i) {
+                int nrEdges = 1 + random.nextInt(12);
+                StringBuilder prefix = new StringBuilder("rd_0");
+                StringBuilder p99 = new StringBuilder(), sr = new StringBuilder();
+                p99s[i] = new int[nrEdges];
+                srs[i] = new int[nrEdges];
+                for(int j = 0; j < nrEdges; ++j) {
+                    prefix.append("->rd_").append(random.nextInt(1000));
+                    p99s[i][j] = random.nextInt(4) == 0 ? -1 : random.nextInt(100000);
+                    srs[i][j] = random.nextInt(4) == 0 ? -1 : random.nextInt(10001);
+                    if(j > 0) {
+                        p99.append(',');
+                        sr.append(',');
+                    }
+                    p99.append(p99s[i][j]).append("ms");
+                    sr.append(srs[i][j] < 0 ? "-1%" : String.format("%d.%02d%%", srs[i][j] / 100, srs[i][j] % 100));
+                }
+                prefixes[i] = prefix.append('|').toString().getBytes(StandardCharsets.UTF_8);
+                p99Expected.add(prefix + p99.toString());
+                srExpected.add(prefix + sr.toString());
+            }
+            for(int i = 0; i < nrPaths; ++i) {
+                for(int value : p99s[i]) encoder.putP99(value);
+                encoder.endPath();
+            }
+            PathAnswer p99Answer = encoder.finish(prefixes);
+            for(int i = 0; i < nrPaths; ++i) {
+                for(int value : srs[i]) encoder.putSR(value);
+                encoder.endPath();
+            }
+            PathAnswer srAnswer = encoder.finish(prefixes);
+            Checks.checkLines(p99Expected, new ArrayList<>(p99Answer), "P99 后缀");
+            Checks.checkLines(srExpected, new ArrayList<>(srAnswer), "SR 后缀");
+        }
+
+        Path dir = Checks.tempDir("answer");
+        CheckData data = new CheckData().setSeed(19).setMinutes(10).setLateServices(6);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        int missing = 0;
+        for(String line : reference.dump()) {
+            if(line.contains("-1ms") || line.contains("-1%")) ++missing;
+        }
+        Checks.check(missing > 0, "数据中没有缺失的边");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl(), path, data.getRules(), "缺失的边");
+    }
+}
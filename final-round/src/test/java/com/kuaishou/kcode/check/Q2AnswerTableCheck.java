@@ -0,0 +1,81 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.domain.Q2AnswerTable;
+import com.kuaishou.kcode.domain.kv.Q2Key;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 阶段 2 答案的完美哈希表：不同大小(包括空表)的每个 Key 都能查到自己的答案，
+ *           不存在的 Key 返回空列表，keys 正好是所有 Key；几百个 Key 落在同一个桶里时构建依旧很快结束，答案也都能查到
+ */
+public class Q2AnswerTableCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("Q2AnswerTableCheck OK");
+    }
+
+    static void run() throws Exception {
+        randomCheck();
+        clusteredCheck();
+    }
+
+    private static void randomCheck() {
+        Random random = new Random(13);
+        for(int n : new int[] {0, 1, 2, 7, 100, 5000}) {
+            Map<Q2Key, List<String>> answers = new HashMap<>();
+            while (answers.size() < n) {
+                List<String> answer = Collections.singletonList("path-" + answers.size());
+                answers.put(new Q2Key("rd_" + random.nextInt(50), "rd_" + random.nextInt(50),
+                        "2020-06-18 12:" + (10 + random.nextInt(50)), random.nextBoolean() ? "P99" : "SR"), answer);
+            }
+            tableCheck(answers, new Q2AnswerTable(answers), random);
+        }
+    }
+
+    /*
+     * 2000 个 Key 中有 300 个落在第 0 个桶：64 位哈希的高 32 位乘以桶数(n)后的高 32 位为 0，和表内的分桶方法一样。
+     * 300 个 Key 找不到一个互不冲突的种子，只能放进普通哈希表
+     */
+    private static void clusteredCheck() throws Exception {
+        final int n = 2000, clustered = 300;
+        Random random = new Random(14);
+        Map<Q2Key, List<String>> answers = new HashMap<>();
+        while (answers.size() < clustered) {
+            Q2Key key = new Q2Key("rd_" + random.nextInt(1 << 20), "rd_" + random.nextInt(1 << 20), "2020-06-18 12:30", "P99");
+            if(((key.hash64() >>> 32) * n) >>> 32 == 0) answers.put(key, Collections.singletonList("clustered-" + answers.size()));
+        }
+        while (answers.size() < n) {
+            answers.put(new Q2Key("rd_" + random.nextInt(1 << 20), "rd_" + random.nextInt(1 << 20), "2020-06-18 12:31", "SR"),
+                    Collections.singletonList("path-" + answers.size()));
+        }
+        AtomicReference<Q2AnswerTable> built = new AtomicReference<>();
+        Thread builder = new Thread(() -> built.set(new Q2AnswerTable(answers)));
+        builder.setDaemon(true);
+        builder.start();
+        builder.join(60000);
+        Checks.check(built.get() != null, "同一个桶里有 " + clustered + " 个 Key 时构建没有结束");
+        tableCheck(answers, built.get(), random);
+    }
+
+    private static void tableCheck(Map<Q2Key, List<String>> answers, Q2AnswerTable table, Random random) {
+        int n = answers.size();
+        Checks.check(table.size() == n, "大小 " + n + "，实际 " + table.size());
+        Checks.check(new HashSet<>(table.keys()).equals(answers.keySet()), "keys 不是所有的 Key");
+        for(Map.Entry<Q2Key, List<String>> entry : answers.entrySet()) {
+            Q2Key key = entry.getKey();
+            Checks.check(entry.getValue().equals(table.get(key.getCaller(), key.getResponder(), key.getTime(),
+                    key.getType())), "Key " + key.getCaller() + "," + key.getResponder() + " 查到了别的答案");
+        }
+        for(int i = 0; i < 1000; ++i) {
+            String caller = "rd_" + random.nextInt(60), responder = "rd_" + random.nextInt(60);
+            String time = "2020-06-18 12:" + (10 + random.nextInt(50)), type = random.nextBoolean() ? "P99" : "P50";
+            if(answers.containsKey(new Q2Key(caller, responder, time, type))) continue;
+            Checks.check(table.get(caller, responder, time, type).isEmpty(), "不存在的 Key 应该返回空列表");
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+import com.kuaishou.kcode.domain.IpTable;
+import com.kuaishou.kcode.domain.fuc.RecordSchema;
+import com.kuaishou.kcode.domain.fuc.SchemaLineParser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 记录格式：声明的解析以及错误；IPv6 按 RFC 5952 规范化、不合法的 IP 被拒绝；
+ *           换了列顺序、分隔符、秒级时间戳、CRLF 以及 IPv6 的数据，答案和参考答案一致(报警中的 IP 是规范化后的原文)；
+ *           解析线程中不同的 IP 超过 IpTable.MAX_SIZE 时 alarmMonitor 抛出 IOException，而不是卡住；
+ *           第一条记录不满足声明的格式时抛出 IllegalArgumentException，两种错误之后解析线程和计算线程都会退出
+ */
+public class RecordSchemaCheck {
+
+    private static final String VARIANT = "#timestamp:s|success|callerIP:ip6|caller|-|responder|responderIP:ip|elapsedTime";
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("RecordSchemaCheck OK");
+    }
+
+    static void run() throws Exception {
+        declarations();
+        canonicalization();
+        variantInput();
+        ipTableOverflow();
+        firstRecordFailure();
+    }
+
+    private static void declarations() {
+        Checks.check(RecordSchema.DEFAULT.toString().equals(
+                "caller,callerIP:ip4,responder,responderIP:ip4,success,elapsedTime,timestamp:ms"), "默认格式的声明不对");
+        Checks.check(RecordSchema.parse("caller,callerIP,responder,responderIP,success,elapsedTime,timestamp")
+                .isFastPathLayout(), "省略修饰的默认格式应该可以快速解析");
+        RecordSchema variant = RecordSchema.parse(VARIANT);
+        Checks.check(variant.getSeparator() == '|' && !variant.isFastPathLayout(), "变体格式的分隔符不对");
+        Checks.check(variant.getCallerIpFormat() == RecordSchema.IP6 && variant.getResponderIpFormat() == RecordSchema.IP_ANY,
+                "变体格式的 IP 格式不对");
+        Checks.check(RecordSchema.parse(variant.toString()).toString().equals(variant.toString()), "声明不能再次解析");
+        Checks.check(variant.toMillis(1593842580L) == 1593842580000L, "秒级时间戳换算不对");
+        Checks.check(RecordSchema.parse("caller\tcallerIP\tresponder\tresponderIP\tsuccess\telapsedTime\ttimestamp:us")
+                .toMillis(1593842580123456L) == 1593842580123L, "微秒时间戳换算不对");
+        String[] bad = {
+                "caller,callerIP,responder,responderIP,success,elapsedTime",                    /* 缺少字段 */
+                "caller,callerIP,responder,responderIP,success,elapsedTime,timestamp,caller",   /* 重复字段 */
+                "caller,callerIP,responder,responderIP,success,elapsedTime,time",               /* 未知字段 */
+                "caller,callerIP:ip5,responder,responderIP,success,elapsedTime,timestamp",      /* 未知 IP 格式 */
+                "caller,callerIP,responder,responderIP,success,elapsedTime,timestamp:min",      /* 未知精度 */
+                "caller:x,callerIP,responder,responderIP,success,elapsedTime,timestamp",        /* 不支持修饰 */
+        };
+        for(String declaration : bad) {
+            try {
+                RecordSchema.parse(declaration);
+                throw new AssertionError("应该拒绝 " + declaration);
+            } catch (IllegalArgumentException expected) {
+                /* 好的 */
+            }
+        }
+    }
+
+    private static void canonicalization() {
+        String[][] ip6 = {
+                {"2001:DB8:0:0:0:0:2:1", "2001:db8::2:1"},
+                {"2001:0db8:0000:0001:0000:0000:0000:0001", "2001:db8:0:1::1"},
+                {"2001:db8:0:0:1:0:0:1", "2001:db8::1:0:0:1"},
+                {"0:0:0:0:0:0:0:1", "::1"},
+                {"::", "::"},
+                {"1:0:0:0:0:0:0:0", "1::"},
+                {"1:0:1:0:1:0:1:0", "1:0:1:0:1:0:1:0"},
+                {"fe80::1:0:0:0", "fe80::1:0:0:0"},
+                {"1:0:0:1:0:0:0:1", "1:0:0:1::1"},
+                {"fd00:0:5d::e4:cc", "fd00:0:5d::e4:cc"},
+        };
+        for(String[] ip : ip6) {
+            String text = parseCallerIp("caller,callerIP:ip6,responder,responderIP:ip,success,elapsedTime,timestamp", ip[0]);
+            Checks.check(ip[1].equals(text), ip[0] + " 应该规范化成 " + ip[1] + "，实际 " + text);
+            text = parseCallerIp("caller,callerIP:ip,responder,responderIP:ip,success,elapsedTime,timestamp", ip[0]);
+            Checks.check(ip[1].equals(text), "ip 格式下 " + ip[0] + " 应该规范化成 " + ip[1] + "，实际 " + text);
+        }
+        Checks.check("192.168.0.1".equals(parseCallerIp(
+                "caller,callerIP:ip,responder,responderIP:ip,success,elapsedTime,timestamp", "192.168.0.1")), "IPv4 不应该变化");
+        String[][] invalid = {
+                {"ip6", "1::2::3"}, {"ip6", "12345::"}, {"ip6", "1:2:3:4:5:6:7:8:9"}, {"ip6", "1:2"},
+                {"ip6", "::ffff:1.2.3.4"}, {"ip6", "1:2:3:4:5:6:7:"}, {"ip6", "g::1"},
+                {"ip4", "256.1.1.1"}, {"ip4", "1.2.3"}, {"ip4", "1.2.3.4.5"}, {"ip4", "1..2.3"}, {"ip4", "fe80::1"},
+        };
+        for(String[] ip : invalid) {
+            try {
+                parseCallerIp("caller,callerIP:" + ip[0] + ",responder,responderIP:ip,success,elapsedTime,timestamp", ip[1]);
+                throw new AssertionError(ip[0] + " 格式应该拒绝 " + ip[1]);
+            } catch (IllegalArgumentException expected) {
+                /* 好的 */
+            }
+        }
+    }
+
+    private static String parseCallerIp(String declaration, String ip) {
+        SchemaLineParser parser = new SchemaLineParser(RecordSchema.parse(declaration), new IpTable());
+        ByteBuffer buffer = ByteBuffer.wrap(("rd_1," + ip + ",rd_2,10.0.0.1,true,12,1593842580000\n")
+                .getBytes(StandardCharsets.UTF_8)).order(ByteOrder.LITTLE_ENDIAN);
+        return parser.pairParse(buffer, 0).getCallerIpText();
+    }
+
+    /* 调用者 IP 换成非规范写法的 IPv6，响应者 IP 换成 192. 开头的 IPv4，报警里是它们规范化后的原文 */
+    private static void variantInput() throws Exception {
+        Path dir = Checks.tempDir("schema");
+        CheckData data = new CheckData().setSeed(27);
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        StringBuilder text = new StringBuilder(VARIANT).append('\n');
+        for(String line : data.getLines()) {
+            String[] f = line.split(",");
+            text.append(Long.parseLong(f[6]) / 1000).append('|').append("true".equals(f[4]) ? '1' : '0').append('|')
+                    .append(ip6Loose(f[1])).append('|').append(f[0]).append("|x|").append(f[2]).append('|')
+                    .append(ip4Moved(f[3])).append('|').append(f[5]).append("\r\n");
+        }
+        Path file = dir.resolve("variant");
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<String> expected = new ArrayList<>();
+        for(String line : reference.dump()) {
+            if(line.startsWith("**")) {
+                expected.add(line);
+                continue;
+            }
+            String[] f = line.split(",");
+            f[3] = ip6Canonical(f[3]);
+            f[5] = ip4Moved(f[5]);
+            expected.add(String.join(",", f));
+        }
+        int nrAlarms = reference.getAlarms().size();
+        Collections.sort(expected.subList(0, nrAlarms));
+        KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl();
+        Checks.checkLines(expected, Checks.dump(impl, impl.alarmMonitor(file.toString(), data.getRules()), reference),
+                "变体格式");
+    }
+
+    private static String ip6Loose(String ip) {
+        String[] a = ip.split("\\.");
+        return String.format("FD00:0000:%X:0:0:0:%X:%04X", Integer.parseInt(a[1]), Integer.parseInt(a[2]),
+                Integer.parseInt(a[3]));
+    }
+
+    private static String ip6Canonical(String ip) {
+        String[] a = ip.split("\\.");
+        return String.format("fd00:0:%x::%x:%x", Integer.parseInt(a[1]), Integer.parseInt(a[2]), Integer.parseInt(a[3]));
+    }
+
+    private static String ip4Moved(String ip) {
+        return "192" + ip.substring(ip.indexOf('.'));
+    }
+
+    /* 前 3 分钟是普通数据，第 4 分钟出现 IpTable.MAX_SIZE 个新 IP，溢出发生在解析线程中 */
+    private static void ipTableOverflow() throws Exception {
+        Path dir = Checks.tempDir("overflow");
+        long base = 1593842580000L;
+        StringBuilder text = new StringBuilder("#caller,callerIP:ip,responder,responderIP:ip,success,elapsedTime,timestamp\n");
+        for(int m = 0; m < 3; ++m) {
+            for(int k = 0; k < 100; ++k) {
+                text.append("rd_1,10.0.0.1,rd_2,10.0.0.2,true,12,").append(base + m * 60000L + k * 500).append('\n');
+            }
+        }
+        for(int k = 0; k <= IpTable.MAX_SIZE; ++k) {
+            text.append("rd_1,10.").append(k >> 16).append('.').append(k >> 8 & 0xFF).append('.').append(k & 0xFF)
+                    .append(",rd_2,10.0.0.2,true,12,").append(base + 180000L + k % 60000).append('\n');
+        }
+        Path file = dir.resolve("overflow");
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        Throwable thrown = Checks.monitorFailure(KcodeAlertAnalysisImpl::new, file.toString(),
+                Collections.singletonList("1,rd_1,rd_2,P99,1>,1ms"), "IP 溢出");
+        Checks.check(thrown instanceof IOException && thrown.getCause() instanceof IllegalStateException,
+                "IP 溢出应该抛出 IOException，实际 " + thrown);
+    }
+
+    /* 第一条记录就不满足声明的格式，错误发生在主线程中，流水线还没有开始 */
+    private static void firstRecordFailure() throws Exception {
+        Path file = Checks.tempDir("first").resolve("first");
+        Files.write(file, ("#caller,callerIP:ip6,responder,responderIP:ip4,success,elapsedTime,timestamp\n"
+                + "rd_1,10.0.0.1,rd_2,10.0.0.2,true,12,1593842580000\n").getBytes(StandardCharsets.UTF_8));
+        Throwable thrown = Checks.monitorFailure(KcodeAlertAnalysisImpl::new, file.toString(),
+                Collections.singletonList("1,rd_1,rd_2,P99,1>,1ms"), "第一条记录格式错误");
+        Checks.check(thrown instanceof IllegalArgumentException, "第一条记录格式错误应该抛出 IllegalArgumentException，实际 " + thrown);
+    }
+}
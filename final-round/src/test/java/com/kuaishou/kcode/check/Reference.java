@@ -0,0 +1,335 @@
+package com.kuaishou.kcode.check;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 校验用的参考答案，按题意用最直接的方式计算：每分钟保留所有耗时，P99 排序取第 n * 0.01 个，
+ *           报警逐条规则逐分钟检查；阶段 2 把强连通分量缩点之后枚举左右两边所有最长链再拼接。
+ *           只追求显然正确，不追求速度，数据量要小。
+ */
+public class Reference {
+
+    private List<String> alarms = new ArrayList<>();
+    private List<Query> queries = new ArrayList<>();
+    private Map<Query, List<String>> answers = new HashMap<>();
+
+    /* 服务对 -> 分钟 -> 耗时，以及成功次数 */
+    private Map<String, Map<Integer, List<Integer>>> serviceMinutes = new HashMap<>();
+    private Map<String, Map<Integer, Integer>> serviceTrues = new HashMap<>();
+    private List<String> timeTable = new ArrayList<>();
+
+    /**
+     * 一次阶段 2 查询
+     */
+    public static class Query {
+        public final String caller, responder, time, type;
+
+        Query(String caller, String responder, String time, String type) {
+            this.caller = caller;
+            this.responder = responder;
+            this.time = time;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Query)) return false;
+            Query q = (Query) o;
+            return caller.equals(q.caller) && responder.equals(q.responder) && time.equals(q.time) && type.equals(q.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(caller, responder, time, type);
+        }
+
+        @Override
+        public String toString() {
+            return caller + "," + responder + "," + time + "," + type;
+        }
+    }
+
+    public Reference(List<String> lines, Collection<String> rules) {
+        /* IP 对 -> 分钟 -> 耗时 */
+        Map<String, Map<Integer, List<Integer>>> ipMinutes = new TreeMap<>();
+        Map<String, Map<Integer, Integer>> ipTrues = new HashMap<>();
+        long first = -1;
+        int maxMinute = 0;
+        for(String line : lines) {
+            String[] f = line.split(",");
+            long t = Long.parseLong(f[6]);
+            if(first < 0) first = t / 60000;
+            int minute = (int) (t / 60000 - first);
+            maxMinute = Math.max(maxMinute, minute);
+            boolean ok = "true".equals(f[4]);
+            int elapsed = Integer.parseInt(f[5]);
+            add(ipMinutes, ipTrues, f[0] + "," + f[1] + "," + f[2] + "," + f[3], minute, elapsed, ok);
+            add(serviceMinutes, serviceTrues, f[0] + "," + f[2], minute, elapsed, ok);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        for(int m = 0; m <= maxMinute; ++m) timeTable.add(format.format(new Date((first + m) * 60000)));
+
+        /* 阶段 1 */
+        for(String rule : rules) {
+            String[] f = rule.split(",");
+            boolean byP99 = "P99".equals(f[3]), greater = f[4].endsWith(">");
+            int duration = Integer.parseInt(f[4].substring(0, f[4].length() - 1));
+            int threshold = byP99 ? Integer.parseInt(f[5].substring(0, f[5].length() - 2)) : parseSR(f[5]);
+            for(Map.Entry<String, Map<Integer, List<Integer>>> pair : ipMinutes.entrySet()) {
+                String[] p = pair.getKey().split(",");
+                if(!"ALL".equals(f[1]) && !p[0].equals(f[1]) || !"ALL".equals(f[2]) && !p[2].equals(f[2])) continue;
+                int hits = 0;
+                for(int m = 0; m <= maxMinute; ++m) {
+                    List<Integer> elapsed = pair.getValue().get(m);
+                    if(elapsed == null) {
+                        hits = 0;
+                        continue;
+                    }
+                    int value = byP99 ? p99(elapsed) : sr(elapsed.size(), ipTrues.get(pair.getKey()).get(m));
+                    if(greater ? value > threshold : value < threshold) {
+                        if(++hits >= duration) {
+                            alarms.add(f[0] + "," + timeTable.get(m) + "," + pair.getKey() + ","
+                                    + (byP99 ? value + "ms" : srText(value)));
+                        }
+                    } else {
+                        hits = 0;
+                    }
+                }
+            }
+        }
+        Collections.sort(alarms);
+
+        /* 阶段 2 */
+        Set<String> callers = new HashSet<>(), responders = new HashSet<>(), exact = new HashSet<>();
+        for(String rule : rules) {
+            String[] f = rule.split(",");
+            if("ALL".equals(f[1])) responders.add(f[2]);
+            else if("ALL".equals(f[2])) callers.add(f[1]);
+            else exact.add(f[1] + "," + f[2]);
+        }
+        longestPathsPrepare();
+        for(String pair : new TreeSet<>(serviceMinutes.keySet())) {
+            String[] p = pair.split(",");
+            if(!callers.contains(p[0]) && !responders.contains(p[1]) && !exact.contains(pair)) continue;
+            for(int m = 0; m <= maxMinute; ++m) {
+                for(String type : new String[] {"P99", "SR"}) {
+                    Query query = new Query(p[0], p[1], timeTable.get(m), type);
+                    List<String> answer = new ArrayList<>();
+                    for(List<String> left : left(p[0])) {
+                        for(List<String> right : right(p[1])) {
+                            List<String> path = new ArrayList<>(left);
+                            path.addAll(right);
+                            answer.add(pathText(path, m, "P99".equals(type)));
+                        }
+                    }
+                    Collections.sort(answer);
+                    queries.add(query);
+                    answers.put(query, answer);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 排好序的报警
+     */
+    public List<String> getAlarms() {
+        return alarms;
+    }
+
+    /**
+     * @return 所有被规则覆盖的服务对 * 分钟 * {P99, SR} 查询
+     */
+    public List<Query> getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return 排好序的阶段 2 答案
+     */
+    public List<String> getLongestPath(Query query) {
+        return answers.getOrDefault(query, Collections.emptyList());
+    }
+
+    /**
+     * @return 第 m 分钟的时间字符串
+     */
+    public String timeOf(int minute) {
+        return timeTable.get(minute);
+    }
+
+    /**
+     * @return 分钟数
+     */
+    public int getMinutes() {
+        return timeTable.size();
+    }
+
+    /**
+     * 服务对在某一分钟的 P99，没有调用时返回 -1
+     */
+    public int servicePairP99(String caller, String responder, int minute) {
+        Map<Integer, List<Integer>> onPair = serviceMinutes.get(caller + "," + responder);
+        List<Integer> elapsed = onPair == null ? null : onPair.get(minute);
+        return elapsed == null ? -1 : p99(elapsed);
+    }
+
+    /**
+     * @return 所有服务对 "caller,responder"
+     */
+    public Set<String> getServicePairs() {
+        return serviceMinutes.keySet();
+    }
+
+    /**
+     * 参考答案的文本形式：报警之后是每个查询一行，便于和实现的输出逐行比较
+     */
+    public List<String> dump() {
+        List<String> out = new ArrayList<>(alarms);
+        for(Query query : queries) out.add(queryLine(query, answers.get(query)));
+        return out;
+    }
+
+    static String queryLine(Query query, List<String> sortedAnswer) {
+        return "** " + query + " -> " + sortedAnswer;
+    }
+
+    private static void add(Map<String, Map<Integer, List<Integer>>> minutes, Map<String, Map<Integer, Integer>> trues,
+                            String key, int minute, int elapsed, boolean ok) {
+        minutes.computeIfAbsent(key, k -> new HashMap<>()).computeIfAbsent(minute, k -> new ArrayList<>()).add(elapsed);
+        trues.computeIfAbsent(key, k -> new HashMap<>()).merge(minute, ok ? 1 : 0, Integer::sum);
+    }
+
+    private static int p99(List<Integer> elapsed) {
+        List<Integer> sorted = new ArrayList<>(elapsed);
+        sorted.sort(Collections.reverseOrder());
+        return sorted.get((int) (sorted.size() * 0.01));
+    }
+
+    private static int sr(int n, int trues) {
+        return (int) (trues * 10000L / n);
+    }
+
+    private static int parseSR(String text) {
+        String[] parts = text.substring(0, text.length() - 1).split("\\.");
+        int decimal = parts.length > 1 ? Integer.parseInt((parts[1] + "0").substring(0, 2)) : 0;
+        return Integer.parseInt(parts[0]) * 100 + decimal;
+    }
+
+    private static String srText(int sr) {
+        return String.format("%d.%02d%%", sr / 100, sr % 100);
+    }
+
+    private String pathText(List<String> path, int minute, boolean byP99) {
+        StringBuilder text = new StringBuilder(String.join("->", path)).append('|');
+        for(int i = 1; i < path.size(); ++i) {
+            if(i > 1) text.append(',');
+            String pair = path.get(i - 1) + "," + path.get(i);
+            List<Integer> elapsed = serviceMinutes.get(pair).get(minute);
+            if(elapsed == null) {
+                text.append(byP99 ? "-1ms" : "-1%");
+            } else {
+                text.append(byP99 ? p99(elapsed) + "ms" : srText(sr(elapsed.size(), serviceTrues.get(pair).get(minute))));
+            }
+        }
+        return text.toString();
+    }
+
+    /* ---------------------------- 最长链：Tarjan 缩点之后只沿着分量之间的边延伸 ---------------------------- */
+
+    private Map<String, List<String>> adjacency = new TreeMap<>();
+    private Map<String, List<String>> successors = new HashMap<>(), predecessors = new HashMap<>();
+    private Map<String, List<List<String>>> rights = new HashMap<>(), lefts = new HashMap<>();
+    private Map<String, Integer> index = new HashMap<>(), low = new HashMap<>(), component = new HashMap<>();
+    private Deque<String> stack = new ArrayDeque<>();
+    private Set<String> onStack = new HashSet<>();
+
+    private void longestPathsPrepare() {
+        for(String pair : serviceMinutes.keySet()) {
+            String[] p = pair.split(",");
+            adjacency.computeIfAbsent(p[0], k -> new ArrayList<>()).add(p[1]);
+            adjacency.computeIfAbsent(p[1], k -> new ArrayList<>());
+        }
+        for(String v : adjacency.keySet()) {
+            if(!index.containsKey(v)) tarjan(v);
+        }
+        for(String pair : serviceMinutes.keySet()) {
+            String[] p = pair.split(",");
+            if(!component.get(p[0]).equals(component.get(p[1]))) {
+                successors.computeIfAbsent(p[0], k -> new ArrayList<>()).add(p[1]);
+                predecessors.computeIfAbsent(p[1], k -> new ArrayList<>()).add(p[0]);
+            }
+        }
+    }
+
+    private void tarjan(String v) {
+        index.put(v, index.size());
+        low.put(v, index.get(v));
+        stack.push(v);
+        onStack.add(v);
+        for(String w : adjacency.get(v)) {
+            if(!index.containsKey(w)) {
+                tarjan(w);
+                low.put(v, Math.min(low.get(v), low.get(w)));
+            } else if(onStack.contains(w)) {
+                low.put(v, Math.min(low.get(v), index.get(w)));
+            }
+        }
+        if(low.get(v).equals(index.get(v))) {
+            int id = component.size();
+            String w;
+            do {
+                w = stack.pop();
+                onStack.remove(w);
+                component.put(w, id);
+            } while (!w.equals(v));
+        }
+    }
+
+    private List<List<String>> right(String node) {
+        return longest(node, successors, rights, false);
+    }
+
+    private List<List<String>> left(String node) {
+        return longest(node, predecessors, lefts, true);
+    }
+
+    /* 从 node 出发沿着 next 走到尽头的所有最长链，左边的链保持调用方向(node 在最后) */
+    private List<List<String>> longest(String node, Map<String, List<String>> next,
+                                       Map<String, List<List<String>>> memo, boolean reversed) {
+        List<List<String>> paths = memo.get(node);
+        if(paths != null) return paths;
+        paths = new ArrayList<>();
+        List<String> neighbours = next.getOrDefault(node, Collections.emptyList());
+        if(neighbours.isEmpty()) {
+            paths.add(Collections.singletonList(node));
+        } else {
+            int longest = 0;
+            List<List<List<String>>> subs = new ArrayList<>();
+            for(String neighbour : neighbours) {
+                List<List<String>> sub = longest(neighbour, next, memo, reversed);
+                subs.add(sub);
+                longest = Math.max(longest, sub.get(0).size());
+            }
+            for(List<List<String>> sub : subs) {
+                if(sub.get(0).size() != longest) continue;
+                for(List<String> path : sub) {
+                    List<String> extended = new ArrayList<>(path.size() + 1);
+                    if(reversed) {
+                        extended.addAll(path);
+                        extended.add(node);
+                    } else {
+                        extended.add(node);
+                        extended.addAll(path);
+                    }
+                    paths.add(extended);
+                }
+            }
+        }
+        memo.put(node, paths);
+        return paths;
+    }
+}
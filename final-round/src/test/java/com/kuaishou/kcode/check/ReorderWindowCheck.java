@@ -0,0 +1,109 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 乱序窗口：少量记录延后最多 3 分钟写出，窗口为 3 时不丢弃任何记录，流水线、分片以及流式报警的答案都等于参考答案；
+ *           默认的 1 分钟窗口会丢弃并统计迟到的记录；窗口小于 1 时拒绝。
+ *           输入比窗口还短(一阶段就读到了结尾)时各种读取方式的答案也等于参考答案，空输入没有报警也没有答案
+ */
+public class ReorderWindowCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("ReorderWindowCheck OK");
+    }
+
+    static void run() throws Exception {
+        windowCheck();
+        shortInputCheck();
+        emptyInputCheck();
+    }
+
+    private static void windowCheck() throws Exception {
+        Path dir = Checks.tempDir("window");
+        CheckData data = new CheckData().setSeed(28).setMinutes(12).setMaxDelayMinutes(3);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+
+        KcodeAlertAnalysisImpl windowed = new KcodeAlertAnalysisImpl().setReorderWindow(3);
+        Checks.checkAgainst(reference, windowed, path, data.getRules(), "窗口 3");
+        Checks.check(windowed.getLateRecordCount() == 0, "窗口 3 丢弃了 " + windowed.getLateRecordCount() + " 条记录");
+        KcodeAlertAnalysisImpl sharded = new KcodeAlertAnalysisImpl().setReorderWindow(3).setIngestShards(3);
+        Checks.checkAgainst(reference, sharded, path, data.getRules(), "窗口 3, 分片数 3");
+        Checks.check(sharded.getLateRecordCount() == 0, "分片时窗口 3 丢弃了 " + sharded.getLateRecordCount() + " 条记录");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setReorderWindow(3).setAlarmListener(alarm -> { }),
+                path, data.getRules(), "窗口 3, 流式");
+
+        /* 被拒绝的窗口不改变设置，实例依旧使用默认窗口(构造时已经启动了流水线线程，必须让它跑完) */
+        KcodeAlertAnalysisImpl narrow = new KcodeAlertAnalysisImpl();
+        try {
+            narrow.setReorderWindow(0);
+            throw new AssertionError("窗口 0 应该被拒绝");
+        } catch (IllegalArgumentException expected) {
+            /* 好的 */
+        }
+        narrow.alarmMonitor(path, data.getRules());
+        Checks.check(narrow.getLateRecordCount() > 0, "默认窗口应该丢弃延后 1 分钟以上的记录");
+    }
+
+    /* {分钟数, 窗口}：数据的分钟数不超过窗口 + 1。耗时都小于 4096，堆外列存的直方图也是精确的 */
+    private static void shortInputCheck() throws Exception {
+        Path dir = Checks.tempDir("short");
+        int[][] cases = {{1, 1}, {2, 1}, {2, 3}, {4, 3}};
+        for(int[] c : cases) {
+            CheckData data = new CheckData().setSeed(40 + c[0]).setMinutes(c[0]).setLateServices(0).setSlowLatencyMax(4000);
+            String path = data.write(dir, "short" + c[0]);
+            String gzip = dir.resolve("short" + c[0] + ".gz").toString();
+            Files.write(Paths.get(gzip), gzip(Files.readAllBytes(Paths.get(path))));
+            Reference reference = new Reference(data.getLines(), data.getRules());
+            Checks.check(reference.getMinutes() == c[0], "数据应该有 " + c[0] + " 分钟");
+            String what = c[0] + " 分钟, 窗口 " + c[1];
+            Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setReorderWindow(c[1]), path, data.getRules(), what);
+            Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setReorderWindow(c[1]).setIngestShards(3), path,
+                    data.getRules(), what + ", 分片数 3");
+            Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setReorderWindow(c[1]).setOffHeapMinuteStore(true),
+                    path, data.getRules(), what + ", 堆外列存");
+            Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setReorderWindow(c[1]), gzip, data.getRules(),
+                    what + ", gzip");
+        }
+    }
+
+    /* 空文件、只有格式声明、只有一条没有换行的残缺记录 */
+    private static void emptyInputCheck() throws Exception {
+        Path dir = Checks.tempDir("empty");
+        String[] inputs = {"", "#caller,callerIP,responder,responderIP,success,elapsedTime,timestamp\n",
+                "rd_a,10.0.0.1,rd_b,10.0.0.2,true,12,1593842580000"};
+        for(int i = 0; i < inputs.length; ++i) {
+            Path file = dir.resolve("empty" + i);
+            Files.write(file, inputs[i].getBytes(StandardCharsets.UTF_8));
+            for(int shards : new int[] {1, 3}) {
+                KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl().setIngestShards(shards);
+                Collection<String> alarms = impl.alarmMonitor(file.toString(),
+                        Collections.singletonList("1,rd_a,rd_b,P99,1>,1ms"));
+                Checks.check(alarms.isEmpty(), "第 " + i + " 个空输入不应该有报警: " + alarms);
+                Checks.check(impl.getLongestPath("rd_a", "rd_b", "2020-07-04 14:03", "P99").isEmpty(),
+                        "第 " + i + " 个空输入不应该有阶段 2 答案");
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] text) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(text);
+        }
+        return out.toByteArray();
+    }
+}
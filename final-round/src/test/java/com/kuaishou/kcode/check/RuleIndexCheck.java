@@ -0,0 +1,48 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 规则索引：每个服务的调用者模糊以及响应者模糊规则、不存在的服务、两个服务都存在但没有调用关系的准确规则，
+ *           报警以及阶段 2 答案都和参考答案一致
+ */
+public class RuleIndexCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("RuleIndexCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("rules");
+        CheckData data = new CheckData().setSeed(8);
+        String path = data.write(dir, "data");
+        Reference plain = new Reference(data.getLines(), data.getRules());
+
+        Set<String> services = new TreeSet<>(), pairs = plain.getServicePairs();
+        for(String pair : pairs) services.addAll(Arrays.asList(pair.split(",")));
+        List<String> rules = new ArrayList<>(data.getRules());
+        int nr = 100;
+        String absent = null;
+        for(String service : services) {
+            rules.add(nr++ + ",ALL," + service + ",P99,2>,180ms");
+            rules.add(nr++ + "," + service + ",ALL,SR,1<,99.8%");
+            for(String other : services) {
+                if(absent == null && !pairs.contains(service + "," + other)) absent = service + "," + other;
+            }
+        }
+        rules.add(nr++ + ",rd_404,ALL,P99,1>,1ms");
+        rules.add(nr++ + ",ALL,rd_404,SR,1<,100%");
+        rules.add(nr++ + "," + services.iterator().next() + ",rd_404,P99,1>,1ms");
+        rules.add(nr + "," + absent + ",P99,1>,1ms");
+
+        Reference reference = new Reference(data.getLines(), rules);
+        Checks.check(reference.getQueries().size() > plain.getQueries().size(), "新规则没有覆盖更多的服务对");
+        Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl(), path, rules, "规则索引");
+    }
+}
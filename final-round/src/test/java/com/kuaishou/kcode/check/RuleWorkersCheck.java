@@ -0,0 +1,53 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 并行检查规则：规则数远多于一块，1 个和 8 个线程返回的报警顺序完全一致，内容等于参考答案；
+ *           没有规则、只有一条规则以及规则数落在每块 16 条的边界两侧时也一样
+ */
+public class RuleWorkersCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("RuleWorkersCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("workers");
+        CheckData data = new CheckData().setSeed(9);
+        String path = data.write(dir, "data");
+
+        /* 每条规则都复制几份，换上新的编号和阈值 */
+        List<String> rules = new ArrayList<>();
+        int nr = 1;
+        String[] p99s = {"50ms", "120ms", "190ms"}, srs = {"99.9%", "99.5%", "98%"};
+        for(int round = 0; round < 3; ++round) {
+            for(String rule : data.getRules()) {
+                String[] f = rule.split(",");
+                f[0] = String.valueOf(nr++);
+                f[5] = "P99".equals(f[3]) ? p99s[round] : srs[round];
+                rules.add(String.join(",", f));
+            }
+        }
+        Reference reference = new Reference(data.getLines(), rules);
+
+        List<String> single = new ArrayList<>(new KcodeAlertAnalysisImpl().setRuleWorkers(1).alarmMonitor(path, rules));
+        List<String> parallel = new ArrayList<>(new KcodeAlertAnalysisImpl().setRuleWorkers(8).alarmMonitor(path, rules));
+        Checks.checkLines(single, parallel, "1 个线程 vs 8 个线程");
+        Checks.checkLines(reference.getAlarms(), Checks.sorted(parallel), "8 个线程 vs 参考");
+
+        for(int n : new int[] {0, 1, 15, 16, 17, 33}) {
+            List<String> some = rules.subList(0, n);
+            single = new ArrayList<>(new KcodeAlertAnalysisImpl().setRuleWorkers(1).alarmMonitor(path, some));
+            parallel = new ArrayList<>(new KcodeAlertAnalysisImpl().setRuleWorkers(8).alarmMonitor(path, some));
+            Checks.checkLines(single, parallel, n + " 条规则, 1 个线程 vs 8 个线程");
+            Checks.checkLines(new Reference(data.getLines(), some).getAlarms(), Checks.sorted(parallel), n + " 条规则 vs 参考");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+import com.kuaishou.kcode.domain.fuc.SegmentChannel;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 多段输入：同一份数据在记录中间切成 part-1 ~ part-12 放进一个目录，其中一段只有半条记录的几个字节，
+ *           目录按自然顺序(part-2 在 part-10 之前)拼接，流水线和分片读取的答案都和参考答案一致；段文件列表的接口也一样
+ */
+public class SegmentInputCheck {
+
+    private static final int NR_SEGMENTS = 12;
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("SegmentInputCheck OK");
+    }
+
+    static void run() throws Exception {
+        List<String> names = new ArrayList<>(Arrays.asList("part-10", "part-2", "part-1", "part-02a", "part-9", "part-002"));
+        names.sort(SegmentChannel::naturalCompare);
+        Checks.check(names.equals(Arrays.asList("part-1", "part-002", "part-2", "part-02a", "part-9", "part-10")),
+                "自然顺序不对: " + names);
+
+        Path dir = Checks.tempDir("segments");
+        CheckData data = new CheckData().setSeed(7).setMinutes(10);
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        byte[] text = (String.join("\n", data.getLines()) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        /* 切点都不在换行后，第 6 段只有 5 个字节，第 5 段的半条记录要拼上第 6、7 两段 */
+        long[] cuts = new long[NR_SEGMENTS + 1];
+        for(int i = 1; i < NR_SEGMENTS; ++i) {
+            cuts[i] = (long) text.length * i / NR_SEGMENTS;
+            while (newlineIn(text, cuts[i] - 1, cuts[i] + 1)) cuts[i]++;
+        }
+        cuts[6] = cuts[5] + 5;
+        while (newlineIn(text, cuts[5] - 1, cuts[6] + 1)) {
+            cuts[5]++;
+            cuts[6]++;
+        }
+        cuts[NR_SEGMENTS] = text.length;
+        Path segmentDir = Files.createDirectory(dir.resolve("parts"));
+        List<String> segments = new ArrayList<>();
+        for(int i = NR_SEGMENTS - 1; i >= 0; --i) {
+            Path segment = segmentDir.resolve("part-" + (i + 1));
+            Files.write(segment, Arrays.copyOfRange(text, (int) cuts[i], (int) cuts[i + 1]));
+            segments.add(0, segment.toString());
+        }
+
+        for(int shards : new int[] {1, 3}) {
+            Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setIngestShards(shards), segmentDir.toString(),
+                    data.getRules(), "目录, 分片数 " + shards);
+            KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl().setIngestShards(shards);
+            Checks.checkLines(reference.dump(), Checks.dump(impl, impl.alarmMonitor(segments, data.getRules()), reference),
+                    "段文件列表, 分片数 " + shards);
+        }
+    }
+
+    private static boolean newlineIn(byte[] text, long from, long to) {
+        for(long i = from; i < to; ++i) {
+            if(text[(int) i] == '\n') return true;
+        }
+        return false;
+    }
+}
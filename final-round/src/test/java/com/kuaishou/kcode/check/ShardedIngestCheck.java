@@ -0,0 +1,46 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function mmap 分片读取：不同的分片数量(包括块边界落在分钟中间的情况)答案都等于参考答案；
+ *           最后一个分片读不下去(文件末尾是一条缺了字段的记录)时 alarmMonitor 抛出 IOException，而不是返回缺了数据的答案，
+ *           之后也没有留下还在运行的线程
+ */
+public class ShardedIngestCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("ShardedIngestCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("shards");
+        CheckData data = new CheckData().setSeed(2).setMinutes(12);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        for(int shards = 1; shards <= 4; ++shards) {
+            Checks.checkAgainst(reference, new KcodeAlertAnalysisImpl().setIngestShards(shards), path, data.getRules(),
+                    "分片数 " + shards);
+        }
+
+        /* 记录在 IP 之后就断了，解析会越过映射的末尾 */
+        Path broken = dir.resolve("broken");
+        Files.copy(dir.resolve("data"), broken);
+        Files.write(broken, "rd_abc,10.0.0.1\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        for(int shards : new int[] {1, 3}) {
+            String what = "分片数 " + shards + " 读取失败";
+            Throwable thrown = Checks.monitorFailure(() -> new KcodeAlertAnalysisImpl().setIngestShards(shards),
+                    broken.toString(), data.getRules(), what);
+            Checks.check(thrown instanceof IOException, what + "应该抛出 IOException，实际 " + thrown);
+        }
+    }
+}
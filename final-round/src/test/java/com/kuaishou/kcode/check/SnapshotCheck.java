@@ -0,0 +1,67 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 快照：第一次运行写出快照，之后从快照恢复出来的报警以及阶段 2 答案和参考答案一致。
+ *           拷贝到别的路径、大小和修改时间都一样的文件不会用到原文件的快照；
+ *           原地改写了开头、大小和修改时间都没变的文件，以及修改时间变化的文件，快照都会失效，重新读取数据文件
+ */
+public class SnapshotCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("SnapshotCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("snapshot");
+        CheckData data = new CheckData().setSeed(6);
+        String path = data.write(dir, "data");
+        String snapshot = dir.resolve("data.snapshot").toString();
+        Reference reference = new Reference(data.getLines(), data.getRules());
+
+        restore(reference, path, snapshot, data, false, "写快照");
+        Checks.check(Files.isRegularFile(Paths.get(snapshot)), "没有写出快照");
+        restore(reference, path, snapshot, data, true, "从快照恢复");
+
+        /* 同样的内容、同样的大小以及修改时间，但是是另一个文件 */
+        Path file = Paths.get(path), copy = dir.resolve("copy");
+        FileTime modified = Files.getLastModifiedTime(file);
+        Files.copy(file, copy);
+        Files.setLastModifiedTime(copy, modified);
+        restore(reference, copy.toString(), snapshot, data, false, "拷贝的文件");
+        restore(reference, path, snapshot, data, false, "拷贝的文件覆盖快照之后");
+        restore(reference, path, snapshot, data, true, "重新写快照之后");
+
+        /* 原地把第一条记录的耗时换一个数字，大小和修改时间都不变 */
+        List<String> lines = new ArrayList<>(data.getLines());
+        String first = lines.get(0);
+        int at = first.lastIndexOf(',') - 1;
+        lines.set(0, first.substring(0, at) + (first.charAt(at) == '9' ? '8' : '9') + first.substring(at + 1));
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file, modified);
+        restore(new Reference(lines, data.getRules()), path, snapshot, data, false, "原地改写的文件");
+
+        Files.write(file, data.getLines(), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 60000));
+        restore(reference, path, snapshot, data, false, "快照失效后重新读取");
+    }
+
+    private static void restore(Reference reference, String path, String snapshot, CheckData data, boolean restored,
+                                String what) throws Exception {
+        KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl().setSnapshotPath(snapshot);
+        Checks.checkAgainst(reference, impl, path, data.getRules(), what);
+        Checks.check(impl.isSnapshotRestored() == restored, what + ": 是否从快照恢复应该是 " + restored);
+    }
+}
@@ -0,0 +1,61 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.KcodeAlertAnalysisImpl;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function 流式报警：监听器收到的报警和 alarmMonitor 返回的一致，并且都等于参考答案，推送按分钟的顺序进行；
+ *           流式报警和多个分片不能同时设置，先设置哪一个都会被拒绝
+ */
+public class StreamingAlarmCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("StreamingAlarmCheck OK");
+    }
+
+    static void run() throws Exception {
+        Path dir = Checks.tempDir("streaming");
+        CheckData data = new CheckData().setSeed(1);
+        String path = data.write(dir, "data");
+        Reference reference = new Reference(data.getLines(), data.getRules());
+        Checks.check(!reference.getAlarms().isEmpty(), "数据没有产生报警");
+
+        List<String> pushed = Collections.synchronizedList(new ArrayList<>());
+        KcodeAlertAnalysisImpl impl = new KcodeAlertAnalysisImpl().setAlarmListener(pushed::add);
+        Collection<String> alarms = impl.alarmMonitor(path, data.getRules());
+        Checks.checkLines(reference.dump(), Checks.dump(impl, alarms, reference), "流式");
+        Checks.checkLines(reference.getAlarms(), Checks.sorted(pushed), "推送的报警");
+        for(int i = 1; i < pushed.size(); ++i) {
+            Checks.check(timeOf(pushed.get(i - 1)).compareTo(timeOf(pushed.get(i))) <= 0,
+                    "报警没有按分钟推送: " + pushed.get(i - 1) + " 之后是 " + pushed.get(i));
+        }
+
+        /* 被拒绝的设置不生效，实例照常使用流水线(构造时已经启动了流水线线程，必须让它跑完) */
+        KcodeAlertAnalysisImpl listenerFirst = new KcodeAlertAnalysisImpl().setAlarmListener(alarm -> { });
+        try {
+            listenerFirst.setIngestShards(3);
+            throw new AssertionError("设置了监听器之后应该拒绝多个分片");
+        } catch (IllegalStateException expected) {
+            /* 好的 */
+        }
+        Checks.checkAgainst(reference, listenerFirst, path, data.getRules(), "拒绝分片之后");
+        KcodeAlertAnalysisImpl shardsFirst = new KcodeAlertAnalysisImpl().setIngestShards(3);
+        try {
+            shardsFirst.setAlarmListener(alarm -> { });
+            throw new AssertionError("设置了多个分片之后应该拒绝监听器");
+        } catch (IllegalStateException expected) {
+            /* 好的 */
+        }
+        Checks.checkAgainst(reference, shardsFirst, path, data.getRules(), "拒绝监听器之后");
+    }
+
+    /* 报警的第二个字段是时间 */
+    private static String timeOf(String alarm) {
+        return alarm.split(",")[1];
+    }
+}
@@ -0,0 +1,94 @@
+package com.kuaishou.kcode.check;
+
+import com.kuaishou.kcode.domain.fuc.RecordSchema;
+import com.kuaishou.kcode.domain.fuc.SchemaLineParser;
+import com.kuaishou.kcode.domain.fuc.SwarLineParser;
+import com.kuaishou.kcode.domain.kv.ServiceIpPair;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * @author flyan
+ * date 2020-07-25
+ * @function SWAR 解析器：随机的服务名长度、IP 每段的位数、成功状态以及耗时位数(包括 8 位以上的耗时)，
+ *           每条记录的解析结果、下一条记录的位置以及主被调 IP 对都和 SchemaLineParser 一致；
+ *           accepts 接受比赛格式，拒绝不满足假设的记录
+ */
+public class SwarLineParserCheck {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println("SwarLineParserCheck OK");
+    }
+
+    static void run() {
+        Random random = new Random(25);
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 20000; ++i) text.append(line(random)).append('\n');
+        ByteBuffer buffer = block(text.toString());
+        Checks.check(SwarLineParser.accepts(buffer, 0, buffer.limit()), "比赛格式的记录应该被接受");
+
+        SwarLineParser swar = new SwarLineParser();
+        SchemaLineParser schema = new SchemaLineParser(RecordSchema.DEFAULT, null);
+        int position = 0, nr = 0;
+        while (position < buffer.limit()) {
+            int next = swar.parse(buffer, position);
+            Checks.check(next == schema.parse(buffer, position), "第 " + nr + " 条记录的结束位置不同");
+            Checks.check((swar.getCallerIP() & 0xFFFF) == (schema.getCallerIP() & 0xFFFF)
+                    && (swar.getResponderIP() & 0xFFFF) == (schema.getResponderIP() & 0xFFFF), "第 " + nr + " 条记录的 IP 不同");
+            Checks.check(swar.getSuccess() == schema.getSuccess(), "第 " + nr + " 条记录的成功状态不同");
+            Checks.check(swar.getElapsedTime() == schema.getElapsedTime(), "第 " + nr + " 条记录的耗时不同");
+            Checks.check(swar.getTimeMillis() == schema.getTimeMillis(), "第 " + nr + " 条记录的时间戳不同");
+            ServiceIpPair fast = swar.pairParse(buffer, position), slow = schema.pairParse(buffer, position);
+            Checks.check(fast.getCaller().equals(slow.getCaller()) && fast.getResponder().equals(slow.getResponder())
+                    && fast.getIpPair() == slow.getIpPair(), "第 " + nr + " 条记录的主被调 IP 对不同");
+            position = next;
+            ++nr;
+        }
+
+        String good = "rd_1,10.1.2.3,rd_2,10.4.5.6,true,12,1592421000000\n";
+        String[] bad = {
+                "rd,10.1.2.3,rd_2,10.4.5.6,true,12,1592421000000\n",             /* 服务名太短 */
+                "rd_1,11.1.2.3,rd_2,10.4.5.6,true,12,1592421000000\n",           /* 不是 10. 开头 */
+                "rd_1,10.1.2.3,rd_2,fe80::1,true,12,1592421000000\n",            /* IPv6 */
+                "rd_1,10.1.2.3,rd_2,10.4.5.6,TRUE,12,1592421000000\n",           /* 成功状态 */
+                "rd_1,10.1.2.3,rd_2,10.4.5.6,true,,1592421000000\n",             /* 没有耗时 */
+                "rd_1,10.1.2.3,rd_2,10.4.5.6,true,12,159242100000\n",            /* 12 位时间戳 */
+                "rd_1,10.1.2.3,rd_2,10.4.5.6,true,12,1592421000000,x\n",         /* 多一列 */
+        };
+        ByteBuffer single = block(good);
+        Checks.check(SwarLineParser.accepts(single, 0, single.limit()), "应该接受 " + good);
+        for(String line : bad) {
+            ByteBuffer mixed = block(good + line + good);
+            Checks.check(!SwarLineParser.accepts(mixed, 0, mixed.limit()), "不应该接受 " + line);
+        }
+        ByteBuffer partial = block(good.substring(0, 20));
+        Checks.check(!SwarLineParser.accepts(partial, 0, partial.limit()), "没有完整的记录时不应该接受");
+    }
+
+    private static String line(Random random) {
+        StringBuilder line = new StringBuilder();
+        for(int k = 0; k < 2; ++k) {
+            line.append("rd_");
+            for(int n = random.nextInt(28); n >= 0; --n) line.append(random.nextInt(10));
+            line.append(",10.").append(octet(random)).append('.').append(octet(random)).append('.').append(octet(random))
+                    .append(',');
+        }
+        line.append(random.nextInt(10) == 0 ? "false" : "true").append(',');
+        int digits = 1 + random.nextInt(random.nextInt(20) == 0 ? 9 : 4);
+        line.append((long) (random.nextDouble() * Math.pow(10, digits))).append(',');
+        return line.append(1592421000000L + (long) (random.nextDouble() * 1e10)).toString();
+    }
+
+    private static int octet(Random random) {
+        int digits = random.nextInt(3);
+        return digits == 0 ? random.nextInt(10) : digits == 1 ? 10 + random.nextInt(90) : 100 + random.nextInt(156);
+    }
+
+    private static ByteBuffer block(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}